@@ -0,0 +1,169 @@
+package sbt
+package internal
+package inc
+
+import java.nio.file.{ Files, Path }
+import java.util.Optional
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.function.Supplier
+
+import sbt.io.IO
+import xsbt.api.HashAPI
+import xsbti.{ CompileFailed, TestCallback, VirtualFile }
+import xsbti.api.DependencyContext
+import xsbti.compile.CompileProgress
+
+import scala.collection.JavaConverters._
+
+class ResidentCompilerSpecification
+    extends UnitSpec
+    with CompilingSpecification
+    with BridgeProviderTestkit {
+  import ResidentCompilerSpecification._
+
+  "A resident compiler" should "produce the same analysis and class files as a cold one" in {
+    IO.withTemporaryDirectory { tempDir =>
+      val cold = new Project(tempDir.toPath.resolve("cold"))
+      val warm = new Project(tempDir.toPath.resolve("warm"))
+      def compileBoth(sources: VirtualFile*)(deleted: String*): Unit = {
+        val expected = cold.compile(sources, deleted)
+        assert(warm.compile(sources, deleted) === expected)
+      }
+
+      val a = StringVirtualFile("src/A.scala", "object A { def x: Int = 1 }")
+      val b = StringVirtualFile("src/B.scala", "object B { def y = A.x; def z = new C().z }")
+      val c = StringVirtualFile("src/C.scala", "class C { def z: Int = 2 }")
+      val initial = cold.compile(Seq(a, b, c), Nil)
+      // The bridge reads the size of the pool once, when it is loaded by the first compilation
+      withResidentCompilers(assert(warm.compile(Seq(a, b, c), Nil) === initial))
+
+      // Edit: the type of A.x changes under a compiler that has seen it before
+      compileBoth(
+        StringVirtualFile("src/A.scala", "object A { def x: String = \"a\" }"),
+        StringVirtualFile("src/B.scala", "object B { def y = A.x; def z = new C().z }")
+      )()
+
+      // Rename: C moves to D.scala and becomes D
+      compileBoth(
+        StringVirtualFile("src/D.scala", "class D { def z: Long = 3L }"),
+        StringVirtualFile("src/B.scala", "object B { def y = A.x; def z = new D().z }")
+      )("src/C.scala")
+
+      // Delete: B is removed, and A is recompiled without it
+      compileBoth(StringVirtualFile("src/A.scala", "object A { def x: Long = 4L }"))("src/B.scala")
+
+      if (!scalaVersion.startsWith("2.10.")) assert(warm.reused === 3)
+
+      // Neither compiler still sees the deleted or renamed classes
+      val stale = StringVirtualFile("src/E.scala", "object E { def b = B.y; def c = new C() }")
+      intercept[CompileFailed](cold.compile(Seq(stale), Nil))
+      intercept[CompileFailed](warm.compile(Seq(stale), Nil))
+    }
+  }
+
+  /** Enables resident compilers in the bridges that are loaded while `f` runs. */
+  private def withResidentCompilers[A](f: => A): A = {
+    val previous = System.setProperty(MaxCompilersProperty, "1")
+    try f
+    finally {
+      if (previous == null) System.clearProperty(MaxCompilersProperty)
+      else System.setProperty(MaxCompilersProperty, previous)
+      ()
+    }
+  }
+
+  /**
+   * An output directory compiled by a single bridge instance. Like Zinc, it deletes the class
+   * files of the sources that are recompiled or deleted before compiling.
+   */
+  private final class Project(base: Path) {
+    private[this] val (si, sc) = mkScalaCompiler(base)
+    private[this] val targetDir = Files.createDirectories(base.resolve("target"))
+    private[this] val converter = new MappedFileConverter(
+      Map("BASE" -> base, "SBT_BOOT" -> localBoot, "JAVA_HOME" -> javaHome) ++ localCoursierCache,
+      false
+    )
+    private[this] var products = Map.empty[String, Set[Path]]
+    private[this] val logger = new DebugRecordingLogger(log)
+
+    def reused: Int = logger.messages.asScala.count(_.contains("Reusing resident compiler"))
+
+    def compile(sources: Seq[VirtualFile], deleted: Seq[String]): Snapshot = {
+      (sources.map(_.id) ++ deleted).foreach { id =>
+        products.getOrElse(id, Set.empty).foreach(Files.deleteIfExists)
+        products -= id
+      }
+      val callback = new TestCallback
+      val classpath = (si.allJars.map(_.toPath) :+ targetDir).map(converter.toVirtualFile)
+      sc.compile(
+        sources = sources.toArray,
+        classpath = classpath,
+        converter = converter,
+        changes = emptyChanges,
+        options = Array(),
+        output = CompileOutput(targetDir),
+        callback = callback,
+        reporter = mkReporter,
+        progressOpt = Optional.empty[CompileProgress],
+        log = logger
+      )
+      callback.productClassesToSources.foreach {
+        case (classFile, source) =>
+          products += source.id -> (products.getOrElse(source.id, Set.empty) + classFile)
+      }
+      snapshot(callback)
+    }
+
+    private def relative(path: Path): String =
+      if (path.startsWith(base)) base.relativize(path).toString else path.toString
+
+    private def snapshot(callback: TestCallback): Snapshot = {
+      val walk = Files.walk(targetDir)
+      val classFiles =
+        try walk.iterator.asScala.filter(Files.isRegularFile(_)).toList
+        finally walk.close()
+      Snapshot(
+        callback.apis.map {
+          case (source, apis) => source.id -> apis.map(api => api.name -> HashAPI(api))
+        }.toMap,
+        callback.classNames.map { case (source, names) => source.id -> names }.toMap,
+        callback.usedNames.toMap,
+        callback.classDependencies.toSet,
+        callback.binaryDependencies.map {
+          case (binary, name, from, context) => (relative(binary), name, from, context)
+        }.toSet,
+        callback.productClassesToSources.map {
+          case (classFile, source) => relative(classFile) -> source.id
+        }.toMap,
+        classFiles.map(f => relative(f) -> Files.readAllBytes(f).toSeq).toMap
+      )
+    }
+  }
+}
+
+object ResidentCompilerSpecification {
+  private val MaxCompilersProperty = "xsbt.resident.compilers"
+
+  private final case class Snapshot(
+      apis: Map[String, Set[(String, Int)]],
+      classNames: Map[String, Set[(String, String)]],
+      usedNames: Map[String, Set[String]],
+      classDependencies: Set[(String, String, DependencyContext)],
+      binaryDependencies: Set[(String, String, String, DependencyContext)],
+      products: Map[String, String],
+      classFiles: Map[String, Seq[Byte]]
+  )
+
+  /** Forwards to `underlying`, recording the debug messages of the bridge. */
+  private final class DebugRecordingLogger(underlying: xsbti.Logger) extends xsbti.Logger {
+    val messages = new ConcurrentLinkedQueue[String]
+    override def error(msg: Supplier[String]): Unit = underlying.error(msg)
+    override def warn(msg: Supplier[String]): Unit = underlying.warn(msg)
+    override def info(msg: Supplier[String]): Unit = underlying.info(msg)
+    override def debug(msg: Supplier[String]): Unit = {
+      messages.add(msg.get)
+      underlying.debug(msg)
+    }
+    override def trace(exception: Supplier[Throwable]): Unit = underlying.trace(exception)
+  }
+}
@@ -38,4 +38,11 @@ trait ZincGlobalCompat {
 private trait CachedCompilerCompat { self: CachedCompiler0 =>
   def newCompiler(settings: Settings, reporter: DelegatingReporter, output: Output): ZincCompiler =
     new ZincCompiler(settings, reporter, output)
+
+  /** Resident compilation relies on `Global.invalidateClassPathEntries`, available as of 2.11.0. */
+  def supportsResidentCompilation: Boolean = true
+
+  /** Rescans the given classpath entries so that the symbols they define are refreshed. */
+  def invalidateClassPathEntries(paths: Seq[String]): Unit =
+    compiler.invalidateClassPathEntries(paths: _*)
 }
@@ -258,6 +258,11 @@ sealed class ZincCompiler(settings: Settings, dreporter: DelegatingReporter, out
     reporter = dreporter
   }
 
+  /** Drops the callback of the last run, so that a resident compiler does not retain it. */
+  final def unset(): Unit = {
+    callback0 = null
+  }
+
   final def clear(): Unit = {
     callback0 = null
     superDropRun()
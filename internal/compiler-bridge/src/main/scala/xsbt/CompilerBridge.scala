@@ -34,11 +34,15 @@ final class CompilerBridge extends xsbti.compile.CompilerInterface2 {
       progress: CompileProgress,
       log: Logger
   ): Unit = {
-    val cached = new CachedCompiler0(options, output, new WeakLog(log, delegate))
-    try {
-      cached.run(sources.toList, changes, callback, log, delegate, progress)
-    } finally {
-      cached.close()
+    if (ResidentCompilers.isEnabled)
+      ResidentCompilers.run(sources, changes, options, output, callback, delegate, progress, log)
+    else {
+      val cached = new CachedCompiler0(options, output, new WeakLog(log, delegate))
+      try {
+        cached.run(sources.toList, changes, callback, log, delegate, progress)
+      } finally {
+        cached.close()
+      }
     }
   }
 }
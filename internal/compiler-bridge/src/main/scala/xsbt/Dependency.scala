@@ -16,6 +16,7 @@ import xsbti.VirtualFile
 import xsbti.api.DependencyContext
 import DependencyContext._
 
+import scala.collection.mutable.ArrayBuffer
 import scala.tools.nsc.io.{ PlainFile, ZipArchive }
 import scala.tools.nsc.Phase
 
@@ -66,6 +67,7 @@ final class Dependency(val global: CallbackGlobal) extends LocateClassFile with
         val dependencyTraverser = new DependencyTraverser(dependencyProcessor)
         // Traverse symbols in compilation unit and register all dependencies
         dependencyTraverser.traverse(unit.body)
+        dependencyProcessor.reportDependencies()
       }
     }
   }
@@ -86,6 +88,34 @@ final class Dependency(val global: CallbackGlobal) extends LocateClassFile with
     private val responsibleOfImports = firstClassOrModuleClass(unit.body)
     private var orphanImportsReported = false
 
+    // The dependencies of the unit, which are reported at once by `reportDependencies`
+    private val onClassNames = new ArrayBuffer[String]
+    private val sourceClassNames = new ArrayBuffer[String]
+    private val classContexts = new ArrayBuffer[DependencyContext]
+    private val onBinaryEntries = new ArrayBuffer[Path]
+    private val onBinaryClassNames = new ArrayBuffer[String]
+    private val fromClassNames = new ArrayBuffer[String]
+    private val binaryContexts = new ArrayBuffer[DependencyContext]
+
+    def reportDependencies(): Unit = {
+      if (onClassNames.nonEmpty) {
+        callback.classDependencyBatch(
+          onClassNames.toArray,
+          sourceClassNames.toArray,
+          classContexts.toArray
+        )
+      }
+      if (onBinaryEntries.nonEmpty) {
+        callback.binaryDependencyBatch(
+          onBinaryEntries.toArray,
+          onBinaryClassNames.toArray,
+          fromClassNames.toArray,
+          sourceFile,
+          binaryContexts.toArray
+        )
+      }
+    }
+
     /*
      * Registers top level import dependencies as coming from a first top level
      * class/trait/object declared in the compilation unit. Otherwise, issue warning.
@@ -123,7 +153,11 @@ final class Dependency(val global: CallbackGlobal) extends LocateClassFile with
       val fromClassName = classNameAsString(dep.from)
 
       def binaryDependency(file: Path, binaryClassName: String) = {
-        callback.binaryDependency(file, binaryClassName, fromClassName, sourceFile, context)
+        onBinaryEntries += file
+        onBinaryClassNames += binaryClassName
+        fromClassNames += fromClassName
+        binaryContexts += context
+        ()
       }
       import scala.tools.nsc.io.AbstractFile
       def processExternalDependency(binaryClassName: String, at: AbstractFile): Unit = {
@@ -162,7 +196,10 @@ final class Dependency(val global: CallbackGlobal) extends LocateClassFile with
             // We cannot ignore dependencies coming from the same source file because
             // the dependency info needs to propagate. See source-dependencies/trait-trait-211.
             val onClassName = classNameAsString(dep.to)
-            callback.classDependency(onClassName, fromClassName, context)
+            onClassNames += onClassName
+            sourceClassNames += fromClassName
+            classContexts += context
+            ()
           } else ()
         // This could match null or scala.reflect.io.FileZipArchive$LeakyEntry
         case _ =>
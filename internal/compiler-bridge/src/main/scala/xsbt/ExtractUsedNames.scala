@@ -136,22 +136,45 @@ class ExtractUsedNames[GlobalType <: CallbackGlobal](val global: GlobalType)
       builder.toString()
     }
 
-    // Handle names circumscribed to classes
-    traverser.usedNamesFromClasses.foreach { (rawClassName, usedNames) =>
-      val className = rawClassName.toString.trim.intern()
+    // Handle names circumscribed to classes, which are all reported in one call
+    val usedNamesFromClasses = traverser.usedNamesFromClasses
+    var nameCount = 0
+    usedNamesFromClasses.foreach { (_, usedNames) =>
+      nameCount += usedNames.defaultNames.size
+    }
+    val classNames = new Array[String](usedNamesFromClasses.size)
+    val nameCounts = new Array[Int](classNames.length)
+    val names = new Array[String](nameCount)
+    val useScopes = new Array[EnumSet[UseScope]](nameCount)
+    // Names are decoded and interned once per unit, however many classes use them
+    val decodedNames = new JavaMap[Name, String]()
+    var classIndex = 0
+    var nameIndex = 0
+    usedNamesFromClasses.foreach { (rawClassName, usedNames) =>
+      classNames(classIndex) = rawClassName.toString.trim.intern()
+      nameCounts(classIndex) = usedNames.defaultNames.size
+      classIndex += 1
       usedNames.defaultNames.foreach { rawUsedName =>
-        val useName = rawUsedName.decoded.trim.intern()
+        var useName = decodedNames.get(rawUsedName)
+        if (useName == null) {
+          useName = rawUsedName.decoded.trim.intern()
+          decodedNames.put(rawUsedName, useName)
+          ()
+        }
         val existingScopes = usedNames.scopedNames.get(rawUsedName)
-        val useScopes = {
+        val scopes = {
           if (existingScopes == null) DefaultScopes
           else {
             existingScopes.add(UseScope.Default)
             existingScopes
           }
         }
-        callback.usedName(className, useName, useScopes)
+        names(nameIndex) = useName
+        useScopes(nameIndex) = scopes
+        nameIndex += 1
       }
     }
+    if (classNames.nonEmpty) callback.usedNameBatch(classNames, nameCounts, names, useScopes)
   }
 
   private def firstClassOrModuleDef(tree: Tree): Option[Tree] = {
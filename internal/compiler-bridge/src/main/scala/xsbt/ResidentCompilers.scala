@@ -0,0 +1,148 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package xsbt
+
+import java.io.File
+
+import xsbti.{ AnalysisCallback, Logger, Reporter, VirtualFile }
+import xsbti.compile._
+import scala.collection.mutable.ListBuffer
+import scala.tools.nsc.Settings
+import Log.debug
+
+/**
+ * Keeps warm instances of [[CachedCompiler0]] alive across compilation runs.
+ *
+ * Resident compilation is opt-in: it is enabled by setting the `xsbt.resident.compilers`
+ * system property to the maximum number of compilers to keep around. Compilers are keyed
+ * by scalac options and output, and least recently used compilers are closed when the
+ * pool is full.
+ *
+ * A resident compiler is only reused if it is safe to do so:
+ *
+ * 1. The dependency changes of the run are empty. Changes in upstream class directories
+ *    and jars are reported by Zinc through them.
+ * 2. No jar on the classpath has changed since the compiler was created.
+ * 3. The previous run with the compiler succeeded.
+ *
+ * Before a warm run, the output directories that are on the classpath are rescanned so that
+ * symbols for class files that have been deleted or rewritten since the last run are refreshed.
+ */
+private[xsbt] object ResidentCompilers {
+  final val MaxCompilersProperty = "xsbt.resident.compilers"
+
+  private[this] val maxCompilers: Int = Integer.getInteger(MaxCompilersProperty, 0).intValue
+
+  def isEnabled: Boolean = maxCompilers > 0
+
+  private final case class Key(options: List[String], output: List[String], enabled: Boolean)
+
+  private final class Resident(val cached: CachedCompiler0, val fingerprint: Long)
+
+  /** Compilers that are not running, in least recently used order. */
+  private[this] val pool = new java.util.LinkedHashMap[Key, Resident](16, 0.75f, true)
+
+  def run(
+      sources: Array[VirtualFile],
+      changes: DependencyChanges,
+      options: Array[String],
+      output: Output,
+      callback: AnalysisCallback,
+      delegate: Reporter,
+      progress: CompileProgress,
+      log: Logger
+  ): Unit = {
+    val key = Key(options.toList, outputKey(output), callback.enabled())
+    val resident = checkout(key, changes, options, output, delegate, log)
+    var succeeded = false
+    try {
+      resident.cached.run(sources.toList, changes, callback, log, delegate, progress)
+      succeeded = true
+    } finally {
+      resident.cached.compiler.unset()
+      if (succeeded && resident.cached.supportsResidentCompilation) checkin(key, resident)
+      else resident.cached.close()
+    }
+  }
+
+  private def checkout(
+      key: Key,
+      changes: DependencyChanges,
+      options: Array[String],
+      output: Output,
+      delegate: Reporter,
+      log: Logger
+  ): Resident = {
+    val warm = pool.synchronized(pool.remove(key))
+    if (warm != null) {
+      if (changes.isEmpty && warm.fingerprint == classpathFingerprint(warm.cached.settings)) {
+        debug(log, "[zinc] Reusing resident compiler")
+        warm.cached.invalidateClassPathEntries(outputEntries(warm.cached))
+        return warm
+      } else {
+        debug(log, "[zinc] Dropping resident compiler, its classpath has changed")
+        warm.cached.close()
+      }
+    }
+
+    val cached = new CachedCompiler0(options, output, new WeakLog(log, delegate))
+    new Resident(cached, classpathFingerprint(cached.settings))
+  }
+
+  private def checkin(key: Key, resident: Resident): Unit = {
+    val evicted = pool.synchronized {
+      val evicted = new ListBuffer[Resident]
+      val previous = pool.put(key, resident)
+      if (previous != null) evicted += previous
+      val it = pool.values.iterator
+      while (pool.size > maxCompilers) {
+        evicted += it.next()
+        it.remove()
+      }
+      evicted.toList
+    }
+    evicted.foreach(_.cached.close())
+  }
+
+  private def outputKey(output: Output): List[String] = output match {
+    case multi: MultipleOutput =>
+      multi.getOutputGroups.toList.flatMap { group =>
+        List(group.getSourceDirectoryAsPath.toString, group.getOutputDirectoryAsPath.toString)
+      }
+    case single: SingleOutput => List(single.getOutputDirectoryAsPath.toString)
+  }
+
+  private def classpathEntries(settings: Settings): List[String] =
+    List(settings.bootclasspath.value, settings.classpath.value)
+      .flatMap(_.split(File.pathSeparator))
+      .filter(_.nonEmpty)
+      .map(new File(_).getAbsolutePath)
+
+  private def outputEntries(cached: CachedCompiler0): Seq[String] = {
+    val entries = classpathEntries(cached.settings).toSet
+    cached.compiler.outputDirs.map(_.toAbsolutePath.toString).filter(entries).toList
+  }
+
+  /**
+   * Fingerprints the jars of the classpath by path, last modified time and size.
+   *
+   * Directories are not fingerprinted: output directories are rescanned before every warm run
+   * and changes to upstream directories are reported by Zinc via the dependency changes.
+   */
+  private def classpathFingerprint(settings: Settings): Long = {
+    classpathEntries(settings).foldLeft(17L) { (hash, entry) =>
+      val file = new File(entry)
+      if (!file.isFile) hash
+      else ((hash * 31 + entry.hashCode) * 31 + file.lastModified) * 31 + file.length
+    }
+  }
+}
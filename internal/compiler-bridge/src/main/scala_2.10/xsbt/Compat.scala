@@ -198,4 +198,9 @@ private trait CachedCompilerCompat { self: CachedCompiler0 =>
     if (settings.Yrangepos.value) new ZincCompilerRangePos(settings, reporter, output)
     else new ZincCompiler(settings, reporter, output)
   }
+
+  /** `Global.invalidateClassPathEntries` is missing in 2.10, so compilers cannot stay resident. */
+  def supportsResidentCompilation: Boolean = false
+
+  def invalidateClassPathEntries(paths: Seq[String]): Unit = ()
 }
@@ -54,6 +54,23 @@ public interface AnalysisCallback {
                          String sourceClassName,
                          DependencyContext context);
 
+    /**
+     * Indicate the dependencies of the classes of a compilation unit at once,
+     * like calling {@link #classDependency(String, String, DependencyContext)}
+     * for every index of the arrays, which all have the same length.
+     *
+     * @param onClassNames Class names being depended on.
+     * @param sourceClassNames Dependent class names.
+     * @param contexts The kinds of the dependencies.
+     */
+    default void classDependencyBatch(String[] onClassNames,
+                                      String[] sourceClassNames,
+                                      DependencyContext[] contexts) {
+        for (int i = 0; i < onClassNames.length; i++) {
+            classDependency(onClassNames[i], sourceClassNames[i], contexts[i]);
+        }
+    }
+
     /**
      * This is kept around for sbt-dotty.
      * @deprecated Use @link{#binaryDependency(Path, String, String, VirtualFileRef, DependencyContext)} instead. 
@@ -97,6 +114,29 @@ public interface AnalysisCallback {
                           VirtualFileRef fromSourceFile,
                           DependencyContext context);
 
+    /**
+     * Indicate the binary dependencies of the classes of a source file at once,
+     * like calling
+     * {@link #binaryDependency(Path, String, String, VirtualFileRef, DependencyContext)}
+     * for every index of the arrays, which all have the same length.
+     *
+     * @param onBinaryEntries The jars or class files of the classes depended on.
+     * @param onBinaryClassNames Binary names of the classes depended on.
+     * @param fromClassNames Binary names of the dependent classes.
+     * @param fromSourceFile Source file where the dependent classes are defined.
+     * @param contexts The kinds of the dependencies.
+     */
+    default void binaryDependencyBatch(Path[] onBinaryEntries,
+                                       String[] onBinaryClassNames,
+                                       String[] fromClassNames,
+                                       VirtualFileRef fromSourceFile,
+                                       DependencyContext[] contexts) {
+        for (int i = 0; i < onBinaryEntries.length; i++) {
+            binaryDependency(onBinaryEntries[i], onBinaryClassNames[i], fromClassNames[i],
+                             fromSourceFile, contexts[i]);
+        }
+    }
+
     /**
      * This is kept around for sbt-dotty.
      * @deprecated Use @link{#generatedNonLocalClass(VirtualFileRef, Path, String, String)} instead. 
@@ -190,6 +230,31 @@ public interface AnalysisCallback {
      */
     void usedName(String className, String name, EnumSet<UseScope> useScopes);
 
+    /**
+     * Register the names used by the classes of a compilation unit at once,
+     * like calling {@link #usedName(String, String, EnumSet)} for every name.
+     *
+     * The names are grouped by class: the names used by
+     * <code>classNames[i]</code> are the <code>nameCounts[i]</code> names of
+     * <code>names</code> that follow the names of the previous classes.
+     *
+     * @param classNames The source class names that use the names.
+     * @param nameCounts The number of names used by every class.
+     * @param names The used names of all the classes.
+     * @param useScopes The scopes where every name of <code>names</code> is used.
+     */
+    default void usedNameBatch(String[] classNames,
+                               int[] nameCounts,
+                               String[] names,
+                               EnumSet<UseScope>[] useScopes) {
+        int name = 0;
+        for (int i = 0; i < classNames.length; i++) {
+            for (int end = name + nameCounts[i]; name < end; name++) {
+                usedName(classNames[i], names[name], useScopes[name]);
+            }
+        }
+    }
+
     /**
      * Register a compilation problem.
      *
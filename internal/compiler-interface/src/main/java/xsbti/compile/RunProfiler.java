@@ -29,6 +29,15 @@ public interface RunProfiler {
     );
     void registerRun();
 
+    /**
+     * Registers the number of hits and misses of a cache used during the run.
+     *
+     * @param cache The name of the cache.
+     * @param hits The number of lookups that found their value in the cache.
+     * @param misses The number of lookups that computed their value.
+     */
+    default void registerCacheStatistics(String cache, long hits, long misses) {}
+
     enum EMPTY implements RunProfiler {
         INSTANCE;
 
@@ -88,5 +97,9 @@ public interface RunProfiler {
         default void registerRun() {
             profiler().registerRun();
         }
+
+        default void registerCacheStatistics(String cache, long hits, long misses) {
+            profiler().registerCacheStatistics(cache, hits, misses);
+        }
     }
 }
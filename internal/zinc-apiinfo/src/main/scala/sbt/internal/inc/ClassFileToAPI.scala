@@ -0,0 +1,570 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import inc.classfile.{ AnnotationInfo, ClassFile, FieldOrMethodInfo }
+import inc.classfile.Constants._
+import xsbti.api
+import xsbti.api.SafeLazyProxy
+import collection.mutable
+
+/**
+ * Extracts the API of Java classes from their class files, without loading them.
+ *
+ * This follows the representation of [[ClassToAPI]], reading from the `Signature`,
+ * `InnerClasses`, `Exceptions` and `RuntimeVisible*Annotations` attributes what
+ * [[ClassToAPI]] gets from reflection. The main differences are:
+ *
+ *  - annotations are rendered from the class file, so their arguments do not contain defaults;
+ *  - inherited annotations and inherited member classes are not part of the API;
+ *  - all supertypes are reported as inheritance dependencies, including parameterized ones.
+ *
+ * The APIs it produces are therefore not interchangeable with the ones of [[ClassToAPI]].
+ * Instances of [[ClassFileToAPI]] are not thread safe, but `process` can be called from
+ * many threads as long as `lookup` is thread safe.
+ */
+object ClassFileToAPI {
+
+  /**
+   * Returns the APIs, the main classes and the inheritance dependencies (by binary name) of
+   * the given classes.
+   *
+   * @param lookup Finds the class file of a class by binary name, used for supertypes and
+   *               member classes.
+   */
+  private[sbt] def process(
+      classes: Seq[ClassFile],
+      lookup: String => Option[ClassFile]
+  ): (Seq[api.ClassLike], Seq[String], Set[(String, String)]) = {
+    val extraction = new ClassFileToAPI(lookup)
+    classes.foreach(extraction.toDefinitions)
+    (extraction.allNonLocalClasses.toSeq, extraction.mainClasses.toSeq, extraction.inherited.toSet)
+  }
+
+  /** A Java type as described by a descriptor or a generic signature. */
+  private[inc] sealed trait JavaType
+  private[inc] final case class PrimitiveType(name: String) extends JavaType
+  private[inc] final case class ArrayType(component: JavaType) extends JavaType
+  private[inc] final case class TypeVariable(name: String) extends JavaType
+  private[inc] case object WildcardType extends JavaType
+  private[inc] final case class ClassType(
+      binaryName: String,
+      args: List[JavaType],
+      parameterized: Boolean
+  ) extends JavaType
+
+  private[inc] final case class TypeParameter(name: String, bounds: List[JavaType])
+  private[inc] final case class ClassSignature(
+      typeParameters: List[TypeParameter],
+      superClass: Option[JavaType],
+      interfaces: List[JavaType]
+  )
+  private[inc] final case class MethodSignature(
+      typeParameters: List[TypeParameter],
+      parameters: List[JavaType],
+      result: JavaType,
+      exceptions: List[JavaType]
+  )
+
+  /** Parses descriptors and generic signatures, as specified in JVMS 4.7.9.1. */
+  private[inc] final class SignatureParser(signature: String) {
+    private[this] var pos = 0
+
+    private def peek: Char = signature.charAt(pos)
+    private def next(): Char = { val c = signature.charAt(pos); pos += 1; c }
+    private def expect(c: Char): Unit =
+      if (next() != c) throw new IllegalArgumentException(s"Expected '$c' at $pos in $signature")
+    private def identifier(stops: String): String = {
+      val start = pos
+      while (stops.indexOf(peek.toInt) < 0) pos += 1
+      signature.substring(start, pos)
+    }
+
+    def classSignature(): ClassSignature = {
+      val tparams = typeParameters()
+      val superClass = referenceType()
+      val interfaces = List.newBuilder[JavaType]
+      while (pos < signature.length) interfaces += referenceType()
+      ClassSignature(tparams, Some(superClass), interfaces.result())
+    }
+
+    def methodSignature(): MethodSignature = {
+      val tparams = typeParameters()
+      expect('(')
+      val params = List.newBuilder[JavaType]
+      while (peek != ')') params += javaType()
+      expect(')')
+      val result = javaType()
+      val exceptions = List.newBuilder[JavaType]
+      while (pos < signature.length) { expect('^'); exceptions += referenceType() }
+      MethodSignature(tparams, params.result(), result, exceptions.result())
+    }
+
+    def fieldType(): JavaType = javaType()
+
+    private def typeParameters(): List[TypeParameter] =
+      if (pos >= signature.length || peek != '<') Nil
+      else {
+        expect('<')
+        val tparams = List.newBuilder[TypeParameter]
+        while (peek != '>') {
+          val name = identifier(":")
+          val bounds = List.newBuilder[JavaType]
+          expect(':')
+          // the class bound is empty when there are only interface bounds
+          if (peek != ':') bounds += referenceType()
+          while (peek == ':') { expect(':'); bounds += referenceType() }
+          tparams += TypeParameter(name, bounds.result())
+        }
+        expect('>')
+        tparams.result()
+      }
+
+    private def javaType(): JavaType = peek match {
+      case 'L' | 'T' | '[' => referenceType()
+      case _               => PrimitiveType(PrimitiveNames(next()))
+    }
+
+    private def referenceType(): JavaType = next() match {
+      case 'T' =>
+        val name = identifier(";")
+        expect(';')
+        TypeVariable(name)
+      case '[' => ArrayType(javaType())
+      case 'L' =>
+        var binaryName = identifier("<.;").replace('/', '.')
+        var args = typeArguments()
+        var parameterized = args.nonEmpty
+        while (peek == '.') {
+          expect('.')
+          binaryName = binaryName + "$" + identifier("<.;")
+          args = typeArguments()
+          parameterized = parameterized || args.nonEmpty
+        }
+        expect(';')
+        ClassType(binaryName, args, parameterized)
+      case c => throw new IllegalArgumentException(s"Unexpected '$c' at $pos in $signature")
+    }
+
+    private def typeArguments(): List[JavaType] =
+      if (peek != '<') Nil
+      else {
+        expect('<')
+        val args = List.newBuilder[JavaType]
+        while (peek != '>') {
+          peek match {
+            case '*'       => next(); args += WildcardType
+            case '+' | '-' => next(); referenceType(); args += WildcardType
+            case _         => args += referenceType()
+          }
+        }
+        expect('>')
+        args.result()
+      }
+  }
+
+  private val PrimitiveNames = Map(
+    'Z' -> "boolean",
+    'B' -> "byte",
+    'C' -> "char",
+    'S' -> "short",
+    'I' -> "int",
+    'J' -> "long",
+    'F' -> "float",
+    'D' -> "double",
+    'V' -> "void"
+  )
+
+  private[inc] def classSignature(cf: ClassFile): ClassSignature =
+    cf.signature match {
+      case Some(signature) => new SignatureParser(signature).classSignature()
+      case None =>
+        val superClass =
+          if (cf.superClassName.isEmpty) None else Some(ClassType(cf.superClassName, Nil, false))
+        ClassSignature(Nil, superClass, cf.interfaceNames.toList.map(ClassType(_, Nil, false)))
+    }
+
+  private[inc] def methodSignature(cf: ClassFile, m: FieldOrMethodInfo): MethodSignature = {
+    val signature = cf.signatureOf(m).getOrElse(m.descriptor.get)
+    val parsed = new SignatureParser(signature).methodSignature()
+    // the generic signature only lists exceptions when one of them is a type variable
+    if (parsed.exceptions.nonEmpty) parsed
+    else parsed.copy(exceptions = cf.exceptionsOf(m).toList.map(ClassType(_, Nil, false)))
+  }
+
+  private[inc] def fieldType(cf: ClassFile, f: FieldOrMethodInfo): JavaType =
+    new SignatureParser(cf.signatureOf(f).getOrElse(f.descriptor.get)).fieldType()
+
+  private def isStatic(flags: Int) = (flags & ACC_STATIC) != 0
+  private def isPublic(flags: Int) = (flags & ACC_PUBLIC) != 0
+  private def isInterface(flags: Int) = (flags & ACC_INTERFACE) != 0
+  private def isConstructor(m: FieldOrMethodInfo) = m.name.exists(_ == "<init>")
+  private def isInitializer(m: FieldOrMethodInfo) = m.name.exists(_ == "<clinit>")
+
+  @inline private def lzyS[T <: AnyRef](t: T): xsbti.api.Lazy[T] = SafeLazyProxy.strict(t)
+  private val emptyStringArray = new Array[String](0)
+  private val emptyTypeArray = new Array[xsbti.api.Type](0)
+  private val emptyAnnotationArray = new Array[xsbti.api.Annotation](0)
+  private val emptyTypeParameterArray = new Array[xsbti.api.TypeParameter](0)
+  private val lzyEmptyTpeArray = lzyS(emptyTypeArray)
+  private val lzyEmptyDefArray = lzyS(new Array[xsbti.api.ClassDefinition](0))
+}
+
+private final class ClassFileToAPI(lookup: String => Option[ClassFile]) {
+  import ClassFileToAPI._
+  import ClassToAPI.{ access, modifiers, reference, primitive, array, javaAnnotation }
+
+  private val memo = new mutable.HashMap[String, Seq[api.ClassLikeDef]]
+  private val classSignatures = new mutable.HashMap[String, ClassSignature]
+  val inherited = new mutable.HashSet[(String, String)]
+  val allNonLocalClasses = new mutable.LinkedHashSet[api.ClassLike]
+  val mainClasses = new mutable.LinkedHashSet[String]
+
+  private def signatureOf(cf: ClassFile): ClassSignature =
+    classSignatures.getOrElseUpdate(cf.className, classSignature(cf))
+
+  /** The canonical name of a class, or its binary name for local and anonymous classes. */
+  private def className(cf: ClassFile): String =
+    cf.canonicalName(cf.className).getOrElse(cf.className)
+
+  /** The modifiers of a class, read from `InnerClasses` for nested classes like reflection. */
+  private def classFlags(cf: ClassFile): Int =
+    cf.innerClassInfo.fold(cf.accessFlags)(_.accessFlags)
+
+  private def packageName(cf: ClassFile): Option[String] =
+    ClassToAPI.packageAndName(cf.className)._1
+
+  def toDefinitions(cf: ClassFile): Seq[api.ClassLikeDef] =
+    memo.getOrElse(className(cf), toDefinitions0(cf))
+
+  private def toDefinitions0(cf: ClassFile): Seq[api.ClassLikeDef] = {
+    import api.DefinitionType.{ ClassDef, Module, Trait }
+    val flags = classFlags(cf)
+    val enclPkg = packageName(cf)
+    val mods = modifiers(flags)
+    val acc = access(flags, enclPkg)
+    val annots = annotations(cf, cf.annotationsOf(cf.attributes))
+    val name = className(cf)
+    val topLevel = cf.enclosingClassName.isEmpty
+    val tpe = if (isInterface(flags)) Trait else ClassDef
+    val signature = signatureOf(cf)
+    val scope = new Scope(cf)
+    val tparams = typeParameters(name, signature.typeParameters, scope)
+    val children: Array[api.Type] =
+      if ((flags & ACC_ENUM) != 0) Array(reference(name)) else emptyTypeArray
+
+    val clsDef = api.ClassLikeDef.of(name, acc, mods, annots, tparams, tpe)
+    val statDef = api.ClassLikeDef.of(name, acc, mods, annots, emptyTypeParameterArray, Module)
+    val defsEmptyMembers = clsDef :: statDef :: Nil
+    memo(name) = defsEmptyMembers
+
+    val (static, instance) = structure(cf, flags, enclPkg)
+    val cls = api.ClassLike.of(
+      name,
+      acc,
+      mods,
+      annots,
+      tpe,
+      lzyS(ClassToAPI.Empty),
+      lzyS(instance),
+      emptyStringArray,
+      children,
+      topLevel,
+      tparams
+    )
+    val stat = api.ClassLike.of(
+      name,
+      acc,
+      mods,
+      annots,
+      Module,
+      lzyS(ClassToAPI.Empty),
+      lzyS(static),
+      emptyStringArray,
+      emptyTypeArray,
+      topLevel,
+      emptyTypeParameterArray
+    )
+    allNonLocalClasses += cls
+    allNonLocalClasses += stat
+    defsEmptyMembers
+  }
+
+  /** Returns the (static structure, instance structure) for `cf`. */
+  private def structure(
+      cf: ClassFile,
+      flags: Int,
+      enclPkg: Option[String]
+  ): (api.Structure, api.Structure) = {
+    val supers = superClasses(cf)
+    val declaredMethods = cf.methods.toSeq.filterNot(m => isConstructor(m) || isInitializer(m))
+    val inheritedMethods = publicInheritedMethods(cf, supers, declaredMethods)
+    if (
+      (declaredMethods.iterator.map(cf -> _) ++ inheritedMethods).exists { case (_, m) => m.isMain }
+    ) mainClasses += className(cf)
+
+    def defs(members: Seq[(ClassFile, FieldOrMethodInfo)]) =
+      members.map { case (owner, m) => (isStatic(m.accessFlags), memberToDef(owner, m, enclPkg)) }
+    val declaredMembers =
+      defs(declaredMethods.map(cf -> _)) ++
+        defs(cf.fields.toSeq.map(cf -> _)) ++
+        defs(cf.methods.toSeq.filter(isConstructor).map(cf -> _))
+    val inheritedFields = supers.flatMap(s => s.fields.toSeq.filter(_.isPublic).map(s -> _))
+    val inheritedMembers = defs(inheritedMethods) ++ defs(inheritedFields)
+    val declaredClasses = for {
+      info <- cf.innerClasses
+      if info.outerClassName.exists(_ == cf.className) && info.innerName.isDefined
+      nested <- lookup(info.className).toList
+      definition <- toDefinitions(nested)
+    } yield (info.isStatic, definition: api.ClassDefinition)
+    val declared = declaredMembers ++ declaredClasses
+
+    if ((flags & ACC_PRIVATE) == 0) {
+      inherited ++= supers.map(s => cf.className -> s.className)
+      inherited ++= missingSuperNames(cf, supers).map(cf.className -> _)
+    }
+    val parentTypes = allSuperTypes(cf).map { case (owner, t) => toType(t, new Scope(owner)) }
+    val instanceStructure = api.Structure.of(
+      lzyS(parentTypes.toArray),
+      lzyS(declared.collect { case (false, d) => d }.toArray),
+      lzyS(inheritedMembers.collect { case (false, d) => d }.toArray)
+    )
+    val staticStructure = api.Structure.of(
+      lzyEmptyTpeArray,
+      lzyS(declared.collect { case (true, d) => d }.toArray),
+      lzyS(inheritedMembers.collect { case (true, d) => d }.toArray)
+    )
+    (staticStructure, instanceStructure)
+  }
+
+  /** All the superclasses and superinterfaces of `cf` that can be found, in reflection order. */
+  private def superClasses(cf: ClassFile): Seq[ClassFile] = {
+    val seen = new mutable.LinkedHashMap[String, ClassFile]
+    def superNames(c: ClassFile): Seq[String] = {
+      val superClass =
+        if (isInterface(c.accessFlags) || c.superClassName.isEmpty) Nil else c.superClassName :: Nil
+      superClass ++ c.interfaceNames
+    }
+    var level = superNames(cf)
+    while (level.nonEmpty) {
+      val found = level.filterNot(seen.contains).distinct.flatMap(lookup)
+      found.foreach(c => seen(c.className) = c)
+      level = found.flatMap(superNames)
+    }
+    seen.values.toList
+  }
+
+  private def missingSuperNames(cf: ClassFile, supers: Seq[ClassFile]): Seq[String] = {
+    val found = supers.map(_.className).toSet
+    (cf +: supers).flatMap { c =>
+      val superClass = if (isInterface(c.accessFlags)) Nil else c.superClassName :: Nil
+      (superClass ++ c.interfaceNames).filter(n => n.nonEmpty && !found(n))
+    }.distinct
+  }
+
+  /** The parent types, walking the superclass chain and interfaces like [[ClassToAPI]]. */
+  private def allSuperTypes(cf: ClassFile): Seq[(ClassFile, JavaType)] = {
+    val accum = new mutable.ListBuffer[(ClassFile, JavaType)]
+    def flattenAll(interfaces: Seq[(ClassFile, JavaType)]): Unit =
+      if (interfaces.nonEmpty) {
+        val children = interfaces.flatMap {
+          case (_, t) => rawClass(t).toList.flatMap(i => signatureOf(i).interfaces.map(i -> _))
+        }
+        accum ++= interfaces
+        accum ++= children
+        flattenAll(children)
+      }
+    var current: Option[ClassFile] = Some(cf)
+    while (current.isDefined) {
+      val c = current.get
+      val signature = signatureOf(c)
+      val parent = if (isInterface(c.accessFlags)) None else signature.superClass
+      parent.foreach(p => accum += (c -> p))
+      flattenAll(signature.interfaces.map(c -> _))
+      current = parent.flatMap(rawClass)
+    }
+    accum.toList.distinct
+  }
+
+  private def rawClass(t: JavaType): Option[ClassFile] = t match {
+    case ClassType(binaryName, _, _) => lookup(binaryName)
+    case _                           => None
+  }
+
+  /** Public methods of the supertypes that are visible from `cf`, like `Class.getMethods`. */
+  private def publicInheritedMethods(
+      cf: ClassFile,
+      supers: Seq[ClassFile],
+      declared: Seq[FieldOrMethodInfo]
+  ): Seq[(ClassFile, FieldOrMethodInfo)] = {
+    def key(m: FieldOrMethodInfo) = (m.name, m.descriptor.map(d => d.substring(0, d.indexOf(')'))))
+    val seen = mutable.HashSet(declared.map(key): _*)
+    for {
+      s <- supers
+      if !(isInterface(cf.accessFlags) && s.className == "java.lang.Object")
+      m <- s.methods.toSeq
+      if m.isPublic && !isConstructor(m) && !isInitializer(m)
+      if !(m.isStatic && isInterface(s.accessFlags))
+      if seen.add(key(m))
+    } yield s -> m
+  }
+
+  private def memberToDef(
+      owner: ClassFile,
+      m: FieldOrMethodInfo,
+      enclPkg: Option[String]
+  ): api.ClassDefinition =
+    if (m.descriptor.exists(_.startsWith("("))) methodToDef(owner, m, enclPkg)
+    else fieldToDef(owner, m, enclPkg)
+
+  private def fieldToDef(
+      owner: ClassFile,
+      f: FieldOrMethodInfo,
+      enclPkg: Option[String]
+  ): api.FieldLike = {
+    val name = f.name.get
+    val accs = access(f.accessFlags, enclPkg)
+    val mods = modifiers(f.accessFlags)
+    val annots = annotations(owner, owner.annotationsOf(f.attributes))
+    val javaType = fieldType(owner, f)
+    // generate a more specific type for constant fields, like ClassToAPI.singletonForConstantField
+    val tpe =
+      if (mods.isFinal) {
+        owner.constantValue(name) match {
+          case Some(value) =>
+            api.Singleton.of(
+              ClassToAPI.pathFromStrings(
+                owner.className.split("\\.").toSeq :+
+                  (name + "$" + reflectedName(javaType) + "$" + value)
+              )
+            )
+          case None => toType(javaType, new Scope(owner))
+        }
+      } else toType(javaType, new Scope(owner))
+    if (mods.isFinal) api.Val.of(name, accs, mods, annots, tpe)
+    else api.Var.of(name, accs, mods, annots, tpe)
+  }
+
+  private def methodToDef(
+      owner: ClassFile,
+      m: FieldOrMethodInfo,
+      enclPkg: Option[String]
+  ): api.Def = {
+    val signature = methodSignature(owner, m)
+    val constructor = isConstructor(m)
+    // type variables are named after their declaration, see ClassToAPI.typeVariable
+    val declarationName = if (constructor) owner.className else m.name.get
+    val name = if (constructor) s"${owner.className.replace('.', ';')};init;" else m.name.get
+    val scope = new Scope(owner, Some(declarationName -> signature.typeParameters.map(_.name)))
+    val paramAnnots = owner.parameterAnnotationsOf(m)
+    val varArgs = (m.accessFlags & ACC_VARARGS) != 0
+    val params = signature.parameters.zipWithIndex.map {
+      case (p, i) =>
+        val annots = if (i < paramAnnots.length) paramAnnots(i) else Nil
+        val tpe = toType(p, scope)
+        api.MethodParameter.of(
+          "",
+          if (annots.isEmpty) tpe else api.Annotated.of(tpe, annotations(owner, annots)),
+          false,
+          if (varArgs && i == signature.parameters.length - 1) api.ParameterModifier.Repeated
+          else api.ParameterModifier.Plain
+        )
+    }
+    val ret = if (constructor) ClassToAPI.Empty else toType(signature.result, scope)
+    val exceptions = signature.exceptions.map { e =>
+      api.Annotation.of(
+        ClassToAPI.Throws,
+        Array(api.AnnotationArgument.of("value", reflectedName(e)))
+      )
+    }
+    api.Def.of(
+      name,
+      access(m.accessFlags, enclPkg),
+      modifiers(m.accessFlags),
+      annotations(owner, owner.annotationsOf(m.attributes)) ++ exceptions,
+      typeParameters(declarationName, signature.typeParameters, scope),
+      Array(api.ParameterList.of(params.toArray, false)),
+      ret
+    )
+  }
+
+  private def typeParameters(
+      declarationName: String,
+      tparams: List[TypeParameter],
+      scope: Scope
+  ): Array[api.TypeParameter] =
+    if (tparams.isEmpty) emptyTypeParameterArray
+    else
+      tparams.map { tp =>
+        api.TypeParameter.of(
+          declarationName + " " + tp.name,
+          emptyAnnotationArray,
+          emptyTypeParameterArray,
+          api.Variance.Invariant,
+          ClassToAPI.NothingRef,
+          api.Structure.of(
+            lzyS(tp.bounds.map(toType(_, scope)).toArray),
+            lzyEmptyDefArray,
+            lzyEmptyDefArray
+          )
+        )
+      }.toArray
+
+  private def annotations(owner: ClassFile, annots: Seq[AnnotationInfo]): Array[api.Annotation] =
+    if (annots.isEmpty) emptyAnnotationArray
+    else
+      annots.map { a =>
+        val annotationType = reference(canonical(owner, a.annotationType))
+        api.Annotation.of(annotationType, Array(javaAnnotation(a.text)))
+      }.toArray
+
+  private def canonical(owner: ClassFile, binaryName: String): String =
+    owner.canonicalName(binaryName).getOrElse(binaryName)
+
+  /** The name of a type as returned by `java.lang.reflect.Type.toString`. */
+  private def reflectedName(t: JavaType): String = t match {
+    case PrimitiveType(name)   => name
+    case TypeVariable(name)    => name
+    case ClassType(name, _, _) => "class " + name
+    case other                 => other.toString
+  }
+
+  private def toType(t: JavaType, scope: Scope): api.Type = t match {
+    case PrimitiveType(name) => primitive(name)
+    case ArrayType(c)        => array(toType(c, scope))
+    case WildcardType        => reference("_")
+    case TypeVariable(name)  => api.ParameterRef.of(scope.declarationOf(name) + " " + name)
+    case ClassType(binaryName, args, parameterized) =>
+      val base = reference(canonical(scope.owner, binaryName))
+      if (!parameterized) base
+      else api.Parameterized.of(base, args.map(toType(_, scope)).toArray)
+  }
+
+  /**
+   * Resolves the declaration of type variables: the method, then the class and its enclosing
+   * classes (by canonical name).
+   */
+  private final class Scope(
+      val owner: ClassFile,
+      method: Option[(String, List[String])] = None
+  ) {
+    def declarationOf(name: String): String =
+      method.collect { case (decl, names) if names.contains(name) => decl }.getOrElse {
+        def fromClass(cf: ClassFile): Option[String] =
+          if (signatureOf(cf).typeParameters.exists(_.name == name)) Some(className(cf))
+          else cf.enclosingClassName.flatMap(lookup).flatMap(fromClass)
+        fromClass(owner).getOrElse(className(owner))
+      }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.internal.inc.classfile.{ ClassFile, JavaCompilerForUnitTesting }
+import xsbti.{ AnalysisCallback, VirtualFileRef }
+import xsbti.api.{ ClassLike, ClassLikeDef, Def, DefinitionType, Singleton, Val }
+
+class ClassFileToAPISpecification extends UnitSpec {
+
+  "ClassFileToAPI" should "extract api of inner classes" in {
+    val src =
+      """|class A {
+        |  class B {}
+        |  private static class C {}
+        |}
+      """.stripMargin
+    val apis = extractApisFromSrc("A.java" -> src)
+    assert(apis.map(_.name) === Set("A", "A.B", "A.C"))
+
+    val classA = apis.find(c => c.name == "A" && c.definitionType == DefinitionType.ClassDef).get
+    assert(classA.topLevel === true)
+    assert(classA.structure.declared.exists {
+      case c: ClassLikeDef => c.name == "A.B" && c.definitionType == DefinitionType.ClassDef
+      case _               => false
+    })
+    val staticA = apis.find(c => c.name == "A" && c.definitionType == DefinitionType.Module).get
+    assert(staticA.structure.declared.exists {
+      case c: ClassLikeDef => c.name == "A.C"
+      case _               => false
+    })
+
+    val classB = apis.find(c => c.name == "A.B" && c.definitionType == DefinitionType.ClassDef).get
+    assert(classB.topLevel === false)
+  }
+
+  it should "extract generic signatures and constants" in {
+    val src =
+      """|import java.util.List;
+        |public class G<T> {
+        |  public static final int K = 42;
+        |  public <U extends T> U first(List<? extends U> xs) throws Exception { return xs.get(0); }
+        |}
+      """.stripMargin
+    val apis = extractApisFromSrc("G.java" -> src)
+
+    val classG = apis.find(c => c.name == "G" && c.definitionType == DefinitionType.ClassDef).get
+    assert(classG.typeParameters.map(_.id).toList === List("G T"))
+    val first = classG.structure.declared.collectFirst { case d: Def if d.name == "first" => d }.get
+    assert(first.typeParameters.map(_.id).toList === List("first U"))
+    assert(first.annotations.length === 1) // throws Exception
+
+    val staticG = apis.find(c => c.name == "G" && c.definitionType == DefinitionType.Module).get
+    val constant = staticG.structure.declared.collectFirst { case v: Val if v.name == "K" => v }.get
+    assert(constant.tpe.isInstanceOf[Singleton])
+  }
+
+  /**
+   * Compiles given source code using Java compiler and returns API representation
+   * extracted by ClassFileToAPI class.
+   */
+  private def extractApisFromSrc(src: (String, String)): Set[ClassLike] = {
+    val (Seq(tempSrcFile), analysisCallback) =
+      JavaCompilerForUnitTesting.compileJavaSrcsWithBytecode(src)(readAPI)
+    analysisCallback.apis(tempSrcFile)
+  }
+
+  def readAPI(
+      callback: AnalysisCallback,
+      source: VirtualFileRef,
+      classes: Seq[ClassFile]
+  ): Set[(String, String)] = {
+    val lookup = classes.map(c => c.className -> c).toMap
+    val (apis, mainClasses, inherits) = ClassFileToAPI.process(classes, lookup.get)
+    apis.foreach(callback.api(source, _))
+    mainClasses.foreach(callback.mainClass(source, _))
+    inherits
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc
+
+import java.util.EnumSet
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import sbt.internal.util.Relation
+import sbt.util.Logger
+import xsbti.UseScope
+
+/**
+ * Measures the invalidation of the dependents of a hub class whose API changed in one name.
+ *
+ * Every dependent of the hub uses `usedNames` names, and one in `usersRatio` dependents uses
+ * the modified name. `scan` checks the used names of every dependent, while `indexed` looks up
+ * the users of the modified name in the used name index of the relations, which is built
+ * upfront as the relations cache it across invalidations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+class NameHashInvalidationBenchmark {
+  @Param(Array("scan", "indexed")) var strategy: String = _
+  @Param(Array("10000")) var dependents: Int = _
+  @Param(Array("20")) var usedNames: Int = _
+  @Param(Array("10")) var usersRatio: Int = _
+
+  /* Data filled in by the benchmark setup. */
+  var _memberRef: Relation[String, String] = _
+  var _usedNames: Relation[String, UsedName] = _
+  var _index: UsedNameIndex = _
+  var _invalidator: MemberRefInvalidator = _
+  var _change: APIChange = _
+
+  @Setup(Level.Trial)
+  def setUp(): Unit = {
+    def used(name: String) = UsedName.make(name, EnumSet.of(UseScope.Default))
+    val classes = (0 until dependents).map(i => s"D$i")
+    _memberRef = Relation.empty[String, String] ++ classes.map(_ -> "Hub")
+    _usedNames = Relation.empty[String, UsedName] ++ classes.zipWithIndex.flatMap {
+      case (className, i) =>
+        val names = (1 until usedNames).map(j => used(s"name${(i + j) % 1000}"))
+        val modified = if (i % usersRatio == 0) used("modified") else used(s"other$i")
+        (modified +: names).map(className -> _)
+    }
+    _index = UsedNameIndex(_usedNames)
+    _invalidator =
+      if (strategy == "scan") new MemberRefInvalidator(Logger.Null, false, Int.MaxValue)
+      else new MemberRefInvalidator(Logger.Null, false)
+    _change = NamesChange("Hub", ModifiedNames(Set(used("modified"))))
+  }
+
+  @Benchmark
+  def invalidate(): Set[String] =
+    _invalidator.get(_memberRef, _usedNames, _change, _ => true, () => _index)("Hub")
+}
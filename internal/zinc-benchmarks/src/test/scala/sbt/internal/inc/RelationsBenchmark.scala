@@ -0,0 +1,175 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc
+
+import java.util.EnumSet
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import sbt.internal.util.Relation
+import xsbti.{ UseScope, VirtualFileRef }
+import xsbti.api.{ DependencyContext, ExternalDependency, InternalDependency }
+
+/**
+ * Compares the default [[Relations]] with [[CompactRelations]] on a synthetic dependency graph.
+ *
+ * Every source defines one class, which depends on `fanOut` classes by member reference, on
+ * one class by inheritance, on an external class and uses `usedNames` names. Run with
+ * `-prof gc` for the allocations of each operation; `footprint` reports the heap retained by
+ * the relations of all the sources, and `footprintAfterCompile` the heap they retain once a
+ * compilation queried and wrote them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+class RelationsBenchmark {
+  @Param(Array("default", "compact")) var implementation: String = _
+  @Param(Array("20000")) var sources: Int = _
+  @Param(Array("10")) var fanOut: Int = _
+  @Param(Array("20")) var usedNames: Int = _
+  @Param(Array("100")) var changedSources: Int = _
+
+  /* Data filled in by the benchmark setup. */
+  var _relations: Relations = _
+  var _changed: Relations = _
+  var _changedFiles: Seq[VirtualFileRef] = _
+
+  private def empty: Relations =
+    if (implementation == "compact") CompactRelations.empty else Relations.empty
+
+  private def file(i: Int) = VirtualFileRef.of(s"src/p${i % 100}/C$i.scala")
+
+  private def addSources(relations: Relations, indices: Range): Relations =
+    indices.foldLeft(relations) { (relations, i) =>
+      val className = s"p${i % 100}.C$i"
+      val internalDeps = (1 to fanOut).map { j =>
+        val target = s"p${(i + j) % 100}.C${(i * 31 + j) % sources}"
+        InternalDependency.of(className, target, DependencyContext.DependencyByMemberRef)
+      } :+ InternalDependency.of(
+        className,
+        s"p${i % 100}.C${i / 2}",
+        DependencyContext.DependencyByInheritance
+      )
+      val externalDeps = Seq(
+        ExternalDependency.of(
+          className,
+          s"ext.E${i % 50}",
+          APIs.emptyAnalyzedClass,
+          DependencyContext.DependencyByMemberRef
+        )
+      )
+      val names = (1 to usedNames).map { j =>
+        className -> UsedName.make(s"name${(i + j) % 1000}", EnumSet.of(UseScope.Default))
+      }
+      relations
+        .addSource(
+          file(i),
+          Seq(VirtualFileRef.of(s"out/p${i % 100}/C$i.class")),
+          Seq(className -> className),
+          internalDeps,
+          externalDeps,
+          Seq((VirtualFileRef.of(s"lib/lib${i % 20}.jar"), s"lib.L${i % 200}", null))
+        )
+        .addUsedNames(Relation.empty[String, UsedName] ++ names)
+    }
+
+  @Setup(Level.Trial)
+  def setUp(): Unit = {
+    _relations = addSources(empty, 0 until sources)
+    _changedFiles = (0 until changedSources).map(i => file(i * (sources / changedSources)))
+    _changed = addSources(Relations.empty, 0 until changedSources)
+  }
+
+  /** Builds the relations of all the sources, as a full compilation does. */
+  @Benchmark
+  def build(): Relations = addSources(empty, 0 until sources)
+
+  /** Drops and merges back the relations of the changed sources, as an incremental cycle does. */
+  @Benchmark
+  def removeAndMerge(): Relations = (_relations -- _changedFiles) ++ _changed
+
+  /** Queries the reverse dependencies of every class, as the invalidation does. */
+  @Benchmark
+  def reverseQueries(bh: Blackhole): Unit =
+    (0 until sources).foreach { i =>
+      bh.consume(_relations.usesInternalClass(s"p${i % 100}.C$i"))
+      bh.consume(
+        _relations.usesInternalClass(s"p${i % 100}.C$i", DependencyContext.DependencyByInheritance)
+      )
+    }
+
+  /** Reports the heap retained by the relations of all the sources, in the `retainedMB` counter. */
+  @Benchmark
+  @BenchmarkMode(Array(Mode.SingleShotTime))
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 3)
+  def footprint(counters: RelationsBenchmark.Footprint): Relations = {
+    val before = usedHeap()
+    val relations = addSources(empty, 0 until sources)
+    counters.retainedMB = (usedHeap() - before).toDouble / (1024 * 1024)
+    relations
+  }
+
+  /**
+   * Reports the heap retained by the relations of all the sources in the `retainedMB` counter,
+   * after they were queried and read like a compilation does.
+   */
+  @Benchmark
+  @BenchmarkMode(Array(Mode.SingleShotTime))
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 3)
+  def footprintAfterCompile(counters: RelationsBenchmark.Footprint, bh: Blackhole): Relations = {
+    val before = usedHeap()
+    val relations = addSources(empty, 0 until sources)
+    compile(relations, bh)
+    counters.retainedMB = (usedHeap() - before).toDouble / (1024 * 1024)
+    relations
+  }
+
+  /** Runs the queries of the invalidation and reads every relation, as the analysis writers do. */
+  private def compile(relations: Relations, bh: Blackhole): Unit = {
+    (0 until sources).foreach { i =>
+      val className = s"p${i % 100}.C$i"
+      bh.consume(relations.sourceClassNames(className))
+      bh.consume(relations.usesInternalClass(className))
+      bh.consume(relations.usesInternalClass(className, DependencyContext.DependencyByInheritance))
+      bh.consume(relations.usedNames(className))
+    }
+    bh.consume(relations.srcProd)
+    bh.consume(relations.libraryDep)
+    bh.consume(relations.libraryClassName)
+    bh.consume(relations.memberRef)
+    bh.consume(relations.inheritance)
+    bh.consume(relations.localInheritance)
+    bh.consume(relations.classes)
+    bh.consume(relations.names)
+    bh.consume(relations.productClassName)
+  }
+
+  private def usedHeap(): Long = {
+    val runtime = Runtime.getRuntime
+    (1 to 3).foreach(_ => System.gc())
+    runtime.totalMemory - runtime.freeMemory
+  }
+}
+
+object RelationsBenchmark {
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  class Footprint {
+    var retainedMB: Double = 0
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc
+
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.{ ForkJoinPool, TimeUnit }
+
+import org.openjdk.jmh.annotations._
+import sbt.io.IO
+import xsbti.VirtualFile
+import xsbti.compile.analysis.ReadStamps
+
+import scala.collection.parallel.ForkJoinTaskSupport
+import scala.collection.parallel.immutable.ParVector
+
+/**
+ * Measures the cold stamping of `files` files by `threads` threads, as the detection of the
+ * initial changes does: `sources` hashes them as sources through [[Stamps.initial]], and
+ * `libraries` stamps them as libraries through [[Stamps.timeWrapBinaryStamps]]. Every
+ * invocation uses new caches, so that every file is hashed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+class StampingBenchmark {
+  @Param(Array("1", "2", "4", "8")) var threads: Int = _
+  @Param(Array("10000")) var files: Int = _
+  @Param(Array("4096")) var fileSize: Int = _
+
+  /* Data filled in by the benchmark setup. */
+  var _dir: Path = _
+  var _files: ParVector[VirtualFile] = _
+  var _pool: ForkJoinPool = _
+  var _stamps: ReadStamps = _
+
+  @Setup(Level.Trial)
+  def setUp(): Unit = {
+    _dir = Files.createTempDirectory("zinc-stamping")
+    val contents = new Array[Byte](fileSize)
+    val converter = PlainVirtualFileConverter.converter
+    val paths = (0 until files).map { i =>
+      contents(i % fileSize) = i.toByte
+      Files.write(_dir.resolve(s"C$i.scala"), contents)
+    }
+    _pool = new ForkJoinPool(threads)
+    _files = new ParVector(paths.map(converter.toVirtualFile).toVector)
+    _files.tasksupport = new ForkJoinTaskSupport(_pool)
+  }
+
+  @Setup(Level.Invocation)
+  def setUpCaches(): Unit =
+    _stamps = Stamps.initial(
+      Stamps.timeWrapBinaryStamps(PlainVirtualFileConverter.converter)
+    )
+
+  @TearDown(Level.Trial)
+  def tearDown(): Unit = {
+    _pool.shutdown()
+    IO.delete(_dir.toFile)
+  }
+
+  @Benchmark
+  def sources(): Unit = _files.foreach(_stamps.source(_))
+
+  @Benchmark
+  def libraries(): Unit = _files.foreach(_stamps.library(_))
+}
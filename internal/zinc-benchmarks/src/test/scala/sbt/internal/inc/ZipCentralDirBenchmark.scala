@@ -0,0 +1,85 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc
+
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.TimeUnit
+import java.util.zip.{ ZipEntry, ZipOutputStream }
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import sbt.internal.inc.zip.{ ZipCentralDir, ZipCentralDirView }
+import sbt.io.{ IO, Using }
+
+import scala.collection.JavaConverters._
+
+/**
+ * Compares the readers of the central directory of a jar of `entries` classes, when stamping
+ * `stamped` of its classes as an incremental compilation does. `headers` reads a
+ * [[ZipCentralDir]] and maps the timestamps of all the entries by name, as the stamps of output
+ * jars used to be read, while `mapped` and `buffered` look them up in place in a
+ * [[ZipCentralDirView]]. Run with `-prof gc` for the allocations of each reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+class ZipCentralDirBenchmark {
+  @Param(Array("headers", "mapped", "buffered")) var reader: String = _
+  @Param(Array("50000")) var entries: Int = _
+  @Param(Array("500")) var stamped: Int = _
+
+  /* Data filled in by the benchmark setup. */
+  var _dir: Path = _
+  var _jar: Path = _
+  var _stamped: Vector[String] = _
+
+  private def entryName(i: Int) = s"p${i % 100}/C$i.class"
+
+  @Setup(Level.Trial)
+  def setUp(): Unit = {
+    _dir = Files.createTempDirectory("zinc-central-dir")
+    _jar = _dir.resolve("output.jar")
+    Using.fileOutputStream()(_jar.toFile) { out =>
+      val zip = new ZipOutputStream(out)
+      (0 until entries).foreach { i =>
+        zip.putNextEntry(new ZipEntry(entryName(i)))
+        zip.write(i)
+        zip.closeEntry()
+      }
+      zip.close()
+    }
+    _stamped = (0 until stamped).map(i => entryName(i * (entries / stamped))).toVector
+  }
+
+  @TearDown(Level.Trial)
+  def tearDown(): Unit = IO.delete(_dir.toFile)
+
+  @Benchmark
+  def stamp(bh: Blackhole): Unit = {
+    val stampOf: String => Long = reader match {
+      case "headers" =>
+        val headers = new ZipCentralDir(_jar).getHeaders.asScala
+        val stamps = headers.iterator.map(h => h.getName -> h.getLastModifiedTime).toMap
+        stamps.getOrElse(_, 0L)
+      case _ =>
+        val centralDir = ZipCentralDirView.read(_jar, reader == "mapped")
+        entry => {
+          val index = centralDir.indexOf(entry)
+          if (index < 0) 0L else centralDir.getLastModifiedTime(index)
+        }
+    }
+    _stamped.foreach(entry => bh.consume(stampOf(entry)))
+  }
+}
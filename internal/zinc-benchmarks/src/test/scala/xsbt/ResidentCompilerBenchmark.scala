@@ -0,0 +1,69 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package xsbt
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{ Files, StandardOpenOption }
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+/**
+ * Measures the latency of an incremental cycle (a body-only edit of one source)
+ * with a fresh compiler per run versus a resident compiler kept by the bridge.
+ */
+class ResidentCompilerBenchmark extends ShapelessBenchmark {
+  _subprojectToRun = _project.subprojects.head // CoreJVM
+  private var cycle = 0
+
+  @Setup(Level.Trial)
+  override def setUpCompilerRuns(): Unit = {
+    super.setUpCompilerRuns()
+    // Populate the analysis store so that every measured cycle is incremental
+    _compilerSetup.doCompileWithStore()
+    ()
+  }
+
+  override protected def action(): Unit = {
+    cycle += 1
+    val source = _compilerSetup.converter.toPath(_compilerSetup.sources.head)
+    val edit = s"\n// cycle $cycle\n".getBytes(StandardCharsets.UTF_8)
+    Files.write(source, edit, StandardOpenOption.APPEND)
+    _compilerSetup.doCompileWithStore()
+    ()
+  }
+}
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+class ColdCycleResidentCompilerBenchmark extends ResidentCompilerBenchmark {
+  @Benchmark
+  override def action(): Unit = {
+    super.action()
+  }
+}
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = Array("-Dxsbt.resident.compilers=1"))
+class WarmCycleResidentCompilerBenchmark extends ResidentCompilerBenchmark {
+  @Benchmark
+  override def action(): Unit = {
+    super.action()
+  }
+}
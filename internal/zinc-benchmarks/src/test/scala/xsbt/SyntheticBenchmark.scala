@@ -0,0 +1,222 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package xsbt
+
+import java.nio.file.{ Files, Path, Paths }
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import sbt.inc.{ CompilerSetup, ProjectSetup, VirtualSubproject }
+import sbt.internal.inc.BridgeProviderSpecification
+import sbt.io.IO
+import sbt.util.Logger
+import xsbti.compile.{ CompileProgress, IncOptions, IncOptionsUtil, Inputs }
+
+import scala.collection.mutable
+
+/**
+ * Benchmarks Zinc against a generated project, so that it can run without network access.
+ *
+ * The shape of the project is controlled by the JMH parameters, see [[SyntheticProject]].
+ * The average time spent per compilation in the main compiler phases is reported in the
+ * counters of [[SyntheticBenchmark.Phases]], which show the time that `pipelinedApiHashing`
+ * takes off the `xsbt-api` phase.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+class SyntheticBenchmark extends BridgeProviderSpecification {
+  @Param(Array("")) var _tempDir: String = _
+  @Param(Array("1000")) var sources: Int = _
+  @Param(Array("5")) var fanOut: Int = _
+  @Param(Array("3")) var inheritanceDepth: Int = _
+  @Param(Array("0.2")) var implicitDensity: Double = _
+  @Param(Array("0.1")) var macroDensity: Double = _
+  @Param(Array("0.1")) var javaRatio: Double = _
+  @Param(Array("42")) var seed: Long = _
+  @Param(Array("false", "true")) var pipelinedApiHashing: Boolean = _
+
+  /* Data filled in by the benchmark setup. */
+  var _dir: Path = _
+  var _project: SyntheticProject = _
+  var _compilerSetup: CompilerSetup = _
+  var _revision: Int = 0
+  val _timings = new PhaseTimings
+
+  /** The directory where the sources that are compiled live. */
+  private def sourceDir: Path = _dir.resolve("src")
+
+  @Setup(Level.Trial)
+  def setUpProject(): Unit = {
+    _dir =
+      if (_tempDir.isEmpty) Files.createTempDirectory("zinc-synthetic")
+      else Files.createDirectories(Paths.get(_tempDir).toAbsolutePath.resolve("synthetic"))
+    _project = SyntheticProject(
+      sources,
+      fanOut,
+      inheritanceDepth,
+      implicitDensity,
+      macroDensity,
+      javaRatio,
+      seed
+    )
+    // Sources are generated at the root and copied to `src` by the project setup
+    _project.write(_dir)
+    val setup = ProjectSetup(
+      VirtualSubproject(_dir),
+      Map(Paths.get("src") -> _project.relativePaths),
+      Nil
+    )
+
+    val noLogger = Logger.Null
+    val scalaVersion = ZincBenchmark.scalaVersion
+    val bridge = getCompilerBridge(_dir, noLogger, scalaVersion)
+    val si = scalaInstance(scalaVersion, _dir, noLogger)
+    val options = IncOptionsUtil.withExtra(
+      IncOptions.of(),
+      IncOptionsUtil.PIPELINED_API_HASHING,
+      pipelinedApiHashing.toString
+    )
+    _compilerSetup = setup.createCompiler(scalaVersion, si, bridge, options, log)
+
+    // Start every trial from a compiled project
+    compile()
+  }
+
+  @Setup(Level.Iteration)
+  def resetTimings(): Unit = _timings.reset()
+
+  @TearDown(Level.Trial)
+  def tearDown(): Unit = {
+    _compilerSetup.close()
+    IO.delete(_dir.toFile)
+  }
+
+  private def compile(): Unit = {
+    _compilerSetup.doCompileWithStore(newInputs = withTimings)
+    _timings.finish()
+  }
+
+  private val withTimings = (in: Inputs) => in.withSetup(in.setup.withProgress(_timings))
+
+  private def edit(index: Int): Unit = {
+    _revision += 1
+    _project.writeSource(sourceDir, index, _revision)
+    ()
+  }
+
+  @Benchmark
+  def fullCompile(phases: SyntheticBenchmark.Phases): Unit = {
+    _compilerSetup.doCompile(withTimings)
+    _timings.finish()
+    phases.update(_timings)
+  }
+
+  @Benchmark
+  def noOpCompile(phases: SyntheticBenchmark.Phases): Unit = {
+    compile()
+    phases.update(_timings)
+  }
+
+  @Benchmark
+  def leafEdit(phases: SyntheticBenchmark.Phases): Unit = {
+    edit(_project.leaf)
+    compile()
+    phases.update(_timings)
+  }
+
+  @Benchmark
+  def widelyUsedApiEdit(phases: SyntheticBenchmark.Phases): Unit = {
+    edit(_project.hub)
+    compile()
+    phases.update(_timings)
+  }
+
+  @Benchmark
+  def privateBodyEdit(phases: SyntheticBenchmark.Phases): Unit = {
+    edit(_project.middle)
+    compile()
+    phases.update(_timings)
+  }
+}
+
+object SyntheticBenchmark {
+
+  /** The average time per compilation of the iteration spent in the main phases, in ms. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  class Phases {
+    var typerMs: Double = 0
+    var apiMs: Double = 0
+    var dependencyMs: Double = 0
+    var analyzerMs: Double = 0
+    var jvmMs: Double = 0
+    var otherMs: Double = 0
+
+    def update(timings: PhaseTimings): Unit = {
+      typerMs = timings.averageMillis("typer")
+      apiMs = timings.averageMillis("xsbt-api")
+      dependencyMs = timings.averageMillis("xsbt-dependency")
+      analyzerMs = timings.averageMillis("xsbt-analyzer")
+      jvmMs = timings.averageMillis("jvm")
+      otherMs = timings.averageTotalMillis - typerMs - apiMs - dependencyMs - analyzerMs - jvmMs
+    }
+  }
+}
+
+/** Accumulates the wall-clock time spent in every compiler phase across compilations. */
+final class PhaseTimings extends CompileProgress {
+  private[this] val totals = mutable.LinkedHashMap.empty[String, Long]
+  private[this] var currentPhase: String = null
+  private[this] var phaseStart: Long = 0L
+  private[this] var compilations: Int = 0
+
+  override def startUnit(phase: String, unitPath: String): Unit = synchronized {
+    if (phase != currentPhase) {
+      val now = System.nanoTime()
+      record(now)
+      currentPhase = phase
+      phaseStart = now
+    }
+  }
+
+  private def record(now: Long): Unit = {
+    if (currentPhase != null) {
+      val previous = totals.getOrElse(currentPhase, 0L)
+      totals.update(currentPhase, previous + (now - phaseStart))
+    }
+  }
+
+  /** Closes the phase that is running at the end of a compilation. */
+  def finish(): Unit = synchronized {
+    record(System.nanoTime())
+    currentPhase = null
+    compilations += 1
+  }
+
+  def reset(): Unit = synchronized {
+    totals.clear()
+    currentPhase = null
+    compilations = 0
+  }
+
+  /** The average time per compilation spent in the given phase, in milliseconds. */
+  def averageMillis(phase: String): Double = synchronized(average(totals.getOrElse(phase, 0L)))
+
+  /** The average time per compilation spent in all the phases, in milliseconds. */
+  def averageTotalMillis: Double = synchronized(average(totals.valuesIterator.sum))
+
+  private def average(nanos: Long): Double = nanos.toDouble / math.max(compilations, 1) / 1000000
+}
@@ -0,0 +1,167 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package xsbt
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{ Files, Path, Paths }
+
+import scala.util.Random
+
+/**
+ * Describes the shape of a deterministic, generated Scala/Java code base.
+ *
+ * Every source `Ci` defines a class `Ci` with a `compute` method. `C0` is a hub
+ * that every other source uses, so that changing its API invalidates the whole
+ * project. The last source is a leaf that no other source depends on.
+ *
+ * @param sources The number of sources to generate.
+ * @param fanOut The maximum number of other sources that each source depends on.
+ * @param inheritanceDepth The length of the inheritance chains between classes.
+ * @param implicitDensity The ratio of Scala sources that define implicit extensions.
+ * @param macroDensity The ratio of Scala sources that expand macros (`f` interpolators).
+ * @param javaRatio The ratio of sources that are written in Java.
+ * @param seed The seed that makes the generation deterministic.
+ */
+final case class SyntheticProject(
+    sources: Int,
+    fanOut: Int,
+    inheritanceDepth: Int,
+    implicitDensity: Double,
+    macroDensity: Double,
+    javaRatio: Double,
+    seed: Long
+) {
+  import SyntheticProject.SourcePlan
+  require(sources >= 3, s"A synthetic project needs at least 3 sources, got $sources.")
+
+  val hub: Int = 0
+  val leaf: Int = sources - 1
+  val middle: Int = sources / 2
+
+  private val plans: Vector[SourcePlan] = {
+    val random = new Random(seed)
+    (0 until sources).toVector.map { i =>
+      // The hub, the leaf and the middle source are always Scala so that edits are uniform
+      val isScalaForced = i == hub || i == leaf || i == middle
+      val isJava = !isScalaForced && random.nextDouble() < javaRatio
+      val parent =
+        if (inheritanceDepth > 0 && i > 1 && (i % (inheritanceDepth + 1)) != 0) Some(i - 1)
+        else None
+      val deps = random.shuffle((1 until i).toList).take(fanOut).sorted
+      val hasOps = !isJava && random.nextDouble() < implicitDensity
+      val usesMacro = !isJava && random.nextDouble() < macroDensity
+      SourcePlan(i, isJava, parent, deps, hasOps, usesMacro)
+    }
+  }
+
+  /** Returns the paths of all sources, relative to the generation root. */
+  def relativePaths: Seq[Path] = plans.map(relativePath)
+
+  /** Writes all the sources of the project at their first revision under `root`. */
+  def write(root: Path): Seq[Path] = plans.map(p => writeSource(root, p.index, 0))
+
+  /**
+   * Writes a new revision of source `index` under `root`.
+   *
+   * - For the hub, the type of the widely used `hub` member alternates between `Int` and `Long`.
+   * - For the leaf, a public member is added and removed on alternate revisions.
+   * - For any other source, only the body of a private method changes.
+   */
+  def writeSource(root: Path, index: Int, revision: Int): Path = {
+    val plan = plans(index)
+    val path = root.resolve(relativePath(plan))
+    Files.createDirectories(path.getParent)
+    val contents = if (plan.isJava) renderJava(plan, revision) else renderScala(plan, revision)
+    Files.write(path, contents.getBytes(StandardCharsets.UTF_8))
+    path
+  }
+
+  private def relativePath(plan: SourcePlan): Path = {
+    val extension = if (plan.isJava) "java" else "scala"
+    Paths.get("synthetic", s"C${plan.index}.$extension")
+  }
+
+  private def renderScala(plan: SourcePlan, revision: Int): String = {
+    val i = plan.index
+    val sb = new StringBuilder
+    sb.append("package synthetic\n\n")
+    val opsDeps = plan.deps.filter(d => plans(d).hasOps)
+    opsDeps.foreach(d => sb.append(s"import synthetic.C${d}Ops._\n"))
+    sb.append("\n")
+
+    if (i == hub) {
+      val hubType = if (revision % 2 == 0) "Int" else "Long"
+      sb.append(s"class C$i {\n")
+      sb.append(s"  def hub: $hubType = $revision\n")
+      sb.append("  def compute(x: Int): Int = x + 1\n")
+      sb.append("}\n")
+    } else {
+      val extendsClause = plan.parent.fold("")(p => s" extends C$p")
+      val overrideModifier = if (plan.parent.isDefined) "override " else ""
+      sb.append(s"class C$i$extendsClause {\n")
+      sb.append(s"  ${overrideModifier}def compute(x: Int): Int = {\n")
+      sb.append(s"    val base = new C$hub().hub.toInt + helper(x)\n")
+      plan.deps.foreach { d =>
+        val call = if (plans(d).hasOps) s"new C$d().twice" else s"new C$d().compute(x)"
+        sb.append(s"    val dep$d = $call\n")
+      }
+      val sum = ("base" :: plan.deps.map(d => s"dep$d")).mkString(" + ")
+      sb.append(s"    $sum\n")
+      sb.append("  }\n")
+      val constant = if (i == leaf) 0 else revision
+      sb.append(s"  private def helper(x: Int): Int = x * $i + $constant\n")
+      if (plan.usesMacro) {
+        sb.append("  def describe(x: Int): String = f\"C" + i + " $x%d ${compute(x)}%08d\"\n")
+      }
+      if (i == leaf && revision % 2 == 1) sb.append("  def leaf: Int = 1\n")
+      sb.append("}\n")
+    }
+
+    if (plan.hasOps) {
+      sb.append(s"\nobject C${i}Ops {\n")
+      sb.append(s"  implicit class C${i}Syntax(val self: C$i) extends AnyVal {\n")
+      sb.append("    def twice: Int = self.compute(1) * 2\n")
+      sb.append("  }\n")
+      sb.append("}\n")
+    }
+    sb.toString
+  }
+
+  private def renderJava(plan: SourcePlan, revision: Int): String = {
+    val i = plan.index
+    val sb = new StringBuilder
+    sb.append("package synthetic;\n\n")
+    val extendsClause = plan.parent.fold("")(p => s" extends C$p")
+    sb.append(s"public class C$i$extendsClause {\n")
+    if (plan.parent.isDefined) sb.append("  @Override\n")
+    sb.append("  public int compute(int x) {\n")
+    sb.append(s"    int base = (int) new C$hub().hub() + helper(x);\n")
+    plan.deps.foreach(d => sb.append(s"    int dep$d = new C$d().compute(x);\n"))
+    val sum = ("base" :: plan.deps.map(d => s"dep$d")).mkString(" + ")
+    sb.append(s"    return $sum;\n")
+    sb.append("  }\n")
+    sb.append(s"  private int helper(int x) { return x * $i + $revision; }\n")
+    sb.append("}\n")
+    sb.toString
+  }
+}
+
+object SyntheticProject {
+  private final case class SourcePlan(
+      index: Int,
+      isJava: Boolean,
+      parent: Option[Int],
+      deps: List[Int],
+      hasOps: Boolean,
+      usesMacro: Boolean
+  )
+}
@@ -78,7 +78,7 @@ public class ZipCentralDir {
     private static byte[] ROOTPATH = new byte[0];
     private final IndexNode LOOKUPKEY = IndexNode.keyOf(null);
     private List<Entry> elist;
-    private static final boolean isWindows =
+    static final boolean isWindows =
             System.getProperty("os.name").startsWith("Windows");
 
     public ZipCentralDir(Path zfpath) throws IOException {
@@ -131,7 +131,7 @@ public class ZipCentralDir {
     // then the error was a zip format error and zip->msg has the error text.
     // Always pass in -1 for knownTotal; it's used for a recursive call.
     private byte[] initCEN() throws IOException {
-        end = findEND();
+        end = findEND(ch);
         // position of first LOC header (usually 0)
         long locpos;
         if (end.endpos == 0) {
@@ -185,7 +185,7 @@ public class ZipCentralDir {
         return cen;
     }
 
-    private END findEND() throws IOException
+    static END findEND(SeekableByteChannel ch) throws IOException
     {
         byte[] buf = new byte[READBLOCKSZ];
         long ziplen = ch.size();
@@ -201,7 +201,7 @@ public class ZipCentralDir {
                 Arrays.fill(buf, 0, off, (byte)0);
             }
             int len = buf.length - off;
-            if (readFullyAt(buf, off, len, pos + off) != len)
+            if (readFullyAt(ch, buf, off, len, pos + off) != len)
                 zerror("zip END header not found");
 
             // Now scan the block backwards for END header signature
@@ -226,13 +226,13 @@ public class ZipCentralDir {
                     {
                         // need to find the zip64 end;
                         byte[] loc64 = new byte[ZIP64_LOCHDR];
-                        if (readFullyAt(loc64, 0, loc64.length, end.endpos - ZIP64_LOCHDR)
+                        if (readFullyAt(ch, loc64, 0, loc64.length, end.endpos - ZIP64_LOCHDR)
                                 != loc64.length) {
                             return end;
                         }
                         long end64pos = ZIP64_LOCOFF(loc64);
                         byte[] end64buf = new byte[ZIP64_ENDHDR];
-                        if (readFullyAt(end64buf, 0, end64buf.length, end64pos)
+                        if (readFullyAt(ch, end64buf, 0, end64buf.length, end64pos)
                                 != end64buf.length) {
                             return end;
                         }
@@ -357,14 +357,15 @@ public class ZipCentralDir {
     // Each/every byte read from here (except the cen, which is mapped).
     private long readFullyAt(byte[] buf, int off, long len, long pos) throws IOException
     {
-        ByteBuffer bb = ByteBuffer.wrap(buf);
-        bb.position(off);
-        bb.limit((int)(off + len));
-        return readFullyAt(bb, pos);
+        return readFullyAt(ch, buf, off, len, pos);
     }
 
-    private long readFullyAt(ByteBuffer bb, long pos) throws IOException
+    private static long readFullyAt(SeekableByteChannel ch, byte[] buf, int off, long len, long pos)
+            throws IOException
     {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        bb.position(off);
+        bb.limit((int)(off + len));
         return ch.position(pos).read(bb);
     }
 
@@ -469,6 +470,43 @@ public class ZipCentralDir {
             this.locoff = value;
         }
 
+        // Estimates the length of the entry in the zip file from the central directory:
+        // the local header is assumed to have the same extra field.
+        public final long getEntryLength() {
+            long length = LOCHDR + name.length + (extra == null ? 0 : extra.length) + csize;
+            if ((flag & FLAG_DATADESCR) != 0)
+                length += EXTHDR;
+            return length;
+        }
+
+        // Reads the exact length of the entry in the zip file: its local header, its data
+        // and its data descriptor, whose signature is optional.
+        public final long readEntryLength(SeekableByteChannel ch) throws IOException {
+            byte[] loc = new byte[LOCHDR];
+            readFullyAt(ch, loc, locoff);
+            if (LOCSIG(loc) != LOCSIG)
+                throw new ZipException("invalid LOC header (bad signature)");
+            long length = LOCHDR + LOCNAM(loc) + LOCEXT(loc) + csize;
+            if ((flag & FLAG_DATADESCR) != 0) {
+                byte[] sig = new byte[4];
+                readFullyAt(ch, sig, locoff + length);
+                boolean zip64 = csize >= ZIP64_MINVAL || size >= ZIP64_MINVAL;
+                length += (GETSIG(sig) == EXTSIG ? 4 : 0) + 4 + (zip64 ? 16 : 8);
+            }
+            return length;
+        }
+
+        private static void readFullyAt(SeekableByteChannel ch, byte[] buf, long pos)
+                throws IOException
+        {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            ch.position(pos);
+            while (bb.hasRemaining()) {
+                if (ch.read(bb) < 0)
+                    throw new ZipException("invalid LOC header (unexpected end of file)");
+            }
+        }
+
         int version() throws ZipException {
             if (method == METHOD_DEFLATED)
                 return 20;
@@ -0,0 +1,203 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc.zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static sbt.internal.inc.zip.ZipConstants.*;
+import static sbt.internal.inc.zip.ZipUtils.*;
+
+/**
+ * Read-only view of the central directory of a zip file, that reads the names and the
+ * modification times of the entries in place instead of copying every header like
+ * {@link ZipCentralDir}.
+ *
+ * The central directory is either memory-mapped or read into a single buffer. Entries are looked
+ * up by name in a hash table of their positions in the central directory, so that the only
+ * allocations per entry are the ones of the table.
+ */
+public final class ZipCentralDirView {
+    private static final int EMPTY = -1;
+
+    private final ByteBuffer cen;
+    private final int[] positions; // positions of the headers, in the order of the zip
+    private final int[] table;     // open addressing table of indices into positions
+    private final int size;
+
+    private ZipCentralDirView(ByteBuffer cen) throws ZipException {
+        this.cen = cen;
+        int[] positions = new int[16];
+        int size = 0;
+        int limit = cen.limit();
+        int pos = 0;
+        while (pos < limit) {
+            if (pos + CENHDR > limit || (cen.getInt(pos) & 0xffffffffL) != CENSIG)
+                throw new ZipException("invalid CEN header (bad signature)");
+            if (size == positions.length)
+                positions = Arrays.copyOf(positions, size * 2);
+            positions[size++] = pos;
+            pos += CENHDR + nameLength(pos) + (cen.getShort(pos + 30) & 0xffff)
+                    + (cen.getShort(pos + 32) & 0xffff);
+        }
+        if (pos != limit)
+            throw new ZipException("invalid CEN header (bad header size)");
+        this.positions = positions;
+        this.size = size;
+        this.table = new int[tableSize(size)];
+        Arrays.fill(table, EMPTY);
+        for (int i = 0; i < size; i++) {
+            // As in ZipCentralDir, the last of duplicate entries wins
+            table[slotOf(positions[i] + CENHDR, nameLength(positions[i]))] = i;
+        }
+    }
+
+    /**
+     * Reads the central directory of the zip, by mapping it if {@code mapped} is true.
+     *
+     * A mapped view must not be used once the zip is truncated, which updating a zip in place
+     * does, so it should not outlive the operation it is read for. It is never mapped on Windows,
+     * where a mapped file can be neither truncated nor deleted until the mapping is garbage
+     * collected.
+     */
+    public static ZipCentralDirView read(Path zip, boolean mapped) throws IOException {
+        try (FileChannel ch = FileChannel.open(zip, READ)) {
+            ZipCentralDir.END end = ZipCentralDir.findEND(ch);
+            if (end.endpos == 0 || end.cenlen == 0) {
+                return new ZipCentralDirView(ByteBuffer.allocate(0));
+            }
+            if (end.cenlen > end.endpos)
+                throw new ZipException("invalid END header (bad central directory size)");
+            if (end.cenlen > Integer.MAX_VALUE)
+                throw new ZipException("central directory too large: " + end.cenlen);
+            long cenpos = end.endpos - end.cenlen;
+            ByteBuffer cen;
+            if (!mapped || ZipCentralDir.isWindows) {
+                cen = ByteBuffer.allocate((int) end.cenlen);
+                while (cen.hasRemaining()) {
+                    if (ch.read(cen, cenpos + cen.position()) < 0)
+                        throw new ZipException("read CEN tables failed");
+                }
+            } else {
+                cen = ch.map(FileChannel.MapMode.READ_ONLY, cenpos, end.cenlen);
+            }
+            cen.order(ByteOrder.LITTLE_ENDIAN);
+            return new ZipCentralDirView(cen);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(int index) {
+        int pos = positions[index];
+        byte[] name = new byte[nameLength(pos)];
+        for (int i = 0; i < name.length; i++) name[i] = cen.get(pos + CENHDR + i);
+        return new String(name);
+    }
+
+    /**
+     * Returns the modification time of the entry, from its NTFS or extended timestamp extra
+     * field if it has one, like {@link ZipCentralDir.Entry#getLastModifiedTime}.
+     */
+    public long getLastModifiedTime(int index) {
+        int pos = positions[index];
+        int off = pos + CENHDR + nameLength(pos);
+        int elen = cen.getShort(pos + 30) & 0xffff;
+        int limit = off + elen;
+        while (off + 4 < limit) {
+            int tag = cen.getShort(off) & 0xffff;
+            int sz = cen.getShort(off + 2) & 0xffff;
+            int data = off + 4;
+            if (data + sz > limit)
+                break;
+            if (tag == EXTID_NTFS && sz >= 32 && (cen.getShort(data + 4) & 0xffff) == 0x0001
+                    && (cen.getShort(data + 6) & 0xffff) == 24) {
+                return winToJavaTime(cen.getLong(data + 8));
+            }
+            // The extended timestamp of the central directory only has the modification time
+            if (tag == EXTID_EXTT && sz >= 5 && (cen.get(data) & 0x1) != 0) {
+                return unixToJavaTime(cen.getInt(data + 1) & 0xffffffffL);
+            }
+            off = data + sz;
+        }
+        return dosToJavaTime(cen.getInt(pos + 12) & 0xffffffffL);
+    }
+
+    /** Returns the index of the entry with the given name, or -1 if there is none. */
+    public int indexOf(String name) {
+        byte[] bytes = name.getBytes();
+        int mask = table.length - 1;
+        for (int slot = Arrays.hashCode(bytes) & mask; ; slot = (slot + 1) & mask) {
+            int index = table[slot];
+            if (index == EMPTY)
+                return -1;
+            int pos = positions[index];
+            if (nameLength(pos) == bytes.length && equalsAt(pos + CENHDR, bytes))
+                return index;
+        }
+    }
+
+    // Returns the slot of the entry with the name at the given offset, or the empty slot to
+    // insert it in
+    private int slotOf(int nameOff, int nameLen) {
+        int mask = table.length - 1;
+        for (int slot = hash(nameOff, nameLen) & mask; ; slot = (slot + 1) & mask) {
+            int index = table[slot];
+            if (index == EMPTY)
+                return slot;
+            int pos = positions[index];
+            if (nameLength(pos) == nameLen && equalsAt(nameOff, pos + CENHDR, nameLen))
+                return slot;
+        }
+    }
+
+    // Same as Arrays.hashCode(byte[]), which ZipCentralDir hashes names with
+    private int hash(int off, int len) {
+        int hash = 1;
+        for (int i = 0; i < len; i++) hash = 31 * hash + cen.get(off + i);
+        return hash;
+    }
+
+    private boolean equalsAt(int off, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (cen.get(off + i) != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean equalsAt(int off1, int off2, int len) {
+        for (int i = 0; i < len; i++) {
+            if (cen.get(off1 + i) != cen.get(off2 + i))
+                return false;
+        }
+        return true;
+    }
+
+    private int nameLength(int pos) {
+        return cen.getShort(pos + 28) & 0xffff;
+    }
+
+    private static int tableSize(int size) {
+        int tableSize = 2;
+        while (tableSize < size * 2) tableSize <<= 1;
+        return tableSize;
+    }
+}
@@ -59,6 +59,7 @@ class ZipConstants {
     static long LOCSIG = 0x04034b50L;   // "PK\003\004"
     static long CENSIG = 0x02014b50L;   // "PK\001\002"
     static long ENDSIG = 0x06054b50L;   // "PK\005\006"
+    static long EXTSIG = 0x08074b50L;   // "PK\007\008"
 
     /*
      * Header sizes in bytes (including signatures)
@@ -66,6 +67,12 @@ class ZipConstants {
     static final int LOCHDR = 30;       // LOC header size
     static final int CENHDR = 46;       // CEN header size
     static final int ENDHDR = 22;       // END header size
+    static final int EXTHDR = 16;       // EXT header size
+
+    /*
+     * General purpose flag bits
+     */
+    static final int FLAG_DATADESCR = 0x8; // crc and sizes are in a data descriptor
 
     /*
      * ZIP64 constants
@@ -11,10 +11,11 @@
 
 package sbt.internal.inc
 
-import java.io.OutputStream
-import java.nio.file.Path
+import java.io.{ File, OutputStream }
+import java.nio.channels.SeekableByteChannel
+import java.nio.file.{ Files, Path }
 
-import sbt.internal.inc.zip.ZipCentralDir
+import sbt.internal.inc.zip.{ ZipCentralDir, ZipCentralDirView }
 
 import scala.collection.JavaConverters._
 import scala.collection.immutable.Seq
@@ -22,6 +23,9 @@ import scala.collection.immutable.Seq
 /**
  * The concrete implementation of [[sbt.internal.inc.IndexBasedZipOps]]
  * based on [[sbt.internal.inc.zip.ZipCentralDir]].
+ *
+ * Listing entries and reading their timestamps only need their names and timestamps, which
+ * are read in place by [[sbt.internal.inc.zip.ZipCentralDirView]] instead.
  */
 object IndexBasedZipFsOps extends IndexBasedZipOps {
   override type CentralDir = ZipCentralDir
@@ -62,6 +66,32 @@ object IndexBasedZipFsOps extends IndexBasedZipOps {
     header.getLastModifiedTime
   }
 
+  override def listEntries(zipFile: File): Seq[String] = {
+    val centralDir = ZipCentralDirView.read(zipFile.toPath, /*mapped =*/ true)
+    (0 until centralDir.size).map(centralDir.getName)
+  }
+
+  override protected def readEntryStamps(zipFile: Path): String => Long = {
+    if (Files.exists(zipFile)) {
+      // Stamps are kept after the zip is truncated, so its central directory is not mapped
+      val centralDir = ZipCentralDirView.read(zipFile, /*mapped =*/ false)
+      entry => {
+        val index = centralDir.indexOf(entry)
+        if (index < 0) 0 else centralDir.getLastModifiedTime(index)
+      }
+    } else { _ =>
+      0
+    }
+  }
+
+  override protected def getEntryLength(header: Header): Long = {
+    header.getEntryLength
+  }
+
+  override protected def readEntryLength(channel: SeekableByteChannel, header: Header): Long = {
+    header.readEntryLength(channel)
+  }
+
   override protected def writeCentralDir(
       centralDir: CentralDir,
       outputStream: OutputStream
@@ -11,10 +11,12 @@
 
 package sbt.internal.inc
 
-import java.nio.channels.{ FileChannel, Channels, ReadableByteChannel }
+import java.nio.channels.{ FileChannel, Channels, ReadableByteChannel, SeekableByteChannel }
 import java.io._
-import java.nio.file.{ Files, Path }
+import java.nio.file.{ Files, NoSuchFileException, Path, StandardCopyOption, StandardOpenOption }
+import java.nio.file.attribute.BasicFileAttributes
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 import java.util.zip.{ Deflater, ZipOutputStream, ZipEntry }
 
 import sbt.io.{ IO, Using }
@@ -45,23 +47,63 @@ abstract class IndexBasedZipOps extends CreateZip {
    * This is enough as stamps are only read from the output jar.
    */
   final class CachedStamps(zip: Path) {
-    private val cachedNameToTimestamp: Map[String, Long] = initializeCache(zip)
+    private val cachedStamps: String => Long = readEntryStamps(zip)
 
     def getStamp(entry: String): Long = {
-      cachedNameToTimestamp.getOrElse(entry, 0)
+      cachedStamps(entry)
     }
+  }
 
-    private def initializeCache(zipFile: Path): Map[String, Long] = {
-      if (Files.exists(zipFile)) {
-        val centralDir = readCentralDir(zipFile)
-        val headers = getHeaders(centralDir)
+  /**
+   * Reads the timestamps of the entries of the zip for [[CachedStamps]], which may keep them
+   * after the zip is updated. The returned function gives 0 for the entries not in the zip.
+   */
+  protected def readEntryStamps(zipFile: Path): String => Long = {
+    if (Files.exists(zipFile)) {
+      val centralDir = readCentralDir(zipFile)
+      val headers = getHeaders(centralDir)
+      val stamps =
         headers.iterator.map(header => getFileName(header) -> getLastModifiedTime(header)).toMap
-      } else {
-        Map.empty
-      }
+      entry => stamps.getOrElse(entry, 0)
+    } else { _ =>
+      0
+    }
+  }
+
+  /** Identifies the contents of a zip, see [[readCachedStamps]]. */
+  private final case class ZipVersion(size: Long, lastModified: Long, fileKey: AnyRef)
+
+  private[this] val cachedStamps = new ConcurrentHashMap[Path, (ZipVersion, CachedStamps)]
+
+  /**
+   * Reads timestamps of zip entries, like [[CachedStamps]], but shares them between all the
+   * callers until the zip changes, as told by its size, modification time and file key, or is
+   * modified by these operations. The central directory of an output jar is then only parsed
+   * once for all the products stamped in a run, and across runs while the jar does not change.
+   */
+  def readCachedStamps(zip: Path): CachedStamps = {
+    val path = zip.toAbsolutePath.normalize
+    // Read before the stamps, so that a zip changed while being read is never cached as new
+    val version =
+      try {
+        val attributes = Files.readAttributes(path, classOf[BasicFileAttributes])
+        ZipVersion(attributes.size, attributes.lastModifiedTime.toMillis, attributes.fileKey)
+      } catch { case _: NoSuchFileException => null }
+    cachedStamps.get(path) match {
+      case (cachedVersion, stamps) if version != null && cachedVersion == version => stamps
+      case _ =>
+        val stamps = new CachedStamps(path)
+        if (version == null) cachedStamps.remove(path)
+        else cachedStamps.put(path, (version, stamps))
+        stamps
     }
   }
 
+  private def invalidateCachedStamps(zip: Path): Unit = {
+    cachedStamps.remove(zip.toAbsolutePath.normalize)
+    ()
+  }
+
   /**
    * Removes specified entries from given zip file by replacing current index
    * with a version without those entries.
@@ -106,6 +148,38 @@ abstract class IndexBasedZipOps extends CreateZip {
     }
   }
 
+  /**
+   * Returns the number of bytes of the zip file taken by entries that are no longer in its
+   * index. Removing or overwriting entries only replaces the index, so their data is left in
+   * place until the zip is compacted with [[compactArchive]].
+   */
+  def deadSpace(zipFile: File): Long = {
+    deadSpace(readCentralDir(zipFile.toPath))
+  }
+
+  /**
+   * Rewrites the zip file with only the entries of its index, if the dead space takes more
+   * than `maxDeadRatio` of the entries and at least `minDeadSpace` bytes.
+   *
+   * The offsets of the entries change, so an index read before compaction must not be
+   * written back to the zip afterwards.
+   *
+   * @param zipFile the zip file to compact
+   * @param maxDeadRatio the ratio of dead space to the size of the entries above which the zip
+   *                     is compacted
+   * @param minDeadSpace the number of bytes of dead space below which the zip is left as is
+   * @return whether the zip was compacted
+   */
+  def compactArchive(zipFile: File, maxDeadRatio: Double, minDeadSpace: Long): Boolean = {
+    val path = zipFile.toPath
+    val centralDir = readCentralDir(path)
+    val dead = deadSpace(centralDir)
+    val worthIt =
+      dead >= minDeadSpace && dead > maxDeadRatio * getCentralDirStart(centralDir)
+    if (worthIt) compact(path, centralDir)
+    worthIt
+  }
+
   /**
    * Reads the current index from given zip file
    *
@@ -183,6 +257,47 @@ abstract class IndexBasedZipOps extends CreateZip {
     finalizeZip(targetCentralDir, target, centralDirStart)
 
     Files.delete(source)
+    invalidateCachedStamps(source)
+  }
+
+  private def deadSpace(centralDir: CentralDir): Long = {
+    val live = getHeaders(centralDir).iterator.map(getEntryLength).sum
+    math.max(0L, getCentralDirStart(centralDir) - live)
+  }
+
+  private def compact(path: Path, centralDir: CentralDir): Unit = {
+    val compacted = path.resolveSibling(s"${path.getFileName}-${UUID.randomUUID()}.tmp")
+    try {
+      val source = FileChannel.open(path, StandardOpenOption.READ)
+      try {
+        val target =
+          FileChannel.open(compacted, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+        try {
+          // Entries are copied in the order of the zip, the index keeps its order
+          var offset = 0L
+          getHeaders(centralDir).sortBy(getFileOffset).foreach { header =>
+            val start = getFileOffset(header)
+            val length = readEntryLength(source, header)
+            var copied = 0L
+            while (copied < length) {
+              val transferred = source.transferTo(start + copied, length - copied, target)
+              if (transferred <= 0) throw new EOFException(s"Truncated entry in $path")
+              copied += transferred
+            }
+            setFileOffset(header, offset)
+            offset += length
+          }
+          setCentralDirStart(centralDir, offset)
+          val outputStream = new BufferedOutputStream(Channels.newOutputStream(target))
+          writeCentralDir(centralDir, outputStream)
+          outputStream.flush()
+        } finally target.close()
+      } finally source.close()
+      Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      Files.deleteIfExists(compacted)
+      invalidateCachedStamps(path)
+    }
   }
 
   private def mergeHeaders(
@@ -227,6 +342,7 @@ abstract class IndexBasedZipOps extends CreateZip {
     val outputStream = new BufferedOutputStream(fileOutputStream)
     writeCentralDir(centralDir, outputStream)
     outputStream.close()
+    invalidateCachedStamps(path)
   }
 
   private def transferAll(
@@ -271,6 +387,12 @@ abstract class IndexBasedZipOps extends CreateZip {
   protected def setFileOffset(header: Header, offset: Long): Unit
   protected def getLastModifiedTime(header: Header): Long
 
+  /** Estimates the number of bytes of the zip file taken by the entry from its header. */
+  protected def getEntryLength(header: Header): Long
+
+  /** Reads the exact number of bytes of the zip file taken by the entry. */
+  protected def readEntryLength(channel: SeekableByteChannel, header: Header): Long
+
   protected def writeCentralDir(centralDir: CentralDir, outputStream: OutputStream): Unit
 
 }
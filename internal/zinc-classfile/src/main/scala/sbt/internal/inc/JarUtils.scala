@@ -184,12 +184,28 @@ object JarUtils {
     }
   }
 
+  /**
+   * Compacts the jar once the classes that were removed or overwritten, whose data is left in
+   * place when the jar is updated, take more than half of it. This must not be called while an
+   * index stashed with `stashIndex` may still be restored.
+   *
+   * @return whether the jar was compacted
+   */
+  def compactJar(jar: Path): Boolean = {
+    Files.exists(jar) &&
+    IndexBasedZipFsOps.compactArchive(jar.toFile, compactionDeadRatio, compactionMinDeadSpace)
+  }
+
+  private final val compactionDeadRatio = 0.5
+  private final val compactionMinDeadSpace = 1024L * 1024L
+
   /**
    * Reads all timestamps from given jar file. Returns a function that
    * allows to access them by `ClassInJar` wrapped in `File`.
+   * The timestamps are only read again once the jar changes.
    */
   def readStamps(jar: Path): Path => Long = {
-    val stamps = new IndexBasedZipFsOps.CachedStamps(jar)
+    val stamps = IndexBasedZipFsOps.readCachedStamps(jar)
     file =>
       val u = file.toUri.toURL
       stamps.getStamp(ClassInJar.fromURL(u, jar).toClassFilePath.get)
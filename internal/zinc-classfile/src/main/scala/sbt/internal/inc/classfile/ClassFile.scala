@@ -14,6 +14,8 @@ package internal
 package inc
 package classfile
 
+import java.io.{ ByteArrayInputStream, DataInputStream }
+
 import Constants._
 
 private[sbt] trait ClassFile {
@@ -63,6 +65,133 @@ private[sbt] trait ClassFile {
         case constant =>
           throw new IllegalStateException(s"Unsupported ConstantValue type: $constant")
       }
+
+  /** Returns the string stored in the UTF8 entry at the given index of the constant pool. */
+  def utf8(index: Int): String = {
+    val entry = constantPool(index)
+    assume(entry.tag == ConstantUTF8, "Constant pool entry is not a UTF8 type: " + index)
+    entry.value.get.asInstanceOf[String]
+  }
+
+  /** Returns the binary name of the class entry at the given index, or "" for index 0. */
+  def classConstantName(index: Int): String = {
+    val entry = constantPool(index)
+    if (entry == null) "" else utf8(entry.nameIndex).replace('/', '.')
+  }
+
+  /** Returns the generic signature of this class, if any. */
+  def signature: Option[String] = attributes.find(_.isSignature).map(stringValue)
+
+  /** Returns the generic signature of a field or method of this class, if any. */
+  def signatureOf(member: FieldOrMethodInfo): Option[String] =
+    member.attributes.find(_.isSignature).map(stringValue)
+
+  /** Returns the entries of the `InnerClasses` attribute. */
+  lazy val innerClasses: Seq[InnerClassInfo] =
+    attributes.find(_.isNamed("InnerClasses")).toList.flatMap { a =>
+      val in = attributeInput(a)
+      List.fill(in.readUnsignedShort()) {
+        val inner = classConstantName(in.readUnsignedShort())
+        val outer = in.readUnsignedShort()
+        val name = in.readUnsignedShort()
+        InnerClassInfo(
+          inner,
+          if (outer == 0) None else Some(classConstantName(outer)),
+          if (name == 0) None else Some(utf8(name)),
+          in.readUnsignedShort()
+        )
+      }
+    }
+
+  /** Returns the entry of the `InnerClasses` attribute that describes this class, if nested. */
+  def innerClassInfo: Option[InnerClassInfo] = innerClasses.find(_.className == className)
+
+  /**
+   * Returns the class that lexically encloses this class: the outer class of a member class, or
+   * the class of the enclosing method of a local or anonymous class.
+   */
+  def enclosingClassName: Option[String] =
+    innerClassInfo.flatMap(_.outerClassName).orElse {
+      attributes.find(_.isNamed("EnclosingMethod")).map { a =>
+        classConstantName(attributeInput(a).readUnsignedShort())
+      }
+    }
+
+  /**
+   * Returns the canonical name of a class referenced from this class file, or None for local
+   * and anonymous classes (and classes nested in them), following the `InnerClasses` attribute
+   * that must describe every nested class referenced from the constant pool.
+   */
+  def canonicalName(binaryName: String): Option[String] =
+    innerClasses.find(_.className == binaryName) match {
+      case Some(InnerClassInfo(_, Some(outer), Some(simpleName), _)) =>
+        canonicalName(outer).map(_ + "." + simpleName)
+      case Some(_) => None
+      case None    => Some(binaryName)
+    }
+
+  /** Returns the names of the classes declared in the `Exceptions` attribute of a method. */
+  def exceptionsOf(method: FieldOrMethodInfo): Seq[String] =
+    method.attributes.find(_.isNamed("Exceptions")).toList.flatMap { a =>
+      val in = attributeInput(a)
+      List.fill(in.readUnsignedShort())(classConstantName(in.readUnsignedShort()))
+    }
+
+  /** Returns the runtime visible annotations among the given attributes. */
+  def annotationsOf(attributes: scala.collection.Seq[AttributeInfo]): Seq[AnnotationInfo] =
+    attributes.find(_.isNamed("RuntimeVisibleAnnotations")).toList.flatMap { a =>
+      val in = attributeInput(a)
+      List.fill(in.readUnsignedShort())(readAnnotation(in))
+    }
+
+  /** Returns the runtime visible annotations of every parameter of a method. */
+  def parameterAnnotationsOf(method: FieldOrMethodInfo): Seq[Seq[AnnotationInfo]] =
+    method.attributes.find(_.isNamed("RuntimeVisibleParameterAnnotations")).toList.flatMap { a =>
+      val in = attributeInput(a)
+      List.fill(in.readUnsignedByte()) {
+        List.fill(in.readUnsignedShort())(readAnnotation(in))
+      }
+    }
+
+  /** Returns the names of the fields and methods that are referenced from this class file. */
+  def memberReferenceNames: Set[String] =
+    constantPool.iterator.collect {
+      case Constant(ConstantField | ConstantMethod | ConstantInterfaceMethod, _, nameAndType, _) =>
+        utf8(constantPool(nameAndType).nameIndex)
+    }.filterNot(name => name == "<init>" || name == "<clinit>").toSet
+
+  private def attributeInput(a: AttributeInfo): DataInputStream =
+    new DataInputStream(new ByteArrayInputStream(a.value))
+
+  private def readAnnotation(in: DataInputStream): AnnotationInfo = {
+    val annotationType = Parser.descriptorClassName(utf8(in.readUnsignedShort()))
+    val elements = List.fill(in.readUnsignedShort()) {
+      utf8(in.readUnsignedShort()) + "=" + readElementValue(in)
+    }
+    AnnotationInfo(annotationType, elements.mkString("@" + annotationType + "(", ", ", ")"))
+  }
+
+  private def readElementValue(in: DataInputStream): String = {
+    (in.readUnsignedByte().toChar: @scala.annotation.switch) match {
+      case 'B' | 'D' | 'F' | 'I' | 'J' | 'S' =>
+        constantPool(in.readUnsignedShort()).value.get.toString
+      case 'C' =>
+        val value = constantPool(in.readUnsignedShort()).value.get
+        "'" + value.asInstanceOf[java.lang.Integer].intValue.toChar + "'"
+      case 'Z' =>
+        val value = constantPool(in.readUnsignedShort()).value.get
+        (value.asInstanceOf[java.lang.Integer].intValue != 0).toString
+      case 's' => "\"" + utf8(in.readUnsignedShort()) + "\""
+      case 'e' =>
+        val enumType = Parser.descriptorClassName(utf8(in.readUnsignedShort()))
+        enumType + "." + utf8(in.readUnsignedShort())
+      case 'c' => utf8(in.readUnsignedShort()) + ".class"
+      case '@' => readAnnotation(in).text
+      case '[' =>
+        List.fill(in.readUnsignedShort())(readElementValue(in)).mkString("{", ", ", "}")
+      case tag => throw new IllegalStateException(s"Unknown annotation element tag: $tag")
+    }
+  }
 }
 
 private[sbt] final case class Constant(
@@ -91,14 +220,40 @@ private[sbt] final case class FieldOrMethodInfo(
   def isPublic = (accessFlags & ACC_PUBLIC) == ACC_PUBLIC
   def isMain = isPublic && isStatic && descriptor.exists(_ == "([Ljava/lang/String;)V")
 }
+
+/**
+ * An entry of the `InnerClasses` attribute.
+ *
+ * @param outerClassName The class that declares a member class, None for local and
+ *                       anonymous classes.
+ * @param innerName The simple name of the class, None for anonymous classes.
+ */
+private[sbt] final case class InnerClassInfo(
+    className: String,
+    outerClassName: Option[String],
+    innerName: Option[String],
+    accessFlags: Int
+) {
+  def isStatic = (accessFlags & ACC_STATIC) == ACC_STATIC
+}
+
+/** A runtime visible annotation, `text` being its source-like rendering. */
+private[sbt] final case class AnnotationInfo(annotationType: String, text: String)
 private[sbt] final case class AttributeInfo(name: Option[String], value: Array[Byte]) {
   def isNamed(s: String) = name.exists(s == _)
   def isSignature = isNamed("Signature")
   def isSourceFile = isNamed("SourceFile")
 }
 private[sbt] object Constants {
-  final val ACC_STATIC = 0x0008
   final val ACC_PUBLIC = 0x0001
+  final val ACC_PRIVATE = 0x0002
+  final val ACC_PROTECTED = 0x0004
+  final val ACC_STATIC = 0x0008
+  final val ACC_FINAL = 0x0010
+  final val ACC_VARARGS = 0x0080
+  final val ACC_INTERFACE = 0x0200
+  final val ACC_ABSTRACT = 0x0400
+  final val ACC_ENUM = 0x4000
 
   final val JavaMagic = 0xCAFEBABE
   final val ConstantUTF8 = 1
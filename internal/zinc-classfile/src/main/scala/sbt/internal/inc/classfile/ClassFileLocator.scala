@@ -0,0 +1,150 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+package classfile
+
+import java.net.URL
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipFile
+
+import sbt.util.Logger
+
+/**
+ * Finds and parses class files by binary name over a classpath, without a classloader.
+ *
+ * Lookups follow the order of a `URLClassLoader` whose parent is `platform`: classes of the
+ * platform (the JDK) are resolved first, then the classpath is searched in order. Both the
+ * location and the parsed class file of every class are cached, so that instances can be
+ * shared by the threads of an analysis run. Jars are opened lazily and kept open until
+ * `close` is called.
+ *
+ * @param classpath The directories and jars to search.
+ * @param platform The loader whose resources are the classes of the platform.
+ */
+private[sbt] final class ClassFileLocator(
+    classpath: Seq[Path],
+    platform: ClassLoader,
+    finalJarOutput: Option[Path],
+    log: Logger
+) extends AutoCloseable {
+  import ClassFileLocator._
+
+  private[this] val locations = new ConcurrentHashMap[String, Option[Location]]
+  private[this] val classFiles = new ConcurrentHashMap[String, Option[ClassFile]]
+  private[this] val jars = new ConcurrentHashMap[Path, ZipFile]
+
+  /** Returns the file that contains the class, as it should be recorded as a binary dependency. */
+  def origin(binaryName: String): Option[Path] =
+    locate(binaryName).flatMap {
+      case InPlatform(url)        => JavaAnalyze.urlAsFile(url, log, finalJarOutput)
+      case InDirectory(classFile) => Some(classFile)
+      case InJar(jar, entry) =>
+        if (finalJarOutput.exists(_ == jar)) Some(JarUtils.ClassInJar(jar, entry).toPath)
+        else Some(jar)
+    }
+
+  /** Returns the parsed class file of a class, if it can be found. */
+  def classFile(binaryName: String): Option[ClassFile] = {
+    val cached = classFiles.get(binaryName)
+    if (cached != null) cached
+    else {
+      val parsed =
+        try locate(binaryName).map(parse)
+        catch {
+          case e: Exception =>
+            log.warn("Error reading class file of " + binaryName + " : " + e.toString)
+            None
+        }
+      val previous = classFiles.putIfAbsent(binaryName, parsed)
+      if (previous != null) previous else parsed
+    }
+  }
+
+  /** Makes an already parsed class file, for example a freshly compiled one, available. */
+  def register(classFile: ClassFile): Unit = {
+    classFiles.putIfAbsent(classFile.className, Some(classFile))
+    ()
+  }
+
+  override def close(): Unit = {
+    val it = jars.values.iterator
+    while (it.hasNext) {
+      try it.next().close()
+      catch { case e: Exception => log.debug("Could not close jar: " + e.toString) }
+    }
+    jars.clear()
+  }
+
+  private def locate(binaryName: String): Option[Location] = {
+    val cached = locations.get(binaryName)
+    if (cached != null) cached
+    else {
+      val location = find(binaryName.replace('.', '/') + ".class")
+      locations.putIfAbsent(binaryName, location)
+      location
+    }
+  }
+
+  private def find(entry: String): Option[Location] =
+    Option(platform.getResource(entry)) match {
+      case Some(url) => Some(InPlatform(url))
+      case None =>
+        classpath.iterator.map { root =>
+          if (Files.isDirectory(root)) {
+            val classFile = root.resolve(entry)
+            if (Files.isRegularFile(classFile)) Some(InDirectory(classFile)) else None
+          } else if (Files.isRegularFile(root)) {
+            val zip = jar(root)
+            if (zip != null && zip.getEntry(entry) != null) Some(InJar(root, entry)) else None
+          } else None
+        }.collectFirst { case Some(location) => location }
+    }
+
+  private def jar(path: Path): ZipFile = {
+    val opened = jars.get(path)
+    if (opened != null) opened
+    else {
+      val zip =
+        try new ZipFile(path.toFile)
+        catch {
+          case e: Exception =>
+            log.debug("Could not open " + path + " : " + e.toString)
+            null
+        }
+      if (zip == null) null
+      else {
+        val previous = jars.putIfAbsent(path, zip)
+        if (previous == null) zip else { zip.close(); previous }
+      }
+    }
+  }
+
+  private def parse(location: Location): ClassFile = location match {
+    case InPlatform(url)        => Parser(url)
+    case InDirectory(classFile) => Parser(classFile)
+    case InJar(path, entry) =>
+      val zip = jar(path)
+      val is = zip.getInputStream(zip.getEntry(entry))
+      try Parser(is, path + "!/" + entry)
+      finally is.close()
+  }
+}
+
+private[sbt] object ClassFileLocator {
+  private sealed trait Location
+  private final case class InPlatform(url: URL) extends Location
+  private final case class InDirectory(classFile: Path) extends Location
+  private final case class InJar(jar: Path, entry: String) extends Location
+}
@@ -221,7 +221,7 @@ private[sbt] object JavaAnalyze {
    * into
    *   `/develop/zinc/target/output.jar!/sbt/internal/inc/Compile.class`
    */
-  private def resolveFinalClassFile(
+  private[classfile] def resolveFinalClassFile(
       realClassFile: Path,
       outputDir: Path,
       outputJar: Path,
@@ -234,7 +234,11 @@ private[sbt] object JavaAnalyze {
     }
   }
 
-  private[this] def urlAsFile(url: URL, log: Logger, finalJarOutput: Option[Path]): Option[Path] =
+  private[classfile] def urlAsFile(
+      url: URL,
+      log: Logger,
+      finalJarOutput: Option[Path]
+  ): Option[Path] =
     try urlAsFile(url, finalJarOutput)
     catch {
       case e: Exception =>
@@ -254,12 +258,12 @@ private[sbt] object JavaAnalyze {
     }
   }
 
-  private def trapAndLog(log: Logger)(execute: => Unit): Unit = {
+  private[classfile] def trapAndLog(log: Logger)(execute: => Unit): Unit = {
     try {
       execute
     } catch { case e: Throwable => log.trace(e); log.error(e.toString) }
   }
-  private def guessSourceName(name: String) = Some(takeToDollar(trimClassExt(name)))
+  private[classfile] def guessSourceName(name: String) = Some(takeToDollar(trimClassExt(name)))
   private def takeToDollar(name: String) = {
     val dollar = name.indexOf('$')
     if (dollar < 0) name else name.substring(0, dollar)
@@ -283,7 +287,7 @@ private[sbt] object JavaAnalyze {
    * given mapping between getName and sources, try to guess
    * where the *.class file is coming from.
    */
-  private def guessSourcePath(
+  private[classfile] def guessSourcePath(
       sourceNameMap: Map[String, Set[VirtualFile]],
       classFile: ClassFile,
       log: Logger
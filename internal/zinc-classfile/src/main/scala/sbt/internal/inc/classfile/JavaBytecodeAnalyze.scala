@@ -0,0 +1,238 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+package classfile
+
+import java.nio.file.Path
+import java.util.EnumSet
+import java.util.concurrent.{ Callable, ForkJoinPool, ForkJoinTask }
+
+import xsbti.{ UseScope, VirtualFile, VirtualFileRef }
+import xsbti.api.DependencyContext
+import xsbti.api.DependencyContext._
+import sbt.util.Logger
+import xsbti.compile.Output
+
+/**
+ * Analyzes the class files generated by javac from their bytes only.
+ *
+ * This is an alternative to [[JavaAnalyze]] that never loads (nor initializes) the compiled
+ * classes: the canonical names, enclosing classes and dependencies of the classes are read from
+ * the class files and the classes of the classpath are found by a [[ClassFileLocator]].
+ *
+ * Class files are parsed, and the API of every source is extracted, in parallel on a fork-join
+ * pool. The results are then reported to the callback sequentially, like [[JavaAnalyze]] does.
+ * Besides the same dependencies, the names of the members referenced from the constant pools
+ * are reported as used names.
+ */
+private[sbt] object JavaBytecodeAnalyze {
+  private[this] lazy val pool = new ForkJoinPool(Runtime.getRuntime.availableProcessors)
+
+  /**
+   * @param extractAPI Extracts the API of a group of classes of a source. It is called from many
+   *                   threads at once.
+   * @param readAPI Reports an extracted API to the callback and returns the (class, parent) pairs
+   *                of inheritance dependencies, by binary name.
+   */
+  def apply[A](
+      newClasses: Seq[Path],
+      sources: Seq[VirtualFile],
+      log: Logger,
+      output: Output,
+      finalJarOutput: Option[Path]
+  )(
+      analysis: xsbti.AnalysisCallback,
+      locator: ClassFileLocator,
+      extractAPI: Seq[ClassFile] => A,
+      readAPI: (VirtualFileRef, A) => Set[(String, String)]
+  ): Unit = {
+    val sourceMap = sources
+      .toSet[VirtualFile]
+      .groupBy(_.name)
+    // For performance reasons, precompute these as they are static throughout this analysis
+    val singleOutputOrNull: Path = output.getSingleOutputAsPath.orElse(null)
+    val directOutputJarOrNull: Path = JarUtils.getOutputJar(output).getOrElse(null)
+    val mappedOutputJarOrNull: Path = finalJarOutput.getOrElse(null)
+
+    def remapClassFile(classFile: Path) =
+      if (directOutputJarOrNull != null && classFile.getFileSystem.provider.getScheme == "jar")
+        JarUtils
+          .ClassInJar(directOutputJarOrNull, classFile.getRoot.relativize(classFile).toString)
+          .toPath
+      else if (singleOutputOrNull != null && mappedOutputJarOrNull != null)
+        JavaAnalyze.resolveFinalClassFile(
+          classFile,
+          singleOutputOrNull,
+          mappedOutputJarOrNull,
+          log
+        )
+      else
+        classFile
+
+    val parsed = parallel(newClasses.filterNot(_.toString.endsWith("module-info.class"))) {
+      newClass => newClass -> Parser(newClass)
+    }
+    parsed.foreach { case (_, classFile) => locator.register(classFile) }
+
+    val binaryClassNameToClassFile = parsed.map { case (_, cf) => cf.className -> cf }.toMap
+    def lookup(binaryName: String): Option[ClassFile] =
+      binaryClassNameToClassFile.get(binaryName).orElse(locator.classFile(binaryName))
+
+    // The equivalent of `getCanonicalName` for the classes compiled in this run
+    def sourceName(classFile: ClassFile): Option[String] =
+      classFile.canonicalName(classFile.className)
+    def enclosingSourceName(classFile: ClassFile): Option[String] =
+      sourceName(classFile).orElse {
+        classFile.enclosingClassName.flatMap(lookup).flatMap(enclosingSourceName)
+      }
+
+    // assign classes to sources. This must be done before dependencies, since the information
+    // comes as class->class dependencies that must be mapped back to source->class dependencies
+    val sourceToClassFiles = new java.util.LinkedHashMap[VirtualFile, Vector[ClassFile]]
+    sources.foreach(sourceToClassFiles.put(_, Vector.empty))
+    for {
+      (newClass, classFile) <- parsed
+      _ <- classFile.sourceFile orElse JavaAnalyze.guessSourceName(newClass.getFileName.toString)
+      source <- JavaAnalyze.guessSourcePath(sourceMap, classFile, log)
+    } {
+      val finalClassFile: Path = remapClassFile(newClass)
+      enclosingSourceName(classFile) match {
+        case Some(className) =>
+          analysis.generatedNonLocalClass(source, finalClassFile, classFile.className, className)
+        case None => analysis.generatedLocalClass(source, finalClassFile)
+      }
+      sourceToClassFiles.put(source, sourceToClassFiles.get(source) :+ classFile)
+    }
+
+    final class SourceAnalysis(
+        val source: VirtualFile,
+        val classFiles: Seq[ClassFile],
+        val localClassesToSources: Map[String, String],
+        val nonLocalAPI: A,
+        val localAPI: A
+    )
+
+    // extract the APIs of all sources in parallel, this is where most of the time goes
+    val entries = {
+      val builder = Vector.newBuilder[(VirtualFile, Vector[ClassFile])]
+      val it = sourceToClassFiles.entrySet.iterator
+      while (it.hasNext) { val e = it.next(); builder += (e.getKey -> e.getValue) }
+      builder.result()
+    }
+    val analyzed = parallel(entries) {
+      case (source, classFiles) =>
+        // Local classes are either local, anonymous or inner Java classes
+        val (nonLocalClasses, localClassesOrStale) = classFiles.partition(sourceName(_).isDefined)
+        // Map local classes to the sources of their enclosing classes
+        val localClassesToSources = (for {
+          cls <- localClassesOrStale
+          sourceOfEnclosing <- cls.enclosingClassName.flatMap(lookup).flatMap(enclosingSourceName)
+        } yield (cls.className, sourceOfEnclosing)).toMap
+        val localClasses =
+          localClassesOrStale.filter(cls => localClassesToSources.contains(cls.className))
+        new SourceAnalysis(
+          source,
+          classFiles,
+          localClassesToSources,
+          extractAPI(nonLocalClasses),
+          extractAPI(localClasses)
+        )
+    }
+
+    // get class to class dependencies and map back to source to class dependencies
+    for (sourceAnalysis <- analyzed) {
+      val source = sourceAnalysis.source
+      analysis.startSource(source)
+
+      /* Get the mapped source file from a given class name. */
+      def getMappedSource(className: String): Option[String] =
+        binaryClassNameToClassFile
+          .get(className)
+          .flatMap(sourceName)
+          .orElse(sourceAnalysis.localClassesToSources.get(className))
+
+      def processDependency(
+          onBinaryName: String,
+          context: DependencyContext,
+          fromBinaryName: String
+      ): Unit = {
+        (getMappedSource(fromBinaryName), getMappedSource(onBinaryName)) match {
+          case (Some(fromClassName), Some(onClassName)) =>
+            JavaAnalyze.trapAndLog(log) {
+              analysis.classDependency(onClassName, fromClassName, context)
+            }
+          case (Some(fromClassName), None) =>
+            JavaAnalyze.trapAndLog(log) {
+              for (file <- locator.origin(onBinaryName)) {
+                val binaryFile: Path = remapClassFile(file)
+                analysis.binaryDependency(
+                  binaryFile,
+                  onBinaryName,
+                  fromClassName,
+                  source,
+                  context
+                )
+              }
+            }
+          case (None, _) => // It could be a stale class file, ignore
+        }
+      }
+      def processDependencies(
+          binaryClassNames: Iterable[String],
+          context: DependencyContext,
+          fromBinaryClassName: String
+      ): Unit =
+        binaryClassNames.foreach(
+          binaryClassName => processDependency(binaryClassName, context, fromBinaryClassName)
+        )
+
+      // Process dependencies by member references and the names they use
+      for (classFile <- sourceAnalysis.classFiles) {
+        processDependencies(classFile.types, DependencyByMemberRef, classFile.className)
+        for (className <- getMappedSource(classFile.className)) {
+          classFile.memberReferenceNames.foreach { name =>
+            analysis.usedName(className, name, DefaultScopes)
+          }
+        }
+      }
+
+      def readInheritanceDependencies(api: A) =
+        readAPI(source, api).groupBy(_._1).iterator.map { case (k, v) => k -> v.map(_._2) }
+
+      // Report API of non-local classes and process dependencies by inheritance
+      readInheritanceDependencies(sourceAnalysis.nonLocalAPI).foreach {
+        case (className, inheritanceDeps) =>
+          processDependencies(inheritanceDeps, DependencyByInheritance, className)
+      }
+
+      // Report API of local classes and process local dependencies by inheritance
+      readInheritanceDependencies(sourceAnalysis.localAPI).foreach {
+        case (className, inheritanceDeps) =>
+          processDependencies(inheritanceDeps, LocalDependencyByInheritance, className)
+      }
+    }
+  }
+
+  private[this] val DefaultScopes = EnumSet.of(UseScope.Default)
+
+  /** Applies `f` to all elements on the fork-join pool, preserving their order. */
+  private def parallel[T, U](xs: Seq[T])(f: T => U): Seq[U] =
+    if (xs.lengthCompare(1) <= 0) xs.map(f)
+    else {
+      val tasks = xs.map { x =>
+        pool.submit(new Callable[U] { def call(): U = f(x) }): ForkJoinTask[U]
+      }
+      tasks.map(_.join())
+    }
+}
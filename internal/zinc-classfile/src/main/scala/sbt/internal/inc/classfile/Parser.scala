@@ -41,6 +41,10 @@ private[sbt] object Parser {
   def apply(url: URL): ClassFile =
     usingUrlInputStreamWithoutCaching(url)(parse(url.toString)).right.get
 
+  /** Parses a class file from a stream that is left open. */
+  def apply(is: InputStream, readableName: String): ClassFile =
+    parseImpl(readableName, new BufferedInputStream(is))
+
   // JarURLConnection with caching enabled will never close the jar
   private val usingUrlInputStreamWithoutCaching = Using.resource(
     (u: URL) =>
@@ -207,6 +211,12 @@ private[sbt] object Parser {
 
   private def slashesToDots(s: String) = s.replace('/', '.')
 
+  /** Returns the binary name of the class in a field descriptor such as `Ljava/lang/String;`. */
+  def descriptorClassName(descriptor: String): String =
+    if (descriptor.length > 2 && descriptor.charAt(0) == ClassDescriptor)
+      slashesToDots(descriptor.substring(1, descriptor.length - 1))
+    else slashesToDots(descriptor)
+
   private def descriptorToTypes(descriptor: Option[String]) = {
     def toTypes(descriptor: String, types: List[String]): List[String] = {
       val startIndex = descriptor.indexOf(ClassDescriptor)
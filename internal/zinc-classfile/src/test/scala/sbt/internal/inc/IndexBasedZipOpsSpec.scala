@@ -0,0 +1,229 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.nio.channels.FileChannel
+import java.nio.file.{ Files, Path }
+import java.nio.file.attribute.FileTime
+import java.util.zip.{ ZipEntry, ZipException, ZipFile, ZipOutputStream }
+
+import sbt.io.{ IO, Using }
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+class IndexBasedZipOpsSpec extends UnitSpec {
+  // Even seconds, which DOS timestamps keep exactly
+  private val time1 = 1500000000000L
+  private val time2 = 1600000000000L
+
+  /** Writes a zip of the given entries, with their contents and timestamps. */
+  private def writeZip(zip: Path, entries: Seq[(String, Array[Byte], Long)]): Unit = {
+    val output = new ZipOutputStream(Files.newOutputStream(zip))
+    try entries.foreach {
+      case (name, bytes, time) =>
+        val entry = new ZipEntry(name)
+        entry.setTime(time)
+        output.putNextEntry(entry)
+        output.write(bytes)
+        output.closeEntry()
+    } finally output.close()
+  }
+
+  private def bytes(s: String) = s.getBytes("UTF-8")
+
+  /** Incompressible contents, so that the entries take about `size` bytes of the zip. */
+  private def randomBytes(seed: Long, size: Int): Array[Byte] = {
+    val bytes = new Array[Byte](size)
+    new Random(seed).nextBytes(bytes)
+    bytes
+  }
+
+  /** Reads the entries of the zip from its index, with their contents and timestamps. */
+  private def readZip(zip: Path): Map[String, (Seq[Byte], Long)] = {
+    val zipFile = new ZipFile(zip.toFile)
+    try zipFile.entries.asScala.map { entry =>
+      val contents = IO.readBytes(zipFile.getInputStream(entry)).toSeq
+      entry.getName -> ((contents, entry.getTime))
+    }.toMap
+    finally zipFile.close()
+  }
+
+  /** Reads the names of the entries of the zip one after the other, ignoring its index. */
+  private def readZipSequentially(zip: Path): Seq[String] =
+    Using.zipInputStream(Files.newInputStream(zip)) { input =>
+      Iterator.continually(input.getNextEntry).takeWhile(_ != null).map(_.getName).toList
+    }
+
+  private val entries = Seq(
+    ("a/A.class", randomBytes(1, 4000), time1),
+    ("a/B.class", randomBytes(2, 3000), time2),
+    ("a/C.class", randomBytes(3, 2000), time1),
+    ("a/D.class", randomBytes(4, 1000), time2)
+  )
+
+  "readCachedStamps" should "share the stamps of a zip until it changes" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, Seq(("a/A.class", bytes("A"), time1), ("a/B.class", bytes("B"), time2)))
+      val stamps = IndexBasedZipFsOps.readCachedStamps(zip)
+      stamps.getStamp("a/A.class") shouldBe time1
+      stamps.getStamp("a/B.class") shouldBe time2
+      stamps.getStamp("a/C.class") shouldBe 0L
+      assert(IndexBasedZipFsOps.readCachedStamps(zip) eq stamps)
+      // The same zip through another path
+      val relative = dir.toPath.resolve("a").resolve("..").resolve("output.jar")
+      assert(IndexBasedZipFsOps.readCachedStamps(relative) eq stamps)
+    }
+  }
+
+  it should "read the stamps again once entries are removed" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, Seq(("a/A.class", bytes("A"), time1), ("a/B.class", bytes("B"), time2)))
+      val stamps = IndexBasedZipFsOps.readCachedStamps(zip)
+      IndexBasedZipFsOps.removeEntries(zip.toFile, Seq("a/A.class"))
+      val updated = IndexBasedZipFsOps.readCachedStamps(zip)
+      assert(updated ne stamps)
+      updated.getStamp("a/A.class") shouldBe 0L
+      updated.getStamp("a/B.class") shouldBe time2
+    }
+  }
+
+  it should "read the stamps again once archives are merged into the zip" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      val updates = dir.toPath.resolve("updates.jar")
+      writeZip(zip, Seq(("a/A.class", bytes("A"), time1)))
+      writeZip(updates, Seq(("a/A.class", bytes("A2"), time2), ("a/B.class", bytes("B"), time2)))
+      val stamps = IndexBasedZipFsOps.readCachedStamps(zip)
+      IndexBasedZipFsOps.mergeArchives(zip, updates)
+      val updated = IndexBasedZipFsOps.readCachedStamps(zip)
+      assert(updated ne stamps)
+      updated.getStamp("a/A.class") shouldBe time2
+      updated.getStamp("a/B.class") shouldBe time2
+    }
+  }
+
+  it should "read the stamps again once the zip is rewritten by another tool" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, Seq(("a/A.class", bytes("A"), time1)))
+      Files.setLastModifiedTime(zip, FileTime.fromMillis(time1))
+      val stamps = IndexBasedZipFsOps.readCachedStamps(zip)
+      // Same size, but another modification time
+      writeZip(zip, Seq(("a/A.class", bytes("Z"), time2)))
+      Files.setLastModifiedTime(zip, FileTime.fromMillis(time2))
+      val updated = IndexBasedZipFsOps.readCachedStamps(zip)
+      assert(updated ne stamps)
+      updated.getStamp("a/A.class") shouldBe time2
+    }
+  }
+
+  it should "not cache the stamps of a missing zip" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      IndexBasedZipFsOps.readCachedStamps(zip).getStamp("a/A.class") shouldBe 0L
+      writeZip(zip, Seq(("a/A.class", bytes("A"), time1)))
+      IndexBasedZipFsOps.readCachedStamps(zip).getStamp("a/A.class") shouldBe time1
+    }
+  }
+
+  "compactArchive" should "drop the dead space and keep the entries of the zip" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, entries)
+      IndexBasedZipFsOps.deadSpace(zip.toFile) shouldBe 0L
+      IndexBasedZipFsOps.removeEntries(zip.toFile, Seq("a/A.class", "a/C.class"))
+      val live = readZip(zip)
+      live.keySet shouldBe Set("a/B.class", "a/D.class")
+      IndexBasedZipFsOps.deadSpace(zip.toFile) should be >= 6000L
+      val size = Files.size(zip)
+
+      assert(IndexBasedZipFsOps.compactArchive(zip.toFile, 0.5, 0L))
+      IndexBasedZipFsOps.deadSpace(zip.toFile) shouldBe 0L
+      Files.size(zip) should be <= size - 6000L
+      readZip(zip) shouldBe live
+      IndexBasedZipFsOps.readCachedStamps(zip).getStamp("a/B.class") shouldBe time2
+      // The entries follow each other from the start of the zip, up to its index
+      readZipSequentially(zip) shouldBe Seq("a/B.class", "a/D.class")
+      val centralDir = IndexBasedZipFsOps.readCentralDir(zip.toFile)
+      val headers = centralDir.getHeaders.asScala
+      headers.map(_.getEntryOffset).min shouldBe 0L
+      val channel = FileChannel.open(zip)
+      try centralDir.getCentralDirStart shouldBe headers.map(_.readEntryLength(channel)).sum
+      finally channel.close()
+      dir.list.toSet shouldBe Set("output.jar")
+    }
+  }
+
+  it should "leave the zip as is below the dead space thresholds" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, entries)
+      IndexBasedZipFsOps.removeEntries(zip.toFile, Seq("a/D.class"))
+      val removed = IO.readBytes(zip.toFile).toSeq
+      val dead = IndexBasedZipFsOps.deadSpace(zip.toFile)
+      dead should be > 1000L
+      // Less dead space than the minimum, or than the ratio of the entries
+      assert(!IndexBasedZipFsOps.compactArchive(zip.toFile, 0.0, dead + 1))
+      assert(!IndexBasedZipFsOps.compactArchive(zip.toFile, 0.5, 0L))
+      IO.readBytes(zip.toFile).toSeq shouldBe removed
+      // Above both thresholds
+      assert(IndexBasedZipFsOps.compactArchive(zip.toFile, 0.05, dead))
+      IndexBasedZipFsOps.deadSpace(zip.toFile) shouldBe 0L
+    }
+  }
+
+  it should "leave the zip intact when it cannot be rewritten" in {
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, entries)
+      IndexBasedZipFsOps.removeEntries(zip.toFile, Seq("a/A.class"))
+      // Points an entry past its local header
+      val centralDir = IndexBasedZipFsOps.readCentralDir(zip.toFile)
+      val header = centralDir.getHeaders.asScala.find(_.getName == "a/C.class").get
+      header.setEntryOffset(header.getEntryOffset + 1)
+      IndexBasedZipFsOps.writeCentralDir(zip.toFile, centralDir)
+      val corrupted = IO.readBytes(zip.toFile).toSeq
+
+      a[ZipException] should be thrownBy IndexBasedZipFsOps.compactArchive(zip.toFile, 0.0, 0L)
+      IO.readBytes(zip.toFile).toSeq shouldBe corrupted
+      dir.list.toSet shouldBe Set("output.jar")
+    }
+  }
+
+  "compactJar" should "only compact jars with more than a megabyte of dead space" in {
+    IO.withTemporaryDirectory { dir =>
+      val jar = dir.toPath.resolve("output.jar")
+      assert(!JarUtils.compactJar(jar))
+      writeZip(jar, entries)
+      IndexBasedZipFsOps.removeEntries(jar.toFile, Seq("a/A.class", "a/B.class", "a/C.class"))
+      assert(!JarUtils.compactJar(jar))
+      val megabyte = 1024 * 1024
+      writeZip(
+        jar,
+        Seq(
+          ("a/A.class", randomBytes(1, megabyte), time1),
+          ("a/B.class", randomBytes(2, megabyte), time1),
+          ("a/C.class", randomBytes(3, megabyte), time1)
+        )
+      )
+      IndexBasedZipFsOps.removeEntries(jar.toFile, Seq("a/A.class", "a/B.class"))
+      assert(JarUtils.compactJar(jar))
+      readZip(jar).keySet shouldBe Set("a/C.class")
+      IndexBasedZipFsOps.deadSpace(jar.toFile) shouldBe 0L
+    }
+  }
+}
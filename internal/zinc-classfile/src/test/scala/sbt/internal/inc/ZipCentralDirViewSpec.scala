@@ -0,0 +1,109 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.nio.file.{ Files, Path }
+import java.nio.file.attribute.FileTime
+import java.util.zip.{ ZipEntry, ZipOutputStream }
+
+import sbt.internal.inc.zip.{ ZipCentralDir, ZipCentralDirView }
+import sbt.io.IO
+
+import scala.collection.JavaConverters._
+
+class ZipCentralDirViewSpec extends UnitSpec {
+  // Odd seconds, which only the extended timestamps keep exactly
+  private val time1 = 1500000001000L
+  private val time2 = 1600000003000L
+
+  private sealed trait Time
+  /** A modification time kept as a DOS timestamp only. */
+  private final case class Dos(time: Long) extends Time
+  /** A modification time also kept in an extended timestamp extra field. */
+  private final case class Extended(time: Long, withAccessTime: Boolean) extends Time
+
+  private def writeZip(zip: Path, entries: Seq[(String, Time)]): Unit = {
+    val output = new ZipOutputStream(Files.newOutputStream(zip))
+    try entries.foreach {
+      case (name, time) =>
+        val entry = new ZipEntry(name)
+        time match {
+          case Dos(t) => entry.setTime(t)
+          case Extended(t, withAccessTime) =>
+            entry.setLastModifiedTime(FileTime.fromMillis(t))
+            if (withAccessTime) entry.setLastAccessTime(FileTime.fromMillis(t + 2000))
+        }
+        output.putNextEntry(entry)
+        if (!name.endsWith("/")) output.write(name.getBytes("UTF-8"))
+        output.closeEntry()
+    } finally output.close()
+  }
+
+  /** Reads the names and timestamps of the entries like [[IndexBasedZipOps]] used to. */
+  private def readCentralDir(zip: Path): Seq[(String, Long)] =
+    new ZipCentralDir(zip).getHeaders.asScala.toList.map(h => h.getName -> h.getLastModifiedTime)
+
+  private def readView(zip: Path, mapped: Boolean): Seq[(String, Long)] = {
+    val view = ZipCentralDirView.read(zip, mapped)
+    (0 until view.size).toList.map(i => view.getName(i) -> view.getLastModifiedTime(i))
+  }
+
+  private def checkSameAsCentralDir(entries: Seq[(String, Time)]): Unit =
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, entries)
+      val expected = readCentralDir(zip)
+      expected.map(_._1) shouldBe entries.map(_._1)
+      readView(zip, mapped = true) shouldBe expected
+      readView(zip, mapped = false) shouldBe expected
+      IndexBasedZipFsOps.listEntries(zip.toFile) shouldBe expected.map(_._1)
+      val stamps = IndexBasedZipFsOps.readCachedStamps(zip)
+      expected.foreach { case (name, time) => stamps.getStamp(name) shouldBe time }
+      stamps.getStamp("a/Missing.class") shouldBe 0L
+      ()
+    }
+
+  "ZipCentralDirView" should "read the entries of a zip without extended timestamps" in {
+    checkSameAsCentralDir(
+      Seq("a/" -> Dos(time1), "a/A.class" -> Dos(time1), "a/B.class" -> Dos(time2))
+    )
+  }
+
+  it should "read the entries of a zip with extended timestamps" in {
+    checkSameAsCentralDir(
+      Seq(
+        "a/" -> Extended(time1, withAccessTime = false),
+        "a/A.class" -> Extended(time1, withAccessTime = false),
+        "a/B.class" -> Extended(time2, withAccessTime = true)
+      )
+    )
+    IO.withTemporaryDirectory { dir =>
+      val zip = dir.toPath.resolve("output.jar")
+      writeZip(zip, Seq("a/A.class" -> Extended(time1, withAccessTime = true)))
+      // The exact time, which the DOS timestamp does not keep
+      readView(zip, mapped = true) shouldBe Seq("a/A.class" -> time1)
+    }
+  }
+
+  it should "read the entries of a zip with and without extended timestamps" in {
+    checkSameAsCentralDir(
+      Seq(
+        "a/A.class" -> Dos(time1),
+        "a/B.class" -> Extended(time2, withAccessTime = true),
+        "b/C.class" -> Extended(time1, withAccessTime = false),
+        "b/D.class" -> Dos(time2)
+      )
+    )
+  }
+}
@@ -46,4 +46,59 @@ class AnalyzeSpecification extends UnitSpec {
     assert(deps.memberRef("D") === Set.empty)
   }
 
+  "JavaBytecodeAnalyze" should "extract dependencies of inner classes" in {
+    val srcA =
+      """class A {
+        |  class B {
+        |    public D d = new D();
+        |  }
+        |}""".stripMargin
+    val srcC =
+      """
+        |class C {
+        |  A a = new A();
+        |  A.B b = a.new B();
+        |}""".stripMargin
+    val srcD =
+      """
+        |class D {}
+        |""".stripMargin
+
+    val deps = JavaCompilerForUnitTesting.extractDependenciesFromSrcsWithBytecode(
+      "A.java" -> srcA,
+      "C.java" -> srcC,
+      "D.java" -> srcD
+    )
+
+    assert(deps.memberRef("A") === Set("A.B"))
+    assert(deps.memberRef("A.B") === Set("A", "D"))
+    assert(deps.memberRef("C") === Set("A", "A.B"))
+    assert(deps.memberRef("D") === Set.empty)
+  }
+
+  it should "extract dependencies of local and anonymous classes" in {
+    val srcA =
+      """class A {
+        |  Object local() {
+        |    class L extends D {}
+        |    return new L();
+        |  }
+        |  Runnable anonymous() {
+        |    return new Runnable() { public void run() { new D(); } };
+        |  }
+        |}""".stripMargin
+    val srcD =
+      """
+        |class D {}
+        |""".stripMargin
+
+    val deps = JavaCompilerForUnitTesting.extractDependenciesFromSrcsWithBytecode(
+      "A.java" -> srcA,
+      "D.java" -> srcD
+    )
+
+    assert(deps.memberRef("A") === Set("D"))
+    assert(deps.localInheritance("A") === Set("D"))
+  }
+
 }
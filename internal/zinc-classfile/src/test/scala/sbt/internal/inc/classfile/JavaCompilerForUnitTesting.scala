@@ -36,7 +36,19 @@ object JavaCompilerForUnitTesting {
 
   def extractDependenciesFromSrcs(srcs: (String, String)*): ExtractedClassDependencies = {
     val (_, testCallback) = compileJavaSrcs(srcs: _*)((_, _, classes) => extractParents(classes))
+    classDependencies(testCallback)
+  }
+
+  /** Extracts dependencies with [[JavaBytecodeAnalyze]] instead of [[JavaAnalyze]]. */
+  def extractDependenciesFromSrcsWithBytecode(
+      srcs: (String, String)*
+  ): ExtractedClassDependencies = {
+    val (_, testCallback) =
+      compileJavaSrcsWithBytecode(srcs: _*)((_, _, classes) => extractParentNames(classes))
+    classDependencies(testCallback)
+  }
 
+  private def classDependencies(testCallback: TestCallback): ExtractedClassDependencies = {
     val memberRefDeps = testCallback.classDependencies
       .collect({
         case (target, src, DependencyByMemberRef) => (src, target)
@@ -59,25 +71,8 @@ object JavaCompilerForUnitTesting {
       readAPI: (AnalysisCallback, VirtualFileRef, Seq[Class[_]]) => Set[(String, String)]
   ): (Seq[VirtualFile], TestCallback) = {
     IO.withTemporaryDirectory { temp =>
-      val srcFiles0 = srcs.map {
-        case (fileName, src) => prepareSrcFile(temp, fileName, src)
-      }
-      val srcFiles: List[VirtualFile] =
-        srcFiles0.toList.map(x => new TestVirtualFile(x.toPath): VirtualFile)
+      val (srcFiles, classesDir, classFiles, output) = compileToClassFiles(temp, srcs)
       val analysisCallback = new TestCallback
-      val classesDir = new File(temp, "classes")
-      classesDir.mkdir()
-
-      val compiler = ToolProvider.getSystemJavaCompiler()
-      val fileManager = compiler.getStandardFileManager(null, null, null)
-      fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Seq(classesDir).asJava)
-      val compilationUnits = fileManager.getJavaFileObjectsFromFiles(srcFiles0.asJava)
-      compiler.getTask(null, fileManager, null, null, null, compilationUnits).call()
-      fileManager.close()
-
-      val classesFinder = sbt.io.PathFinder(classesDir) ** "*.class"
-      val classFiles = classesFinder.get.map(_.toPath)
-
       val classloader = new URLClassLoader(Array(classesDir.toURI.toURL))
 
       val logger = ConsoleLogger()
@@ -87,10 +82,6 @@ object JavaCompilerForUnitTesting {
       // - extract all base classes.
       // we extract just parents as this is enough for testing
 
-      val output = new SingleOutput {
-        override def getOutputDirectoryAsPath: Path = classesDir.toPath
-        override def getOutputDirectory: File = getOutputDirectoryAsPath.toFile
-      }
       JavaAnalyze(classFiles, srcFiles, logger, output, finalJarOutput = None)(
         analysisCallback,
         classloader,
@@ -100,6 +91,56 @@ object JavaCompilerForUnitTesting {
     }
   }
 
+  def compileJavaSrcsWithBytecode(srcs: (String, String)*)(
+      readAPI: (AnalysisCallback, VirtualFileRef, Seq[ClassFile]) => Set[(String, String)]
+  ): (Seq[VirtualFile], TestCallback) = {
+    IO.withTemporaryDirectory { temp =>
+      val (srcFiles, classesDir, classFiles, output) = compileToClassFiles(temp, srcs)
+      val analysisCallback = new TestCallback
+      val logger = ConsoleLogger()
+      val platform = ClassLoader.getSystemClassLoader.getParent
+      val locator = new ClassFileLocator(Seq(classesDir.toPath), platform, None, logger)
+      try {
+        JavaBytecodeAnalyze(classFiles, srcFiles, logger, output, finalJarOutput = None)(
+          analysisCallback,
+          locator,
+          (classes: Seq[ClassFile]) => classes,
+          readAPI(analysisCallback, _, _)
+        )
+      } finally locator.close()
+      (srcFiles, analysisCallback)
+    }
+  }
+
+  private def compileToClassFiles(
+      temp: File,
+      srcs: Seq[(String, String)]
+  ): (List[VirtualFile], File, Seq[Path], SingleOutput) = {
+    val srcFiles0 = srcs.map {
+      case (fileName, src) => prepareSrcFile(temp, fileName, src)
+    }
+    val srcFiles: List[VirtualFile] =
+      srcFiles0.toList.map(x => new TestVirtualFile(x.toPath): VirtualFile)
+    val classesDir = new File(temp, "classes")
+    classesDir.mkdir()
+
+    val compiler = ToolProvider.getSystemJavaCompiler()
+    val fileManager = compiler.getStandardFileManager(null, null, null)
+    fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Seq(classesDir).asJava)
+    val compilationUnits = fileManager.getJavaFileObjectsFromFiles(srcFiles0.asJava)
+    compiler.getTask(null, fileManager, null, null, null, compilationUnits).call()
+    fileManager.close()
+
+    val classesFinder = sbt.io.PathFinder(classesDir) ** "*.class"
+    val classFiles = classesFinder.get.map(_.toPath)
+
+    val output = new SingleOutput {
+      override def getOutputDirectoryAsPath: Path = classesDir.toPath
+      override def getOutputDirectory: File = getOutputDirectoryAsPath.toFile
+    }
+    (srcFiles, classesDir, classFiles, output)
+  }
+
   private def prepareSrcFile(baseDir: File, fileName: String, src: String): File = {
     val srcFile = new File(baseDir, fileName)
     IO.write(srcFile, src)
@@ -113,4 +154,10 @@ object JavaCompilerForUnitTesting {
     val parentInterfaces = classes.flatMap(c => c.getInterfaces.map(i => c -> i))
     (parents ++ parentInterfaces).map(canonicalNames).toSet
   }
+
+  private val extractParentNames: Seq[ClassFile] => Set[(String, String)] = { classes =>
+    val parents = classes.map(c => c.className -> c.superClassName)
+    val parentInterfaces = classes.flatMap(c => c.interfaceNames.map(i => c.className -> i))
+    (parents ++ parentInterfaces).toSet
+  }
 }
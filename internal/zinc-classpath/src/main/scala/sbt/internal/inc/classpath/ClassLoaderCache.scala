@@ -17,7 +17,7 @@ package classpath
 import java.io.File
 import java.lang.ref.{ Reference, SoftReference }
 import java.net.URLClassLoader
-import java.util.HashMap
+import java.util.LinkedHashMap
 
 import sbt.io.IO
 
@@ -41,6 +41,16 @@ trait AbstractClassLoaderCache extends AutoCloseable {
 final class ClassLoaderCache(private val abstractClassLoaderCache: AbstractClassLoaderCache)
     extends AutoCloseable {
   def this(commonParent: ClassLoader) = this(new ClassLoaderCacheImpl(commonParent))
+
+  /**
+   * Creates a cache that keeps at most `maxLoaders` class loaders, whose classpaths weigh at
+   * most `maxWeight` bytes in total. Above either limit, the least recently used class loaders
+   * are evicted. They are not closed, since they may still be in use, and are collected once
+   * they are no longer used.
+   */
+  def this(commonParent: ClassLoader, maxLoaders: Int, maxWeight: Long) =
+    this(new ClassLoaderCacheImpl(commonParent, maxLoaders, maxWeight))
+
   def commonParent: ClassLoader = abstractClassLoaderCache.commonParent
   override def close(): Unit = abstractClassLoaderCache.close()
   def apply(files: List[File]): ClassLoader = abstractClassLoaderCache.apply(files)
@@ -55,12 +65,61 @@ final class ClassLoaderCache(private val abstractClassLoaderCache: AbstractClass
       files: List[File],
       mkLoader: () => ClassLoader
   ): ClassLoader = abstractClassLoaderCache.cachedCustomClassloader(files, mkLoader)
+
+  /** Returns the counters of the cache, unless it is backed by a custom implementation. */
+  def stats: Option[ClassLoaderCacheStats] = abstractClassLoaderCache match {
+    case cache: ClassLoaderCacheImpl => Some(cache.stats)
+    case _                           => None
+  }
 }
 
-private final class ClassLoaderCacheImpl(val commonParent: ClassLoader)
-    extends AbstractClassLoaderCache {
+/**
+ * Counters of a [[ClassLoaderCache]].
+ *
+ * @param hits the number of class loaders that were reused
+ * @param misses the number of class loaders that were created
+ * @param evictions the number of class loaders that were evicted to stay within the limits
+ * @param size the number of cached class loaders
+ * @param weight the total size in bytes of the classpaths of the cached class loaders
+ */
+final case class ClassLoaderCacheStats(
+    hits: Long,
+    misses: Long,
+    evictions: Long,
+    size: Int,
+    weight: Long
+)
+
+/**
+ * Caches class loaders by classpath. The cache keeps at most `maxLoaders` class loaders, and
+ * the total size of their classpaths, a proxy for the metaspace that their classes take, is
+ * kept under `maxWeight` bytes. Above either limit, the least recently used class loaders are
+ * evicted, but the last created one is always kept. Evicted class loaders are only dropped
+ * from the cache, like the ones replaced when their classpath changes: they may still be in
+ * use, by the compilers of concurrent compilations for instance, so only [[close]] closes them.
+ *
+ * Class loaders are only softly referenced, and are also dropped under memory pressure.
+ */
+private final class ClassLoaderCacheImpl(
+    val commonParent: ClassLoader,
+    maxLoaders: Int,
+    maxWeight: Long
+) extends AbstractClassLoaderCache {
+  def this(commonParent: ClassLoader) = this(commonParent, Int.MaxValue, Long.MaxValue)
+
+  private[this] final class Entry(val weight: Long, val ref: Reference[CachedClassLoader])
+
+  // In access order, so that the least recently used class loaders come first
   private[this] val delegate =
-    new HashMap[List[File], Reference[CachedClassLoader]]
+    new LinkedHashMap[List[File], Entry](16, 0.75f, /*accessOrder =*/ true)
+  private[this] var weight = 0L
+  private[this] var hits = 0L
+  private[this] var misses = 0L
+  private[this] var evictions = 0L
+
+  def stats: ClassLoaderCacheStats = synchronized {
+    ClassLoaderCacheStats(hits, misses, evictions, delegate.size, weight)
+  }
 
   /**
    * Returns a ClassLoader with `commonParent` as a parent and that will load classes from classpath `files`.
@@ -86,12 +145,14 @@ private final class ClassLoaderCacheImpl(val commonParent: ClassLoader)
   ): ClassLoader =
     synchronized {
       val tstamps = files.map(IO.getModifiedTimeOrZero)
-      getFromReference(files, tstamps, delegate.get(files), mkLoader)
+      val existing = delegate.get(files)
+      getFromReference(files, tstamps, if (existing eq null) null else existing.ref, mkLoader)
     }
 
-  override def close(): Unit = {
-    delegate.values.forEach(v => Option(v.get).foreach(_.close()))
+  override def close(): Unit = synchronized {
+    delegate.values.forEach(v => Option(v.ref.get).foreach(_.close()))
     delegate.clear()
+    weight = 0L
   }
 
   private[this] def getFromReference(
@@ -113,21 +174,52 @@ private final class ClassLoaderCacheImpl(val commonParent: ClassLoader)
   ): ClassLoader =
     if (existing == null || stamps != existing.timestamps) {
       newEntry(files, stamps, mkLoader)
-    } else
+    } else {
+      hits += 1
       existing.loader
+    }
 
   private[this] def newEntry(
       files: List[File],
       stamps: List[Long],
       mkLoader: () => ClassLoader
   ): ClassLoader = {
+    misses += 1
     val loader = mkLoader()
-    delegate.put(
+    val entryWeight = files.iterator.map(f => if (f.isFile) f.length else 0L).sum
+    val previous = delegate.put(
       files,
-      new SoftReference(new CachedClassLoader(loader, files, stamps))
+      new Entry(entryWeight, new SoftReference(new CachedClassLoader(loader, files, stamps)))
     )
+    // The previous class loader of the classpath may still be in use, so it is not closed
+    if (previous ne null) weight -= previous.weight
+    weight += entryWeight
+    evict()
     loader
   }
+
+  private[this] def overLimits: Boolean = delegate.size > maxLoaders || weight > maxWeight
+
+  private[this] def evict(): Unit = {
+    if (overLimits) {
+      // Drop the class loaders that were collected first
+      val entries = delegate.values.iterator
+      while (entries.hasNext) {
+        val entry = entries.next()
+        if (entry.ref.get == null) {
+          entries.remove()
+          weight -= entry.weight
+        }
+      }
+      val eldest = delegate.values.iterator
+      while (overLimits && delegate.size > 1) {
+        val entry = eldest.next()
+        eldest.remove()
+        weight -= entry.weight
+        evictions += 1
+      }
+    }
+  }
 }
 private[sbt] final class CachedClassLoader(
     val loader: ClassLoader,
@@ -14,6 +14,7 @@ package xsbti.compile;
 import xsbti.Logger;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
@@ -45,6 +46,34 @@ public class IncOptionsUtil {
     public static final String STORE_APIS = "storeApis";
     public static final String ALLOW_MACHINE_PATH = "allowMachinePath";
     public static final String PIPELINING = "pipelining";
+    /**
+     * Key of {@link IncOptions#extra()}: analyzes the classes compiled by javac from their class
+     * files in parallel, instead of loading them in a classloader.
+     */
+    public static final String JAVA_BYTECODE_ANALYSIS = "javaBytecodeAnalysis";
+    /**
+     * Key of {@link IncOptions#extra()}: the path of a persistent index of classpath hashes,
+     * which can be shared by several builds, even when they run concurrently.
+     */
+    public static final String CLASSPATH_HASH_INDEX = "classpathHashIndex";
+    /**
+     * Key of {@link IncOptions#extra()}: stores the relations of the analysis as arrays of
+     * interned ids instead of maps of sets, which takes much less memory on large projects.
+     */
+    public static final String COMPACT_RELATIONS = "compactRelations";
+    /**
+     * Key of {@link IncOptions#extra()}: hashes the APIs reported by the compiler as they are
+     * reported and drops the APIs themselves unless they are stored, shares one instance of every
+     * used name between the classes that use it, and releases what the compiler reported once the
+     * analysis of a cycle is built, so that a compilation does not keep it all alongside the
+     * analysis.
+     */
+    public static final String STREAMING_ANALYSIS = "streamingAnalysis";
+    /**
+     * Key of {@link IncOptions#extra()}: hashes the APIs reported by the compiler on a pool of
+     * worker threads, while the compiler runs its next phases, instead of on the compiler thread.
+     */
+    public static final String PIPELINED_API_HASHING = "pipelinedApiHashing";
     private static final String XSBTI_NOTHING = "NOTHING";
 
     // Small utility function for logging
@@ -57,6 +86,45 @@ public class IncOptionsUtil {
         };
     }
 
+    /**
+     * Returns whether a boolean option stored in {@link IncOptions#extra()} is enabled.
+     *
+     * @param options The incremental options.
+     * @param key The key of the option in the extra options.
+     * @return true if the option is set to "true", false otherwise.
+     */
+    public static boolean extraBoolean(IncOptions options, String key) {
+        Map<String, String> extra = options.extra();
+        return extra != null && Boolean.parseBoolean(extra.get(key));
+    }
+
+    /**
+     * Returns the value of an option stored in {@link IncOptions#extra()}, if it is set.
+     *
+     * @param options The incremental options.
+     * @param key The key of the option in the extra options.
+     * @return The value of the option, or an empty optional.
+     */
+    public static Optional<String> extraString(IncOptions options, String key) {
+        Map<String, String> extra = options.extra();
+        return extra == null ? Optional.empty() : Optional.ofNullable(extra.get(key));
+    }
+
+    /**
+     * Returns a copy of the given {@link IncOptions} with an extra option set.
+     *
+     * @param options The incremental options.
+     * @param key The key of the option in the extra options.
+     * @param value The value of the option.
+     * @return An instance of {@link IncOptions} with the option set.
+     */
+    public static IncOptions withExtra(IncOptions options, String key, String value) {
+        Map<String, String> extra = new HashMap<String, String>();
+        if (options.extra() != null) extra.putAll(options.extra());
+        extra.put(key, value);
+        return options.withExtra(extra);
+    }
+
     /**
      * Reads and returns an instance of {@link IncOptions} from a mapping of values.
      *
@@ -177,6 +245,31 @@ public class IncOptionsUtil {
             base = base.withPipelining(Boolean.parseBoolean(values.get(PIPELINING)));
         }
 
+        if (values.containsKey(JAVA_BYTECODE_ANALYSIS)) {
+            logger.debug(f0("JAVA_BYTECODE_ANALYSIS value was read."));
+            base = withExtra(base, JAVA_BYTECODE_ANALYSIS, values.get(JAVA_BYTECODE_ANALYSIS));
+        }
+
+        if (values.containsKey(CLASSPATH_HASH_INDEX)) {
+            logger.debug(f0("CLASSPATH_HASH_INDEX value was read."));
+            base = withExtra(base, CLASSPATH_HASH_INDEX, values.get(CLASSPATH_HASH_INDEX));
+        }
+
+        if (values.containsKey(COMPACT_RELATIONS)) {
+            logger.debug(f0("COMPACT_RELATIONS value was read."));
+            base = withExtra(base, COMPACT_RELATIONS, values.get(COMPACT_RELATIONS));
+        }
+
+        if (values.containsKey(STREAMING_ANALYSIS)) {
+            logger.debug(f0("STREAMING_ANALYSIS value was read."));
+            base = withExtra(base, STREAMING_ANALYSIS, values.get(STREAMING_ANALYSIS));
+        }
+
+        if (values.containsKey(PIPELINED_API_HASHING)) {
+            logger.debug(f0("PIPELINED_API_HASHING value was read."));
+            base = withExtra(base, PIPELINED_API_HASHING, values.get(PIPELINED_API_HASHING));
+        }
+
         return base;
     }
 }
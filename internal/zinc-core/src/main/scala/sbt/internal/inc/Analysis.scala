@@ -220,8 +220,8 @@ private class MAnalysis(
 
   override def equals(other: Any) = other match {
     // Note: Equality doesn't consider source infos or compilations.
-    case o: MAnalysis => stamps == o.stamps && apis == o.apis && relations == o.relations
-    case _            => false
+    case o: Analysis => stamps == o.stamps && apis == o.apis && relations == o.relations
+    case _           => false
   }
 
   override lazy val hashCode = (stamps :: apis :: relations :: Nil).hashCode
@@ -0,0 +1,123 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.internal.inc.Analysis.{ LocalProduct, NonLocalProduct }
+import sbt.internal.util.Relation
+import xsbti.VirtualFileRef
+import xsbti.api.{ AnalyzedClass, DependencyContext, ExternalDependency, InternalDependency }
+import xsbti.compile.analysis.{ SourceInfo, Stamp => XStamp }
+
+import scala.collection.immutable.TreeMap
+import scala.collection.mutable
+
+/**
+ * Builds the analysis of many sources at once. The result is the same as folding
+ * [[Analysis.addSource]] over an empty analysis, but the stamps, APIs, relations and source
+ * infos are assembled in mutable builders instead of being rebuilt for every source.
+ *
+ * This class is not thread-safe: the data of the sources can be computed concurrently, but it
+ * must be added from one thread at a time.
+ */
+private[inc] final class AnalysisBuilder {
+  import VirtualFileUtil._
+
+  // Stamps are kept in tree maps like Stamps.empty, to avoid sorting them when serializing
+  private[this] val products = TreeMap.newBuilder[VirtualFileRef, XStamp]
+  private[this] val sources = TreeMap.newBuilder[VirtualFileRef, XStamp]
+  private[this] val libraries = TreeMap.newBuilder[VirtualFileRef, XStamp]
+  private[this] val internalAPIs = Map.newBuilder[String, AnalyzedClass]
+  private[this] val externalAPIs = Map.newBuilder[String, AnalyzedClass]
+  private[this] val infos = Map.newBuilder[VirtualFileRef, SourceInfo]
+
+  private[this] val srcProd = new RelationBuilder[VirtualFileRef, VirtualFileRef]
+  private[this] val libraryDep = new RelationBuilder[VirtualFileRef, VirtualFileRef]
+  private[this] val libraryClassName = new RelationBuilder[VirtualFileRef, String]
+  private[this] val classes = new RelationBuilder[VirtualFileRef, String]
+  private[this] val productClassName = new RelationBuilder[String, String]
+  private[this] val internalDependencies =
+    mutable.Map.empty[DependencyContext, RelationBuilder[String, String]]
+  private[this] val externalDependencies =
+    mutable.Map.empty[DependencyContext, RelationBuilder[String, String]]
+
+  /** Adds the source like [[Analysis.addSource]]. */
+  def addSource(
+      src: VirtualFileRef,
+      apis: Iterable[AnalyzedClass],
+      stamp: XStamp,
+      info: SourceInfo,
+      nonLocalProducts: Iterable[NonLocalProduct],
+      localProducts: Iterable[LocalProduct],
+      internalDeps: Iterable[InternalDependency],
+      externalDeps: Iterable[ExternalDependency],
+      libraryDeps: Iterable[(VirtualFileRef, String, XStamp)]
+  ): this.type = {
+    sources += src -> stamp
+    infos += src -> info
+    nonLocalProducts.foreach { product =>
+      products += product.classFile -> product.classFileStamp
+      srcProd(src) = product.classFile
+      classes(src) = product.className
+      productClassName(product.className) = product.binaryClassName
+    }
+    localProducts.foreach { product =>
+      products += product.classFile -> product.classFileStamp
+      srcProd(src) = product.classFile
+    }
+    libraryDeps.foreach {
+      case (library, className, libraryStamp) =>
+        libraries += library -> libraryStamp
+        libraryDep(src) = library
+        libraryClassName(library) = className
+    }
+    apis.foreach(api => internalAPIs += api.name -> api)
+    internalDeps.foreach { dep =>
+      dependencies(internalDependencies, dep.context)(dep.sourceClassName) = dep.targetClassName
+    }
+    externalDeps.foreach { dep =>
+      externalAPIs += dep.targetProductClassName -> dep.targetClass
+      dependencies(externalDependencies, dep.context)(dep.sourceClassName) =
+        dep.targetProductClassName
+    }
+    this
+  }
+
+  private def dependencies(
+      byContext: mutable.Map[DependencyContext, RelationBuilder[String, String]],
+      context: DependencyContext
+  ): RelationBuilder[String, String] =
+    byContext.getOrElseUpdate(context, new RelationBuilder[String, String])
+
+  def result(): Analysis = {
+    def dependencyRelations(
+        byContext: mutable.Map[DependencyContext, RelationBuilder[String, String]]
+    ) = byContext.iterator.map { case (context, builder) => context -> builder.result() }.toMap
+    val relations = Relations.make(
+      srcProd.result(),
+      libraryDep.result(),
+      libraryClassName.result(),
+      InternalDependencies(dependencyRelations(internalDependencies)),
+      ExternalDependencies(dependencyRelations(externalDependencies)),
+      classes.result(),
+      Relation.empty,
+      productClassName.result()
+    )
+    Analysis.empty.copy(
+      Stamps(products.result(), sources.result(), libraries.result()),
+      APIs(internalAPIs.result(), externalAPIs.result()),
+      relations,
+      SourceInfos.of(infos.result())
+    )
+  }
+}
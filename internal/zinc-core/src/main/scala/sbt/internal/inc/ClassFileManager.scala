@@ -19,8 +19,13 @@ import xsbti.{ PathBasedFile, VirtualFile }
 
 import java.io.File
 import java.nio.file.{ Files, Path }
-import java.util.Optional
+import java.util.{ Optional, UUID }
+import java.util.concurrent.{ ConcurrentLinkedQueue, ExecutorService, Executors, TimeUnit }
+import java.util.concurrent.atomic.AtomicInteger
+import scala.collection.JavaConverters._
 import scala.collection.mutable
+import scala.collection.parallel.immutable.ParVector
+import scala.util.control.NonFatal
 
 private abstract class AbstractClassFileManager(auxiliaryFiles: Iterable[AuxiliaryClassFiles])
     extends XClassFileManager {
@@ -153,17 +158,26 @@ object ClassFileManager {
       auxiliaryClassFiles: Array[AuxiliaryClassFiles],
       logger: sbt.util.Logger
   ): XClassFileManager =
-    new TransactionalClassFileManager(tempDir0, auxiliaryClassFiles, logger)
+    new TransactionalClassFileManager(tempDir0, auxiliaryClassFiles, logger, IO.move(_, _))
 
   def transactionalForJar(
       outputJar: Path,
       outputJarContent: JarUtils.OutputJarContent,
       auxiliaryClassFiles: Array[AuxiliaryClassFiles]
+  ): XClassFileManager =
+    transactionalForJar(outputJar, outputJarContent, auxiliaryClassFiles, sbt.util.Logger.Null)
+
+  def transactionalForJar(
+      outputJar: Path,
+      outputJarContent: JarUtils.OutputJarContent,
+      auxiliaryClassFiles: Array[AuxiliaryClassFiles],
+      logger: sbt.util.Logger
   ): XClassFileManager = {
     new TransactionalClassFileManagerForJar(
       outputJar,
       outputJarContent,
-      auxiliaryClassFiles.toVector
+      auxiliaryClassFiles.toVector,
+      logger
     )
   }
 
@@ -177,21 +191,27 @@ object ClassFileManager {
     val outputJar = JarUtils.getOutputJar(output)
     outputJar.fold(
       transactional(tempDir, auxiliaryClassFiles, logger)
-    )(transactionalForJar(_, outputJarContent, auxiliaryClassFiles))
+    )(transactionalForJar(_, outputJarContent, auxiliaryClassFiles, logger))
   }
 
-  private final class TransactionalClassFileManager(
+  /**
+   * @param moveFile Moves a class file to its backup in `tempDir0`.
+   */
+  private[inc] final class TransactionalClassFileManager(
       tempDir0: Path,
       auxiliaryFiles: Array[AuxiliaryClassFiles],
-      logger: sbt.util.Logger
+      logger: sbt.util.Logger,
+      moveFile: (File, File) => Unit
   ) extends AbstractClassFileManager(auxiliaryFiles) {
     private val tempDir = tempDir0.normalize
     IO.delete(tempDir.toFile)
     Files.createDirectories(tempDir)
+    deleteStaleBackups(tempDir)
     logger.debug(s"Created transactional ClassFileManager with tempDir = $tempDir")
 
     private[this] val generatedFiles = new mutable.HashSet[File]
     private[this] val movedFiles = new mutable.HashMap[File, File]
+    private[this] val backups = new AtomicInteger
 
     private def showFiles(files: Iterable[File]): String =
       files.map(f => s"\t${f.getName}").mkString("\n")
@@ -206,9 +226,13 @@ object ClassFileManager {
       logger.debug(s"About to delete class files:\n${showFiles(allFiles)}")
 
       val toBeBackedUp =
-        allFiles.filter(c => !movedFiles.contains(c) && !generatedFiles(c))
+        allFiles.filter(c => !movedFiles.contains(c) && !generatedFiles(c)).distinct
       logger.debug(s"We backup class files:\n${showFiles(toBeBackedUp)}")
-      for { c <- toBeBackedUp } if (c.exists) movedFiles.put(c, move(c))
+      // Moving a class file to the backup directory also deletes it. Every move is recorded as
+      // soon as it is done, so that the files backed up before a move fails are restored.
+      val moved = new ConcurrentLinkedQueue[(File, File)]
+      try inParallel(toBeBackedUp)(c => if (c.exists) { moved.add(c -> move(c)); () })
+      finally movedFiles ++= moved.asScala
       IO.deleteFilesEmptyDirs(allFiles)
     }
 
@@ -229,28 +253,102 @@ object ClassFileManager {
         logger.debug(s"Removing generated classes:\n${showFiles(generatedFiles)}")
         IO.deleteFilesEmptyDirs(generatedFiles.toVector)
         logger.debug(s"Restoring class files: \n${showFiles(movedFiles.keys)}")
-        for {
-          (orig, tmp) <- movedFiles
-        } {
-          if (tmp.exists) {
-            if (!orig.getParentFile.exists) {
-              IO.createDirectory(orig.getParentFile)
-            } // if
-            IO.move(tmp, orig)
-          } // if
+        val restored = movedFiles.toVector.filter(_._2.exists)
+        restored.map(_._1.getParentFile).distinct.foreach { dir =>
+          if (!dir.exists) IO.createDirectory(dir)
         }
+        inParallel(restored) { case (orig, tmp) => IO.move(tmp, orig) }
       }
       logger.debug(s"Removing the temporary directory used for backing up class files: $tempDir")
-      IO.delete(tempDir.toFile)
+      deleteInBackground(tempDir)
     }
 
+    /**
+     * Moves the class file to a new file of the backup directory. Backups are not created as
+     * temporary files first, so that a move is a single rename when the backup directory is on
+     * the same file system as the class file.
+     */
     def move(c: File): File = {
-      val target = Files.createTempFile(tempDir, "sbt", ".class").toFile
-      IO.move(c, target)
+      val target = tempDir.resolve(s"${backups.incrementAndGet()}-${c.getName}").toFile
+      moveFile(c, target)
       target
     }
   }
 
+  /** Below this number of files, they are moved on the calling thread. */
+  private final val MinParallelMoves = 64
+
+  private def inParallel[A, B](files: Vector[A])(f: A => B): Vector[B] =
+    if (files.size < MinParallelMoves) files.map(f)
+    else new ParVector(files).map(f).seq
+
+  /**
+   * The thread that deletes the backup directories of the transactional class file managers.
+   * It is a single thread, so that the deletions never compete with each other.
+   */
+  private lazy val backupDeleter: ExecutorService =
+    Executors.newSingleThreadExecutor { (task: Runnable) =>
+      val thread = new Thread(task, "zinc-backup-deleter")
+      thread.setDaemon(true)
+      thread
+    }
+
+  private val StagedSuffix =
+    "-[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}".r
+
+  /**
+   * Deletes the directory on [[backupDeleter]], once it is renamed to a unique sibling so
+   * that the next compilation can already use its path. It is deleted on the calling thread if
+   * it cannot be renamed.
+   */
+  private def deleteInBackground(dir: Path): Unit = {
+    val staged = dir.resolveSibling(s"${dir.getFileName}-${UUID.randomUUID()}")
+    val renamed =
+      try {
+        Files.move(dir, staged)
+        true
+      } catch { case _: java.io.IOException => false }
+    if (!renamed) IO.delete(dir.toFile)
+    else backupDeleter.execute(() => IO.delete(staged.toFile))
+  }
+
+  /**
+   * Deletes, on [[backupDeleter]], the renamed backup directories that [[deleteInBackground]]
+   * had no time to delete before the JVM exited.
+   */
+  private def deleteStaleBackups(dir: Path): Unit = {
+    val prefix = s"${dir.getFileName}"
+    backupDeleter.execute { () =>
+      val siblings = Option(dir.getParent.toFile.listFiles).getOrElse(Array.empty[File])
+      siblings
+        .filter { sibling =>
+          val name = sibling.getName
+          name.startsWith(prefix) &&
+          StagedSuffix.pattern.matcher(name.substring(prefix.length)).matches
+        }
+        .foreach(IO.delete)
+    }
+  }
+
+  /** Waits for the backup directories staged for deletion so far to be deleted. */
+  private[inc] def awaitBackupDeletion(): Unit = {
+    val done = new Runnable { def run(): Unit = () }
+    backupDeleter.submit(done).get(1, TimeUnit.MINUTES)
+    ()
+  }
+
+  /**
+   * Compacts the output jar once the compilation succeeded. Compaction only reclaims space, so
+   * the jar is left as is if it fails, e.g. because Windows cannot replace a jar that is open.
+   */
+  private def compactJar(outputJar: Path, logger: sbt.util.Logger): Unit =
+    try {
+      JarUtils.compactJar(outputJar)
+      ()
+    } catch {
+      case NonFatal(e) => logger.debug(s"Could not compact $outputJar, leaving it as is: $e")
+    }
+
   private final class DeleteClassFileManagerForJar(
       outputJar: Path,
       outputJarContent: JarUtils.OutputJarContent,
@@ -269,7 +367,9 @@ object ClassFileManager {
     @deprecated("Use variant that takes Array[VirtualFile]", "1.4.0")
     override def generated(classes: Array[File]): Unit = ()
     override def generated(classes: Array[VirtualFile]): Unit = ()
-    override def complete(success: Boolean): Unit = ()
+    override def complete(success: Boolean): Unit = {
+      if (success) compactJar(outputJar, sbt.util.Logger.Null)
+    }
   }
 
   /**
@@ -282,11 +382,13 @@ object ClassFileManager {
    * compilation. Files are only removed from index or new files are appended
    * and potential overwrite is also handled by replacing index entry. For this
    * reason the old index with offsets to old files will still be valid.
+   * The jar is only compacted once the compilation succeeded.
    */
   private final class TransactionalClassFileManagerForJar(
       outputJar: Path,
       outputJarContent: JarUtils.OutputJarContent,
-      auxiliaryFiles: Vector[AuxiliaryClassFiles]
+      auxiliaryFiles: Vector[AuxiliaryClassFiles],
+      logger: sbt.util.Logger
   ) extends AbstractClassFileManager(auxiliaryFiles) {
     private val backedUpIndex = Some(outputJar)
       .filter(Files.exists(_))
@@ -316,7 +418,7 @@ object ClassFileManager {
     override def complete(success: Boolean): Unit = {
       if (!success) {
         backedUpIndex.foreach(index => JarUtils.unstashIndex(outputJar, index))
-      }
+      } else compactJar(outputJar, logger)
     }
   }
 }
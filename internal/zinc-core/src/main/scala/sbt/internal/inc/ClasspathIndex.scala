@@ -0,0 +1,160 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.{ LinkedHashMap, Map => JMap }
+import java.util.zip.{ ZipException, ZipFile }
+
+import scala.collection.JavaConverters._
+
+/**
+ * Maps the binary names of the classes of the jars of a classpath to the first jar that defines
+ * them, so that the jar that defines a class is looked up instead of being searched.
+ *
+ * The classes of every jar are read once, and shared by all the classpaths that contain the
+ * jar until the jar changes, as told by its size and modification time. The index of a
+ * classpath is also shared: when some of its jars change, it is updated from the classes that
+ * those jars added or removed instead of being built again. Both are kept for the lifetime of
+ * the JVM, so that the modules and the runs of a build reuse them, up to [[MaxJars]] jars and
+ * [[MaxIndices]] classpaths: the least recently used ones are dropped beyond that.
+ */
+private[inc] object ClasspathIndex {
+  private final case class JarVersion(size: Long, lastModified: Long)
+
+  private final class JarClasses(val version: JarVersion, val classes: Set[String])
+
+  /**
+   * The index of a classpath of jars: the classes of the indexed jars, and the position of the
+   * first jar that defines every class.
+   */
+  private final class Index(val jars: Vector[JarClasses], val first: Map[String, Int]) {
+    def versions: Vector[JarVersion] = jars.map(_.version)
+  }
+
+  /** The number of jars whose classes are kept. */
+  final val MaxJars = 4096
+
+  /** The number of classpaths whose index is kept. */
+  final val MaxIndices = 32
+
+  /** A map that drops its least recently used entry beyond the given number of entries. */
+  private final class Lru[K, V >: Null](capacity: Int) {
+    private[this] val entries =
+      new LinkedHashMap[K, V](16, 0.75f, /*accessOrder =*/ true) {
+        override protected def removeEldestEntry(eldest: JMap.Entry[K, V]): Boolean =
+          size > capacity
+      }
+
+    def get(key: K): V = synchronized(entries.get(key))
+    def put(key: K, value: V): Unit = synchronized { entries.put(key, value); () }
+    def size: Int = synchronized(entries.size)
+  }
+
+  private[this] val jarClasses = new Lru[Path, JarClasses](MaxJars)
+  private[this] val indices = new Lru[Vector[Path], Index](MaxIndices)
+
+  /** The number of jars and of classpaths whose classes and index are kept, for tests. */
+  private[inc] def cachedSizes: (Int, Int) = (jarClasses.size, indices.size)
+
+  private def versionOf(jar: Path): JarVersion =
+    try {
+      val attributes = Files.readAttributes(jar, classOf[BasicFileAttributes])
+      JarVersion(attributes.size, attributes.lastModifiedTime.toMillis)
+    } catch { case _: IOException => JarVersion(-1L, 0L) }
+
+  /** Returns the binary names of the classes of the jar, which are read again if it changed. */
+  def classesOf(jar: Path): Set[String] = jarClassesOf(jar, versionOf(jar)).classes
+
+  private def jarClassesOf(jar: Path, version: JarVersion): JarClasses =
+    jarClasses.get(jar) match {
+      case cached if cached != null && cached.version == version => cached
+      case _ =>
+        val classes = new JarClasses(version, readClasses(jar))
+        jarClasses.put(jar, classes)
+        classes
+    }
+
+  private def readClasses(jar: Path): Set[String] = {
+    if (!Files.exists(jar)) Set.empty
+    else {
+      val zip = try {
+        new ZipFile(jar.toFile, ZipFile.OPEN_READ)
+      } catch {
+        // ZipException doesn't include the file name :(
+        case e: ZipException =>
+          throw new RuntimeException("Error opening zip file: " + jar.getFileName.toString, e)
+      }
+      try zip.entries.asScala.map(e => Locate.toClassName(e.getName)).toSet
+      finally zip.close()
+    }
+  }
+
+  /**
+   * Returns the position, in the given jars, of the first jar that defines every class of the
+   * jars. Only the classes of the jars that changed since the index was last returned are read.
+   */
+  def apply(jars: Vector[Path]): Map[String, Int] = {
+    val versions = jars.map(versionOf)
+    val updated = indices.get(jars) match {
+      case null                                => build(jars, versions)
+      case index if index.versions == versions => index
+      case index                               => update(jars, versions, index)
+    }
+    indices.put(jars, updated)
+    updated.first
+  }
+
+  private def build(jars: Vector[Path], versions: Vector[JarVersion]): Index = {
+    val classes = jars.zip(versions).map { case (jar, version) => jarClassesOf(jar, version) }
+    val first = Map.newBuilder[String, Int]
+    val seen = new java.util.HashSet[String]
+    for (position <- jars.indices; name <- classes(position).classes) {
+      if (seen.add(name)) first += name -> position
+    }
+    new Index(classes, first.result())
+  }
+
+  private def update(jars: Vector[Path], versions: Vector[JarVersion], index: Index): Index = {
+    val classes = jars.indices.map { position =>
+      val previous = index.jars(position)
+      if (previous.version == versions(position)) previous
+      else jarClassesOf(jars(position), versions(position))
+    }.toVector
+    val changed = jars.indices.filter(position => classes(position) ne index.jars(position))
+    val first = changed.foldLeft(index.first) { (first, position) =>
+      val removed = index.jars(position).classes
+      val added = classes(position).classes
+      // The removed classes that were defined first by this jar move to the next jar with them
+      val moved = (removed -- added).iterator.filter(first.get(_).contains(position)).map {
+        name =>
+          val next = ((position + 1) until jars.size).find(classes(_).classes.contains(name))
+          name -> next
+      }
+      val withoutRemoved = moved.foldLeft(first) {
+        case (first, (name, Some(next))) => first.updated(name, next)
+        case (first, (name, None))       => first - name
+      }
+      added.foldLeft(withoutRemoved) { (first, name) =>
+        first.get(name) match {
+          case Some(existing) if existing <= position => first
+          case _                                      => first.updated(name, position)
+        }
+      }
+    }
+    new Index(classes, first)
+  }
+}
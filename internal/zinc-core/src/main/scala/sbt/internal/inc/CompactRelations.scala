@@ -0,0 +1,333 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.internal.util.Relation
+import xsbti.VirtualFileRef
+import xsbti.api.{ DependencyContext, ExternalDependency, InternalDependency }
+import xsbti.api.DependencyContext._
+import xsbti.compile.analysis.{ Stamp => XStamp }
+import Relations.ClassDependencies
+
+/**
+ * [[Relations]] that intern source files, products, class names and used names to int ids,
+ * and store every relation as an [[IntRelation]] instead of boxed maps of sets.
+ *
+ * Queries by value, such as `products` or `usesInternalClass`, are answered from the int
+ * relations directly. The members that return a whole [[Relation]] build it every time they
+ * are accessed, without keeping it, so that callers that need one keep working but the boxed
+ * maps never live alongside the int relations. Repeated queries must use the queries by value.
+ * The relations derived from each other share their interners, so that `++` and `--` only
+ * merge or drop rows of ids. Since ids are never reclaimed, the interners are scoped to one
+ * analysis: once they hold many more ids than the relations they were created for, the
+ * result of `++` or `--` is interned again into fresh interners, and the old ones are dropped.
+ */
+private[inc] final class CompactRelations private (
+    private[inc] val interners: CompactRelations.Interners,
+    private val srcProd0: IntRelation[VirtualFileRef, VirtualFileRef],
+    private val libraryDep0: IntRelation[VirtualFileRef, VirtualFileRef],
+    private val libraryClassName0: IntRelation[VirtualFileRef, String],
+    private val internal0: Map[DependencyContext, IntRelation[String, String]],
+    private val external0: Map[DependencyContext, IntRelation[String, String]],
+    private val classes0: IntRelation[VirtualFileRef, String],
+    private val names0: IntRelation[String, UsedName],
+    private val productClassName0: IntRelation[String, String]
+) extends Relations {
+
+  private def emptyDependencies = IntRelation.empty(interners.strings, interners.strings)
+  private def internal(context: DependencyContext): IntRelation[String, String] =
+    internal0.getOrElse(context, emptyDependencies)
+  private def external(context: DependencyContext): IntRelation[String, String] =
+    external0.getOrElse(context, emptyDependencies)
+
+  def srcProd: Relation[VirtualFileRef, VirtualFileRef] = srcProd0.toRelation
+  def libraryDep: Relation[VirtualFileRef, VirtualFileRef] = libraryDep0.toRelation
+  def libraryClassName: Relation[VirtualFileRef, String] = libraryClassName0.toRelation
+  def classes: Relation[VirtualFileRef, String] = classes0.toRelation
+  private[inc] def names: Relation[String, UsedName] = names0.toRelation
+  def productClassName: Relation[String, String] = productClassName0.toRelation
+
+  private[inc] def internalDependencies: InternalDependencies =
+    InternalDependencies(internal0.collect {
+      case (context, relation) if relation.size > 0 => context -> relation.toRelation
+    })
+  private[inc] def externalDependencies: ExternalDependencies =
+    ExternalDependencies(external0.collect {
+      case (context, relation) if relation.size > 0 => context -> relation.toRelation
+    })
+
+  private def classDependencies(context: DependencyContext): ClassDependencies =
+    new ClassDependencies(internal(context).toRelation, external(context).toRelation)
+  private[inc] def memberRef: ClassDependencies = classDependencies(DependencyByMemberRef)
+  private[inc] def inheritance: ClassDependencies = classDependencies(DependencyByInheritance)
+  private[inc] def localInheritance: ClassDependencies =
+    classDependencies(LocalDependencyByInheritance)
+
+  def allSources: collection.Set[VirtualFileRef] = srcProd0._1s
+  def allProducts: collection.Set[VirtualFileRef] = srcProd0._2s
+  def allLibraryDeps: collection.Set[VirtualFileRef] = libraryDep0._2s
+  def allExternalDeps: collection.Set[String] = external(DependencyByMemberRef)._2s
+
+  def classNames(src: VirtualFileRef): Set[String] = classes0.forward(src)
+  def definesClass(name: String): Set[VirtualFileRef] = classes0.reverse(name)
+
+  def products(src: VirtualFileRef): Set[VirtualFileRef] = srcProd0.forward(src)
+  def produced(prod: VirtualFileRef): Set[VirtualFileRef] = srcProd0.reverse(prod)
+
+  def libraryDeps(src: VirtualFileRef): Set[VirtualFileRef] = libraryDep0.forward(src)
+  def usesLibrary(dep: VirtualFileRef): Set[VirtualFileRef] = libraryDep0.reverse(dep)
+  def libraryClassNames(lib: VirtualFileRef): Set[String] = libraryClassName0.forward(lib)
+  def libraryDefinesClass(name: String): Set[VirtualFileRef] = libraryClassName0.reverse(name)
+
+  def internalClassDep: Relation[String, String] = internal(DependencyByMemberRef).toRelation
+  def externalClassDep: Relation[String, String] = external(DependencyByMemberRef).toRelation
+
+  def internalClassDeps(className: String): Set[String] =
+    internal(DependencyByMemberRef).forward(className)
+  def usesInternalClass(className: String): Set[String] =
+    internal(DependencyByMemberRef).reverse(className)
+
+  def externalDeps(className: String): Set[String] =
+    external(DependencyByMemberRef).forward(className)
+  def usesExternal(className: String): Set[String] =
+    external(DependencyByMemberRef).reverse(className)
+
+  private[inc] def usedNames(className: String): Set[UsedName] = names0.forward(className)
+
+  private[inc] override def usesInternalClass(
+      className: String,
+      context: DependencyContext
+  ): Set[String] = internal(context).reverse(className)
+  private[inc] override def usesExternal(
+      className: String,
+      context: DependencyContext
+  ): Set[String] = external(context).reverse(className)
+  private[inc] override def sourceClassNames(binaryClassName: String): Set[String] =
+    productClassName0.reverse(binaryClassName)
+  private[inc] override def producesClassName(binaryClassName: String): Boolean =
+    productClassName0.hasReverse(binaryClassName)
+
+  private def copy0(
+      srcProd: IntRelation[VirtualFileRef, VirtualFileRef] = srcProd0,
+      libraryDep: IntRelation[VirtualFileRef, VirtualFileRef] = libraryDep0,
+      libraryClassName: IntRelation[VirtualFileRef, String] = libraryClassName0,
+      internal: Map[DependencyContext, IntRelation[String, String]] = internal0,
+      external: Map[DependencyContext, IntRelation[String, String]] = external0,
+      classes: IntRelation[VirtualFileRef, String] = classes0,
+      names: IntRelation[String, UsedName] = names0,
+      productClassName: IntRelation[String, String] = productClassName0
+  ): Relations =
+    new CompactRelations(
+      interners,
+      srcProd,
+      libraryDep,
+      libraryClassName,
+      internal,
+      external,
+      classes,
+      names,
+      productClassName
+    )
+
+  /** Adds the `(context, source class, target class)` dependencies. */
+  private def addDependencies(
+      dependencies: Map[DependencyContext, IntRelation[String, String]],
+      added: Iterable[(DependencyContext, String, String)]
+  ): Map[DependencyContext, IntRelation[String, String]] =
+    added.groupBy(_._1).foldLeft(dependencies) {
+      case (deps, (context, edges)) =>
+        val relation = deps.getOrElse(context, emptyDependencies)
+        deps.updated(context, relation ++ edges.map(e => e._2 -> e._3))
+    }
+
+  private[inc] def addProducts(src: VirtualFileRef, products: Iterable[VirtualFileRef]) =
+    copy0(srcProd = srcProd0 + (src, products))
+
+  private[inc] def addClasses(src: VirtualFileRef, classes: Iterable[(String, String)]) =
+    copy0(
+      classes = classes0 + (src, classes.map(_._1)),
+      productClassName = productClassName0 ++ classes
+    )
+
+  private[inc] def addInternalSrcDeps(src: VirtualFileRef, deps: Iterable[InternalDependency]) =
+    copy0(internal = addDependencies(internal0, deps.map { dep =>
+      (dep.context, dep.sourceClassName, dep.targetClassName)
+    }))
+
+  private[inc] def addExternalDeps(src: VirtualFileRef, deps: Iterable[ExternalDependency]) =
+    copy0(external = addDependencies(external0, deps.map { dep =>
+      (dep.context, dep.sourceClassName, dep.targetProductClassName)
+    }))
+
+  private[inc] def addLibraryDeps(
+      src: VirtualFileRef,
+      deps: Iterable[(VirtualFileRef, String, XStamp)]
+  ) =
+    copy0(
+      libraryDep = libraryDep0 + (src, deps.map(_._1)),
+      libraryClassName = libraryClassName0 ++ deps.map(d => d._1 -> d._2)
+    )
+
+  private[inc] def addUsedNames(data: Relation[String, UsedName]) =
+    copy0(names = names0 ++ IntRelation(interners.strings, interners.usedNames, data))
+
+  /** Interns these relations again into fresh interners if most of their ids are stale. */
+  private def rescoped(relations: Relations): Relations =
+    if (interners.isStale) CompactRelations.from(relations, new CompactRelations.Interners)
+    else relations
+
+  def ++(o: Relations): Relations = {
+    val other = CompactRelations.from(o, interners)
+    def merge(
+        m1: Map[DependencyContext, IntRelation[String, String]],
+        m2: Map[DependencyContext, IntRelation[String, String]]
+    ) =
+      m2.foldLeft(m1) {
+        case (deps, (context, relation)) =>
+          deps.updated(context, deps.get(context).fold(relation)(_ ++ relation))
+      }
+    val merged = copy0(
+      srcProd0 ++ other.srcProd0,
+      libraryDep0 ++ other.libraryDep0,
+      libraryClassName0 ++ other.libraryClassName0,
+      merge(internal0, other.internal0),
+      merge(external0, other.external0),
+      classes0 ++ other.classes0,
+      names0 ++ other.names0,
+      productClassName0 ++ other.productClassName0
+    )
+    rescoped(merged)
+  }
+
+  def --(sources: Iterable[VirtualFileRef]): Relations = {
+    val classesInSources = sources.flatMap(classNames)
+    val remaining = copy0(
+      srcProd0 -- sources,
+      libraryDep0 -- sources,
+      libraryClassName0,
+      internal0.map { case (context, relation) => context -> (relation -- classesInSources) },
+      external0.map { case (context, relation) => context -> (relation -- classesInSources) },
+      classes0 -- sources,
+      names0 -- classesInSources,
+      productClassName0 -- classesInSources
+    )
+    rescoped(remaining)
+  }
+
+  private[inc] def copy(
+      srcProd: Relation[VirtualFileRef, VirtualFileRef],
+      libraryDep: Relation[VirtualFileRef, VirtualFileRef],
+      libraryClassName: Relation[VirtualFileRef, String],
+      internalDependencies: InternalDependencies,
+      externalDependencies: ExternalDependencies,
+      classes: Relation[VirtualFileRef, String],
+      names: Relation[String, UsedName],
+      productClassName: Relation[String, String],
+  ): Relations =
+    CompactRelations.from(
+      Relations.make(
+        srcProd,
+        libraryDep,
+        libraryClassName,
+        internalDependencies,
+        externalDependencies,
+        classes,
+        names,
+        productClassName
+      ),
+      interners
+    )
+
+  override def equals(other: Any) = other match {
+    case o: Relations =>
+      srcProd == o.srcProd && libraryDep == o.libraryDep && memberRef == o.memberRef &&
+        inheritance == o.inheritance && classes == o.classes
+    case _ => false
+  }
+
+  override def hashCode =
+    List(srcProd, libraryDep, libraryClassName, memberRef, inheritance, classes).hashCode
+
+  override def toString: String =
+    Relations
+      .make(
+        srcProd,
+        libraryDep,
+        libraryClassName,
+        internalDependencies,
+        externalDependencies,
+        classes,
+        names,
+        productClassName
+      )
+      .toString
+}
+
+private[inc] object CompactRelations {
+
+  /** The number of ids that interners can assign before they are checked for staleness. */
+  private val MinScopedIds = 4096
+
+  /** The interners shared by the relations derived from each other. */
+  private[inc] final class Interners {
+    val files = new Interner[VirtualFileRef]
+    val strings = new Interner[String]
+    val usedNames = new Interner[UsedName]
+
+    /** The number of ids used by the relations these interners were created for. */
+    @volatile private[CompactRelations] var scopedIds = 0
+
+    def size: Int = files.size + strings.size + usedNames.size
+
+    /**
+     * Whether the interners assigned more than twice as many ids as the relations they were
+     * created for use, so that most of them may belong to sources that were removed since.
+     */
+    def isStale: Boolean = size > math.max(MinScopedIds, 2 * scopedIds)
+  }
+
+  def empty: Relations = from(Relations.empty, new Interners)
+
+  /** Returns the given relations stored as compact relations. */
+  def apply(relations: Relations): Relations = relations match {
+    case compact: CompactRelations => compact
+    case _                         => from(relations, new Interners)
+  }
+
+  private def from(relations: Relations, interners: Interners): CompactRelations = {
+    import interners._
+    relations match {
+      case compact: CompactRelations if compact.interners eq interners => compact
+      case _ =>
+        def dependencies(deps: Map[DependencyContext, Relation[String, String]]) =
+          deps.map {
+            case (context, relation) => context -> IntRelation(strings, strings, relation)
+          }
+        val fresh = interners.size == 0
+        val compact = new CompactRelations(
+          interners,
+          IntRelation(files, files, relations.srcProd),
+          IntRelation(files, files, relations.libraryDep),
+          IntRelation(files, strings, relations.libraryClassName),
+          dependencies(relations.internalDependencies.dependencies),
+          dependencies(relations.externalDependencies.dependencies),
+          IntRelation(files, strings, relations.classes),
+          IntRelation(strings, usedNames, relations.names),
+          IntRelation(strings, strings, relations.productClassName)
+        )
+        if (fresh) interners.scopedIds = interners.size
+        compact
+    }
+  }
+}
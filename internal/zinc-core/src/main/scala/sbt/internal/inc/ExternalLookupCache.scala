@@ -0,0 +1,84 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+import xsbti.{ FileConverter, VirtualFile, VirtualFileRef }
+import xsbti.api.AnalyzedClass
+import xsbti.compile.{ RunProfiler => XRunProfiler }
+
+/**
+ * Memoizes, for the length of a run, the external lookups of the binary dependencies reported
+ * by the compiler: the analyzed classes of other projects, or their absence for library classes,
+ * and the virtual files of the jars and class files that the dependencies come from.
+ *
+ * A class of another project or of a library is usually depended on by many sources, so the same
+ * lookups would otherwise be made for every one of them. Neither changes during a run, since the
+ * classes compiled by the run itself are resolved before they are looked up here.
+ */
+private[inc] final class ExternalLookupCache(
+    lookupAnalyzedClass: (String, Option[VirtualFileRef]) => Option[AnalyzedClass],
+    converter: FileConverter
+) {
+  private[this] val analyzedClasses =
+    new ConcurrentHashMap[(String, Option[VirtualFileRef]), Option[AnalyzedClass]]
+  private[this] val virtualFiles = new ConcurrentHashMap[Path, VirtualFile]
+  private[this] val analyzedClassHits = new LongAdder
+  private[this] val analyzedClassMisses = new LongAdder
+  private[this] val virtualFileHits = new LongAdder
+  private[this] val virtualFileMisses = new LongAdder
+
+  /** Looks up the analyzed class of another project, see [[Lookup.lookupAnalyzedClass]]. */
+  def analyzedClass(binaryClassName: String, file: Option[VirtualFileRef]): Option[AnalyzedClass] =
+    memo(analyzedClasses, (binaryClassName, file), analyzedClassHits, analyzedClassMisses) {
+      case (name, from) => lookupAnalyzedClass(name, from)
+    }
+
+  /** Converts the path of a jar or a class file depended on. */
+  def virtualFile(path: Path): VirtualFile =
+    memo(virtualFiles, path, virtualFileHits, virtualFileMisses)(converter.toVirtualFile)
+
+  private def memo[K, V <: AnyRef](
+      map: ConcurrentHashMap[K, V],
+      key: K,
+      hits: LongAdder,
+      misses: LongAdder
+  )(compute: K => V): V = {
+    val cached = map.get(key)
+    if (cached != null) {
+      hits.increment()
+      cached
+    } else {
+      misses.increment()
+      map.computeIfAbsent(key, k => compute(k))
+    }
+  }
+
+  /** Registers the hits and misses of the lookups in the profiler of the run. */
+  def registerStatistics(profiler: XRunProfiler): Unit = {
+    profiler.registerCacheStatistics(
+      "external analyzed classes",
+      analyzedClassHits.sum,
+      analyzedClassMisses.sum
+    )
+    profiler.registerCacheStatistics(
+      "binary dependency files",
+      virtualFileHits.sum,
+      virtualFileMisses.sum
+    )
+  }
+}
@@ -16,12 +16,25 @@ package inc
 import java.io.File
 import java.nio.file.{ Files, Path, Paths }
 import java.util.{ EnumSet, UUID }
-import java.util.concurrent.atomic.{ AtomicBoolean }
+import java.util.concurrent.{
+  ArrayBlockingQueue,
+  CompletableFuture,
+  CompletionException,
+  ExecutionException,
+  ExecutorService,
+  Executors,
+  Future,
+  ThreadFactory,
+  ThreadPoolExecutor,
+  TimeUnit
+}
+import java.util.concurrent.atomic.{ AtomicBoolean, AtomicInteger }
 import sbt.internal.inc.Analysis.{ LocalProduct, NonLocalProduct }
 import sbt.internal.inc.JavaInterfaceUtil.EnrichOption
 import sbt.util.{ InterfaceUtil, Level, Logger }
 import sbt.util.InterfaceUtil.{ jo2o, t2 }
 import scala.collection.JavaConverters._
+import scala.collection.parallel.immutable.ParVector
 import scala.util.control.NonFatal
 import xsbti.{ FileConverter, Position, Problem, Severity, UseScope, VirtualFile, VirtualFileRef }
 import xsbt.api.{ APIUtil, HashAPI, NameHashing }
@@ -33,6 +46,7 @@ import xsbti.compile.{
   CompileProgress,
   DependencyChanges,
   IncOptions,
+  IncOptionsUtil,
   MiniOptions,
   MiniSetup,
   Output,
@@ -145,10 +159,10 @@ object Incremental {
       ) => Unit
   ): (Boolean, Analysis) = {
     log.debug(s"[zinc] IncrementalCompile -----------")
-    val previous = previous0 match { case a: Analysis => a }
+    val previous = withCompactRelations(previous0 match { case a: Analysis => a }, options)
     val currentStamper = Stamps.initial(stamper)
     val internalBinaryToSourceClassName = (binaryClassName: String) =>
-      previous.relations.productClassName.reverse(binaryClassName).headOption
+      previous.relations.sourceClassNames(binaryClassName).headOption
     val internalSourceToClassNamesMap: VirtualFile => Set[String] = (f: VirtualFile) =>
       previous.relations.classNames(f)
 
@@ -163,6 +177,23 @@ object Incremental {
     val profiler = options.externalHooks.getInvalidationProfiler
     val runProfiler = new AdaptedRunProfiler(profiler.profileRun)
     val incremental: IncrementalCommon = new IncrementalNameHashing(log, options, runProfiler)
+    val callbackBuilder = new AnalysisCallback.Builder(
+      internalBinaryToSourceClassName,
+      internalSourceToClassNamesMap,
+      lookup.lookupAnalyzedClass(_, _),
+      currentStamper,
+      options,
+      currentSetup,
+      converter,
+      lookup,
+      output,
+      outputJarContent,
+      earlyOutput,
+      earlyAnalysisStore,
+      pickleJarPair,
+      progress,
+      log
+    )
     try {
       incrementalCompile(
         sources,
@@ -175,23 +206,7 @@ object Incremental {
           compile(vs, depCh, cb, cfm)
           runProfiler.timeCompilation(startTime, System.nanoTime() - startTime)
         },
-        new AnalysisCallback.Builder(
-          internalBinaryToSourceClassName,
-          internalSourceToClassNamesMap,
-          lookup.lookupAnalyzedClass(_, _),
-          currentStamper,
-          options,
-          currentSetup,
-          converter,
-          lookup,
-          output,
-          outputJarContent,
-          earlyOutput,
-          earlyAnalysisStore,
-          pickleJarPair,
-          progress,
-          log
-        ),
+        callbackBuilder,
         incremental,
         options,
         currentSetup,
@@ -207,9 +222,20 @@ object Incremental {
         // in case compilation got cancelled potential partial compilation results (e.g. produced classs files) got rolled back
         // and we can report back as there was no change (false) and return a previous Analysis which is still up-to-date
         (false, previous)
-    } finally runProfiler.registerRun()
+    } finally {
+      callbackBuilder.externalLookups.registerStatistics(runProfiler)
+      runProfiler.registerRun()
+    }
   }
 
+  /**
+   * Stores the relations of the analysis as [[CompactRelations]] if enabled, which the
+   * analyses merged into it during the compilation then keep.
+   */
+  private def withCompactRelations(analysis: Analysis, options: IncOptions): Analysis =
+    if (!IncOptionsUtil.extraBoolean(options, IncOptionsUtil.COMPACT_RELATIONS)) analysis
+    else analysis.copy(relations = CompactRelations(analysis.relations))
+
   def extractEarlyJar(earlyOutput: Option[Output]): Option[Path] =
     for {
       early <- earlyOutput
@@ -244,7 +270,7 @@ object Incremental {
     val previous = previous0 match { case a: Analysis => a }
     val currentStamper = Stamps.initial(stamper)
     val internalBinaryToSourceClassName = (binaryClassName: String) =>
-      previous.relations.productClassName.reverse(binaryClassName).headOption
+      previous.relations.sourceClassNames(binaryClassName).headOption
     val internalSourceToClassNamesMap: VirtualFile => Set[String] =
       (f: VirtualFile) => previous.relations.classNames(f)
     val builder = new AnalysisCallback.Builder(
@@ -456,8 +482,15 @@ object Incremental {
       // in order to rollback entirely if transaction fails. `AnalysisCallback` is used by each cycle
       // to report its own analysis individually.
       val callback = callbackBuilder.build(incHandler)
-      compile(srcs, changes, callback, classFileManager)
-      callback.getCycleResultOnce
+      try {
+        compile(srcs, changes, callback, classFileManager)
+        callback.getCycleResultOnce
+      } catch {
+        case e: Throwable =>
+          // the class files are only rolled back once the early artifacts are not being written
+          callback.cycleFailed(e)
+          throw e
+      }
     }
   }
 
@@ -546,6 +579,10 @@ private object AnalysisCallback {
       progress: Option[CompileProgress],
       log: Logger
   ) {
+
+    /** The external lookups of the callbacks of the run, which are shared by all its cycles. */
+    val externalLookups = new ExternalLookupCache(externalAPI, converter)
+
     def build(incHandler: Incremental.IncrementalCallback): AnalysisCallback =
       buildImpl(Some(incHandler))
 
@@ -556,7 +593,7 @@ private object AnalysisCallback {
       new AnalysisCallback(
         internalBinaryToSourceClassName,
         internalSourceToClassNamesMap,
-        externalAPI,
+        externalLookups,
         stampReader,
         options,
         currentSetup,
@@ -574,12 +611,46 @@ private object AnalysisCallback {
     }
   }
 
+  /** Below this number of sources, their analyses are computed on the calling thread. */
+  private final val MinParallelSources = 64
+
+  /** Above this number of APIs waiting to be hashed, the compiler thread hashes them itself. */
+  private final val MaxPendingApis = 1024
+
+  /** The worker threads that hash APIs, see IncOptionsUtil.PIPELINED_API_HASHING. */
+  private lazy val hashingPool: ExecutorService = {
+    val threads = Runtime.getRuntime.availableProcessors
+    val pool = new ThreadPoolExecutor(
+      threads,
+      threads,
+      1L,
+      TimeUnit.MINUTES,
+      new ArrayBlockingQueue[Runnable](MaxPendingApis),
+      daemonThreads("zinc-api-hashing"),
+      new ThreadPoolExecutor.CallerRunsPolicy
+    )
+    pool.allowCoreThreadTimeOut(true)
+    pool
+  }
+
+  /** The threads that write the early artifacts of pipelined compilations. */
+  private lazy val earlyOutputWriter: ExecutorService =
+    Executors.newCachedThreadPool(daemonThreads("zinc-early-output"))
+
+  private def daemonThreads(name: String): ThreadFactory = {
+    val count = new AtomicInteger
+    (task: Runnable) => {
+      val thread = new Thread(task, s"$name-${count.incrementAndGet()}")
+      thread.setDaemon(true)
+      thread
+    }
+  }
 }
 
 private final class AnalysisCallback(
     internalBinaryToSourceClassName: String => Option[String],
     internalSourceToClassNamesMap: VirtualFile => Set[String],
-    externalAPI: (String, Option[VirtualFileRef]) => Option[AnalyzedClass],
+    externalLookups: ExternalLookupCache,
     stampReader: ReadStamps,
     options: IncOptions,
     currentSetup: MiniSetup,
@@ -604,6 +675,16 @@ private final class AnalysisCallback(
   private val provenance =
     jo2o(output.getSingleOutputAsPath).fold("")(hooks.getProvenance.get(_)).intern
 
+  // See IncOptionsUtil.STREAMING_ANALYSIS
+  private[this] val streaming =
+    IncOptionsUtil.extraBoolean(options, IncOptionsUtil.STREAMING_ANALYSIS)
+  // The APIs are not stored nor diffed, so only their definition type is kept besides the hashes
+  private[this] val dropApis =
+    streaming && !currentSetup.storeApis && !Incremental.apiDebug(options)
+  // See IncOptionsUtil.PIPELINED_API_HASHING
+  private[this] val pipelinedHashing =
+    IncOptionsUtil.extraBoolean(options, IncOptionsUtil.PIPELINED_API_HASHING)
+
   override def toString =
     (List("Class APIs", "Object APIs", "Library deps", "Products", "Source deps") zip
       List(classApis, objectApis, libraryDeps, nonLocalClasses, intSrcDeps))
@@ -627,6 +708,8 @@ private final class AnalysisCallback(
   private[this] val classPublicNameHashes = new TrieMap[String, Array[NameHash]]
   private[this] val objectPublicNameHashes = new TrieMap[String, Array[NameHash]]
   private[this] val usedNames = new RelationBuilder[String, UsedName]
+  // The used names reported so far in streaming mode, so that every class shares their instances
+  private[this] val internedNames = new java.util.HashMap[UsedName, UsedName]
   private[this] val unreporteds = new TrieMap[VirtualFileRef, ConcurrentLinkedQueue[Problem]]
   private[this] val reporteds = new TrieMap[VirtualFileRef, ConcurrentLinkedQueue[Problem]]
   private[this] val mainClasses = new TrieMap[VirtualFileRef, ConcurrentLinkedQueue[String]]
@@ -647,14 +730,20 @@ private final class AnalysisCallback(
   private[this] val binaryClassName = new TrieMap[VirtualFile, String]
   // source files containing a macro def.
   private[this] val macroClasses = ConcurrentHashMap.newKeySet[String]()
+  // the hashing of APIs that runs on AnalysisCallback.hashingPool, joined by getAnalysis
+  private[this] val pendingHashes = new ConcurrentLinkedQueue[Future[_]]
 
   // Results of invalidation calculations (including whether to continue cycles) - the analysis at this point is
   // not useful and so isn't included.
   @volatile private[this] var invalidationResults: Option[CompileCycleResult] = None
 
+  // Set by every callback after it reports something, so that getAnalysis builds it again
+  @volatile private[this] var changed: Boolean = true
+  private[this] var cachedAnalysis: Analysis = _
+
   private def add[A, B](map: TrieMap[A, ConcurrentSet[B]], a: A, b: B): Unit = {
     map.getOrElseUpdate(a, ConcurrentHashMap.newKeySet[B]()).add(b)
-    ()
+    changed = true
   }
 
   override def isPickleJava: Boolean = {
@@ -672,7 +761,7 @@ private final class AnalysisCallback(
       )
     }
     srcs.add(source)
-    ()
+    changed = true
   }
 
   def problem(
@@ -688,6 +777,7 @@ private final class AnalysisCallback(
       map
         .getOrElseUpdate(source, new ConcurrentLinkedQueue)
         .add(InterfaceUtil.problem(category, pos, msg, severity, None))
+      changed = true
     }
   }
 
@@ -747,27 +837,26 @@ private final class AnalysisCallback(
         // dependency is a product of a source not included in this compilation
         classDependency(dependsOn, fromClassName, context)
       case None =>
-        val vf = converter.toVirtualFile(classFile)
+        val vf = externalLookups.virtualFile(classFile)
         classToSource.get(vf) match {
           case Some(dependsOn) =>
             // dependency is a product of a source in this compilation step,
             //  but not in the same compiler run (as in javac v. scalac)
             classDependency(dependsOn, fromClassName, context)
           case None =>
-            externalDependency(classFile, onBinaryClassName, fromClassName, fromSourceFile, context)
+            externalDependency(vf, onBinaryClassName, fromClassName, fromSourceFile, context)
         }
     }
 
   private[this] def externalDependency(
-      classFile: Path,
+      vf: VirtualFile,
       onBinaryName: String,
       sourceClassName: String,
       sourceFile: VirtualFileRef,
       context: DependencyContext
   ): Unit = {
     // TODO: handle library JARs and rt.jar.
-    val vf = converter.toVirtualFile(classFile)
-    externalAPI(onBinaryName, Some(vf)) match {
+    externalLookups.analyzedClass(onBinaryName, Some(vf)) match {
       case Some(api) =>
         // dependency is a product of a source in another project
         val targetBinaryClassName = onBinaryName
@@ -829,13 +918,24 @@ private final class AnalysisCallback(
   override def api(sourceFile: File, classApi: ClassLike): Unit =
     api(converter.toVirtualFile(sourceFile.toPath), classApi)
 
-  override def api(sourceFile: VirtualFileRef, classApi: ClassLike): Unit = {
+  override def api(sourceFile: VirtualFileRef, classApi: ClassLike): Unit =
+    if (!pipelinedHashing) hashApi(sourceFile, classApi)
+    else {
+      val hashing: Runnable = () => hashApi(sourceFile, classApi)
+      pendingHashes.add(AnalysisCallback.hashingPool.submit(hashing))
+      ()
+    }
+
+  private def hashApi(sourceFile: VirtualFileRef, classApi: ClassLike): Unit = {
     import xsbt.api.{ APIUtil, HashAPI }
     val className = classApi.name
     if (APIUtil.isScalaSourceName(sourceFile.id) && APIUtil.hasMacro(classApi))
       macroClasses.add(className)
     val shouldMinimize = !Incremental.apiDebug(options)
-    val savedClassApi = if (shouldMinimize) APIUtil.minimize(classApi) else classApi
+    val savedClassApi =
+      if (dropApis) APIUtil.emptyClassLike(className, classApi.definitionType)
+      else if (shouldMinimize) APIUtil.minimize(classApi)
+      else classApi
     val apiHash: HashAPI.Hash = HashAPI(classApi)
     val nameHashes = (new xsbt.api.NameHashing(options.useOptimizedSealed())).nameHashes(classApi)
     classApi.definitionType match {
@@ -851,6 +951,7 @@ private final class AnalysisCallback(
         objectApis(className) = ApiInfo(apiHash, apiHash, savedClassApi)
         objectPublicNameHashes(className) = nameHashes.toArray
     }
+    changed = true
   }
 
   // Called by sbt-dotty
@@ -859,12 +960,42 @@ private final class AnalysisCallback(
 
   override def mainClass(sourceFile: VirtualFileRef, className: String): Unit = {
     mainClasses.getOrElseUpdate(sourceFile, new ConcurrentLinkedQueue).add(className)
-    ()
+    changed = true
   }
 
   def usedName(className: String, name: String, useScopes: EnumSet[UseScope]) =
     usedNames.synchronized {
-      usedNames(className) = UsedName.make(name, useScopes)
+      usedNames(className) = internedName(name, useScopes)
+      changed = true
+    }
+
+  /** Returns the used name, interned in streaming mode. Called under the lock of usedNames. */
+  private def internedName(name: String, useScopes: EnumSet[UseScope]): UsedName = {
+    val usedName = UsedName.make(name, useScopes)
+    if (!streaming) usedName
+    else {
+      val interned = internedNames.putIfAbsent(usedName, usedName)
+      if (interned == null) usedName else interned
+    }
+  }
+
+  // The names of a whole compilation unit are added under one acquisition of the lock
+  override def usedNameBatch(
+      classNames: Array[String],
+      nameCounts: Array[Int],
+      names: Array[String],
+      useScopes: Array[EnumSet[UseScope]]
+  ): Unit =
+    usedNames.synchronized {
+      var offset = 0
+      classNames.indices.foreach { i =>
+        val className = classNames(i)
+        (offset until offset + nameCounts(i)).foreach { name =>
+          usedNames(className) = internedName(names(name), useScopes(name))
+        }
+        offset += nameCounts(i)
+      }
+      changed = true
     }
 
   override def enabled(): Boolean = options.enabled
@@ -875,7 +1006,7 @@ private final class AnalysisCallback(
       val incHandler = incHandlerOpt.getOrElse(sys.error("incHandler was expected"))
       // Not continuing & nothing was written, so notify it ain't gonna happen
       def notifyNoEarlyOut() =
-        if (!writtenEarlyArtifacts) progress.foreach(_.afterEarlyOutput(false))
+        if (!writtenEarlyArtifacts) notifyEarlyOutput(false)
       outputJarContent.scalacRunCompleted()
       if (earlyOutput.isDefined) {
         val early = incHandler.previousAnalysisPruned
@@ -886,8 +1017,12 @@ private final class AnalysisCallback(
         }
         if (!writtenEarlyArtifacts) // writing implies the updates merge has happened
           mergeUpdates() // must merge updates each cycle or else scalac will clobber it
+        // the next cycle must not start before the updates are merged
+        awaitEarlyArtifacts()
       }
-      incHandler.completeCycle(invalidationResults, getAnalysis)
+      val analysis = getAnalysis
+      release()
+      incHandler.completeCycle(invalidationResults, analysis)
     } else {
       throw new IllegalStateException(
         "can't call AnalysisCallback#getCycleResultOnce more than once"
@@ -895,13 +1030,70 @@ private final class AnalysisCallback(
     }
   }
 
-  private def getAnalysis: Analysis = {
-    val analysis0 = addProductsAndDeps(Analysis.empty)
-    addUsedNames(addCompilation(analysis0))
+  /**
+   * Returns the analysis of the cycle, which is only built again when the compiler reported
+   * something since it was last built: the analysis is asked for after the API phase, after the
+   * dependency phase and at the end of the cycle, often with nothing reported in between.
+   */
+  private def getAnalysis: Analysis = synchronized {
+    joinHashing()
+    if (changed || cachedAnalysis == null) {
+      changed = false
+      val analysis0 = addProductsAndDeps(Analysis.empty)
+      cachedAnalysis = addUsedNames(addCompilation(analysis0))
+    }
+    cachedAnalysis
+  }
+
+  /** Waits for the APIs reported so far to be hashed, and rethrows the first hashing error. */
+  private def joinHashing(): Unit = {
+    var pending = pendingHashes.poll()
+    while (pending != null) {
+      try pending.get()
+      catch { case e: ExecutionException => throw e.getCause }
+      pending = pendingHashes.poll()
+    }
   }
 
   def getPostJavaAnalysis: Analysis = {
-    getAnalysis
+    val analysis = getAnalysis
+    release()
+    analysis
+  }
+
+  /**
+   * Drops the data reported by the compiler once the analysis of the cycle is built, so that it
+   * can be collected while the analysis is merged with the previous one, in streaming mode.
+   */
+  private def release(): Unit = {
+    joinHashing()
+    synchronized { cachedAnalysis = null }
+    if (streaming) {
+      val maps: List[collection.mutable.Map[_, _]] = List(
+        classApis,
+        objectApis,
+        classPublicNameHashes,
+        objectPublicNameHashes,
+        unreporteds,
+        reporteds,
+        mainClasses,
+        libraryDeps,
+        nonLocalClasses,
+        localClasses,
+        classNames,
+        classToSource,
+        intSrcDeps,
+        extSrcDeps,
+        binaryClassName
+      )
+      maps.foreach(_.clear())
+      srcs.clear()
+      macroClasses.clear()
+      usedNames.synchronized {
+        usedNames.clear()
+        internedNames.clear()
+      }
+    }
   }
 
   def getOrNil[A, B](m: collection.Map[A, Seq[B]], a: A): Seq[B] = m.get(a).toList.flatten
@@ -958,62 +1150,73 @@ private final class AnalysisCallback(
 
   def addProductsAndDeps(base: Analysis): Analysis = {
     import scala.collection.JavaConverters._
-    srcs.asScala.foldLeft(base) {
-      case (a, src) =>
-        val stamp = stampReader.source(src)
-        val classesInSrc = classNames
-          .getOrElse(src, ConcurrentHashMap.newKeySet[(String, String)]())
-          .asScala
-          .map(_._1)
-        val analyzedApis = classesInSrc.map(analyzeClass)
-        val info = SourceInfos.makeInfo(
-          getOrNil(reporteds.iterator.map { case (k, v)   => k -> v.asScala.toSeq }.toMap, src),
-          getOrNil(unreporteds.iterator.map { case (k, v) => k -> v.asScala.toSeq }.toMap, src),
-          getOrNil(mainClasses.iterator.map { case (k, v) => k -> v.asScala.toSeq }.toMap, src)
-        )
-        val libraries: collection.mutable.Set[VirtualFile] =
-          libraryDeps.getOrElse(src, ConcurrentHashMap.newKeySet[VirtualFile]).asScala
-        val localProds = localClasses
-          .getOrElse(src, ConcurrentHashMap.newKeySet[VirtualFileRef]())
-          .asScala map { classFile =>
-          val classFileStamp = stampReader.product(classFile)
-          LocalProduct(classFile, classFileStamp)
-        }
-        val binaryToSrcClassName =
-          (classNames.getOrElse(src, ConcurrentHashMap.newKeySet[(String, String)]()).asScala map {
-            case (srcClassName, binaryClassName) => (binaryClassName, srcClassName)
-          }).toMap
-        val nonLocalProds = nonLocalClasses
-          .getOrElse(src, ConcurrentHashMap.newKeySet[(VirtualFileRef, String)]())
-          .asScala map {
-          case (classFile, binaryClassName) =>
-            val srcClassName = binaryToSrcClassName(binaryClassName)
-            val classFileStamp = stampReader.product(classFile)
-            NonLocalProduct(srcClassName, binaryClassName, classFile, classFileStamp)
-        }
+    val sources = srcs.asScala.toVector
+    // The sources are analyzed independently, and only added to the builder one at a time
+    val analyzed =
+      if (sources.size < AnalysisCallback.MinParallelSources) sources.map(analyzeSource)
+      else new ParVector(sources).map(analyzeSource).seq
+    val builder = new AnalysisBuilder
+    analyzed.foreach(_(builder))
+    val analysis = builder.result()
+    if (base eq Analysis.empty) analysis else base ++ analysis
+  }
 
-        val internalDeps = classesInSrc.flatMap(
-          cls =>
-            intSrcDeps.getOrElse(cls, ConcurrentHashMap.newKeySet[InternalDependency]()).asScala
-        )
-        val externalDeps = classesInSrc.flatMap(
-          cls =>
-            extSrcDeps.getOrElse(cls, ConcurrentHashMap.newKeySet[ExternalDependency]()).asScala
-        )
-        val libDeps = libraries.map(d => (d, binaryClassName(d), stampReader.library(d)))
-
-        a.addSource(
-          src,
-          analyzedApis,
-          stamp,
-          info,
-          nonLocalProds,
-          localProds,
-          internalDeps,
-          externalDeps,
-          libDeps
-        )
+  /** Computes the analysis of the source, and returns how to add it to an [[AnalysisBuilder]]. */
+  private def analyzeSource(src: VirtualFile): AnalysisBuilder => AnalysisBuilder = {
+    import scala.collection.JavaConverters._
+    val stamp = stampReader.source(src)
+    val classesInSrc = classNames
+      .getOrElse(src, ConcurrentHashMap.newKeySet[(String, String)]())
+      .asScala
+      .map(_._1)
+    val analyzedApis = classesInSrc.map(analyzeClass)
+    def problems(map: TrieMap[VirtualFileRef, ConcurrentLinkedQueue[Problem]]) =
+      map.get(src).fold(Seq.empty[Problem])(_.asScala.toList)
+    val info = SourceInfos.makeInfo(
+      problems(reporteds),
+      problems(unreporteds),
+      mainClasses.get(src).fold(Seq.empty[String])(_.asScala.toList)
+    )
+    val libraries: collection.mutable.Set[VirtualFile] =
+      libraryDeps.getOrElse(src, ConcurrentHashMap.newKeySet[VirtualFile]).asScala
+    val localProds = localClasses
+      .getOrElse(src, ConcurrentHashMap.newKeySet[VirtualFileRef]())
+      .asScala map { classFile =>
+      val classFileStamp = stampReader.product(classFile)
+      LocalProduct(classFile, classFileStamp)
+    }
+    val binaryToSrcClassName =
+      (classNames.getOrElse(src, ConcurrentHashMap.newKeySet[(String, String)]()).asScala map {
+        case (srcClassName, binaryClassName) => (binaryClassName, srcClassName)
+      }).toMap
+    val nonLocalProds = nonLocalClasses
+      .getOrElse(src, ConcurrentHashMap.newKeySet[(VirtualFileRef, String)]())
+      .asScala map {
+      case (classFile, binaryClassName) =>
+        val srcClassName = binaryToSrcClassName(binaryClassName)
+        val classFileStamp = stampReader.product(classFile)
+        NonLocalProduct(srcClassName, binaryClassName, classFile, classFileStamp)
     }
+
+    val internalDeps = classesInSrc.flatMap(
+      cls => intSrcDeps.getOrElse(cls, ConcurrentHashMap.newKeySet[InternalDependency]()).asScala
+    )
+    val externalDeps = classesInSrc.flatMap(
+      cls => extSrcDeps.getOrElse(cls, ConcurrentHashMap.newKeySet[ExternalDependency]()).asScala
+    )
+    val libDeps = libraries.map(d => (d, binaryClassName(d), stampReader.library(d)))
+
+    _.addSource(
+      src,
+      analyzedApis,
+      stamp,
+      info,
+      nonLocalProds,
+      localProds,
+      internalDeps,
+      externalDeps,
+      libDeps
+    )
   }
 
   override def apiPhaseCompleted(): Unit = {
@@ -1057,10 +1260,60 @@ private final class AnalysisCallback(
   }
 
   @volatile private[this] var writtenEarlyArtifacts: Boolean = false
+  // The writing of the early artifacts, see writeEarlyArtifacts
+  @volatile private[this] var earlyArtifacts: Option[CompletableFuture[Void]] = None
+  // Set once the cycle failed, guarded by earlyOutputLock like notifiedEarlyOutput
+  @volatile private[this] var failed: Boolean = false
+  private[this] var notifiedEarlyOutput: Boolean = false
+  private[this] val earlyOutputLock = new Object
 
+  /**
+   * Writes the early artifacts on AnalysisCallback.earlyOutputWriter, so that the compiler keeps
+   * running while they are written. The pickle jar is written before the early analysis, and
+   * `CompileProgress.afterEarlyOutput` is called once both are written. Nothing is written once
+   * the cycle failed, see cycleFailed.
+   */
   private def writeEarlyArtifacts(merged: Analysis): Unit = {
     writtenEarlyArtifacts = true
+    val writing: Runnable = () =>
+      if (!failed) {
+        mergeUpdates() // must merge updates each cycle or else scalac will clobber it
+        val pickleJar = earlyOutput.flatMap(earlyO => jo2o(earlyO.getSingleOutputAsPath))
+        pickleJar.foreach(PickleJar.write(_, knownProducts(merged), log))
+        writeEarlyAnalysis(merged)
+        if (pickleJar.isDefined) notifyEarlyOutput(lookup.shouldDoEarlyOutput(merged))
+      }
+    earlyArtifacts = Some(CompletableFuture.runAsync(writing, AnalysisCallback.earlyOutputWriter))
+  }
+
+  /** Tells `progress` once whether the early output is written, which it is not if we failed. */
+  private def notifyEarlyOutput(success: Boolean): Unit =
+    earlyOutputLock.synchronized {
+      if (!notifiedEarlyOutput) {
+        notifiedEarlyOutput = true
+        progress.foreach(_.afterEarlyOutput(success && !failed))
+      }
+    }
 
+  /**
+   * Called when the compilation of the cycle, or its completion, throws `failure`. Waits for the
+   * early artifacts being written, so that the class files are not rolled back meanwhile, and
+   * tells `progress` that there is no early output.
+   */
+  private[inc] def cycleFailed(failure: Throwable): Unit = {
+    earlyOutputLock.synchronized(failed = true)
+    earlyArtifacts.foreach { writing =>
+      try writing.join()
+      catch {
+        case e: CompletionException if e.getCause ne failure => failure.addSuppressed(e.getCause)
+        case _: CompletionException                          =>
+      }
+      ()
+    }
+    if (earlyOutput.isDefined) notifyEarlyOutput(false)
+  }
+
+  private def writeEarlyAnalysis(merged: Analysis): Unit = {
     // Only need internal apis & the productClassName relation from early analysis - drop the rest
     // Because early analysis is only used by downstream to detect whether APIs have changed
     val trimmedAnalysis = merged.copy(
@@ -1075,11 +1328,16 @@ private final class AnalysisCallback(
       .withOptions(MiniOptions.of(Array.empty, Array.empty, Array.empty))
       .withExtra(Array.empty)
     earlyAnalysisStore.foreach(_.set(AnalysisContents.create(trimmedAnalysis, trimmedSetup)))
-
-    mergeUpdates() // must merge updates each cycle or else scalac will clobber it
-    Incremental.writeEarlyOut(lookup, progress, earlyOutput, merged, knownProducts(merged), log)
   }
 
+  /** Waits for the early artifacts to be written, and rethrows the error of their writing. */
+  private def awaitEarlyArtifacts(): Unit =
+    earlyArtifacts.foreach { writing =>
+      try writing.join()
+      catch { case e: CompletionException => throw e.getCause }
+      ()
+    }
+
   private def mergeUpdates() = {
     pickleJarPair.foreach {
       case (originalJar, updatesJar) =>
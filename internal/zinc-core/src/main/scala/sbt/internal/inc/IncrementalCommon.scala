@@ -13,11 +13,13 @@ package sbt
 package internal
 package inc
 
+import java.nio.file.Path
+
 import sbt.util.Logger
 import xsbti.{ FileConverter, VirtualFile, VirtualFileRef }
 import xsbt.api.APIUtil
 import xsbti.api.AnalyzedClass
-import xsbti.compile.{ Changes, DependencyChanges, IncOptions, Output }
+import xsbti.compile.{ Changes, DependencyChanges, FileHash, IncOptions, Output }
 import xsbti.compile.{ ClassFileManager => XClassFileManager }
 import xsbti.compile.analysis.{ ReadStamps, Stamp => XStamp }
 import scala.collection.Iterator
@@ -305,17 +307,22 @@ private[inc] abstract class IncrementalCommon(
       newAPI: String => AnalyzedClass
   ): APIChanges = {
     // log.debug(s"[zinc] detectAPIChanges(recompiledClasses = $recompiledClasses)")
+    val recompileOnMacroDef = IncOptions.getRecompileOnMacroDef(options)
     def classDiff(className: String, a: AnalyzedClass, b: AnalyzedClass): Option[APIChange] = {
       // log.debug(s"[zinc] classDiff($className, ${a.name}, ${b.name})")
       if (a.compilationTimestamp() == b.compilationTimestamp() && (a.apiHash == b.apiHash)) None
       else {
         val hasMacro = a.hasMacro || b.hasMacro
-        if (hasMacro && IncOptions.getRecompileOnMacroDef(options)) {
+        if (hasMacro && recompileOnMacroDef) {
           Some(APIChangeDueToMacroDefinition(className))
         } else findAPIChange(className, a, b)
       }
     }
-    val apiChanges = recompiledClasses.flatMap(name => classDiff(name, oldAPI(name), newAPI(name)))
+    def diff(name: String) = classDiff(name, oldAPI(name), newAPI(name))
+    val apiChanges: Set[APIChange] =
+      if (recompiledClasses.size < IncrementalCommon.MinParallelDiffs)
+        recompiledClasses.iterator.flatMap(diff).toSet
+      else new ParVector(recompiledClasses.toVector).flatMap(diff).seq.toSet
     if (Incremental.apiDebug(options) && apiChanges.nonEmpty) {
       logApiChanges(apiChanges, oldAPI, newAPI)
     }
@@ -406,6 +413,7 @@ private[inc] abstract class IncrementalCommon(
           stamps,
           previousRelations,
           converter,
+          lookup.unchangedClasspathEntries,
           log
         )
       new ParVector(previous.allLibraries.toVector).filter(detectChange).toVector.toSet
@@ -457,7 +465,9 @@ private[inc] abstract class IncrementalCommon(
         // Invalidate by brute force (normally happens when we've done more than 3 incremental runs)
         IncrementalCommon.transitiveDeps(initial, log)(dependsOnClass)
       } else {
-        changes.apiChanges.flatMap(invalidateClassesInternally(relations, _, isScalaClass)).toSet
+        invalidateInParallel(changes.apiChanges)(
+          invalidateClassesInternally(relations, _, isScalaClass)
+        )
       }
       val included = includeTransitiveInitialInvalidations(initial, invalidated, dependsOnClass)
       log.debug("Final step, transitive dependencies:\n\t" + included)
@@ -498,7 +508,7 @@ private[inc] abstract class IncrementalCommon(
     IncrementalCommon.checkAbsolute(addedSrcs)
 
     val removedClasses = classNames(removedSrcs)
-    val dependentOnRemovedClasses = removedClasses.flatMap(previous.memberRef.internal.reverse)
+    val dependentOnRemovedClasses = removedClasses.flatMap(previous.usesInternalClass(_))
     val modifiedClasses = classNames(modifiedSrcs)
     val invalidatedClasses = removedClasses ++ dependentOnRemovedClasses ++ modifiedClasses
 
@@ -507,9 +517,9 @@ private[inc] abstract class IncrementalCommon(
     val byExtSrcDep = {
       // Invalidate changes
       val isScalaSource = IncrementalCommon.comesFromScalaSource(previous) _
-      changes.external.apiChanges.iterator.flatMap { externalAPIChange =>
+      invalidateInParallel(changes.external.apiChanges) { externalAPIChange =>
         invalidateClassesExternally(previous, externalAPIChange, isScalaSource)
-      }.toSet
+      }
     }
 
     val allInvalidatedClasses = invalidatedClasses ++ byExtSrcDep
@@ -537,6 +547,18 @@ private[inc] abstract class IncrementalCommon(
     (allInvalidatedClasses, allInvalidatedSourcefiles)
   }
 
+  /**
+   * Invalidates the classes affected by every API change, fanning the changes out to the
+   * fork-join pool of the parallel collections when there are enough of them to pay off.
+   * The invalidation of a change only reads the relations, so changes are independent.
+   */
+  private[this] def invalidateInParallel(
+      changes: Iterable[APIChange]
+  )(invalidate: APIChange => Set[String]): Set[String] =
+    if (changes.size < IncrementalCommon.MinParallelChanges)
+      changes.iterator.flatMap(invalidate).toSet
+    else new ParVector(changes.toVector).map(invalidate).fold(Set.empty[String])(_ ++ _)
+
   /**
    * Returns the invalidations that are the result of the `currentInvalidations` + the
    * `previousInvalidations` that depend transitively on `currentInvalidations`.
@@ -683,13 +705,19 @@ private[inc] abstract class IncrementalCommon(
 
 object IncrementalCommon {
 
+  /** Below this number of API changes, they are invalidated on the calling thread. */
+  private final val MinParallelChanges = 4
+
+  /** Below this number of classes, their APIs are compared on the calling thread. */
+  private[inc] final val MinParallelDiffs = 256
+
   /** Tell if given class names comes from a Scala source file or not by inspecting relations. */
   def comesFromScalaSource(
       previous: Relations,
       current: Option[Relations] = None
   )(className: String): Boolean = {
-    val previousSourcesWithClassName = previous.classes.reverse(className)
-    val newSourcesWithClassName = current.map(_.classes.reverse(className)).getOrElse(Set.empty)
+    val previousSourcesWithClassName = previous.definesClass(className)
+    val newSourcesWithClassName = current.map(_.definesClass(className)).getOrElse(Set.empty)
     if (previousSourcesWithClassName.isEmpty && newSourcesWithClassName.isEmpty)
       sys.error(s"Fatal Zinc error: no entry for class $className in classes relation.")
     else {
@@ -713,10 +741,14 @@ object IncrementalCommon {
    *   are still associated with the same library.
    *   This would avoid recompiling everything when classpath changes.
    *
+   * A library that is one of the `unchangedEntries` of a changed classpath provides the same
+   * classes as before, so its classes are checked as if the classpath had not changed.
+   *
    * @param lookup A lookup instance to ask questions about the classpath.
    * @param previousStamps The stamps associated with the previous compilation.
    * @param currentStamps The stamps associated with the current compilation.
    * @param previousRelations The relation from the previous compiler iteration.
+   * @param unchangedEntries The classpath entries that provide the same classes as before.
    * @param log A logger.
    * @param equivS An equivalence function to compare stamps.
    * @return
@@ -728,9 +760,11 @@ object IncrementalCommon {
       currentStamps: ReadStamps,
       previousRelations: Relations,
       converter: FileConverter,
+      unchangedEntries: Set[Path],
       log: Logger
-  )(implicit equivS: Equiv[XStamp]): VirtualFileRef => Boolean = { (binaryFile: VirtualFileRef) =>
-    {
+  )(implicit equivS: Equiv[XStamp]): VirtualFileRef => Boolean = {
+    val classpathChanged = lookup.changedClasspathHash.isDefined
+    (binaryFile: VirtualFileRef) => {
       def invalidateBinary(reason: String): Boolean = {
         log.debug(s"Invalidating '$binaryFile' because $reason"); true
       }
@@ -751,8 +785,9 @@ object IncrementalCommon {
         }
 
         val classNames = previousRelations.libraryClassNames(file)
+        val lookupClasses = classpathChanged && !unchangedEntries(converter.toPath(file))
         classNames.exists { binaryClassName =>
-          if (lookup.changedClasspathHash.isEmpty) {
+          if (!lookupClasses) {
             // If classpath is not changed, the only possible change needs to come from same project
             lookup.lookupAnalysis(binaryClassName) match {
               case None => false
@@ -775,6 +810,41 @@ object IncrementalCommon {
     }
   }
 
+  def isLibraryModified(
+      skipClasspathLookup: Boolean,
+      lookup: Lookup,
+      previousStamps: Stamps,
+      currentStamps: ReadStamps,
+      previousRelations: Relations,
+      converter: FileConverter,
+      log: Logger
+  )(implicit equivS: Equiv[XStamp]): VirtualFileRef => Boolean =
+    isLibraryModified(
+      skipClasspathLookup,
+      lookup,
+      previousStamps,
+      currentStamps,
+      previousRelations,
+      converter,
+      Set.empty[Path],
+      log
+    )
+
+  /**
+   * Returns the entries of the current classpath that provide the same classes as in the
+   * previous one. These are the entries up to the first one that was added, removed or whose
+   * hash changed, since a change can shadow the classes of all the entries after it.
+   *
+   * Directories are always hashed the same, so changes in their contents are not seen here,
+   * like they are not when the whole classpath hash is unchanged.
+   */
+  def unchangedClasspathPrefix(previous: Vector[FileHash], current: Vector[FileHash]): Set[Path] =
+    previous.iterator
+      .zip(current.iterator)
+      .takeWhile { case (previousHash, currentHash) => previousHash == currentHash }
+      .map(_._2.file)
+      .toSet
+
   def transitiveDeps[T](
       nodes: Iterable[T],
       log: Logger,
@@ -16,6 +16,7 @@ package inc
 import sbt.util.Logger
 import xsbti.compile.IncOptions
 import xsbti.api.{ AnalyzedClass, DefinitionType }
+import xsbti.api.DependencyContext.{ DependencyByInheritance, LocalDependencyByInheritance }
 import xsbt.api.SameAPI
 
 /**
@@ -37,13 +38,34 @@ private[inc] class IncrementalNameHashingCommon(
 
   private val memberRefInvalidator = new MemberRefInvalidator(log, options.logRecompileOnMacro())
 
+  private def memberRefInvalidation(
+      relations: Relations,
+      change: APIChange,
+      isScalaClass: String => Boolean
+  ): (String => Set[String]) => String => Set[String] =
+    memberRefInvalidator.fromQueries(
+      _,
+      relations.usedNames,
+      change,
+      isScalaClass,
+      () => relations.usedNameIndex
+    )
+
+  // Changes may be invalidated in parallel, and the profiler is not thread-safe
+  private def registerEvent(
+      kind: String,
+      inputs: Iterable[String],
+      outputs: Iterable[String],
+      reason: String
+  ): Unit = profiler.synchronized(profiler.registerEvent(kind, inputs, outputs, reason))
+
   /** @inheritdoc */
   protected def invalidatedPackageObjects(
       invalidatedClasses: Set[String],
       relations: Relations,
       apis: APIs
   ): Set[String] = {
-    val findSubclasses = relations.inheritance.internal.reverse _
+    val findSubclasses = relations.usesInternalClass(_: String, DependencyByInheritance)
     val invalidatedClassesAndCodefinedClasses = for {
       cls <- invalidatedClasses.iterator
       file <- relations.definesClass(cls).iterator
@@ -99,33 +121,35 @@ private[inc] class IncrementalNameHashingCommon(
     val modifiedBinaryClassName = externalAPIChange.modifiedClass
     log.debug(memberRefInvalidator.invalidationReason(externalAPIChange))
     log.debug("All member reference dependencies will be considered within this context.")
-    val memberRefInv = memberRefInvalidator.get(_, relations.names, externalAPIChange, isScalaClass)
+    val memberRefInv = memberRefInvalidation(relations, externalAPIChange, isScalaClass)
 
     // Propagate inheritance dependencies transitively.
     // This differs from normal because we need the initial crossing from externals to classes in this project.
-    val byExternalInheritance = relations.inheritance.external.reverse(modifiedBinaryClassName)
+    val byExternalInheritance =
+      relations.usesExternal(modifiedBinaryClassName, DependencyByInheritance)
     log.debug(
       s"Files invalidated by inheriting from (external) $modifiedBinaryClassName: $byExternalInheritance"
     )
     log.debug("Now invalidating by inheritance (internally).")
     val transitiveInheritance = byExternalInheritance.flatMap(invalidateByInheritance(relations, _))
 
-    val localInheritance = relations.localInheritance.external.reverse(modifiedBinaryClassName)
+    val localInheritance =
+      relations.usesExternal(modifiedBinaryClassName, LocalDependencyByInheritance)
 
     // Get the member reference dependencies of all classes transitively invalidated by inheritance
     log.debug("Getting direct dependencies of all classes transitively invalidated by inheritance.")
-    val memberRefA = transitiveInheritance.flatMap(memberRefInv(relations.memberRef.internal))
+    val memberRefA = transitiveInheritance.flatMap(memberRefInv(relations.usesInternalClass(_)))
 
     // Get the classes that depend on externals by member reference.
     // This includes non-inheritance dependencies and is not transitive.
     log.debug(s"Getting classes that directly depend on (external) $modifiedBinaryClassName.")
-    val memberRefB = memberRefInv(relations.memberRef.external)(modifiedBinaryClassName)
+    val memberRefB = memberRefInv(relations.usesExternal(_))(modifiedBinaryClassName)
 
     transitiveInheritance ++ localInheritance ++ memberRefA ++ memberRefB
   }
 
   private def invalidateByInheritance(relations: Relations, modified: String): Set[String] = {
-    val inheritanceDeps = relations.inheritance.internal.reverse _
+    val inheritanceDeps = relations.usesInternalClass(_: String, DependencyByInheritance)
     log.debug(s"Invalidating (transitively) by inheritance from $modified...")
     val transitiveInheritance = transitiveDeps(Set(modified), log)(inheritanceDeps)
     log.debug("Invalidated by transitive inheritance dependency: " + transitiveInheritance)
@@ -133,7 +157,7 @@ private[inc] class IncrementalNameHashingCommon(
   }
 
   private def invalidateByLocalInheritance(relations: Relations, modified: String): Set[String] = {
-    val localInheritanceDeps = relations.localInheritance.internal.reverse(modified)
+    val localInheritanceDeps = relations.usesInternalClass(modified, LocalDependencyByInheritance)
     if (localInheritanceDeps.nonEmpty)
       log.debug(s"Invalidate by local inheritance: $modified -> $localInheritanceDeps")
     localInheritanceDeps
@@ -146,20 +170,20 @@ private[inc] class IncrementalNameHashingCommon(
       isScalaClass: String => Boolean
   ): Set[String] = {
     val modifiedClass = change.modifiedClass
-    val memberRefInv = memberRefInvalidator.get(_, relations.names, change, isScalaClass)
+    val memberRefInv = memberRefInvalidation(relations, change, isScalaClass)
 
     val transitiveInheritance = invalidateByInheritance(relations, modifiedClass)
     val reason1 = s"The invalidated class names inherit directly or transitively on $modifiedClass."
-    profiler.registerEvent(InheritanceKind, List(modifiedClass), transitiveInheritance, reason1)
+    registerEvent(InheritanceKind, List(modifiedClass), transitiveInheritance, reason1)
 
     val localInheritance = transitiveInheritance.flatMap(invalidateByLocalInheritance(relations, _))
     val reason2 =
       s"The invalidated class names inherit (via local inheritance) directly or transitively on $modifiedClass."
-    profiler.registerEvent(LocalInheritanceKind, transitiveInheritance, localInheritance, reason2)
+    registerEvent(LocalInheritanceKind, transitiveInheritance, localInheritance, reason2)
 
-    val memberRef = transitiveInheritance.flatMap(memberRefInv(relations.memberRef.internal))
+    val memberRef = transitiveInheritance.flatMap(memberRefInv(relations.usesInternalClass(_)))
     val reason3 = s"The invalidated class names refer directly or transitively to $modifiedClass."
-    profiler.registerEvent(MemberReferenceKind, transitiveInheritance, memberRef, reason3)
+    registerEvent(MemberReferenceKind, transitiveInheritance, memberRef, reason3)
 
     val all = transitiveInheritance ++ localInheritance ++ memberRef
     log.debug {
@@ -181,7 +205,7 @@ private[inc] class IncrementalNameHashingCommon(
   override protected def findClassDependencies(
       className: String,
       relations: Relations
-  ): Set[String] = relations.memberRef.internal.reverse(className)
+  ): Set[String] = relations.usesInternalClass(className)
 }
 
 private final class IncrementalNameHashing(log: Logger, options: IncOptions, profiler: RunProfiler)
@@ -0,0 +1,317 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.util.Arrays
+import java.util.concurrent.ConcurrentHashMap
+
+import sbt.internal.util.Relation
+
+/**
+ * Assigns dense int ids to values. Ids are never reclaimed, so that all the relations derived
+ * from each other can share the same interner and compare ids instead of values. The owner of
+ * the interner is expected to replace it once most of its ids are no longer used, see
+ * [[CompactRelations]].
+ */
+private[inc] final class Interner[A <: AnyRef] {
+  private[this] val ids = new ConcurrentHashMap[A, Integer]
+  @volatile private[this] var values = new Array[AnyRef](64)
+  private[this] var count = 0
+
+  /** Returns the id of the value, assigning a new one if needed. */
+  def id(value: A): Int = {
+    val existing = ids.get(value)
+    if (existing != null) existing.intValue
+    else
+      synchronized {
+        val again = ids.get(value)
+        if (again != null) again.intValue
+        else {
+          if (count == values.length) values = Arrays.copyOf(values, count * 2)
+          values(count) = value
+          // Published after the value, so that readers of the id always see the value
+          ids.put(value, count)
+          count += 1
+          count - 1
+        }
+      }
+  }
+
+  /** Returns the id of the value, or -1 if the value has no id. */
+  def lookup(value: A): Int = {
+    val existing = ids.get(value)
+    if (existing == null) -1 else existing.intValue
+  }
+
+  def apply(id: Int): A = values(id).asInstanceOf[A]
+
+  /** The number of ids assigned so far. */
+  def size: Int = synchronized(count)
+}
+
+/**
+ * An immutable relation between interned values, stored as primitive adjacency arrays.
+ *
+ * The forward edges are stored in compressed sparse rows (CSR): the sorted targets of all the
+ * rows are laid out in a single array, and the row of an id spans the `offsets(id)` and
+ * `offsets(id + 1)` indices of that array. Updates copy on write: they only record the rows
+ * they replace in an overlay, which is compacted into new arrays once it gets large. The
+ * reverse edges are only computed from the forward ones the first time they are queried.
+ */
+private[inc] final class IntRelation[A <: AnyRef, B <: AnyRef] private (
+    val left: Interner[A],
+    val right: Interner[B],
+    base: IntRelation.Csr,
+    overlay: Map[Int, Array[Int]]
+) {
+  import IntRelation._
+
+  /** Applies `f` to the array holding the row of the id and to the bounds of the row in it. */
+  private def withRow[T](id: Int)(f: (Array[Int], Int, Int) => T): T =
+    overlay.get(id) match {
+      case Some(targets) => f(targets, 0, targets.length)
+      case None          => base.withRow(id)(f)
+    }
+
+  private def rowSize(id: Int): Int =
+    overlay.get(id) match {
+      case Some(targets) => targets.length
+      case None          => base.rowSize(id)
+    }
+
+  /**
+   * The non-empty rows of the relation, by increasing id. The relation is immutable, so they are
+   * only laid out once, when the relation is transposed, merged or compacted.
+   */
+  private lazy val rows: Vector[(Int, Array[Int])] = {
+    val baseRows = (0 until base.rows).iterator.collect {
+      case id if !overlay.contains(id) && base.rowSize(id) > 0 => id -> base.row(id)
+    }
+    val overlayRows = overlay.toVector.filter(_._2.length > 0).sortBy(_._1)
+    if (overlayRows.isEmpty) baseRows.toVector
+    else (baseRows ++ overlayRows.iterator).toVector.sortBy(_._1)
+  }
+
+  private[this] lazy val transposed: Csr = Csr.transpose(rows)
+
+  def forward(a: A): Set[B] = {
+    val id = left.lookup(a)
+    if (id < 0) Set.empty else withRow(id)(values(_, _, _, right))
+  }
+
+  def reverse(b: B): Set[A] = {
+    val id = right.lookup(b)
+    if (id < 0) Set.empty else transposed.withRow(id)(values(_, _, _, left))
+  }
+
+  /** Whether any value is related to `b`, without building the set of those values. */
+  def hasReverse(b: B): Boolean = {
+    val id = right.lookup(b)
+    id >= 0 && transposed.rowSize(id) > 0
+  }
+
+  lazy val size: Int = rows.map(_._2.length).sum
+
+  def _1s: Set[A] = rows.map(r => left(r._1)).toSet
+
+  def _2s: Set[B] = {
+    val ids = new java.util.BitSet
+    rows.foreach(_._2.foreach(id => ids.set(id)))
+    val result = Set.newBuilder[B]
+    var id = ids.nextSetBit(0)
+    while (id >= 0) {
+      result += right(id)
+      id = ids.nextSetBit(id + 1)
+    }
+    result.result()
+  }
+
+  def forwardMap: Map[A, Set[B]] =
+    rows.iterator.map {
+      case (id, targets) => left(id) -> values(targets, 0, targets.length, right)
+    }.toMap
+
+  /** Returns this relation as a boxed [[Relation]], for the callers that need one. */
+  def toRelation: Relation[A, B] = Relation.reconstruct(forwardMap)
+
+  def +(a: A, bs: Iterable[B]): IntRelation[A, B] =
+    if (bs.isEmpty) this
+    else {
+      val id = left.id(a)
+      updated(Map(id -> withRow(id)(union(_, _, _, ids(bs, right)))))
+    }
+
+  def ++(pairs: Iterable[(A, B)]): IntRelation[A, B] =
+    if (pairs.isEmpty) this
+    else
+      updated(pairs.groupBy(_._1).map {
+        case (a, abs) =>
+          val id = left.id(a)
+          id -> withRow(id)(union(_, _, _, ids(abs.map(_._2), right)))
+      })
+
+  def ++(o: IntRelation[A, B]): IntRelation[A, B] = {
+    assert(o.left.eq(left) && o.right.eq(right), "Relations of different interners")
+    val added = o.rows
+    if (added.isEmpty) this
+    else
+      updated(added.iterator.map {
+        case (id, targets) => id -> withRow(id)(union(_, _, _, targets))
+      }.toMap)
+  }
+
+  def --(as: Iterable[A]): IntRelation[A, B] = {
+    val removed = as.iterator
+      .map(left.lookup)
+      .filter(id => id >= 0 && rowSize(id) > 0)
+      .map(_ -> EmptyRow)
+      .toMap
+    if (removed.isEmpty) this else updated(removed)
+  }
+
+  private def updated(replaced: Map[Int, Array[Int]]): IntRelation[A, B] = {
+    val overlay1 = overlay ++ replaced
+    if (overlay1.size <= math.max(MinOverlayRows, base.rows / 4))
+      new IntRelation(left, right, base, overlay1)
+    else {
+      val compacted = new IntRelation(left, right, base, overlay1)
+      new IntRelation(left, right, Csr(compacted.rows), Map.empty)
+    }
+  }
+}
+
+private[inc] object IntRelation {
+  private val EmptyRow = new Array[Int](0)
+  private val MinOverlayRows = 64
+
+  def empty[A <: AnyRef, B <: AnyRef](left: Interner[A], right: Interner[B]): IntRelation[A, B] =
+    new IntRelation(left, right, Csr.empty, Map.empty)
+
+  def apply[A <: AnyRef, B <: AnyRef](
+      left: Interner[A],
+      right: Interner[B],
+      relation: Relation[A, B]
+  ): IntRelation[A, B] = {
+    val rows = relation.forwardMap.iterator.collect {
+      case (a, bs) if bs.nonEmpty => left.id(a) -> ids(bs, right)
+    }
+    new IntRelation(left, right, Csr(rows.toVector.sortBy(_._1)), Map.empty)
+  }
+
+  /** Returns the values of the ids between the `from` and `until` indices of the array. */
+  private def values[A <: AnyRef](
+      ids: Array[Int],
+      from: Int,
+      until: Int,
+      interner: Interner[A]
+  ): Set[A] = {
+    val result = Set.newBuilder[A]
+    var i = from
+    while (i < until) {
+      result += interner(ids(i))
+      i += 1
+    }
+    result.result()
+  }
+
+  /** Returns the sorted and distinct ids of the values. */
+  private def ids[A <: AnyRef](values: Iterable[A], interner: Interner[A]): Array[Int] = {
+    val ids = values.iterator.map(interner.id).toArray
+    Arrays.sort(ids)
+    var distinct = 0
+    var i = 0
+    while (i < ids.length) {
+      if (distinct == 0 || ids(distinct - 1) != ids(i)) {
+        ids(distinct) = ids(i)
+        distinct += 1
+      }
+      i += 1
+    }
+    if (distinct == ids.length) ids else Arrays.copyOf(ids, distinct)
+  }
+
+  /**
+   * Merges the sorted and distinct ids between the `from` and `until` indices of `x` with the
+   * sorted and distinct ids of `y`.
+   */
+  private def union(x: Array[Int], from: Int, until: Int, y: Array[Int]): Array[Int] =
+    if (from == until) y
+    else if (y.length == 0) Arrays.copyOfRange(x, from, until)
+    else {
+      val result = new Array[Int](until - from + y.length)
+      var i = from
+      var j, k = 0
+      while (i < until || j < y.length) {
+        val next =
+          if (j == y.length || (i < until && x(i) < y(j))) { i += 1; x(i - 1) }
+          else if (i == until || y(j) < x(i)) { j += 1; y(j - 1) }
+          else { i += 1; j += 1; x(i - 1) }
+        result(k) = next
+        k += 1
+      }
+      if (k == result.length) result else Arrays.copyOf(result, k)
+    }
+
+  /** Rows of sorted ids, laid out in a single array. */
+  final class Csr(offsets: Array[Int], targets: Array[Int]) {
+    def rows: Int = offsets.length - 1
+    def rowSize(id: Int): Int = if (id >= rows) 0 else offsets(id + 1) - offsets(id)
+    def row(id: Int): Array[Int] =
+      if (id >= rows) EmptyRow else Arrays.copyOfRange(targets, offsets(id), offsets(id + 1))
+
+    /** Applies `f` to the targets array and to the bounds of the row of the id, without copying. */
+    def withRow[T](id: Int)(f: (Array[Int], Int, Int) => T): T =
+      if (id >= rows) f(EmptyRow, 0, 0) else f(targets, offsets(id), offsets(id + 1))
+  }
+
+  object Csr {
+    val empty = new Csr(Array(0), EmptyRow)
+
+    /** Lays out the given rows, which must be sorted by id. */
+    def apply(rows: Seq[(Int, Array[Int])]): Csr =
+      if (rows.isEmpty) empty
+      else {
+        val count = rows.last._1 + 1
+        val offsets = new Array[Int](count + 1)
+        rows.foreach { case (id, targets) => offsets(id + 1) = targets.length }
+        for (id <- 0 until count) offsets(id + 1) += offsets(id)
+        val targets = new Array[Int](offsets(count))
+        rows.foreach {
+          case (id, row) => System.arraycopy(row, 0, targets, offsets(id), row.length)
+        }
+        new Csr(offsets, targets)
+      }
+
+    /** Lays out the reverse of the given rows, which must be sorted by id. */
+    def transpose(rows: Seq[(Int, Array[Int])]): Csr =
+      if (rows.isEmpty) empty
+      else {
+        val count = rows.iterator.map(_._2.max).max + 1
+        val offsets = new Array[Int](count + 1)
+        rows.foreach(_._2.foreach(target => offsets(target + 1) += 1))
+        for (id <- 0 until count) offsets(id + 1) += offsets(id)
+        val next = Arrays.copyOf(offsets, count)
+        val sources = new Array[Int](offsets(count))
+        // Sources are visited by increasing id, so every reverse row is sorted
+        rows.foreach {
+          case (id, targets) =>
+            targets.foreach { target =>
+              sources(next(target)) = id
+              next(target) += 1
+            }
+        }
+        new Csr(offsets, sources)
+      }
+  }
+}
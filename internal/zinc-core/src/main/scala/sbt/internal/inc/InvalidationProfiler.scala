@@ -94,6 +94,7 @@ class ZincInvalidationProfiler extends InvalidationProfiler with XInvalidationPr
     private var initialChanges: Zprof.InitialChanges = Zprof.InitialChanges.getDefaultInstance
     private var invalidationEvents: List[Zprof.InvalidationEvent] = Nil
     private var cycleInvalidations: List[Zprof.CycleInvalidation] = Nil
+    private var cacheStatistics: List[Zprof.CacheStatistics] = Nil
 
     def timeCompilation(startNanos: Long, durationNanos: Long): Unit = {
       compilationStartNanos = startNanos
@@ -190,10 +191,19 @@ class ZincInvalidationProfiler extends InvalidationProfiler with XInvalidationPr
         .build
     }
 
+    override def registerCacheStatistics(cache: String, hits: Long, misses: Long): Unit = {
+      cacheStatistics ::= Zprof.CacheStatistics.newBuilder
+        .setCache(memo(cache))
+        .setHits(hits)
+        .setMisses(misses)
+        .build
+    }
+
     def toRun: Zprof.ZincRun =
       Zprof.ZincRun.newBuilder
         .setInitial(initialChanges)
         .addAllCycles(cycleInvalidations.asJava)
+        .addAllCaches(cacheStatistics.reverse.asJava)
         .build
 
     def registerRun(): Unit = profiler.registerRun(toRun)
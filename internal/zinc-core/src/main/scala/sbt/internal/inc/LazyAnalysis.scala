@@ -0,0 +1,213 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.internal.util.Relation
+import xsbti.VirtualFileRef
+import xsbti.api.{ AnalyzedClass, ExternalDependency, InternalDependency }
+import xsbti.api.DependencyContext._
+import xsbti.compile.analysis.{ SourceInfo, Stamp => XStamp }
+import Relations.ClassDependencies
+
+/**
+ * An [[Analysis]] whose parts are only computed, typically decoded from a stored analysis,
+ * the first time they are accessed.
+ *
+ * Queries never force more than the parts they read, so that a no-op build does not pay for
+ * the parts it doesn't need. Any update returns a strict analysis.
+ */
+private[inc] final class LazyAnalysis(
+    stamps0: => Stamps,
+    apis0: => APIs,
+    relations0: => Relations,
+    infos0: => SourceInfos,
+    compilations0: => Compilations
+) extends Analysis {
+  lazy val stamps: Stamps = stamps0
+  lazy val apis: APIs = apis0
+  lazy val relations: Relations = relations0
+  lazy val infos: SourceInfos = infos0
+  lazy val compilations: Compilations = compilations0
+
+  private def strict: Analysis = Analysis.Empty.copy(stamps, apis, relations, infos, compilations)
+
+  def ++(o: Analysis): Analysis = strict ++ o
+  def --(sources: Iterable[VirtualFileRef]): Analysis = strict -- sources
+
+  def copy(
+      stamps: Stamps,
+      apis: APIs,
+      relations: Relations,
+      infos: SourceInfos,
+      compilations: Compilations = compilations
+  ): Analysis = Analysis.Empty.copy(stamps, apis, relations, infos, compilations)
+
+  def addSource(
+      src: VirtualFileRef,
+      apis: Iterable[AnalyzedClass],
+      stamp: XStamp,
+      info: SourceInfo,
+      nonLocalProducts: Iterable[Analysis.NonLocalProduct],
+      localProducts: Iterable[Analysis.LocalProduct],
+      internalDeps: Iterable[InternalDependency],
+      externalDeps: Iterable[ExternalDependency],
+      libraryDeps: Iterable[(VirtualFileRef, String, XStamp)]
+  ): Analysis =
+    strict.addSource(
+      src,
+      apis,
+      stamp,
+      info,
+      nonLocalProducts,
+      localProducts,
+      internalDeps,
+      externalDeps,
+      libraryDeps
+    )
+
+  override def equals(other: Any) = other match {
+    // Note: Equality doesn't consider source infos or compilations.
+    case o: Analysis => stamps == o.stamps && apis == o.apis && relations == o.relations
+    case _           => false
+  }
+
+  override lazy val hashCode = (stamps :: apis :: relations :: Nil).hashCode
+}
+
+/**
+ * [[Relations]] whose relations are each only computed the first time they are accessed.
+ *
+ * Like [[LazyAnalysis]], queries only force the relations they read and updates return strict
+ * relations.
+ */
+private[inc] final class LazyRelations(
+    srcProd0: => Relation[VirtualFileRef, VirtualFileRef],
+    libraryDep0: => Relation[VirtualFileRef, VirtualFileRef],
+    libraryClassName0: => Relation[VirtualFileRef, String],
+    memberRef0: => ClassDependencies,
+    inheritance0: => ClassDependencies,
+    localInheritance0: => ClassDependencies,
+    classes0: => Relation[VirtualFileRef, String],
+    names0: => Relation[String, UsedName],
+    productClassName0: => Relation[String, String],
+    usedNameIndex0: => Option[UsedNameIndex] = None
+) extends Relations {
+  lazy val srcProd: Relation[VirtualFileRef, VirtualFileRef] = srcProd0
+  lazy val libraryDep: Relation[VirtualFileRef, VirtualFileRef] = libraryDep0
+  lazy val libraryClassName: Relation[VirtualFileRef, String] = libraryClassName0
+  private[inc] lazy val memberRef: ClassDependencies = memberRef0
+  private[inc] lazy val inheritance: ClassDependencies = inheritance0
+  private[inc] lazy val localInheritance: ClassDependencies = localInheritance0
+  lazy val classes: Relation[VirtualFileRef, String] = classes0
+  private[inc] lazy val names: Relation[String, UsedName] = names0
+  lazy val productClassName: Relation[String, String] = productClassName0
+  private[inc] override lazy val usedNameIndex: UsedNameIndex =
+    usedNameIndex0.getOrElse(UsedNameIndex(names))
+
+  private[inc] lazy val internalDependencies: InternalDependencies =
+    InternalDependencies(
+      Map(
+        DependencyByMemberRef -> memberRef.internal,
+        DependencyByInheritance -> inheritance.internal,
+        LocalDependencyByInheritance -> localInheritance.internal
+      )
+    )
+  private[inc] lazy val externalDependencies: ExternalDependencies =
+    ExternalDependencies(
+      Map(
+        DependencyByMemberRef -> memberRef.external,
+        DependencyByInheritance -> inheritance.external,
+        LocalDependencyByInheritance -> localInheritance.external
+      )
+    )
+
+  private def strict: Relations = copy()
+
+  def allSources: collection.Set[VirtualFileRef] = srcProd._1s
+  def allProducts: collection.Set[VirtualFileRef] = srcProd._2s
+  def allLibraryDeps: collection.Set[VirtualFileRef] = libraryDep._2s
+  def allExternalDeps: collection.Set[String] = externalClassDep._2s
+
+  def classNames(src: VirtualFileRef): Set[String] = classes.forward(src)
+  def definesClass(name: String): Set[VirtualFileRef] = classes.reverse(name)
+
+  def products(src: VirtualFileRef): Set[VirtualFileRef] = srcProd.forward(src)
+  def produced(prod: VirtualFileRef): Set[VirtualFileRef] = srcProd.reverse(prod)
+
+  def libraryDeps(src: VirtualFileRef): Set[VirtualFileRef] = libraryDep.forward(src)
+  def usesLibrary(dep: VirtualFileRef): Set[VirtualFileRef] = libraryDep.reverse(dep)
+  def libraryClassNames(lib: VirtualFileRef): Set[String] = libraryClassName.forward(lib)
+  def libraryDefinesClass(name: String): Set[VirtualFileRef] = libraryClassName.reverse(name)
+
+  def internalClassDep: Relation[String, String] = memberRef.internal
+  def externalClassDep: Relation[String, String] = memberRef.external
+
+  def internalClassDeps(className: String): Set[String] = internalClassDep.forward(className)
+  def usesInternalClass(className: String): Set[String] = internalClassDep.reverse(className)
+
+  def externalDeps(className: String): Set[String] = externalClassDep.forward(className)
+  def usesExternal(className: String): Set[String] = externalClassDep.reverse(className)
+
+  private[inc] def usedNames(className: String): Set[UsedName] = names.forward(className)
+
+  private[inc] def addProducts(src: VirtualFileRef, products: Iterable[VirtualFileRef]) =
+    strict.addProducts(src, products)
+  private[inc] def addClasses(src: VirtualFileRef, classes: Iterable[(String, String)]) =
+    strict.addClasses(src, classes)
+  private[inc] def addInternalSrcDeps(src: VirtualFileRef, deps: Iterable[InternalDependency]) =
+    strict.addInternalSrcDeps(src, deps)
+  private[inc] def addExternalDeps(src: VirtualFileRef, deps: Iterable[ExternalDependency]) =
+    strict.addExternalDeps(src, deps)
+  private[inc] def addLibraryDeps(
+      src: VirtualFileRef,
+      deps: Iterable[(VirtualFileRef, String, XStamp)]
+  ) = strict.addLibraryDeps(src, deps)
+  private[inc] def addUsedNames(data: Relation[String, UsedName]) = strict.addUsedNames(data)
+
+  def ++(o: Relations): Relations = strict ++ o
+  def --(sources: Iterable[VirtualFileRef]): Relations = strict -- sources
+
+  private[inc] def copy(
+      srcProd: Relation[VirtualFileRef, VirtualFileRef],
+      libraryDep: Relation[VirtualFileRef, VirtualFileRef],
+      libraryClassName: Relation[VirtualFileRef, String],
+      internalDependencies: InternalDependencies,
+      externalDependencies: ExternalDependencies,
+      classes: Relation[VirtualFileRef, String],
+      names: Relation[String, UsedName],
+      productClassName: Relation[String, String],
+  ): Relations =
+    Relations.make(
+      srcProd,
+      libraryDep,
+      libraryClassName,
+      internalDependencies,
+      externalDependencies,
+      classes,
+      names,
+      productClassName
+    )
+
+  override def equals(other: Any) = other match {
+    case o: Relations =>
+      srcProd == o.srcProd && libraryDep == o.libraryDep && memberRef == o.memberRef &&
+        inheritance == o.inheritance && classes == o.classes
+    case _ => false
+  }
+
+  override def hashCode =
+    List(srcProd, libraryDep, libraryClassName, memberRef, inheritance, classes).hashCode
+
+  override def toString: String = strict.toString
+}
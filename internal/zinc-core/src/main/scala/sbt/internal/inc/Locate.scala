@@ -14,7 +14,6 @@ package internal
 package inc
 
 import java.nio.file.{ Files, InvalidPathException, Path }
-import java.util.zip.{ ZipException, ZipFile }
 import xsbti.{ PathBasedFile, VirtualFile }
 import xsbti.compile.{ DefinesClass, PerClasspathEntryLookup }
 
@@ -51,20 +50,40 @@ object Locate {
   /**
    * Returns a function that searches the provided class path for
    * a class name and returns the entry that defines that class.
+   *
+   * The jars for which `lookup` returns the [[definesClass]] of this object are looked up in a
+   * shared [[ClasspathIndex]], which is read the first time the function is called. Only the
+   * other entries, such as directories or the jars of a custom `lookup`, that come before the
+   * first indexed jar that defines the class are searched.
    */
   def entry(
       classpath: Seq[VirtualFile],
       lookup: PerClasspathEntryLookup
   ): String => Option[VirtualFile] = {
-    def entries = classpath.iterator.map { entry =>
-      (entry, lookup.definesClass(entry))
+    val entries = classpath.toVector
+    lazy val definers = entries.map(lookup.definesClass)
+    lazy val jars = definers.map {
+      case jar: JarDefinesClass => Some(jar.entry)
+      case _                    => None
+    }
+    lazy val jarPositions = entries.indices.filter(jars(_).isDefined)
+    lazy val firstJar: Map[String, Int] = ClasspathIndex(jarPositions.map(jars(_).get).toVector)
+    lazy val others = entries.indices.filter(jars(_).isEmpty).map { i =>
+      (i, entries(i), definers(i))
     }
     className =>
       // See sbt/zinc#757, sbt/zinc#925. Class name containing "<" is usually a synthetic
       // one that does not have a corresponding *.class file.
       // Yet the process of creating the path would fail only on Windows.
       if (className.contains("<")) None
-      else entries.collectFirst { case (entry, defines) if defines(className) => entry }
+      else {
+        val jar = firstJar.get(className).map(jarPositions)
+        val before = jar.getOrElse(entries.size)
+        others.iterator
+          .takeWhile(_._1 < before)
+          .collectFirst { case (_, entry, defines) if defines(className) => entry }
+          .orElse(jar.map(entries))
+      }
   }
 
   def getValue[S](
@@ -96,22 +115,8 @@ object Locate {
     override def apply(binaryClassName: String): Boolean = false
   }
 
-  private class JarDefinesClass(entry: Path) extends DefinesClass {
-    import collection.JavaConverters._
-    private val entries = {
-      val jar = try {
-        new ZipFile(entry.toFile, ZipFile.OPEN_READ)
-      } catch {
-        // ZipException doesn't include the file name :(
-        case e: ZipException =>
-          throw new RuntimeException("Error opening zip file: " + entry.getFileName.toString, e)
-      }
-      try {
-        jar.entries.asScala.map(e => toClassName(e.getName)).toSet
-      } finally {
-        jar.close()
-      }
-    }
+  private class JarDefinesClass(val entry: Path) extends DefinesClass {
+    private val entries = ClasspathIndex.classesOf(entry)
     override def apply(binaryClassName: String): Boolean =
       entries.contains(binaryClassName)
   }
@@ -11,6 +11,7 @@
 
 package sbt.internal.inc
 
+import java.nio.file.Path
 import java.util
 import java.util.Optional
 
@@ -29,6 +30,13 @@ trait Lookup extends ExternalLookup {
    */
   def changedClasspathHash: Option[Vector[FileHash]]
 
+  /**
+   * Returns the classpath entries that provide the same classes as in the last compilation,
+   * see [[IncrementalCommon.unchangedClasspathPrefix]]. None are returned by default, so that
+   * the classes of every library are looked up when the classpath changed.
+   */
+  def unchangedClasspathEntries: Set[Path] = Set.empty
+
   def analyses: Vector[CompileAnalysis]
 
   /**
@@ -53,7 +61,7 @@ trait Lookup extends ExternalLookup {
     for {
       analysis0 <- lookupAnalysis(binaryClassName)
       analysis = analysis0 match { case a: Analysis => a }
-      className <- analysis.relations.productClassName.reverse(binaryClassName).headOption
+      className <- analysis.relations.sourceClassNames(binaryClassName).headOption
       analyzedClass <- analysis.apis.internal.get(className)
     } yield analyzedClass
   }
@@ -54,21 +54,64 @@ import xsbti.UseScope
  * dependencies unconditionally. On the other hand, if api change is due to modified name hashes
  * of regular members then we'll invalidate sources that use those names.
  */
-private[inc] class MemberRefInvalidator(log: Logger, logRecompileOnMacro: Boolean) {
+private[inc] class MemberRefInvalidator(
+    log: Logger,
+    logRecompileOnMacro: Boolean,
+    minIndexedDependents: Int
+) {
+  def this(log: Logger, logRecompileOnMacro: Boolean) =
+    this(log, logRecompileOnMacro, MemberRefInvalidator.MinIndexedDependents)
+
   private final val NoInvalidation = (_: String) => Set.empty[String]
+
   def get(
       memberRef: Relation[String, String],
       usedNames: Relation[String, UsedName],
       apiChange: APIChange,
       isScalaClass: String => Boolean
+  ): String => Set[String] = {
+    lazy val index = UsedNameIndex(usedNames)
+    get(memberRef, usedNames, apiChange, isScalaClass, () => index)
+  }
+
+  /**
+   * Like the other `get`, but the dependents of classes with many dependents are invalidated
+   * by looking up the users of the modified names in the given index.
+   */
+  def get(
+      memberRef: Relation[String, String],
+      usedNames: Relation[String, UsedName],
+      apiChange: APIChange,
+      isScalaClass: String => Boolean,
+      usedNameIndex: () => UsedNameIndex
+  ): String => Set[String] =
+    fromQueries(memberRef.reverse, usedNames.forward, apiChange, isScalaClass, usedNameIndex)
+
+  /**
+   * Like `get`, but the dependents of a class and the names used by a class are queried with
+   * the given functions, so that relations that answer them directly need not build a whole
+   * [[Relation]].
+   */
+  def fromQueries(
+      dependents: String => Set[String],
+      usedNames: String => Set[UsedName],
+      apiChange: APIChange,
+      isScalaClass: String => Boolean,
+      usedNameIndex: () => UsedNameIndex
   ): String => Set[String] = apiChange match {
     case _: TraitPrivateMembersModified => NoInvalidation
     case _: APIChangeDueToMacroDefinition =>
-      new InvalidateUnconditionally(memberRef)
+      new InvalidateUnconditionally(dependents)
     case NamesChange(_, modifiedNames) if modifiedNames.in(UseScope.Implicit).nonEmpty =>
-      new InvalidateUnconditionally(memberRef)
+      new InvalidateUnconditionally(dependents)
     case NamesChange(_, modifiedNames) =>
-      new NameHashFilteredInvalidator(usedNames, memberRef, modifiedNames, isScalaClass)
+      new NameHashFilteredInvalidator(
+        usedNames,
+        dependents,
+        modifiedNames,
+        isScalaClass,
+        usedNameIndex
+      )
   }
 
   def invalidationReason(apiChange: APIChange): String = apiChange match {
@@ -102,10 +145,10 @@ private[inc] class MemberRefInvalidator(log: Logger, logRecompileOnMacro: Boolea
     }
   }
 
-  private class InvalidateUnconditionally(memberRef: Relation[String, String])
+  private class InvalidateUnconditionally(dependents: String => Set[String])
       extends (String => Set[String]) {
     def apply(from: String): Set[String] = {
-      val invalidated = memberRef.reverse(from)
+      val invalidated = dependents(from)
       if (invalidated.nonEmpty)
         log.debug(
           s"The following member ref dependencies of $from are invalidated:\n" +
@@ -121,20 +164,36 @@ private[inc] class MemberRefInvalidator(log: Logger, logRecompileOnMacro: Boolea
   }
 
   private class NameHashFilteredInvalidator(
-      usedNames: Relation[String, UsedName],
-      memberRef: Relation[String, String],
+      usedNames: String => Set[UsedName],
+      dependents: String => Set[String],
       modifiedNames: ModifiedNames,
-      isScalaClass: String => Boolean
+      isScalaClass: String => Boolean,
+      usedNameIndex: () => UsedNameIndex
   ) extends (String => Set[String]) {
 
+    private[this] lazy val usersOfModifiedNames = usedNameIndex().users(modifiedNames)
+
     def apply(to: String): Set[String] = {
-      val dependent = memberRef.reverse(to)
-      filteredDependencies(dependent)
+      val dependent = dependents(to)
+      if (dependent.size < minIndexedDependents) filteredDependencies(dependent)
+      else indexedDependencies(dependent)
+    }
+
+    private def indexedDependencies(dependent: Set[String]): Set[String] = {
+      val users = usersOfModifiedNames
+      val byName =
+        if (users.size < dependent.size) users.filter(dependent) else dependent.filter(users)
+      val nonScala = dependent.filter(from => !users(from) && !isScalaClass(from))
+      log.debug(
+        s"The modified names cause invalidation of ${byName.size} of the ${dependent.size} " +
+          s"dependents, and ${nonScala.size} non-Scala dependents are invalidated regardless."
+      )
+      byName ++ nonScala
     }
     private def filteredDependencies(dependent: Set[String]): Set[String] = {
       dependent.filter {
         case from if isScalaClass(from) =>
-          val affectedNames = usedNames.forward(from).filter(modifiedNames.isModified)
+          val affectedNames = usedNames(from).filter(modifiedNames.isModified)
           if (affectedNames.isEmpty) {
             log.debug(
               s"None of the modified names appears in source file of $from. This dependency is not being considered for invalidation."
@@ -151,3 +210,12 @@ private[inc] class MemberRefInvalidator(log: Logger, logRecompileOnMacro: Boolea
     }
   }
 }
+
+private[inc] object MemberRefInvalidator {
+
+  /**
+   * Below this number of dependents, checking the used names of every dependent is cheaper
+   * than looking up the users of the modified names in the index, which may need to be built.
+   */
+  final val MinIndexedDependents = 64
+}
@@ -48,4 +48,9 @@ final class RelationBuilder[A, B]() {
     }
     Relation.make[A, B](toImmutable(forward), toImmutable(reverse))
   }
+
+  def clear(): Unit = {
+    forward.clear()
+    reverse.clear()
+  }
 }
@@ -82,6 +82,22 @@ trait Relations {
 
   private[inc] def usedNames(className: String): Set[UsedName]
 
+  /** The classes of this project that depend on class `className` of this project in `context`. */
+  private[inc] def usesInternalClass(className: String, context: DependencyContext): Set[String] =
+    Relations.getOrEmpty(internalDependencies.dependencies, context).reverse(className)
+
+  /** The classes of this project that depend on the external class `className` in `context`. */
+  private[inc] def usesExternal(className: String, context: DependencyContext): Set[String] =
+    Relations.getOrEmpty(externalDependencies.dependencies, context).reverse(className)
+
+  /** The source class names of the binary class name `binaryClassName`. */
+  private[inc] def sourceClassNames(binaryClassName: String): Set[String] =
+    productClassName.reverse(binaryClassName)
+
+  /** Whether this project produces the binary class name `binaryClassName`. */
+  private[inc] def producesClassName(binaryClassName: String): Boolean =
+    productClassName._2s.contains(binaryClassName)
+
   /**
    * Records that the file `src` generates products `products`, has internal dependencies `internalDeps`,
    * has external dependencies `externalDeps` and library dependencies `libraryDeps`.
@@ -269,6 +285,12 @@ trait Relations {
    */
   private[inc] def names: Relation[String, UsedName]
 
+  /**
+   * The classes that use every name, in every scope. It is only built from `names` the first
+   * time it is accessed, unless it was read along with the relations.
+   */
+  private[inc] lazy val usedNameIndex: UsedNameIndex = UsedNameIndex(names)
+
   private[inc] def copy(
       srcProd: Relation[VirtualFileRef, VirtualFileRef] = srcProd,
       libraryDep: Relation[VirtualFileRef, VirtualFileRef] = libraryDep,
@@ -640,7 +662,7 @@ private class MRelationsNameHashing(
   )
 
   override def equals(other: Any) = other match {
-    case o: MRelationsNameHashing =>
+    case o: Relations =>
       srcProd == o.srcProd && libraryDep == o.libraryDep && memberRef == o.memberRef &&
         inheritance == o.inheritance && classes == o.classes
     case _ => false
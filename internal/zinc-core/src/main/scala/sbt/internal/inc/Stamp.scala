@@ -16,12 +16,14 @@ package inc
 import java.io.{ File, IOException }
 import java.util
 import java.util.Optional
+import java.util.concurrent.ConcurrentHashMap
 import java.nio.file.Path
 
 import sbt.io.{ Hash => IOHash, IO }
 import xsbti.{ FileConverter, VirtualFile, VirtualFileRef }
 import xsbti.compile.analysis.{ ReadStamps, Stamp => XStamp }
 
+import scala.annotation.tailrec
 import scala.collection.immutable.TreeMap
 import scala.util.matching.Regex
 
@@ -255,6 +257,22 @@ object Stamper {
       }
     }
   }
+
+  /**
+   * Like the other `timeWrap`, but the stamps are cached in a [[StampCache]], so that files are
+   * stamped concurrently instead of one at a time.
+   */
+  private[sbt] def timeWrap(
+      cache: StampCache,
+      converter: FileConverter,
+      getStamp: VirtualFileRef => XStamp
+  ): VirtualFileRef => XStamp = { key: VirtualFileRef =>
+    val p = converter.toPath(key)
+    val ts =
+      try IO.getModifiedTimeOrZero(p.toFile)
+      catch { case _: Throwable => 0L }
+    cache.getTimed(key, ts, getStamp)
+  }
 }
 
 object Stamps {
@@ -398,44 +416,33 @@ private class MStamps(
 private class InitialStamps(
     underlying: ReadStamps
 ) extends ReadStamps {
-  import collection.mutable.{ HashMap, Map }
-
   // cached stamps for files that do not change during compilation
-  private val sources: Map[VirtualFileRef, XStamp] = new HashMap
-  private val libraries: Map[VirtualFileRef, XStamp] = new HashMap
+  private val sources = new StampCache
+  private val libraries = new StampCache
 
-  import scala.collection.JavaConverters.mapAsJavaMapConverter
-  override def getAllLibraryStamps: util.Map[VirtualFileRef, XStamp] =
-    mapAsJavaMapConverter(libraries).asJava
-  override def getAllSourceStamps: util.Map[VirtualFileRef, XStamp] =
-    mapAsJavaMapConverter(sources).asJava
+  override def getAllLibraryStamps: util.Map[VirtualFileRef, XStamp] = libraries.toJavaMap
+  override def getAllSourceStamps: util.Map[VirtualFileRef, XStamp] = sources.toJavaMap
   override def getAllProductStamps: util.Map[VirtualFileRef, XStamp] =
     new util.HashMap()
 
   override def product(prod: VirtualFileRef): XStamp = underlying.product(prod)
   override def source(src: VirtualFile): XStamp =
-    synchronized { sources.getOrElseUpdate(src, underlying.source(src)) }
-  override def library(lib: VirtualFileRef): XStamp =
-    synchronized { libraries.getOrElseUpdate(lib, underlying.library(lib)) }
+    sources.get(src, _ => underlying.source(src))
+  override def library(lib: VirtualFileRef): XStamp = libraries.get(lib, underlying.library)
 }
 
 private class TimeWrapBinaryStamps(
     underlying: ReadStamps,
     converter: FileConverter
 ) extends ReadStamps {
-  import collection.mutable.{ HashMap, Map }
-
   // cached stamps for files that do not change during compilation
-  private val libraries: Map[VirtualFileRef, (Long, XStamp)] = new HashMap
-  private val products: Map[VirtualFileRef, (Long, XStamp)] = new HashMap
+  private val libraries = new StampCache
+  private val products = new StampCache
 
-  import scala.collection.JavaConverters.mapAsJavaMapConverter
-  override def getAllLibraryStamps: util.Map[VirtualFileRef, XStamp] =
-    mapAsJavaMapConverter(libraries map { case (k, (_, v2)) => (k, v2) }).asJava
+  override def getAllLibraryStamps: util.Map[VirtualFileRef, XStamp] = libraries.toJavaMap
   override def getAllSourceStamps: util.Map[VirtualFileRef, XStamp] =
     underlying.getAllSourceStamps
-  override def getAllProductStamps: util.Map[VirtualFileRef, XStamp] =
-    mapAsJavaMapConverter(products map { case (k, (_, v2)) => (k, v2) }).asJava
+  override def getAllProductStamps: util.Map[VirtualFileRef, XStamp] = products.toJavaMap
 
   val product0 = Stamper.timeWrap(products, converter, underlying.product(_))
   override def product(prod: VirtualFileRef): XStamp = product0(prod)
@@ -444,6 +451,76 @@ private class TimeWrapBinaryStamps(
   override def library(lib: VirtualFileRef): XStamp = library0(lib)
 }
 
+/**
+ * A cache of stamps by file that can be read and filled concurrently.
+ *
+ * Lookups never lock. The stamp of a file is computed by the first thread that needs it, while
+ * the other threads that need the same stamp wait for it, so that a file is never stamped twice
+ * and the stamps of different files are computed in parallel.
+ */
+private[sbt] final class StampCache {
+  import StampCache.Cell
+
+  private[this] val cells = new ConcurrentHashMap[VirtualFileRef, Cell]
+
+  /** Returns the cached stamp of the file, computing it if it is not cached yet. */
+  def get(key: VirtualFileRef, compute: VirtualFileRef => XStamp): XStamp = {
+    val cell = cells.get(key) match {
+      case null =>
+        val created = new Cell(0L)
+        val existing = cells.putIfAbsent(key, created)
+        if (existing == null) created else existing
+      case existing => existing
+    }
+    cell.get(key, compute)
+  }
+
+  /**
+   * Returns the stamp of the file cached for the given modification time, computing it if it is
+   * not cached yet or was cached for another time. Stamps of files without a modification time,
+   * such as missing files, are always computed.
+   */
+  def getTimed(key: VirtualFileRef, timestamp: Long, compute: VirtualFileRef => XStamp): XStamp = {
+    @tailrec def cell(): Cell = cells.get(key) match {
+      case null =>
+        val created = new Cell(timestamp)
+        val existing = cells.putIfAbsent(key, created)
+        if (existing == null) created else cell()
+      case existing if existing.timestamp == timestamp && timestamp > 0 => existing
+      case existing =>
+        val created = new Cell(timestamp)
+        if (cells.replace(key, existing, created)) created else cell()
+    }
+    cell().get(key, compute)
+  }
+
+  /** Returns the stamps computed so far. */
+  def toJavaMap: util.Map[VirtualFileRef, XStamp] = {
+    val stamps = new util.HashMap[VirtualFileRef, XStamp]
+    cells.forEach { (key, cell) =>
+      val stamp = cell.stamp
+      if (stamp != null) stamps.put(key, stamp)
+    }
+    stamps
+  }
+}
+
+private object StampCache {
+  final class Cell(val timestamp: Long) {
+    @volatile var stamp: XStamp = _
+
+    def get(key: VirtualFileRef, compute: VirtualFileRef => XStamp): XStamp = {
+      val computed = stamp
+      if (computed != null) computed
+      else
+        synchronized {
+          if (stamp == null) stamp = compute(key)
+          stamp
+        }
+    }
+  }
+}
+
 /**
  * Creates a raw stamper without caching.
  */
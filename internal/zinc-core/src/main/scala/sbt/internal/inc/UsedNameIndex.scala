@@ -0,0 +1,75 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.internal.util.Relation
+import xsbti.UseScope
+
+import scala.collection.JavaConverters._
+
+/**
+ * Maps every simple name and scope to the classes that use that name in that scope, so that
+ * the classes affected by modified names are looked up instead of checking the used names of
+ * every dependent of a modified class.
+ *
+ * A class uses a modified name exactly when it is one of the users of the modified name in one
+ * of its modified scopes, see [[ModifiedNames.isModified]].
+ */
+private[inc] final class UsedNameIndex(usersByName: Map[String, Map[UseScope, Set[String]]]) {
+
+  /** Returns the classes that use the given name in the given scope. */
+  def users(name: String, scope: UseScope): Set[String] =
+    usersByName.get(name).flatMap(_.get(scope)).getOrElse(Set.empty)
+
+  /** Returns the classes that use any of the modified names in any of their modified scopes. */
+  def users(modifiedNames: ModifiedNames): Set[String] = {
+    val all = for {
+      name <- modifiedNames.names.iterator
+      scope <- name.scopes.iterator.asScala
+    } yield users(name.name, scope)
+    all.foldLeft(Set.empty[String])(_ ++ _)
+  }
+
+  /** The names, scopes and users of the index. */
+  def entries: Iterator[(String, UseScope, Set[String])] =
+    for {
+      (name, byScope) <- usersByName.iterator
+      (scope, users) <- byScope.iterator
+    } yield (name, scope, users)
+}
+
+private[inc] object UsedNameIndex {
+  def apply(usedNames: Relation[String, UsedName]): UsedNameIndex = {
+    val usersByName = new java.util.HashMap[String, Map[UseScope, Set[String]]]
+    usedNames.forwardMap.foreach {
+      case (className, names) =>
+        names.foreach { name =>
+          val byScope0 = usersByName.get(name.name)
+          val byScope = if (byScope0 == null) Map.empty[UseScope, Set[String]] else byScope0
+          val updated = name.scopes.iterator.asScala.foldLeft(byScope) { (byScope, scope) =>
+            byScope.updated(scope, byScope.getOrElse(scope, Set.empty[String]) + className)
+          }
+          usersByName.put(name.name, updated)
+        }
+    }
+    new UsedNameIndex(usersByName.asScala.toMap)
+  }
+
+  def fromEntries(entries: Iterator[(String, UseScope, Set[String])]): UsedNameIndex = {
+    val usersByName = entries.toList.groupBy(_._1).map {
+      case (name, byName) => name -> byName.map(e => e._2 -> e._3).toMap
+    }
+    new UsedNameIndex(usersByName)
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.internal.inc.Analysis.{ LocalProduct, NonLocalProduct }
+import xsbti.VirtualFileRef
+import xsbti.api.{ AnalyzedClass, DependencyContext, ExternalDependency, InternalDependency }
+import xsbti.api.SafeLazyProxy
+
+class AnalysisBuilderSpec extends UnitSpec {
+  private def analyzedClass(name: String) =
+    AnalyzedClass.of(1L, name, SafeLazyProxy(APIs.emptyCompanions), name.hashCode, Array(), false)
+
+  private final case class Source(
+      src: VirtualFileRef,
+      apis: Seq[AnalyzedClass],
+      info: xsbti.compile.analysis.SourceInfo,
+      nonLocalProducts: Seq[NonLocalProduct],
+      localProducts: Seq[LocalProduct],
+      internalDeps: Seq[InternalDependency],
+      externalDeps: Seq[ExternalDependency],
+      libraryDeps: Seq[(VirtualFileRef, String, xsbti.compile.analysis.Stamp)]
+  )
+
+  private val library = VirtualFileRef.of("lib/library.jar")
+  private val sources = (0 until 10).map { i =>
+    val name = s"p.C$i"
+    val classFile = VirtualFileRef.of(s"out/p/C$i.class")
+    val localClassFile = VirtualFileRef.of(s"out/p/C$i$$1.class")
+    Source(
+      VirtualFileRef.of(s"src/C$i.scala"),
+      Seq(analyzedClass(name)),
+      SourceInfos.makeInfo(Nil, Nil, if (i == 0) Seq(name) else Nil),
+      Seq(NonLocalProduct(name, name, classFile, FarmHash.fromLong(i.toLong))),
+      Seq(LocalProduct(localClassFile, FarmHash.fromLong(-i.toLong))),
+      (0 until i).map { j =>
+        val context =
+          if (j % 2 == 0) DependencyContext.DependencyByMemberRef
+          else DependencyContext.DependencyByInheritance
+        InternalDependency.of(name, s"p.C$j", context)
+      },
+      Seq(
+        ExternalDependency
+          .of(name, "q.D", analyzedClass("q.D"), DependencyContext.DependencyByMemberRef)
+      ),
+      Seq((library, s"lib.L${i % 3}", FarmHash.fromLong(42L)))
+    )
+  }
+
+  "AnalysisBuilder" should "build the same analysis as adding the sources one by one" in {
+    val folded = sources.foldLeft(Analysis.empty) { (analysis, s) =>
+      analysis.addSource(
+        s.src,
+        s.apis,
+        FarmHash.fromLong(s.src.id.hashCode.toLong),
+        s.info,
+        s.nonLocalProducts,
+        s.localProducts,
+        s.internalDeps,
+        s.externalDeps,
+        s.libraryDeps
+      )
+    }
+    val builder = new AnalysisBuilder
+    sources.foreach { s =>
+      builder.addSource(
+        s.src,
+        s.apis,
+        FarmHash.fromLong(s.src.id.hashCode.toLong),
+        s.info,
+        s.nonLocalProducts,
+        s.localProducts,
+        s.internalDeps,
+        s.externalDeps,
+        s.libraryDeps
+      )
+    }
+    val built = builder.result()
+    assert(built === folded)
+    assert(built.infos.allInfos === folded.infos.allInfos)
+    assert(built.relations.libraryClassName === folded.relations.libraryClassName)
+    assert(built.relations.productClassName === folded.relations.productClassName)
+    assert(built.relations.internalDependencies === folded.relations.internalDependencies)
+    assert(built.relations.externalDependencies === folded.relations.externalDependencies)
+  }
+}
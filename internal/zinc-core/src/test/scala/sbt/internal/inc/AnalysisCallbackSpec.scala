@@ -0,0 +1,350 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.nio.file.{ Files, Path, Paths }
+import java.util.{ EnumSet, Optional }
+import java.util.concurrent.{ ConcurrentLinkedQueue, CountDownLatch }
+import java.util.concurrent.atomic.AtomicInteger
+
+import sbt.internal.inc.Incremental.{ CompileCycleResult, IncrementalCallback }
+import sbt.io.IO
+import sbt.util.Logger
+import xsbti.{ UseScope, VirtualFile, VirtualFileRef }
+import xsbti.api.{ ClassLike, DefinitionType, DependencyContext, EmptyType, Modifiers, Public }
+import xsbti.api.{ AnalyzedClass, ClassDefinition, SafeLazyProxy, Structure, Type }
+import xsbti.compile.{ CompileAnalysis, FileHash, IncOptions, IncOptionsUtil, MiniOptions }
+import xsbti.compile.{ AnalysisContents, AnalysisStore, CompileOrder, CompileProgress }
+import xsbti.compile.{ ClassFileManager => XClassFileManager, DependencyChanges, MiniSetup }
+
+import scala.collection.JavaConverters._
+
+class AnalysisCallbackSpec extends UnitSpec {
+  private val output = CompileOutput(Paths.get("/out"))
+
+  private object NoLookup extends Lookup with NoopExternalLookup {
+    override def changedClasspathHash: Option[Vector[FileHash]] = None
+    override def analyses: Vector[CompileAnalysis] = Vector.empty
+    override def lookupOnClasspath(binaryClassName: String): Option[VirtualFileRef] = None
+    override def lookupAnalysis(binaryClassName: String): Option[CompileAnalysis] = None
+  }
+
+  /** Builds the callbacks of a run, see [[AnalysisCallback.Builder]]. */
+  private def builder(
+      options: IncOptions,
+      externalAPI: (String, Option[VirtualFileRef]) => Option[AnalyzedClass] = (_, _) => None,
+      earlyOutput: Option[Path] = None,
+      earlyAnalysisStore: Option[AnalysisStore] = None,
+      progress: Option[CompileProgress] = None
+  ): AnalysisCallback.Builder = {
+    val setup = MiniSetup.of(
+      output,
+      MiniOptions.of(Array(), Array(), Array()),
+      "2.13.0",
+      CompileOrder.Mixed,
+      true,
+      Array()
+    )
+    new AnalysisCallback.Builder(
+      _ => None,
+      _ => Set.empty,
+      externalAPI,
+      Stamps.empty,
+      options,
+      setup,
+      PlainVirtualFileConverter.converter,
+      NoLookup,
+      output,
+      JarUtils.createOutputJarContent(output),
+      earlyOutput.map(CompileOutput(_)),
+      earlyAnalysisStore,
+      None,
+      progress,
+      Logger.Null
+    )
+  }
+
+  private def callback(options: IncOptions): AnalysisCallback = builder(options).build()
+
+  private val modifiers = new Modifiers(false, false, false, false, false, false, false, false)
+
+  private val emptyStructure = Structure.of(
+    SafeLazyProxy.strict(Array.empty[Type]),
+    SafeLazyProxy.strict(Array.empty[ClassDefinition]),
+    SafeLazyProxy.strict(Array.empty[ClassDefinition])
+  )
+
+  private def classLike(name: String, structure: => Structure = emptyStructure): ClassLike =
+    ClassLike.of(
+      name,
+      Public.of(),
+      modifiers,
+      Array(),
+      DefinitionType.ClassDef,
+      SafeLazyProxy.strict(EmptyType.of()),
+      SafeLazyProxy(structure),
+      Array(),
+      Array(),
+      true,
+      Array()
+    )
+
+  private final class HashingFailure extends RuntimeException("cannot read the structure")
+
+  /** A class whose API cannot be hashed, since its structure cannot be read. */
+  private def unreadableClass(failure: HashingFailure): ClassLike =
+    classLike("p.A", throw failure)
+
+  private val source = VirtualFileRef.of("src/A.scala")
+
+  "AnalysisCallback" should "report the failure to hash an API on the compiler thread" in {
+    val failure = new HashingFailure
+    val analysisCallback = callback(IncOptions.of())
+    val thrown = the[HashingFailure] thrownBy analysisCallback.api(source, unreadableClass(failure))
+    assert(thrown eq failure)
+  }
+
+  it should "report the failure to hash an API on a worker thread" in {
+    val failure = new HashingFailure
+    val options =
+      IncOptionsUtil.withExtra(IncOptions.of(), IncOptionsUtil.PIPELINED_API_HASHING, "true")
+    val analysisCallback = callback(options)
+    // Only hashed once the analysis is asked for
+    analysisCallback.api(source, unreadableClass(failure))
+    val thrown = the[HashingFailure] thrownBy analysisCallback.getPostJavaAnalysis
+    assert(thrown eq failure)
+  }
+
+  /** What the compiler reports about the classes of a compilation unit. */
+  private final case class ReportedUnit(
+      source: VirtualFile,
+      classes: Seq[(String, Path)],
+      usedNames: Seq[(String, Seq[(String, EnumSet[UseScope])])],
+      classDeps: Seq[(String, String, DependencyContext)],
+      binaryDeps: Seq[(Path, String, String, DependencyContext)]
+  )
+
+  private val units = {
+    def vf(path: String) = PlainVirtualFile(Paths.get(path))
+    val defaultScope = EnumSet.of(UseScope.Default)
+    val implicitScope = EnumSet.of(UseScope.Default, UseScope.Implicit)
+    val byMember = DependencyContext.DependencyByMemberRef
+    val byInheritance = DependencyContext.DependencyByInheritance
+    val library = Paths.get("/lib/library.jar")
+    Seq(
+      ReportedUnit(
+        vf("/src/A.scala"),
+        Seq("p.A" -> Paths.get("/out/p/A.class"), "p.B" -> Paths.get("/out/p/B.class")),
+        Seq(
+          "p.A" -> Seq("B" -> defaultScope, "L" -> implicitScope, "apply" -> defaultScope),
+          "p.B" -> Seq("L" -> defaultScope, "C" -> defaultScope)
+        ),
+        Seq(("p.B", "p.A", byInheritance), ("p.C", "p.B", byMember)),
+        Seq(
+          (library, "l.L", "p.A", byMember),
+          (library, "l.M", "p.B", byInheritance),
+          // A product of the run, which is a dependency on its class
+          (Paths.get("/out/p/C.class"), "p.C", "p.A", byMember)
+        )
+      ),
+      ReportedUnit(
+        vf("/src/C.scala"),
+        Seq("p.C" -> Paths.get("/out/p/C.class")),
+        Seq("p.C" -> Seq("A" -> defaultScope, "L" -> implicitScope)),
+        Seq(("p.A", "p.C", byMember)),
+        Seq((library, "l.L", "p.C", byMember))
+      )
+    )
+  }
+
+  /** Reports the units one item at a time, or in batches like the compiler bridge. */
+  private def report(analysisCallback: AnalysisCallback, batched: Boolean): Analysis = {
+    units.foreach { unit =>
+      analysisCallback.startSource(unit.source)
+      unit.classes.foreach {
+        case (name, classFile) =>
+          analysisCallback.generatedNonLocalClass(unit.source, classFile, name, name)
+          analysisCallback.api(unit.source, classLike(name))
+      }
+    }
+    units.foreach { unit =>
+      if (!batched) {
+        unit.usedNames.foreach {
+          case (className, names) =>
+            names.foreach {
+              case (name, scopes) => analysisCallback.usedName(className, name, scopes)
+            }
+        }
+        unit.classDeps.foreach {
+          case (on, from, context) => analysisCallback.classDependency(on, from, context)
+        }
+        unit.binaryDeps.foreach {
+          case (entry, on, from, context) =>
+            analysisCallback.binaryDependency(entry, on, from, unit.source, context)
+        }
+      } else {
+        val names = unit.usedNames.flatMap(_._2)
+        analysisCallback.usedNameBatch(
+          unit.usedNames.map(_._1).toArray,
+          unit.usedNames.map(_._2.size).toArray,
+          names.map(_._1).toArray,
+          names.map(_._2).toArray
+        )
+        analysisCallback.classDependencyBatch(
+          unit.classDeps.map(_._1).toArray,
+          unit.classDeps.map(_._2).toArray,
+          unit.classDeps.map(_._3).toArray
+        )
+        analysisCallback.binaryDependencyBatch(
+          unit.binaryDeps.map(_._1).toArray,
+          unit.binaryDeps.map(_._2).toArray,
+          unit.binaryDeps.map(_._3).toArray,
+          unit.source,
+          unit.binaryDeps.map(_._4).toArray
+        )
+      }
+    }
+    analysisCallback.getPostJavaAnalysis
+  }
+
+  it should "build the same analysis from batched and single reports" in {
+    for (streaming <- Seq(false, true)) {
+      val options = IncOptionsUtil
+        .withExtra(IncOptions.of(), IncOptionsUtil.STREAMING_ANALYSIS, streaming.toString)
+      val single = report(callback(options), batched = false)
+      val batched = report(callback(options), batched = true)
+      batched.relations.names.size should be > 0
+      batched.relations.libraryDep.size should be > 0
+      assert(batched.relations.names === single.relations.names)
+      assert(batched.relations.internalDependencies === single.relations.internalDependencies)
+      assert(batched.relations.libraryDep === single.relations.libraryDep)
+      assert(batched.relations.libraryClassName === single.relations.libraryClassName)
+      assert(batched.relations === single.relations)
+      assert(batched.apis.internal.keySet === single.apis.internal.keySet)
+    }
+  }
+
+  it should "look up the classes of other projects once in every run" in {
+    val lookups = new AtomicInteger
+    val externalAPI = (_: String, _: Option[VirtualFileRef]) => {
+      lookups.incrementAndGet()
+      None
+    }
+    val library = Paths.get("/lib/library.jar")
+    def dependOnLibrary(analysisCallback: AnalysisCallback): Unit =
+      analysisCallback.binaryDependency(
+        library,
+        "l.L",
+        "p.A",
+        source,
+        DependencyContext.DependencyByMemberRef
+      )
+
+    val run = builder(IncOptions.of(), externalAPI)
+    // The cycles of a run share the lookups
+    dependOnLibrary(run.build())
+    dependOnLibrary(run.build())
+    lookups.get shouldBe 1
+    // The classes of other projects may have changed by the next run
+    dependOnLibrary(builder(IncOptions.of(), externalAPI).build())
+    lookups.get shouldBe 2
+  }
+
+  /** The cycle of a full compilation, which never needs another one. */
+  private object FullCompilation
+      extends IncrementalCallback(ClassFileManager.deleteImmediately(Array())) {
+    override def mergeAndInvalidate(partialAnalysis: Analysis, completingCycle: Boolean) =
+      CompileCycleResult(false, Set.empty, partialAnalysis)
+    override def completeCycle(prev: Option[CompileCycleResult], partialAnalysis: Analysis) =
+      CompileCycleResult(false, Set.empty, partialAnalysis)
+    override def previousAnalysisPruned: Analysis = Analysis.empty
+    override def isFullCompilation: Boolean = true
+  }
+
+  /** Stores the early analysis once `beforeStore` returns. */
+  private final class EarlyAnalysisStore(beforeStore: () => Unit) extends AnalysisStore {
+    @volatile var stored: Option[AnalysisContents] = None
+    override def get(): Optional[AnalysisContents] = Optional.ofNullable(stored.orNull)
+    override def unsafeGet(): AnalysisContents = get().get
+    override def set(analysisContents: AnalysisContents): Unit = {
+      beforeStore()
+      stored = Some(analysisContents)
+    }
+  }
+
+  /** Records whether the pickle jar and the early analysis were written when notified. */
+  private final class EarlyOutputProgress(pickleJar: Path, store: EarlyAnalysisStore)
+      extends CompileProgress {
+    val notified = new ConcurrentLinkedQueue[(Boolean, Boolean, Boolean)]
+    override def afterEarlyOutput(success: Boolean): Unit = {
+      notified.add((success, Files.exists(pickleJar), store.stored.isDefined))
+      ()
+    }
+  }
+
+  it should "notify the early output once the pickle jar and the early analysis are written" in {
+    IO.withTemporaryDirectory { dir =>
+      val pickleJar = dir.toPath.resolve("early.jar")
+      val store = new EarlyAnalysisStore(() => ())
+      val progress = new EarlyOutputProgress(pickleJar, store)
+      val run = builder(
+        IncOptions.of(),
+        earlyOutput = Some(pickleJar),
+        earlyAnalysisStore = Some(store),
+        progress = Some(progress)
+      )
+      val analysisCallback = run.build(FullCompilation)
+      analysisCallback.apiPhaseCompleted()
+      analysisCallback.dependencyPhaseCompleted()
+      analysisCallback.getCycleResultOnce
+      progress.notified.asScala.toList shouldBe List((true, true, true))
+    }
+  }
+
+  it should "not notify the early output of a failed cycle" in {
+    IO.withTemporaryDirectory { dir =>
+      val pickleJar = dir.toPath.resolve("early.jar")
+      val storing = new CountDownLatch(1)
+      val failed = new CountDownLatch(1)
+      val store = new EarlyAnalysisStore(() => { storing.countDown(); failed.await() })
+      val progress = new EarlyOutputProgress(pickleJar, store)
+      val run = builder(
+        IncOptions.of(),
+        earlyOutput = Some(pickleJar),
+        earlyAnalysisStore = Some(store),
+        progress = Some(progress)
+      )
+      val failure = new RuntimeException("compilation failed")
+      def compile(
+          sources: Set[VirtualFile],
+          changes: DependencyChanges,
+          analysisCallback: xsbti.AnalysisCallback,
+          classFileManager: XClassFileManager
+      ): Unit = {
+        analysisCallback.apiPhaseCompleted()
+        // Fail while the early artifacts are written
+        storing.await()
+        new Thread(() => { Thread.sleep(100); failed.countDown() }).start()
+        throw failure
+      }
+      val cycle = Incremental.doCompile(compile, run, ClassFileManager.deleteImmediately(Array()))
+      val thrown = the[RuntimeException] thrownBy
+        cycle.run(Set.empty, IncrementalCommon.emptyChanges, FullCompilation)
+      assert(thrown eq failure)
+      // The failed cycle waited for the early artifacts to be written
+      assert(store.stored.isDefined)
+      progress.notified.asScala.toList shouldBe List((false, true, true))
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.io.{ File, IOException }
+import java.nio.file.Files
+import java.util.UUID
+
+import sbt.io.IO
+import sbt.util.Logger
+import xsbti.VirtualFile
+
+class ClassFileManagerSpec extends UnitSpec {
+  private def classFiles(dir: File, n: Int): Vector[File] =
+    (0 until n).toVector.map { i =>
+      val file = new File(dir, s"p/C$i.class")
+      IO.write(file, s"C$i")
+      file
+    }
+
+  private def virtualFiles(files: Vector[File]): Array[VirtualFile] =
+    files.map(file => PlainVirtualFile(file.toPath): VirtualFile).toArray
+
+  private def failingOn(name: String)(from: File, to: File): Unit =
+    if (from.getName == name) throw new IOException(s"Cannot move $from")
+    else IO.move(from, to)
+
+  "TransactionalClassFileManager" should "restore the moved files when a move fails" in {
+    // Both moved in parallel and moved on the calling thread
+    for (n <- Seq(200, 3)) {
+      IO.withTemporaryDirectory { dir =>
+        val out = new File(dir, "out")
+        val files = classFiles(out, n)
+        val manager = new ClassFileManager.TransactionalClassFileManager(
+          dir.toPath.resolve("backup"),
+          Array.empty,
+          Logger.Null,
+          failingOn(files(n / 2).getName)
+        )
+        an[IOException] should be thrownBy manager.delete(virtualFiles(files))
+        manager.complete(false)
+        files.foreach(file => IO.read(file) shouldBe file.getName.stripSuffix(".class"))
+      }
+    }
+  }
+
+  it should "delete its backups, and the backups left behind by others" in {
+    IO.withTemporaryDirectory { dir =>
+      val stale = new File(dir, s"backup-${UUID.randomUUID()}")
+      IO.write(new File(stale, "1-C.class"), "C")
+      val unrelated = new File(dir, "backup-unrelated")
+      IO.createDirectory(unrelated)
+      val files = classFiles(new File(dir, "out"), 3)
+      val manager = ClassFileManager.transactional(dir.toPath.resolve("backup"), Array.empty, Logger.Null)
+      manager.delete(virtualFiles(files))
+      manager.complete(true)
+      ClassFileManager.awaitBackupDeletion()
+      assert(!stale.exists)
+      assert(unrelated.exists)
+      assert(!Files.exists(dir.toPath.resolve("backup")))
+      files.foreach(file => assert(!file.exists))
+    }
+  }
+
+  "A class file manager for jars" should "leave the jar as is when it cannot be compacted" in {
+    IO.withTemporaryDirectory { dir =>
+      val jar = dir.toPath.resolve("out.jar")
+      val content = JarUtils.createOutputJarContent(CompileOutput(jar))
+      val managers = Seq(
+        ClassFileManager.transactionalForJar(jar, content, Array.empty, Logger.Null),
+        ClassFileManager.deleteImmediatelyFromJar(jar, content, Array.empty)
+      )
+      // Not a zip, so that compacting it fails
+      IO.write(jar.toFile, "not a jar")
+      managers.foreach(_.complete(true))
+      IO.read(jar.toFile) shouldBe "not a jar"
+    }
+  }
+}
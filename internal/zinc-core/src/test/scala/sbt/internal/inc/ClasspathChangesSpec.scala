@@ -0,0 +1,126 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.nio.file.{ Path, Paths }
+
+import sbt.util.Logger
+import xsbti.VirtualFileRef
+import xsbti.compile.{ CompileAnalysis, FileHash }
+import xsbti.compile.analysis.{ Stamp => XStamp }
+
+import scala.collection.mutable
+
+class ClasspathChangesSpec extends UnitSpec {
+  import Stamp.equivStamp
+
+  private final case class Jar(name: String, hash: Int, classes: Set[String]) {
+    val path: Path = Paths.get("/classpath", s"$name.jar")
+    val ref: VirtualFileRef = VirtualFileRef.of(path.toString)
+    def fileHash: FileHash = FileHash.of(path, hash)
+    def stamp: XStamp = FarmHash.fromLong(hash.toLong)
+  }
+
+  private val a = Jar("a", 1, Set("a.A"))
+  private val b = Jar("b", 2, Set("b.B"))
+  private val c = Jar("c", 3, Set("c.C"))
+  private val previous = Vector(a, b, c)
+
+  /** The classes of the previous classpath, which are all in a single jar. */
+  private val previousRelations = previous.foldLeft(Relations.empty) { (relations, jar) =>
+    val src = VirtualFileRef.of(s"src/${jar.name}.scala")
+    relations.addLibraryDeps(src, jar.classes.map(name => (jar.ref, name, jar.stamp)))
+  }
+  private val previousStamps = stamps(previous)
+
+  private def stamps(classpath: Vector[Jar]): Stamps =
+    classpath.foldLeft(Stamps.empty) { (stamps, jar) =>
+      jar.classes.foldLeft(stamps)((stamps, name) => stamps.markLibrary(jar.ref, name, jar.stamp))
+    }
+
+  private final class ClasspathLookup(current: Vector[Jar]) extends Lookup with NoopExternalLookup {
+    val lookedUp = mutable.Set.empty[String]
+    private val previousHashes = previous.map(_.fileHash)
+    private val currentHashes = current.map(_.fileHash)
+    override def changedClasspathHash: Option[Vector[FileHash]] =
+      if (currentHashes == previousHashes) None else Some(currentHashes)
+    override def unchangedClasspathEntries: Set[Path] =
+      IncrementalCommon.unchangedClasspathPrefix(previousHashes, currentHashes)
+    override def analyses: Vector[CompileAnalysis] = Vector.empty
+    override def lookupOnClasspath(binaryClassName: String): Option[VirtualFileRef] =
+      synchronized {
+        lookedUp += binaryClassName
+        current.find(_.classes(binaryClassName)).map(_.ref)
+      }
+    override def lookupAnalysis(binaryClassName: String): Option[CompileAnalysis] = None
+  }
+
+  /** Returns the modified libraries of the previous classpath, and the classes looked up. */
+  private def modifiedLibraries(current: Vector[Jar]): (Set[String], Set[String]) = {
+    val lookup = new ClasspathLookup(current)
+    val currentStamps = stamps(current)
+    val isModified = IncrementalCommon.isLibraryModified(
+      skipClasspathLookup = false,
+      lookup,
+      previousStamps,
+      currentStamps,
+      previousRelations,
+      PlainVirtualFileConverter.converter,
+      lookup.unchangedClasspathEntries,
+      Logger.Null
+    )
+    val modified = previous.filter(jar => isModified(jar.ref)).map(_.name).toSet
+    (modified, lookup.lookedUp.toSet)
+  }
+
+  "unchangedClasspathPrefix" should "keep the entries up to the first changed one" in {
+    def prefix(current: Jar*): Set[String] =
+      IncrementalCommon
+        .unchangedClasspathPrefix(previous.map(_.fileHash), current.toVector.map(_.fileHash))
+        .map(_.getFileName.toString.stripSuffix(".jar"))
+    val x = Jar("x", 4, Set("x.X"))
+    prefix(a, b, c) shouldBe Set("a", "b", "c")
+    prefix(a, b, c, x) shouldBe Set("a", "b", "c")
+    prefix(b, a, c) shouldBe Set()
+    prefix(a, x, b, c) shouldBe Set("a")
+    prefix(a, b.copy(hash = 5), c) shouldBe Set("a")
+    prefix(a, c) shouldBe Set("a")
+  }
+
+  "isLibraryModified" should "look up the classes of a reordered classpath" in {
+    // b now shadows the class of a
+    val shadowing = b.copy(classes = Set("b.B", "a.A"))
+    val (modified, lookedUp) = modifiedLibraries(Vector(shadowing, a, c))
+    modified shouldBe Set("a")
+    lookedUp should contain("a.A")
+    // Only the order changed
+    modifiedLibraries(Vector(b, a, c)) shouldBe ((Set(), Set("a.A", "b.B", "c.C")))
+  }
+
+  it should "look up the classes that an inserted entry may shadow" in {
+    val x = Jar("x", 4, Set("c.C"))
+    val (modified, lookedUp) = modifiedLibraries(Vector(a, x, b, c))
+    modified shouldBe Set("c")
+    // a comes before the inserted entry, so its classes are not looked up on the classpath
+    lookedUp shouldBe Set("b.B", "c.C")
+  }
+
+  it should "compare the stamps of a modified entry after the unchanged ones" in {
+    val (modified, lookedUp) = modifiedLibraries(Vector(a, b.copy(hash = 5), c))
+    modified shouldBe Set("b")
+    lookedUp shouldBe Set("b.B", "c.C")
+    // Nothing is looked up on an unchanged classpath
+    modifiedLibraries(previous) shouldBe ((Set(), Set()))
+  }
+}
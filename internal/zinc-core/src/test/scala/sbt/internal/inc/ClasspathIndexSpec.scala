@@ -0,0 +1,105 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.nio.file.{ Files, Path }
+import java.util.Optional
+import java.util.zip.{ ZipEntry, ZipOutputStream }
+
+import sbt.io.IO
+import xsbti.VirtualFile
+import xsbti.compile.{ CompileAnalysis, DefinesClass, PerClasspathEntryLookup }
+
+class ClasspathIndexSpec extends UnitSpec {
+  private def writeJar(jar: Path, classes: String*): Unit = {
+    val out = new ZipOutputStream(Files.newOutputStream(jar))
+    try classes.foreach { name =>
+      out.putNextEntry(new ZipEntry(name.replace('.', '/') + ".class"))
+      out.closeEntry()
+    } finally out.close()
+  }
+
+  "ClasspathIndex" should "map every class to the first jar that defines it" in {
+    IO.withTemporaryDirectory { dir =>
+      val jars = Vector("a.jar", "b.jar", "c.jar").map(name => dir.toPath.resolve(name))
+      writeJar(jars(0), "p.A", "p.Shared")
+      writeJar(jars(1), "p.B", "p.Shared", "p.Moved")
+      writeJar(jars(2), "p.C", "p.Moved")
+      val index = ClasspathIndex(jars)
+      assert(index === Map("p.A" -> 0, "p.Shared" -> 0, "p.B" -> 1, "p.Moved" -> 1, "p.C" -> 2))
+
+      // Removing a class moves it to the next jar, adding one shadows the later jars
+      writeJar(jars(1), "p.B", "p.Shared", "p.C", "p.New")
+      jars(1).toFile.setLastModified(jars(1).toFile.lastModified + 2000)
+      val expected =
+        Map("p.A" -> 0, "p.Shared" -> 0, "p.B" -> 1, "p.C" -> 1, "p.New" -> 1, "p.Moved" -> 2)
+      assert(ClasspathIndex(jars) === expected)
+    }
+  }
+
+  it should "keep the indices of the most recently used classpaths only" in {
+    IO.withTemporaryDirectory { dir =>
+      val jars = (0 to ClasspathIndex.MaxIndices).map { i =>
+        val jar = dir.toPath.resolve(s"$i.jar")
+        writeJar(jar, s"p.C$i")
+        jar
+      }
+      jars.foreach(jar => ClasspathIndex(Vector(jar)))
+      val (cachedJars, cachedIndices) = ClasspathIndex.cachedSizes
+      assert(cachedJars <= ClasspathIndex.MaxJars)
+      assert(cachedIndices <= ClasspathIndex.MaxIndices)
+      assert(ClasspathIndex(Vector(jars.head)) === Map("p.C0" -> 0))
+    }
+  }
+
+  private def lookup(definers: VirtualFile => DefinesClass) = new PerClasspathEntryLookup {
+    override def analysis(entry: VirtualFile): Optional[CompileAnalysis] = Optional.empty()
+    override def definesClass(entry: VirtualFile): DefinesClass = definers(entry)
+  }
+
+  "Locate.entry" should "find the first entry that defines a class" in {
+    IO.withTemporaryDirectory { dir =>
+      val classes = dir.toPath.resolve("classes")
+      Files.createDirectories(classes.resolve("p"))
+      Files.createFile(classes.resolve("p").resolve("B.class"))
+      val jars = Vector("a.jar", "b.jar").map(name => dir.toPath.resolve(name))
+      writeJar(jars(0), "p.A")
+      writeJar(jars(1), "p.A", "p.B")
+      val classpath = Vector(jars(0), classes, jars(1)).map(PlainVirtualFile(_))
+      val entry = Locate.entry(classpath, lookup(Locate.definesClass))
+      assert(entry("p.A") === Some(classpath(0)))
+      assert(entry("p.B") === Some(classpath(1)))
+      assert(entry("p.C") === None)
+    }
+  }
+
+  it should "ask a custom lookup which classes its jars define" in {
+    IO.withTemporaryDirectory { dir =>
+      val jars = Vector("a.jar", "b.jar").map(name => dir.toPath.resolve(name))
+      writeJar(jars(0), "p.A", "p.Hidden")
+      writeJar(jars(1), "p.Hidden", "p.Extra")
+      val classpath = jars.map(PlainVirtualFile(_))
+      // The first jar hides p.Hidden, the second one also defines a class it does not contain
+      val custom = lookup { entry =>
+        val defaults = Locate.definesClass(entry)
+        if (entry == classpath(0)) name => name != "p.Hidden" && defaults(name)
+        else name => name == "p.Virtual" || defaults(name)
+      }
+      val entry = Locate.entry(classpath, custom)
+      assert(entry("p.A") === Some(classpath(0)))
+      assert(entry("p.Hidden") === Some(classpath(1)))
+      assert(entry("p.Virtual") === Some(classpath(1)))
+    }
+  }
+}
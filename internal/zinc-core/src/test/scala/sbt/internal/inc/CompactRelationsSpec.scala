@@ -0,0 +1,137 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.util.EnumSet
+
+import sbt.internal.util.Relation
+import xsbti.{ UseScope, VirtualFileRef }
+import xsbti.api.{ DependencyContext, ExternalDependency, InternalDependency }
+
+class CompactRelationsSpec extends UnitSpec {
+  private def file(name: String) = VirtualFileRef.of(s"src/$name.scala")
+
+  // Every source `i` defines class `Ci`, which depends on the next two classes and a library
+  private def addSources(relations: Relations, indices: Range): Relations =
+    indices.foldLeft(relations) { (relations, i) =>
+      val className = s"C$i"
+      val internalDeps = Seq(i + 1, i + 2).map { j =>
+        InternalDependency.of(className, s"C$j", DependencyContext.DependencyByMemberRef)
+      } :+ InternalDependency.of(className, "C0", DependencyContext.DependencyByInheritance)
+      val externalDeps = Seq(
+        ExternalDependency.of(
+          className,
+          "ext.E",
+          APIs.emptyAnalyzedClass,
+          DependencyContext.DependencyByMemberRef
+        )
+      )
+      relations
+        .addSource(
+          file(className),
+          Seq(VirtualFileRef.of(s"out/$className.class")),
+          Seq(className -> className),
+          internalDeps,
+          externalDeps,
+          Seq((VirtualFileRef.of("lib.jar"), "lib.L", null))
+        )
+        .addUsedNames(
+          Relation.empty[String, UsedName] +
+            (className, UsedName.make(s"m$i", EnumSet.of(UseScope.Default)))
+        )
+    }
+
+  private def assertSame(compact: Relations, strict: Relations) = {
+    assert(compact == strict)
+    assert(compact.allSources === strict.allSources)
+    assert(compact.allProducts === strict.allProducts)
+    assert(compact.allExternalDeps === strict.allExternalDeps)
+    assert(compact.names === strict.names)
+    assert(compact.productClassName === strict.productClassName)
+    val (compactInheritance, strictInheritance) =
+      (compact.inheritance.internal, strict.inheritance.internal)
+    for (i <- 0 to 200) {
+      val className = s"C$i"
+      assert(compact.classNames(file(className)) === strict.classNames(file(className)))
+      assert(compact.internalClassDeps(className) === strict.internalClassDeps(className))
+      assert(compact.usesInternalClass(className) === strict.usesInternalClass(className))
+      assert(compact.usedNames(className) === strict.usedNames(className))
+      assert(compactInheritance.reverse(className) === strictInheritance.reverse(className))
+      for (context <- DependencyContext.values) {
+        assert(
+          compact.usesInternalClass(className, context) ===
+            strict.usesInternalClass(className, context)
+        )
+      }
+      assert(compact.sourceClassNames(className) === strict.sourceClassNames(className))
+      assert(compact.producesClassName(className) === strict.producesClassName(className))
+    }
+    for (context <- DependencyContext.values) {
+      assert(compact.usesExternal("ext.E", context) === strict.usesExternal("ext.E", context))
+    }
+    assert(!compact.producesClassName("ext.E") && !strict.producesClassName("ext.E"))
+  }
+
+  "CompactRelations" should "answer like the default relations" in {
+    val strict = addSources(Relations.empty, 0 until 200)
+    val compact = addSources(CompactRelations.empty, 0 until 200)
+    assert(compact.isInstanceOf[CompactRelations])
+    assertSame(compact, strict)
+    assertSame(CompactRelations(strict), strict)
+  }
+
+  it should "merge and remove sources like the default relations" in {
+    val removed = (50 until 150).map(i => file(s"C$i"))
+    val strict = addSources(Relations.empty, 0 until 200) -- removed
+    val compact = addSources(CompactRelations.empty, 0 until 200) -- removed
+    assertSame(compact, strict)
+
+    val added = addSources(Relations.empty, 100 until 120)
+    val strictMerged = strict ++ added
+    val compactMerged = compact ++ added
+    assert(compactMerged.isInstanceOf[CompactRelations])
+    assertSame(compactMerged, strictMerged)
+  }
+
+  it should "intern the relations again once most of their ids are stale" in {
+    def removed(round: Int) = (round * 100 until (round + 1) * 100).map(i => file(s"C$i"))
+    val (strict, compact) = (1 to 30).foldLeft(
+      (addSources(Relations.empty, 0 until 100), addSources(CompactRelations.empty, 0 until 100))
+    ) {
+      case ((strict, compact), round) =>
+        val added = round * 100 until (round + 1) * 100
+        (
+          addSources(strict -- removed(round - 1), added),
+          addSources(compact -- removed(round - 1), added)
+        )
+    }
+    assert(compact == strict)
+    assert(compact.names === strict.names)
+    val interners = compact.asInstanceOf[CompactRelations].interners
+    assert(interners.size < 2 * 4096)
+  }
+
+  it should "build its boxed relations on demand without keeping them" in {
+    val compact = addSources(CompactRelations.empty, 0 until 200)
+    assert(compact.srcProd ne compact.srcProd)
+    assert(compact.classes ne compact.classes)
+    assert(compact.names ne compact.names)
+    assert(compact.productClassName ne compact.productClassName)
+    assert(compact.memberRef.internal ne compact.memberRef.internal)
+    assert(compact.internalDependencies ne compact.internalDependencies)
+    // Built again, so equal to the relations built before
+    assert(compact.srcProd == compact.srcProd)
+    assert(compact.names == compact.names)
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.nio.file.Paths
+
+import xsbti.VirtualFileRef
+import xsbti.api.{ AnalyzedClass, SafeLazyProxy }
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+class ExternalLookupCacheSpec extends UnitSpec {
+  private def analyzedClass(name: String) =
+    AnalyzedClass.of(1L, name, SafeLazyProxy(APIs.emptyCompanions), name.hashCode, Array(), false)
+
+  private val upstream = VirtualFileRef.of("upstream/classes")
+
+  /** The classes of another project, and the lookups made so far. */
+  private final class Upstream {
+    val lookups = mutable.Buffer.empty[(String, Option[VirtualFileRef])]
+    def lookup(name: String, file: Option[VirtualFileRef]): Option[AnalyzedClass] =
+      synchronized {
+        lookups += (name -> file)
+        if (name.startsWith("up.") && file.contains(upstream)) Some(analyzedClass(name)) else None
+      }
+  }
+
+  private val keys = for {
+    name <- Seq("up.A", "up.B", "lib.L")
+    file <- Seq(Some(upstream), Some(VirtualFileRef.of("lib/library.jar")), None)
+  } yield (name, file)
+
+  "ExternalLookupCache" should "look up the same analyzed classes as the lookup it memoizes" in {
+    val uncached = new Upstream
+    val cached = new Upstream
+    val cache = new ExternalLookupCache(cached.lookup, PlainVirtualFileConverter.converter)
+    for (_ <- 1 to 3; (name, file) <- keys) {
+      cache.analyzedClass(name, file).map(_.name) shouldBe uncached.lookup(name, file).map(_.name)
+    }
+    // Every class looked up once, including the ones that are not found
+    cached.lookups.toList shouldBe keys.toList
+    val found = cache.analyzedClass("up.A", Some(upstream))
+    assert(found.isDefined && (cache.analyzedClass("up.A", Some(upstream)) eq found))
+  }
+
+  it should "convert the same paths as the converter it memoizes" in {
+    val converter = PlainVirtualFileConverter.converter
+    val cache = new ExternalLookupCache(new Upstream().lookup, converter)
+    val paths = Seq(Paths.get("/lib/library.jar"), Paths.get("/upstream/classes/up/A.class"))
+    paths.foreach { path =>
+      val file = cache.virtualFile(path)
+      file shouldBe converter.toVirtualFile(path)
+      assert(cache.virtualFile(path) eq file)
+    }
+  }
+
+  it should "register its hits and misses" in {
+    val cache = new ExternalLookupCache(new Upstream().lookup, PlainVirtualFileConverter.converter)
+    keys.foreach { case (name, file) => cache.analyzedClass(name, file) }
+    keys.take(2).foreach { case (name, file) => cache.analyzedClass(name, file) }
+    cache.virtualFile(Paths.get("/lib/library.jar"))
+
+    val profiler = new ZincInvalidationProfiler
+    val runProfiler = profiler.profileRun
+    cache.registerStatistics(runProfiler)
+    runProfiler.registerRun()
+    val profile = profiler.toProfile
+    val statistics = profile.getRuns(0).getCachesList.asScala.map { statistics =>
+      profile.getStringTable(statistics.getCache) -> ((statistics.getHits, statistics.getMisses))
+    }
+    statistics shouldBe Seq(
+      "external analyzed classes" -> ((2L, keys.size.toLong)),
+      "binary dependency files" -> ((0L, 1L))
+    )
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.util.Logger
+import xsbt.api.APIUtil
+import xsbti.UseScope
+import xsbti.api.{ AnalyzedClass, Companions, DefinitionType, NameHash, SafeLazyProxy }
+import xsbti.compile.IncOptions
+
+class IncrementalCommonSpec extends UnitSpec {
+  private val incremental =
+    new IncrementalNameHashingCommon(Logger.Null, IncOptions.of(), RunProfiler.empty)
+
+  private def analyzedClass(
+      name: String,
+      timestamp: Long,
+      apiHash: Int,
+      extraHash: Int,
+      definitionType: DefinitionType = DefinitionType.ClassDef,
+      hasMacro: Boolean = false
+  ): AnalyzedClass = {
+    val api = APIUtil.emptyClassLike(name, definitionType)
+    val nameHashes = Array(NameHash.of(s"m$apiHash", UseScope.Default, apiHash))
+    val companions = SafeLazyProxy(Companions.of(api, api))
+    AnalyzedClass.of(timestamp, name, companions, apiHash, nameHashes, hasMacro, extraHash)
+  }
+
+  // Every kind of change, for the classes of this project and for external classes
+  private val classes = (0 until 3 * IncrementalCommon.MinParallelDiffs).map { i =>
+    if (i % 2 == 0) s"p.C$i" else s"ext.E$i"
+  }
+  private val oldAPIs = classes.zipWithIndex.map {
+    case (name, i) =>
+      val definitionType = if (i % 6 == 2) DefinitionType.Trait else DefinitionType.ClassDef
+      name -> analyzedClass(name, 1L, i, i, definitionType)
+  }.toMap
+  private val newAPIs = classes.zipWithIndex.collect {
+    case (name, i) if i % 6 == 0 => name -> oldAPIs(name)
+    case (name, i) if i % 6 == 1 => name -> analyzedClass(name, 2L, i, i)
+    case (name, i) if i % 6 == 2 => name -> analyzedClass(name, 2L, i, -i, DefinitionType.Trait)
+    case (name, i) if i % 6 == 3 => name -> analyzedClass(name, 2L, -i, i)
+    case (name, i) if i % 6 == 4 => name -> analyzedClass(name, 2L, -i, i, hasMacro = true)
+    // Removed, as external classes that cannot be found any more
+  }.toMap
+  private val oldAPI = (name: String) => oldAPIs(name)
+  private val newAPI = (name: String) => newAPIs.getOrElse(name, APIs.emptyAnalyzedClass)
+
+  "IncrementalCommon.detectAPIChanges" should "find the same changes in parallel" in {
+    val parallel = incremental.detectAPIChanges(classes.toSet, oldAPI, newAPI).apiChanges.toSet
+    // Each group is below the parallel threshold, so it is diffed on the calling thread
+    val sequential = classes
+      .grouped(IncrementalCommon.MinParallelDiffs - 1)
+      .flatMap(group => incremental.detectAPIChanges(group.toSet, oldAPI, newAPI).apiChanges)
+      .toSet
+    assert(classes.size > IncrementalCommon.MinParallelDiffs)
+    assert(parallel === sequential)
+    assert(parallel.collect { case c: TraitPrivateMembersModified   => c }.size === 128)
+    assert(parallel.collect { case c: APIChangeDueToMacroDefinition => c }.size === 128)
+    // The classes whose API hash changed, and the removed ones
+    assert(parallel.collect { case c: NamesChange => c }.size === 256)
+    assert(parallel.exists(_.modifiedClass.startsWith("ext.")))
+  }
+}
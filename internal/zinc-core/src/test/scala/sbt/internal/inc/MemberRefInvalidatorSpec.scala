@@ -0,0 +1,66 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.util.EnumSet
+
+import sbt.internal.util.Relation
+import sbt.util.Logger
+import xsbti.UseScope
+
+class MemberRefInvalidatorSpec extends UnitSpec {
+  private val dependents = (0 until 200).map(i => s"D$i")
+  private val memberRef = Relation.empty[String, String] ++ dependents.map(_ -> "Hub")
+  // Even dependents use `foo`, all of them use `bar`, and `D1` uses `foo` as an implicit only
+  private val usedNames = Relation.empty[String, UsedName] ++ dependents.zipWithIndex.flatMap {
+    case (d, i) =>
+      val foo =
+        if (i % 2 == 0) List(d -> UsedName.make("foo", EnumSet.of(UseScope.Default)))
+        else if (i == 1) List(d -> UsedName.make("foo", EnumSet.of(UseScope.Implicit)))
+        else Nil
+      (d -> UsedName.make("bar", EnumSet.of(UseScope.Default))) :: foo
+  }
+  private val change =
+    NamesChange("Hub", ModifiedNames(Set(UsedName.make("foo", EnumSet.of(UseScope.Default)))))
+  private val invalidator = new MemberRefInvalidator(Logger.Null, false)
+
+  "MemberRefInvalidator" should "only invalidate the dependents that use a modified name" in {
+    val expected = dependents.zipWithIndex.collect { case (d, i) if i % 2 == 0 => d }.toSet
+    val unindexed = invalidator.get(memberRef, usedNames, change, _ => true)("Hub")
+    val index = UsedNameIndex(usedNames)
+    val indexed =
+      invalidator.get(memberRef, usedNames, change, _ => true, () => index)("Hub")
+    assert(unindexed === expected)
+    assert(indexed === expected)
+  }
+
+  it should "invalidate the non-Scala dependents regardless of their used names" in {
+    val isScalaClass = (c: String) => c != "D3"
+    val index = UsedNameIndex(usedNames)
+    val indexed =
+      invalidator.get(memberRef, usedNames, change, isScalaClass, () => index)("Hub")
+    assert(indexed("D3"))
+    assert(!indexed("D5"))
+  }
+
+  "UsedNameIndex" should "map every name and scope to its users" in {
+    val index = UsedNameIndex(usedNames)
+    assert(index.users("foo", UseScope.Implicit) === Set("D1"))
+    assert(index.users("foo", UseScope.Default).size === 100)
+    assert(index.users("bar", UseScope.Default) === dependents.toSet)
+    assert(index.users("baz", UseScope.Default).isEmpty)
+    val rebuilt = UsedNameIndex.fromEntries(index.entries)
+    assert(rebuilt.entries.toSet === index.entries.toSet)
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.collection.parallel.immutable.ParVector
+import xsbti.VirtualFileRef
+
+class StampCacheSpec extends UnitSpec {
+  private val files = (0 until 100).map(i => VirtualFileRef.of(s"src/C$i.scala"))
+
+  "StampCache" should "stamp every file once when read concurrently" in {
+    val cache = new StampCache
+    val computed = new AtomicInteger
+    val stamp = (file: VirtualFileRef) => {
+      computed.incrementAndGet()
+      FarmHash.fromLong(file.id.hashCode.toLong)
+    }
+    new ParVector(Vector.fill(8)(files).flatten).foreach(cache.get(_, stamp))
+    assert(computed.get === files.size)
+    assert(cache.toJavaMap.size === files.size)
+  }
+
+  it should "stamp a file again when its modification time changes" in {
+    val cache = new StampCache
+    val computed = new AtomicInteger
+    val stamp = (_: VirtualFileRef) => FarmHash.fromLong(computed.incrementAndGet().toLong)
+    val file = files.head
+    val first = cache.getTimed(file, 1L, stamp)
+    assert(cache.getTimed(file, 1L, stamp) === first)
+    assert(cache.getTimed(file, 2L, stamp) !== first)
+    cache.getTimed(file, 0L, stamp)
+    cache.getTimed(file, 0L, stamp)
+    assert(computed.get === 4)
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+package classpath
+
+import java.io.File
+import java.net.URLClassLoader
+
+import sbt.io.IO
+
+class ClassLoaderCacheSpec extends UnitSpec {
+  private val parent = new URLClassLoader(Array())
+
+  /** A classpath entry of `size` bytes. */
+  private def jar(dir: File, name: String, size: Int): File = {
+    val file = new File(dir, s"$name.jar")
+    IO.write(file, new Array[Byte](size))
+    file
+  }
+
+  /** A classpath entry with a resource, which its class loaders only find until closed. */
+  private def classesDir(dir: File, name: String): File = {
+    val classes = new File(dir, name)
+    IO.write(new File(classes, "resource.txt"), name)
+    classes
+  }
+
+  "ClassLoaderCache" should "keep the most recently used class loaders" in {
+    IO.withTemporaryDirectory { dir =>
+      val cache = new ClassLoaderCache(parent, 2, Long.MaxValue)
+      val a = List(classesDir(dir, "a"))
+      val b = List(classesDir(dir, "b"))
+      val c = List(classesDir(dir, "c"))
+      val loaderA = cache(a)
+      val loaderB = cache(b)
+      assert(cache(a) eq loaderA)
+      val loaderC = cache(c)
+      cache.stats shouldBe Some(ClassLoaderCacheStats(1, 3, 1, 2, 0))
+      assert(cache(a) eq loaderA)
+      assert(cache(c) eq loaderC)
+      assert(cache(b) ne loaderB)
+      cache.stats.map(_.evictions) shouldBe Some(2)
+      cache.close()
+    }
+  }
+
+  it should "keep the weight of the cached classpaths under its limit" in {
+    IO.withTemporaryDirectory { dir =>
+      val cache = new ClassLoaderCache(parent, Int.MaxValue, 250)
+      val a = List(jar(dir, "a", 100))
+      val b = List(jar(dir, "b", 100))
+      val loaderA = cache(a)
+      cache(b)
+      cache.stats.map(s => (s.size, s.weight)) shouldBe Some((2, 200L))
+      cache(List(jar(dir, "c", 100)))
+      cache.stats.map(s => (s.size, s.weight, s.evictions)) shouldBe Some((2, 200L, 1L))
+      assert(cache(a) ne loaderA)
+      // The last class loader is kept, even above the limit
+      val big = List(jar(dir, "big", 1000))
+      val loaderBig = cache(big)
+      cache.stats.map(s => (s.size, s.weight)) shouldBe Some((1, 1000L))
+      assert(cache(big) eq loaderBig)
+      cache.close()
+    }
+  }
+
+  it should "replace the class loader of a classpath once it changes" in {
+    IO.withTemporaryDirectory { dir =>
+      val cache = new ClassLoaderCache(parent, Int.MaxValue, Long.MaxValue)
+      val a = jar(dir, "a", 100)
+      val loader = cache(List(a))
+      IO.setModifiedTimeOrFalse(a, IO.getModifiedTimeOrZero(a) + 10000)
+      assert(cache(List(a)) ne loader)
+      cache.stats shouldBe Some(ClassLoaderCacheStats(0, 2, 0, 1, 100))
+      cache.close()
+    }
+  }
+
+  it should "not close the class loaders it evicts, which may still be in use" in {
+    IO.withTemporaryDirectory { dir =>
+      val cache = new ClassLoaderCache(parent, 1, Long.MaxValue)
+      val evicted = cache(List(classesDir(dir, "a")))
+      val kept = cache(List(classesDir(dir, "b")))
+      cache.stats.map(_.evictions) shouldBe Some(1)
+      assert(evicted.getResource("resource.txt") ne null)
+      assert(kept.getResource("resource.txt") ne null)
+      // Only closing the cache closes its class loaders
+      cache.close()
+      assert(evicted.getResource("resource.txt") ne null)
+      assert(kept.getResource("resource.txt") eq null)
+    }
+  }
+}
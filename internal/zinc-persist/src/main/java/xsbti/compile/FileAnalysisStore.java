@@ -48,4 +48,30 @@ public interface FileAnalysisStore extends AnalysisStore {
     static AnalysisStore getDefault(File analysisFile, ReadWriteMappers mappers) {
         return sbt.internal.inc.FileAnalysisStore.binary(analysisFile, mappers);
     }
+
+    /**
+     * Returns a binary file-based `AnalysisStore` whose file is indexed by sections.
+     *
+     * Only the setup of the analysis is read upfront: the other sections of the file, such as
+     * the stamps or each relation, are read the first time they are accessed. This makes
+     * no-op builds of large projects faster. The store can read files of the default format.
+     *
+     * @param analysisFile The analysis file to store.
+     * @return An indexed binary file-based analysis store.
+     */
+    static AnalysisStore getIndexed(File analysisFile) {
+        return sbt.internal.inc.FileAnalysisStore.indexedBinary(analysisFile);
+    }
+
+    /**
+     * Returns a binary file-based `AnalysisStore` whose file is indexed by sections.
+     *
+     * @param analysisFile The analysis file to store.
+     * @param mappers The mappers to be used while reading and writing the analysis file.
+     * @return An indexed binary file-based analysis store.
+     * @see #getIndexed(File)
+     */
+    static AnalysisStore getIndexed(File analysisFile, ReadWriteMappers mappers) {
+        return sbt.internal.inc.FileAnalysisStore.indexedBinary(analysisFile, mappers);
+    }
 }
\ No newline at end of file
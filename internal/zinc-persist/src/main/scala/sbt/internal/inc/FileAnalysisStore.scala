@@ -14,16 +14,28 @@ package internal
 package inc
 
 import java.io._
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicBoolean
+import java.nio.file.StandardCopyOption.{ ATOMIC_MOVE, REPLACE_EXISTING }
 import java.util.Optional
-import java.util.zip.{ ZipEntry, ZipInputStream }
+import java.util.zip.{ ZipEntry, ZipFile, ZipInputStream }
 
 import sbt.internal.shaded.com.google.protobuf.{ CodedInputStream, CodedOutputStream }
-import sbt.internal.inc.binary.BinaryAnalysisFormat
+import sbt.internal.inc.binary.{
+  BinaryAnalysisFormat,
+  BinaryAnalysisJournal,
+  IndexedBinaryAnalysisFormat
+}
 import sbt.internal.inc.text.TextAnalysisFormat
 import sbt.io.{ IO, Using }
 import xsbti.api.Companions
 import xsbti.compile.analysis.ReadWriteMappers
-import xsbti.compile.{ AnalysisContents, AnalysisStore => XAnalysisStore }
+import xsbti.compile.{
+  AnalysisContents,
+  CompileAnalysis,
+  MiniSetup,
+  AnalysisStore => XAnalysisStore
+}
 
 import scala.util.control.Exception.allCatch
 
@@ -31,11 +43,36 @@ object FileAnalysisStore {
   private final val BinExtension = "bin"
   private final val analysisFileName = s"inc_compile.$BinExtension"
   private final val companionsFileName = s"api_companions.$BinExtension"
+  private final val journalIdFileName = s"journal_id.$BinExtension"
+  private final val JournalExtension = ".journal"
+  private final val MinCompactionSize = 1024L * 1024L
 
   def binary(analysisFile: File): XAnalysisStore =
-    new BinaryFileStore(analysisFile, ReadWriteMappers.getEmptyMappers())
+    new BinaryFileStore(analysisFile, ReadWriteMappers.getEmptyMappers(), indexed = false)
   def binary(analysisFile: File, mappers: ReadWriteMappers): XAnalysisStore =
-    new BinaryFileStore(analysisFile, mappers)
+    new BinaryFileStore(analysisFile, mappers, indexed = false)
+
+  /**
+   * Returns a binary store that writes the analysis in the [[IndexedBinaryAnalysisFormat]],
+   * whose sections are only decoded when they are accessed. Both binary stores can read the
+   * analysis files of each other.
+   */
+  def indexedBinary(analysisFile: File): XAnalysisStore =
+    new BinaryFileStore(analysisFile, ReadWriteMappers.getEmptyMappers(), indexed = true)
+  def indexedBinary(analysisFile: File, mappers: ReadWriteMappers): XAnalysisStore =
+    new BinaryFileStore(analysisFile, mappers, indexed = true)
+
+  /**
+   * Returns a binary store that appends the changes of every analysis to a journal next to the
+   * analysis file, instead of rewriting the analysis. The journal is replayed when the analysis
+   * is read, and compacted into the analysis file in the background once it gets larger than it.
+   *
+   * The other binary stores replay the journal too, so they read the same analysis.
+   */
+  def journaledBinary(analysisFile: File): XAnalysisStore =
+    new JournaledBinaryFileStore(analysisFile, ReadWriteMappers.getEmptyMappers())
+  def journaledBinary(analysisFile: File, mappers: ReadWriteMappers): XAnalysisStore =
+    new JournaledBinaryFileStore(analysisFile, mappers)
 
   def text(file: File): XAnalysisStore =
     new FileBasedStoreImpl(file, TextAnalysisFormat)
@@ -44,10 +81,15 @@ object FileAnalysisStore {
   def text(file: File, format: TextAnalysisFormat): XAnalysisStore =
     new FileBasedStoreImpl(file, format)
 
-  private final class BinaryFileStore(file: File, readWriteMappers: ReadWriteMappers)
-      extends XAnalysisStore {
+  private final class BinaryFileStore(
+      file: File,
+      readWriteMappers: ReadWriteMappers,
+      indexed: Boolean
+  ) extends XAnalysisStore {
 
     private final val format = new BinaryAnalysisFormat(readWriteMappers)
+    private final lazy val indexedFormat = new IndexedBinaryAnalysisFormat(readWriteMappers)
+    private final lazy val journal = new BinaryAnalysisJournal(readWriteMappers)
     private final val TmpEnding = ".tmp"
 
     /**
@@ -56,7 +98,13 @@ object FileAnalysisStore {
     override def get: Optional[AnalysisContents] = {
       import JavaInterfaceUtil.EnrichOption
       val nestedRead: Option[Option[AnalysisContents]] = allCatch.opt {
-        Using.zipInputStream(new FileInputStream(file)) { inputStream =>
+        if (IndexedBinaryAnalysisFormat.isIndexed(file)) {
+          val (analysis, miniSetup) = indexedFormat.read(file)
+          Some(AnalysisContents.create(analysis, miniSetup))
+        } else if (isJournaled(file)) {
+          // Written by a journaled store, so only up to date with its journal
+          Some(readJournaled(file, journal)._1)
+        } else Using.zipInputStream(new FileInputStream(file)) { inputStream =>
           lookupEntry(inputStream, analysisFileName)
           val reader = CodedInputStream.newInstance(inputStream)
           val (analysis, miniSetup) = format.read(reader)
@@ -82,6 +130,10 @@ object FileAnalysisStore {
     override def set(contents: AnalysisContents): Unit = {
       val analysis = contents.getAnalysis
       val setup = contents.getMiniSetup
+      if (indexed) setIndexed(analysis, setup) else setZipped(analysis, setup)
+    }
+
+    private def setZipped(analysis: CompileAnalysis, setup: MiniSetup): Unit = {
       val tmpAnalysisFile = File.createTempFile(file.getName, TmpEnding)
       if (!file.getParentFile.exists())
         file.getParentFile.mkdirs()
@@ -99,6 +151,201 @@ object FileAnalysisStore {
       }
       IO.move(tmpAnalysisFile, file)
     }
+
+    private def setIndexed(analysis: CompileAnalysis, setup: MiniSetup): Unit = {
+      // The previous analysis may still be mapped in memory, so it must be replaced atomically
+      // by a file of the same directory, rather than overwritten
+      if (!file.getParentFile.exists())
+        file.getParentFile.mkdirs()
+      val tmpAnalysisFile = File.createTempFile(file.getName, TmpEnding, file.getParentFile)
+      try {
+        Using.bufferedOutputStream(new FileOutputStream(tmpAnalysisFile)) { outputStream =>
+          indexedFormat.write(outputStream, analysis, setup)
+        }
+        Files.move(tmpAnalysisFile.toPath, file.toPath, REPLACE_EXISTING, ATOMIC_MOVE)
+      } finally {
+        Files.deleteIfExists(tmpAnalysisFile.toPath)
+        ()
+      }
+      ()
+    }
+  }
+
+  private final class JournaledBinaryFileStore(file: File, readWriteMappers: ReadWriteMappers)
+      extends XAnalysisStore {
+
+    private final val format = new BinaryAnalysisFormat(readWriteMappers)
+    private final val journal = new BinaryAnalysisJournal(readWriteMappers)
+    private final val journalFile = journalOf(file)
+    private final val TmpEnding = ".tmp"
+    private final val compacting = new AtomicBoolean(false)
+
+    /**
+     * The last contents read or written, with the identifier of the snapshot that the journal
+     * extends, the modification time and length of the snapshot file and the valid length of
+     * the journal.
+     */
+    private final case class Journaled(
+        contents: AnalysisContents,
+        snapshotId: Long,
+        snapshotStamp: (Long, Long),
+        journalLength: Long
+    )
+    private[this] var last: Option[Journaled] = None
+
+    private def snapshotStamp = (file.lastModified, file.length)
+
+    override def get: Optional[AnalysisContents] = synchronized {
+      import JavaInterfaceUtil.EnrichOption
+      val read = allCatch.opt {
+        val (contents, snapshotId, journalLength) = readJournaled(file, journal)
+        last = snapshotId.map(Journaled(contents, _, snapshotStamp, journalLength))
+        contents
+      }
+      read.toOptional
+    }
+
+    override def unsafeGet: AnalysisContents = get.get
+
+    /**
+     * Appends the changes since the last analysis read or written to the journal, or writes
+     * the whole analysis if that analysis is unknown or the analysis file changed since.
+     */
+    override def set(contents: AnalysisContents): Unit = synchronized {
+      val appended = last.filter(_.snapshotStamp == snapshotStamp).flatMap { previous =>
+        allCatch.opt {
+          val analysis = contents.getAnalysis
+          val delta =
+            journal.delta(previous.contents.getAnalysis, analysis, contents.getMiniSetup)
+          val length =
+            journal.append(journalFile, previous.snapshotId, previous.journalLength, delta)
+          last = Some(previous.copy(contents = contents, journalLength = length))
+        }
+      }
+      if (appended.isEmpty) writeSnapshot(contents)
+      else if (journalFile.length > math.max(file.length, MinCompactionSize)) compactInBackground()
+    }
+
+    private def writeSnapshot(contents: AnalysisContents): Unit = {
+      val snapshotId = scala.util.Random.nextLong()
+      IO.move(writeSnapshotFile(contents, snapshotId), file)
+      // The journal of the previous snapshot is ignored anyway, since its identifier differs
+      Files.deleteIfExists(journalFile.toPath)
+      last = Some(Journaled(contents, snapshotId, snapshotStamp, 0L))
+    }
+
+    /** Writes the snapshot of `contents` into a temporary file, which is returned. */
+    private def writeSnapshotFile(contents: AnalysisContents, snapshotId: Long): File = {
+      val analysis = contents.getAnalysis
+      val setup = contents.getMiniSetup
+      val tmpAnalysisFile = File.createTempFile(file.getName, TmpEnding)
+      if (!file.getParentFile.exists())
+        file.getParentFile.mkdirs()
+
+      val outputStream = new FileOutputStream(tmpAnalysisFile)
+      Using.zipOutputStream(outputStream) { outputStream =>
+        val protobufWriter = CodedOutputStream.newInstance(outputStream)
+        outputStream.putNextEntry(new ZipEntry(analysisFileName))
+        format.write(protobufWriter, analysis, setup)
+        outputStream.closeEntry()
+
+        outputStream.putNextEntry(new ZipEntry(companionsFileName))
+        format.writeAPIs(protobufWriter, analysis, setup.storeApis())
+        outputStream.closeEntry()
+
+        outputStream.putNextEntry(new ZipEntry(journalIdFileName))
+        new DataOutputStream(outputStream).writeLong(snapshotId)
+        outputStream.closeEntry()
+      }
+      tmpAnalysisFile
+    }
+
+    private def compactInBackground(): Unit =
+      if (compacting.compareAndSet(false, true)) {
+        val thread = new Thread(s"zinc-analysis-compaction-${file.getName}") {
+          override def run(): Unit =
+            try {
+              // Until the compaction is done, the journal is still valid
+              allCatch.opt(compact())
+              ()
+            } finally compacting.set(false)
+        }
+        thread.setDaemon(true)
+        thread.start()
+      }
+
+    /**
+     * Writes the last contents into a new snapshot without holding the lock of the store, so
+     * that `get` and `set` are not blocked meanwhile. The new snapshot only replaces the
+     * analysis file if no other snapshot was written since, and the changes appended meanwhile
+     * are appended again to its journal.
+     */
+    private def compact(): Unit = synchronized(last).foreach { compacted =>
+      val snapshotId = scala.util.Random.nextLong()
+      val tmpAnalysisFile = writeSnapshotFile(compacted.contents, snapshotId)
+      try synchronized {
+        val current = last.filter { journaled =>
+          journaled.snapshotId == compacted.snapshotId && journaled.snapshotStamp == snapshotStamp
+        }
+        current.foreach { journaled =>
+          IO.move(tmpAnalysisFile, file)
+          Files.deleteIfExists(journalFile.toPath)
+          val length =
+            if (journaled.contents eq compacted.contents) 0L
+            else {
+              val contents = journaled.contents
+              val delta = journal.delta(
+                compacted.contents.getAnalysis,
+                contents.getAnalysis,
+                contents.getMiniSetup
+              )
+              journal.append(journalFile, snapshotId, 0L, delta)
+            }
+          last = Some(Journaled(journaled.contents, snapshotId, snapshotStamp, length))
+        }
+      } finally {
+        Files.deleteIfExists(tmpAnalysisFile.toPath)
+        ()
+      }
+      ()
+    }
+  }
+
+  private def journalOf(file: File): File = new File(file.getPath + JournalExtension)
+
+  /** Returns whether the analysis file was written by a journaled store. */
+  private def isJournaled(file: File): Boolean = {
+    val zip = new ZipFile(file)
+    try zip.getEntry(journalIdFileName) != null
+    finally zip.close()
+  }
+
+  /**
+   * Reads the analysis file of a journaled store and replays its journal. Returns the analysis,
+   * the identifier of its snapshot, if any, and the length of the journal replayed.
+   */
+  private def readJournaled(
+      file: File,
+      journal: BinaryAnalysisJournal
+  ): (AnalysisContents, Option[Long], Long) = {
+    val (analysisFile, apisFile, snapshotId) =
+      Using.zipInputStream(new FileInputStream(file)) { inputStream =>
+        lookupEntry(inputStream, analysisFileName)
+        val reader = CodedInputStream.newInstance(inputStream)
+        val analysisFile = Schema.AnalysisFile.parseFrom(reader)
+        lookupEntry(inputStream, companionsFileName)
+        val apisFile = Schema.APIsFile.parseFrom(reader)
+        val snapshotId = allCatch.opt {
+          lookupEntry(inputStream, journalIdFileName)
+          new DataInputStream(inputStream).readLong()
+        }
+        (analysisFile, apisFile, snapshotId)
+      }
+    val (deltas, journalLength) =
+      snapshotId.map(journal.deltas(journalOf(file), _)).getOrElse((Nil, 0L))
+    val (replayedFile, replayedApis) = journal.replay(analysisFile, apisFile, deltas)
+    val (analysis, miniSetup) = journal.read(replayedFile, replayedApis)
+    (AnalysisContents.create(analysis, miniSetup), snapshotId, journalLength)
   }
 
   private final class FileBasedStoreImpl(file: File, format: TextAnalysisFormat)
@@ -0,0 +1,329 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc.binary
+
+import java.io.{ ByteArrayOutputStream, DataOutputStream, File }
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.{ Files, StandardOpenOption }
+import java.util.zip.CRC32
+
+import sbt.internal.inc.binary.converters.{ ProtobufReaders, ProtobufWriters }
+import sbt.internal.inc._
+import sbt.internal.util.Relation
+import xsbti.api.DependencyContext._
+import xsbti.compile.analysis.ReadWriteMappers
+import xsbti.compile.{ CompileAnalysis, MiniSetup }
+
+import scala.collection.JavaConverters._
+
+/**
+ * Stores the changes between two analyses as deltas appended to a journal, so that an analysis
+ * can be persisted without rewriting all of it.
+ *
+ * A delta contains the entries of every map of the analysis (stamps, relations, source infos
+ * and APIs) that were added, replaced or removed since the previous analysis, as well as the
+ * setup and the compilations. Since analyses are persistent data structures, the entries that
+ * did not change are found by reference first. Deltas are replayed over the Protobuf messages
+ * of a snapshot, before the result is read like a snapshot.
+ *
+ * The journal starts with the identifier of the snapshot it applies to. Every delta is framed by
+ * its length and checksum, so that a torn delta at the end of the journal is ignored: the
+ * analysis read is then only older, which is always safe.
+ */
+final class BinaryAnalysisJournal(mappers: ReadWriteMappers) {
+  import BinaryAnalysisJournal._
+
+  private final val CurrentVersion = Schema.Version.V1_1
+  private final val protobufWriters = new ProtobufWriters(mappers.getWriteMapper)
+  private final val protobufReaders = new ProtobufReaders(mappers.getReadMapper, CurrentVersion)
+
+  /** Returns the changes from `previous0` to `analysis0`. */
+  def delta(
+      previous0: CompileAnalysis,
+      analysis0: CompileAnalysis,
+      miniSetup: MiniSetup
+  ): Schema.AnalysisDelta = {
+    val previous = previous0 match { case analysis: Analysis => analysis }
+    val analysis = analysis0 match { case analysis: Analysis => analysis }
+    val builder = Schema.AnalysisDelta.newBuilder
+    val sourceKey = protobufWriters.toSourceKey _
+    val libraryKey = protobufWriters.toLibraryKey _
+    val productKey = protobufWriters.toProductKey _
+    val stringKey = identity[String] _
+
+    def diff[K, V](name: String, before: Map[K, V], after: Map[K, V], key: K => String) =
+      if (before eq after) Map.empty[K, V]
+      else {
+        val removed = Schema.Values.newBuilder
+        before.keysIterator.foreach(k => if (!after.contains(k)) removed.addValues(key(k)))
+        if (removed.getValuesCount > 0) builder.putRemoved(name, removed.build)
+        after.filter {
+          case (k, v) =>
+            before.get(k) match {
+              case Some(old) => !(old.asInstanceOf[AnyRef] eq v.asInstanceOf[AnyRef]) && old != v
+              case None      => true
+            }
+        }
+      }
+    def relation[A, B](
+        name: String,
+        before: Relation[A, B],
+        after: Relation[A, B],
+        key: A => String
+    ): Relation[A, B] =
+      Relation.reconstruct(diff(name, before.forwardMap, after.forwardMap, key))
+
+    val stamps = Stamps(
+      diff(ProductStamps, previous.stamps.products, analysis.stamps.products, productKey),
+      diff(SourceStamps, previous.stamps.sources, analysis.stamps.sources, sourceKey),
+      diff(BinaryStamps, previous.stamps.libraries, analysis.stamps.libraries, libraryKey)
+    )
+
+    val (p, a) = (previous.relations, analysis.relations)
+    def classDependencies(name: String, before: Relations => Relation[String, String]) =
+      relation(name, before(p), before(a), stringKey)
+    val relations = Relations.make(
+      relation(SrcProd, p.srcProd, a.srcProd, sourceKey),
+      relation(LibraryDep, p.libraryDep, a.libraryDep, sourceKey),
+      relation(LibraryClassName, p.libraryClassName, a.libraryClassName, libraryKey),
+      InternalDependencies(
+        Map(
+          DependencyByMemberRef -> classDependencies(MemberRefInternal, _.memberRef.internal),
+          DependencyByInheritance -> classDependencies(InheritanceInternal, _.inheritance.internal),
+          LocalDependencyByInheritance ->
+            classDependencies(LocalInheritanceInternal, _.localInheritance.internal)
+        )
+      ),
+      ExternalDependencies(
+        Map(
+          DependencyByMemberRef -> classDependencies(MemberRefExternal, _.memberRef.external),
+          DependencyByInheritance -> classDependencies(InheritanceExternal, _.inheritance.external),
+          LocalDependencyByInheritance ->
+            classDependencies(LocalInheritanceExternal, _.localInheritance.external)
+        )
+      ),
+      relation(Classes, p.classes, a.classes, sourceKey),
+      relation(Names, p.names, a.names, stringKey),
+      relation(ProductClassName, p.productClassName, a.productClassName, stringKey)
+    )
+
+    val infos = SourceInfos.of(
+      diff(SourceInfosMap, previous.infos.allInfos, analysis.infos.allInfos, sourceKey)
+    )
+    val apis = APIs(
+      diff(InternalApis, previous.apis.internal, analysis.apis.internal, stringKey),
+      diff(ExternalApis, previous.apis.external, analysis.apis.external, stringKey)
+    )
+
+    val updated = Analysis.Empty.copy(stamps, APIs.empty, relations, infos, analysis.compilations)
+    builder
+      .setVersion(CurrentVersion)
+      .setMiniSetup(protobufWriters.toMiniSetup(miniSetup))
+      .setUpdated(protobufWriters.toAnalysis(updated))
+      .setUpdatedApis(protobufWriters.toApis(apis, miniSetup.storeApis()))
+      .build
+  }
+
+  /** Applies the deltas, in order, to the messages of a snapshot. */
+  def replay(
+      analysisFile: Schema.AnalysisFile,
+      apisFile: Schema.APIsFile,
+      deltas: Seq[Schema.AnalysisDelta]
+  ): (Schema.AnalysisFile, Schema.APIsFile) =
+    if (deltas.isEmpty) analysisFile -> apisFile
+    else {
+      val file = analysisFile.toBuilder
+      val analysis = file.getAnalysisBuilder
+      val stamps = analysis.getStampsBuilder
+      val relations = analysis.getRelationsBuilder
+      val infos = analysis.getSourceInfosBuilder
+      val apisBuilder = apisFile.toBuilder
+      val apis = apisBuilder.getApisBuilder
+      deltas.foreach { delta =>
+        def removed(name: String)(remove: String => Any): Unit = {
+          val keys = delta.getRemovedMap.get(name)
+          if (keys != null) keys.getValuesList.asScala.foreach(remove)
+        }
+        val updated = delta.getUpdated
+        removed(ProductStamps)(stamps.removeProductStamps)
+        removed(SourceStamps)(stamps.removeSourceStamps)
+        removed(BinaryStamps)(stamps.removeBinaryStamps)
+        stamps.putAllProductStamps(updated.getStamps.getProductStampsMap)
+        stamps.putAllSourceStamps(updated.getStamps.getSourceStampsMap)
+        stamps.putAllBinaryStamps(updated.getStamps.getBinaryStampsMap)
+
+        val r = updated.getRelations
+        removed(SrcProd)(relations.removeSrcProd)
+        removed(LibraryDep)(relations.removeLibraryDep)
+        removed(LibraryClassName)(relations.removeLibraryClassName)
+        removed(Classes)(relations.removeClasses)
+        removed(Names)(relations.removeNames)
+        removed(ProductClassName)(relations.removeProductClassName)
+        relations.putAllSrcProd(r.getSrcProdMap)
+        relations.putAllLibraryDep(r.getLibraryDepMap)
+        relations.putAllLibraryClassName(r.getLibraryClassNameMap)
+        relations.putAllClasses(r.getClassesMap)
+        relations.putAllNames(r.getNamesMap)
+        relations.putAllProductClassName(r.getProductClassNameMap)
+        def classDependencies(
+            builder: Schema.ClassDependencies.Builder,
+            updated: Schema.ClassDependencies,
+            internal: String,
+            external: String
+        ): Unit = {
+          removed(internal)(builder.removeInternal)
+          removed(external)(builder.removeExternal)
+          builder.putAllInternal(updated.getInternalMap)
+          builder.putAllExternal(updated.getExternalMap)
+          ()
+        }
+        classDependencies(
+          relations.getMemberRefBuilder,
+          r.getMemberRef,
+          MemberRefInternal,
+          MemberRefExternal
+        )
+        classDependencies(
+          relations.getInheritanceBuilder,
+          r.getInheritance,
+          InheritanceInternal,
+          InheritanceExternal
+        )
+        classDependencies(
+          relations.getLocalInheritanceBuilder,
+          r.getLocalInheritance,
+          LocalInheritanceInternal,
+          LocalInheritanceExternal
+        )
+
+        removed(SourceInfosMap)(infos.removeSourceInfos)
+        infos.putAllSourceInfos(updated.getSourceInfos.getSourceInfosMap)
+        analysis.setCompilations(updated.getCompilations)
+
+        removed(InternalApis)(apis.removeInternal)
+        removed(ExternalApis)(apis.removeExternal)
+        apis.putAllInternal(delta.getUpdatedApis.getInternalMap)
+        apis.putAllExternal(delta.getUpdatedApis.getExternalMap)
+
+        file.setMiniSetup(delta.getMiniSetup)
+      }
+      file.build -> apisBuilder.build
+    }
+
+  /** Reads the analysis of the (replayed) messages of a snapshot. */
+  def read(
+      analysisFile: Schema.AnalysisFile,
+      apisFile: Schema.APIsFile
+  ): (CompileAnalysis, MiniSetup) = {
+    val (analysis, miniSetup, _) = protobufReaders.fromAnalysisFile(analysisFile)
+    val (apis, _) = protobufReaders.fromApisFile(apisFile, miniSetup.storeApis)
+    analysis.copy(apis = apis) -> miniSetup
+  }
+
+  /**
+   * Appends a delta to the journal of the given snapshot, which is created or reset if it
+   * belongs to another snapshot. Anything after the first `length` bytes of the journal, such
+   * as a torn delta, is discarded first. Returns the new length of the journal.
+   */
+  def append(journal: File, snapshotId: Long, length: Long, delta: Schema.AnalysisDelta): Long = {
+    if (readSnapshotId(journal) != Some(snapshotId) || length < HeaderSize) {
+      val header = ByteBuffer.allocate(HeaderSize).putInt(Magic).putLong(snapshotId)
+      Files.write(journal.toPath, header.array)
+    } else if (journal.length > length) {
+      val channel = FileChannel.open(journal.toPath, StandardOpenOption.WRITE)
+      try channel.truncate(length)
+      finally channel.close()
+    }
+    val bytes = new ByteArrayOutputStream(delta.getSerializedSize + 12)
+    val record = new DataOutputStream(bytes)
+    val payload = delta.toByteArray
+    val crc = new CRC32
+    crc.update(payload, 0, payload.length)
+    record.writeInt(payload.length)
+    record.write(payload)
+    record.writeLong(crc.getValue)
+    record.flush()
+    Files.write(journal.toPath, bytes.toByteArray, StandardOpenOption.APPEND)
+    journal.length
+  }
+
+  /**
+   * Reads the complete deltas of the journal of the given snapshot, in order, and the length
+   * of the journal that they span.
+   */
+  def deltas(journal: File, snapshotId: Long): (Seq[Schema.AnalysisDelta], Long) =
+    if (!journal.isFile) (Nil, 0L)
+    else {
+      val buffer = ByteBuffer.wrap(Files.readAllBytes(journal.toPath))
+      if (buffer.remaining < HeaderSize || buffer.getInt() != Magic) (Nil, 0L)
+      else if (buffer.getLong() != snapshotId) (Nil, 0L)
+      else {
+        val deltas = Vector.newBuilder[Schema.AnalysisDelta]
+        var end = buffer.position()
+        var complete = true
+        while (complete && buffer.remaining >= 4) {
+          val length = buffer.getInt()
+          if (length < 0 || buffer.remaining < length + 8) complete = false
+          else {
+            val payload = new Array[Byte](length)
+            buffer.get(payload)
+            val crc = new CRC32
+            crc.update(payload, 0, length)
+            if (buffer.getLong() != crc.getValue) complete = false
+            else {
+              deltas += Schema.AnalysisDelta.parseFrom(payload)
+              end = buffer.position()
+            }
+          }
+        }
+        (deltas.result(), end.toLong)
+      }
+    }
+
+  private def readSnapshotId(journal: File): Option[Long] =
+    if (!journal.isFile || journal.length < HeaderSize) None
+    else {
+      val channel = Files.newByteChannel(journal.toPath, StandardOpenOption.READ)
+      try {
+        val header = ByteBuffer.allocate(HeaderSize)
+        while (header.hasRemaining && channel.read(header) >= 0) ()
+        header.flip()
+        if (header.getInt() == Magic) Some(header.getLong()) else None
+      } finally channel.close()
+    }
+}
+
+object BinaryAnalysisJournal {
+  private final val Magic = 0x5a4a524e // ZJRN
+  private final val HeaderSize = 12
+
+  // The names of the maps of an analysis, whose removed keys are stored by deltas
+  private final val ProductStamps = "productStamps"
+  private final val SourceStamps = "sourceStamps"
+  private final val BinaryStamps = "binaryStamps"
+  private final val SrcProd = "srcProd"
+  private final val LibraryDep = "libraryDep"
+  private final val LibraryClassName = "libraryClassName"
+  private final val Classes = "classes"
+  private final val Names = "names"
+  private final val ProductClassName = "productClassName"
+  private final val MemberRefInternal = "memberRef.internal"
+  private final val MemberRefExternal = "memberRef.external"
+  private final val InheritanceInternal = "inheritance.internal"
+  private final val InheritanceExternal = "inheritance.external"
+  private final val LocalInheritanceInternal = "localInheritance.internal"
+  private final val LocalInheritanceExternal = "localInheritance.external"
+  private final val SourceInfosMap = "sourceInfos"
+  private final val InternalApis = "apis.internal"
+  private final val ExternalApis = "apis.external"
+}
@@ -0,0 +1,190 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc.binary
+
+import java.io.{ DataOutputStream, File, IOException, OutputStream }
+import java.nio.{ ByteBuffer, ByteOrder }
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{ Files, StandardOpenOption }
+
+import sbt.internal.shaded.com.google.protobuf.{
+  CodedInputStream,
+  CodedOutputStream,
+  MessageLite
+}
+import sbt.internal.inc.binary.converters.{ ProtobufReaders, ProtobufWriters }
+import sbt.internal.inc.{ Analysis, Schema }
+import xsbti.compile.analysis.ReadWriteMappers
+import xsbti.compile.{ CompileAnalysis, MiniSetup }
+
+/**
+ * A binary analysis format whose sections are decoded on demand.
+ *
+ * The file starts with a table of contents that gives the offset and length of every section:
+ * the setup, the stamps, the source infos, the compilations, the hashes of the APIs, their
+ * companions, each relation and the index of the used names. Every section is a Protobuf
+ * message of the same schema as the one of [[BinaryAnalysisFormat]]. The file is memory mapped
+ * when it is read, and only the setup is decoded upfront: every other section is decoded the
+ * first time it is accessed. Sections are not compressed, so that they can be decoded in place.
+ */
+final class IndexedBinaryAnalysisFormat(mappers: ReadWriteMappers) {
+  import IndexedBinaryAnalysisFormat._
+
+  private final val CurrentVersion = Schema.Version.V1_1
+  private final val protobufWriters = new ProtobufWriters(mappers.getWriteMapper)
+  private final val protobufReaders = new ProtobufReaders(mappers.getReadMapper, CurrentVersion)
+
+  def write(output: OutputStream, analysis0: CompileAnalysis, miniSetup: MiniSetup): Unit = {
+    val analysis = analysis0 match { case analysis: Analysis => analysis }
+    val relations = protobufWriters.toRelationSections(analysis.relations).map {
+      case (name, relation) => (RelationsPrefix + name) -> relation
+    }
+    val companions =
+      if (!miniSetup.storeApis()) Nil
+      else List(CompanionsSection -> protobufWriters.toApiCompanions(analysis.apis))
+    val sections: List[(String, MessageLite)] = List(
+      SetupSection -> protobufWriters.toMiniSetup(miniSetup),
+      StampsSection -> protobufWriters.toStamps(analysis.stamps),
+      SourceInfosSection -> protobufWriters.toSourceInfos(analysis.infos),
+      CompilationsSection -> protobufWriters.toCompilations(analysis.compilations),
+      ApisSection -> protobufWriters.toApis(analysis.apis, shouldStoreApis = false),
+      UsedNameIndexSection -> protobufWriters.toUsedNameIndex(analysis.relations.usedNameIndex)
+    ) ++ companions ++ relations
+
+    // Header and table of contents, whose size must be known to compute the offsets
+    val names = sections.map(_._1.getBytes(StandardCharsets.UTF_8))
+    val tocSize = 4 + 4 + 4 + names.map(2 + _.length + 8 + 4).sum
+    val data = new DataOutputStream(output)
+    data.writeInt(Magic)
+    data.writeInt(FormatVersion)
+    data.writeInt(sections.size)
+    var offset = tocSize.toLong
+    sections.zip(names).foreach {
+      case ((_, message), name) =>
+        val size = message.getSerializedSize
+        data.writeShort(name.length)
+        data.write(name)
+        data.writeLong(offset)
+        data.writeInt(size)
+        offset += size
+    }
+    data.flush()
+
+    val writer = CodedOutputStream.newInstance(output)
+    sections.foreach { case (_, message) => message.writeTo(writer) }
+    writer.flush()
+  }
+
+  def read(file: File): (CompileAnalysis, MiniSetup) = read(file, _ => ())
+
+  /** Reads the analysis, calling `decoded` with the name of every section it decodes. */
+  private[sbt] def read(file: File, decoded: String => Unit): (CompileAnalysis, MiniSetup) = {
+    val sections = new Sections(map(file), decoded)
+    val miniSetup =
+      protobufReaders.fromMiniSetup(Schema.MiniSetup.parseFrom(sections(SetupSection)))
+    val shouldStoreApis = miniSetup.storeApis()
+    val relations = protobufReaders.fromLazyRelations(
+      name => Schema.Relations.parseFrom(sections(RelationsPrefix + name)),
+      sections.get(UsedNameIndexSection).map(Schema.UsedNameIndex.parseFrom)
+    )
+    val analysis = protobufReaders.fromLazyAnalysis(
+      Schema.Stamps.parseFrom(sections(StampsSection)),
+      protobufReaders.fromLazyApis(
+        Schema.APIs.parseFrom(sections(ApisSection)),
+        Schema.APICompanions.parseFrom(sections(CompanionsSection)),
+        shouldStoreApis
+      ),
+      relations,
+      Schema.SourceInfos.parseFrom(sections(SourceInfosSection)),
+      Schema.Compilations.parseFrom(sections(CompilationsSection))
+    )
+    analysis -> miniSetup
+  }
+}
+
+object IndexedBinaryAnalysisFormat {
+  private final val Magic = 0x5a494458 // ZIDX
+  private final val FormatVersion = 1
+
+  private final val SetupSection = "setup"
+  private final val StampsSection = "stamps"
+  private final val SourceInfosSection = "sourceInfos"
+  private final val CompilationsSection = "compilations"
+  private final val ApisSection = "apis"
+  private final val CompanionsSection = "companions"
+  private final val RelationsPrefix = "relations."
+  private final val UsedNameIndexSection = "usedNameIndex"
+
+  private final val isWindows =
+    sys.props("os.name").toLowerCase(java.util.Locale.ENGLISH).contains("windows")
+
+  /** Returns whether the file is an analysis file of this format. */
+  def isIndexed(file: File): Boolean =
+    file.isFile && {
+      val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+      try {
+        val header = ByteBuffer.allocate(4)
+        channel.read(header, 0) == 4 && header.getInt(0) == Magic
+      } finally channel.close()
+    }
+
+  /**
+   * Maps the file in memory. The contents are copied on Windows instead, where a mapped file
+   * cannot be replaced until its mapping is garbage collected.
+   */
+  private def map(file: File): ByteBuffer = {
+    val buffer =
+      if (isWindows) ByteBuffer.wrap(Files.readAllBytes(file.toPath))
+      else {
+        val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+        try channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size)
+        finally channel.close()
+      }
+    buffer.order(ByteOrder.BIG_ENDIAN)
+  }
+
+  private final class Sections(buffer: ByteBuffer, decoded: String => Unit) {
+    private[this] val toc: Map[String, (Long, Int)] = {
+      if (buffer.limit() < 12 || buffer.getInt(0) != Magic)
+        throw new IOException("Not an indexed analysis file")
+      val version = buffer.getInt(4)
+      if (version != FormatVersion)
+        throw new IOException(s"Unsupported indexed analysis format version $version")
+      val header = buffer.duplicate()
+      header.position(8)
+      val count = header.getInt()
+      (0 until count).map { _ =>
+        val name = new Array[Byte](header.getShort() & 0xffff)
+        header.get(name)
+        val offset = header.getLong()
+        val size = header.getInt()
+        if (offset < 0 || size < 0 || offset + size > buffer.limit())
+          throw new IOException("Corrupted indexed analysis file")
+        new String(name, StandardCharsets.UTF_8) -> ((offset, size))
+      }.toMap
+    }
+
+    def apply(name: String): CodedInputStream =
+      get(name).getOrElse(throw new IOException(s"Missing section $name in the analysis file"))
+
+    /** Returns the section of the given name, if the file has one. */
+    def get(name: String): Option[CodedInputStream] = toc.get(name).map {
+      case (offset, size) =>
+        decoded(name)
+        val section = buffer.duplicate()
+        section.position(offset.toInt)
+        section.limit(offset.toInt + size)
+        CodedInputStream.newInstance(section.slice())
+    }
+  }
+}
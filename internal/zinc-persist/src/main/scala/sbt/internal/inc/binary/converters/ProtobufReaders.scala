@@ -628,31 +628,22 @@ final class ProtobufReaders(mapper: ReadMapper, currentVersion: Schema.Version)
     }
   }
 
+  def fromCompanions(companions: Schema.Companions): Companions = {
+    def expected(msg: String) = ReadersFeedback.expected(msg, Classes.Companions)
+    val classApi =
+      if (companions.hasClassApi) fromClassLike(companions.getClassApi)
+      else expected("class api").!!
+    val objectApi =
+      if (companions.hasObjectApi) fromClassLike(companions.getObjectApi)
+      else expected("object api").!!
+    Companions.of(classApi, objectApi)
+  }
+
   def fromAnalyzedClass(
       shouldStoreApis: Boolean
   )(analyzedClass: Schema.AnalyzedClass): AnalyzedClass = {
-    def fromCompanions(companions: Schema.Companions): Companions = {
-      def expected(msg: String) = ReadersFeedback.expected(msg, Classes.Companions)
-      val classApi =
-        if (companions.hasClassApi) fromClassLike(companions.getClassApi)
-        else expected("class api").!!
-      val objectApi =
-        if (companions.hasObjectApi) fromClassLike(companions.getObjectApi)
-        else expected("object api").!!
-      Companions.of(classApi, objectApi)
-    }
-
-    def fromNameHash(nameHash: Schema.NameHash): NameHash = {
-      val name = nameHash.getName.intern()
-      val hash = nameHash.getHash
-      val scope = fromUseScope(nameHash.getScope, nameHash.getScopeValue)
-      NameHash.of(name, scope, hash)
-    }
-
     import SafeLazyProxy.{ strict => mkLazy }
     import ReadersFeedback.ExpectedCompanionsInAnalyzedClass
-    val compilationTs = analyzedClass.getCompilationTimestamp
-    val name = analyzedClass.getName.intern()
     val api =
       if (!shouldStoreApis) EmptyLazyCompanions
       else
@@ -660,7 +651,22 @@ final class ProtobufReaders(mapper: ReadMapper, currentVersion: Schema.Version)
           if (analyzedClass.hasApi) fromCompanions(analyzedClass.getApi)
           else ExpectedCompanionsInAnalyzedClass.!!
         )
+    fromAnalyzedClassWith(analyzedClass, api)
+  }
 
+  private def fromAnalyzedClassWith(
+      analyzedClass: Schema.AnalyzedClass,
+      api: Lazy[Companions]
+  ): AnalyzedClass = {
+    def fromNameHash(nameHash: Schema.NameHash): NameHash = {
+      val name = nameHash.getName.intern()
+      val hash = nameHash.getHash
+      val scope = fromUseScope(nameHash.getScope, nameHash.getScopeValue)
+      NameHash.of(name, scope, hash)
+    }
+
+    val compilationTs = analyzedClass.getCompilationTimestamp
+    val name = analyzedClass.getName.intern()
     val apiHash = analyzedClass.getApiHash
     // Default to 0 to avoid issues when comparing hashes from two different analysis formats
     val extraHash = if (currentVersion == Schema.Version.V1) 0 else analyzedClass.getExtraHash
@@ -676,58 +682,59 @@ final class ProtobufReaders(mapper: ReadMapper, currentVersion: Schema.Version)
   private final val stringToLibrary = (path: String) => mapper.mapBinaryFile(fromPathStringV(path))
   private final val stringToProd = (path: String) => mapper.mapProductFile(fromPathStringV(path))
 
-  def fromRelations(relations: Schema.Relations): Relations = {
-
-    def fromMap[K, V](
-        map: java.util.Map[String, Schema.Values],
-        fk: String => K,
-        fv: String => V
-    ): Relation[K, V] = {
-      val builder = new RelationBuilder[K, V]
-      for ((kString, vs) <- map.asScala) {
-        if (!vs.getValuesList.isEmpty) {
-          val k = fk(kString)
-          for (vString <- vs.getValuesList.asScala) {
-            builder(k) = fv(vString)
-          }
+  private def fromMap[K, V](
+      map: java.util.Map[String, Schema.Values],
+      fk: String => K,
+      fv: String => V
+  ): Relation[K, V] = {
+    val builder = new RelationBuilder[K, V]
+    for ((kString, vs) <- map.asScala) {
+      if (!vs.getValuesList.isEmpty) {
+        val k = fk(kString)
+        for (vString <- vs.getValuesList.asScala) {
+          builder(k) = fv(vString)
         }
       }
-      builder.result()
     }
+    builder.result()
+  }
 
-    def fromClassDependencies(classDependencies: Schema.ClassDependencies): ClassDependencies = {
-      val internal = fromMap(classDependencies.getInternalMap, stringId, stringId)
-      val external = fromMap(classDependencies.getExternalMap, stringId, stringId)
-      new ClassDependencies(internal, external)
+  private def fromClassDependencies(
+      classDependencies: Schema.ClassDependencies
+  ): ClassDependencies = {
+    val internal = fromMap(classDependencies.getInternalMap, stringId, stringId)
+    val external = fromMap(classDependencies.getExternalMap, stringId, stringId)
+    new ClassDependencies(internal, external)
+  }
+
+  private def fromUsedName(usedName: Schema.UsedName): UsedName = {
+    val name = usedName.getName.intern()
+    val useScopes = util.EnumSet.noneOf(classOf[UseScope])
+    val len = usedName.getScopesCount
+    for {
+      i <- 0 to len - 1
+    } {
+      useScopes.add(fromUseScope(usedName.getScopes(i), usedName.getScopesValue(i)))
     }
+    UsedName.make(name, useScopes)
+  }
 
-    def fromUsedName(usedName: Schema.UsedName): UsedName = {
-      val name = usedName.getName.intern()
-      val useScopes = util.EnumSet.noneOf(classOf[UseScope])
-      val len = usedName.getScopesCount
-      for {
-        i <- 0 to len - 1
-      } {
-        useScopes.add(fromUseScope(usedName.getScopes(i), usedName.getScopesValue(i)))
-      }
-      UsedName.make(name, useScopes)
-    }
-
-    def fromUsedNamesMap(
-        map: java.util.Map[String, Schema.UsedNames]
-    ): Relation[String, UsedName] = {
-      val builder = new RelationBuilder[String, UsedName]
-      for ((k, used) <- map.asScala) {
-        val usedNames = used.getUsedNamesList.asScala
-        if (!usedNames.isEmpty) {
-          for (schemaUsedName <- usedNames) {
-            builder(k) = fromUsedName(schemaUsedName)
-          }
+  private def fromUsedNamesMap(
+      map: java.util.Map[String, Schema.UsedNames]
+  ): Relation[String, UsedName] = {
+    val builder = new RelationBuilder[String, UsedName]
+    for ((k, used) <- map.asScala) {
+      val usedNames = used.getUsedNamesList.asScala
+      if (!usedNames.isEmpty) {
+        for (schemaUsedName <- usedNames) {
+          builder(k) = fromUsedName(schemaUsedName)
         }
       }
-      builder.result()
     }
+    builder.result()
+  }
 
+  def fromRelations(relations: Schema.Relations): Relations = {
     def expected(msg: String) = ReadersFeedback.expected(msg, Classes.Relations)
 
     val srcProd = fromMap(relations.getSrcProdMap, stringToSource, stringToProd)
@@ -825,4 +832,94 @@ final class ProtobufReaders(mapper: ReadMapper, currentVersion: Schema.Version)
       else s"The mini setup from format ${version} could not be read.".!!
     (analysis, miniSetup, version)
   }
+
+  def fromUsedNameIndex(index: Schema.UsedNameIndex): UsedNameIndex =
+    UsedNameIndex.fromEntries(index.getUsersList.iterator.asScala.map { users =>
+      val scope = fromUseScope(users.getScope, users.getScopeValue)
+      (users.getName, scope, users.getClassesList.asScala.toSet)
+    })
+
+  /**
+   * Reads relations whose relations are each decoded the first time they are accessed.
+   *
+   * @param relation Returns the relations that only contain the given field, by field name.
+   * @param usedNameIndex The stored index of the used names, if any, which is decoded instead
+   *                      of being built from the used names the first time it is accessed.
+   */
+  def fromLazyRelations(
+      relation: String => Schema.Relations,
+      usedNameIndex: => Option[Schema.UsedNameIndex]
+  ): Relations = {
+    def expected(msg: String) = ReadersFeedback.expected(msg, Classes.Relations)
+    def memberRef = {
+      val relations = relation("memberRef")
+      if (relations.hasMemberRef) fromClassDependencies(relations.getMemberRef)
+      else expected("member refs").!!
+    }
+    def inheritance = {
+      val relations = relation("inheritance")
+      if (relations.hasInheritance) fromClassDependencies(relations.getInheritance)
+      else expected("inheritance").!!
+    }
+    def localInheritance = {
+      val relations = relation("localInheritance")
+      if (relations.hasLocalInheritance) fromClassDependencies(relations.getLocalInheritance)
+      else expected("local inheritance").!!
+    }
+    new LazyRelations(
+      fromMap(relation("srcProd").getSrcProdMap, stringToSource, stringToProd),
+      fromMap(relation("libraryDep").getLibraryDepMap, stringToSource, stringToLibrary),
+      fromMap(relation("libraryClassName").getLibraryClassNameMap, stringToLibrary, stringId),
+      memberRef,
+      inheritance,
+      localInheritance,
+      fromMap(relation("classes").getClassesMap, stringToSource, stringId),
+      fromUsedNamesMap(relation("names").getNamesMap),
+      fromMap(relation("productClassName").getProductClassNameMap, stringId, stringId),
+      usedNameIndex.map(fromUsedNameIndex)
+    )
+  }
+
+  /**
+   * Reads APIs whose companions are stored apart from the hashes of the analyzed classes, and
+   * only decoded when the companions of a class are accessed.
+   */
+  def fromLazyApis(
+      apis: Schema.APIs,
+      companions: => Schema.APICompanions,
+      shouldStoreApis: Boolean
+  ): APIs = {
+    lazy val allCompanions = companions
+    def read(
+        analyzedClasses: JMap[String, Schema.AnalyzedClass],
+        companionsOf: String => Schema.Companions
+    ): Map[String, AnalyzedClass] =
+      analyzedClasses.asScala.iterator.map {
+        case (k, v) =>
+          val api =
+            if (!shouldStoreApis) EmptyLazyCompanions
+            else SafeLazyProxy(fromCompanions(companionsOf(k)))
+          k -> fromAnalyzedClassWith(v, api)
+      }.toMap
+    APIs(
+      internal = read(apis.getInternalMap, allCompanions.getInternalOrThrow(_)),
+      external = read(apis.getExternalMap, allCompanions.getExternalOrThrow(_))
+    )
+  }
+
+  /** Reads an analysis whose parts are decoded the first time they are accessed. */
+  def fromLazyAnalysis(
+      stamps: => Schema.Stamps,
+      apis: => APIs,
+      relations: Relations,
+      sourceInfos: => Schema.SourceInfos,
+      compilations: => Schema.Compilations
+  ): Analysis =
+    new LazyAnalysis(
+      fromStamps(stamps),
+      apis,
+      relations,
+      fromSourceInfos(sourceInfos),
+      fromCompilations(compilations)
+    )
 }
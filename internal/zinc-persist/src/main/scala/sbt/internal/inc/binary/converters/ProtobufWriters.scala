@@ -590,18 +590,18 @@ final class ProtobufWriters(mapper: WriteMapper) {
     }
   }
 
+  def toCompanions(companions: Companions): Schema.Companions = {
+    val classApi = toClassLike(companions.classApi())
+    val objectApi = toClassLike(companions.objectApi())
+    Schema.Companions.newBuilder
+      .setClassApi(classApi)
+      .setObjectApi(objectApi)
+      .build
+  }
+
   def toAnalyzedClass(
       shouldStoreApis: Boolean
   )(analyzedClass: AnalyzedClass): Schema.AnalyzedClass = {
-    def toCompanions(companions: Companions): Schema.Companions = {
-      val classApi = toClassLike(companions.classApi())
-      val objectApi = toClassLike(companions.objectApi())
-      Schema.Companions.newBuilder
-        .setClassApi(classApi)
-        .setObjectApi(objectApi)
-        .build
-    }
-
     def toNameHash(nameHash: NameHash): Schema.NameHash = {
       val name = nameHash.name()
       val hash = nameHash.hash()
@@ -641,6 +641,16 @@ final class ProtobufWriters(mapper: WriteMapper) {
   private final val prodToString = (f: VirtualFileRef) => toStringPathV(mapper.mapProductFile(f))
 
   private final val stringId = identity[String] _
+
+  /** Returns the key of a source in the maps of the analysis. */
+  def toSourceKey(source: VirtualFileRef): String = sourceToString(source)
+
+  /** Returns the key of a library in the maps of the analysis. */
+  def toLibraryKey(library: VirtualFileRef): String = libraryToString(library)
+
+  /** Returns the key of a product in the maps of the analysis. */
+  def toProductKey(product: VirtualFileRef): String = prodToString(product)
+
   def toRelations(relations: Relations): Schema.Relations = {
     import sbt.internal.util.Relation
 
@@ -724,6 +734,38 @@ final class ProtobufWriters(mapper: WriteMapper) {
       .build
   }
 
+  /**
+   * Splits the relations into relations that each contain a single field, named after it, so
+   * that they can be stored and read separately.
+   */
+  def toRelationSections(relations: Relations): Seq[(String, Schema.Relations)] = {
+    val all = toRelations(relations)
+    def section(name: String)(set: Schema.Relations.Builder => Schema.Relations.Builder) =
+      name -> set(Schema.Relations.newBuilder).build
+    List(
+      section("srcProd")(_.putAllSrcProd(all.getSrcProdMap)),
+      section("libraryDep")(_.putAllLibraryDep(all.getLibraryDepMap)),
+      section("libraryClassName")(_.putAllLibraryClassName(all.getLibraryClassNameMap)),
+      section("memberRef")(_.setMemberRef(all.getMemberRef)),
+      section("inheritance")(_.setInheritance(all.getInheritance)),
+      section("localInheritance")(_.setLocalInheritance(all.getLocalInheritance)),
+      section("classes")(_.putAllClasses(all.getClassesMap)),
+      section("names")(_.putAllNames(all.getNamesMap)),
+      section("productClassName")(_.putAllProductClassName(all.getProductClassNameMap))
+    )
+  }
+
+  def toUsedNameIndex(index: UsedNameIndex): Schema.UsedNameIndex = {
+    val builder = Schema.UsedNameIndex.newBuilder
+    index.entries.foreach {
+      case (name, scope, users) =>
+        val usersBuilder = Schema.UsedNameUsers.newBuilder.setName(name).setScope(toUseScope(scope))
+        users.foreach(usersBuilder.addClasses)
+        builder.addUsers(usersBuilder)
+    }
+    builder.build
+  }
+
   def toApis(apis: APIs, shouldStoreApis: Boolean): Schema.APIs = {
     val toAnalyzedClassSchema = toAnalyzedClass(shouldStoreApis) _
     val builder = Schema.APIs.newBuilder
@@ -732,6 +774,14 @@ final class ProtobufWriters(mapper: WriteMapper) {
     builder.build
   }
 
+  /** Returns the companions of the analyzed classes, which [[toApis]] can leave out. */
+  def toApiCompanions(apis: APIs): Schema.APICompanions = {
+    val builder = Schema.APICompanions.newBuilder
+    apis.internal.foreach { case (k, v) => builder.putInternal(k, toCompanions(v.api)) }
+    apis.external.foreach { case (k, v) => builder.putExternal(k, toCompanions(v.api)) }
+    builder.build
+  }
+
   def toApisFile(
       apis0: APIs,
       version: Schema.Version,
@@ -0,0 +1,62 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.inc.binary
+
+import java.io.FileOutputStream
+
+import org.scalacheck._
+import org.scalacheck.Prop._
+import sbt.inc.AnalysisFormatHelpers._
+import sbt.internal.inc._
+import sbt.internal.inc.binary.IndexedBinaryAnalysisFormat
+import sbt.io.IO
+
+import scala.collection.mutable
+
+object IndexedBinaryAnalysisFormatSpecification
+    extends Properties("IndexedBinaryAnalysisFormat") {
+  property("round-trip empty") = forEmpty(check)
+  property("round-trip simple") = forSimple(check)
+  property("round-trip complex") = forComplex(check)
+
+  property("decode only the sections that are read") = forComplex(checkDecoded)
+
+  private def check(analysis: Analysis) =
+    checkStoreRoundtrip(analysis, FileAnalysisStore.indexedBinary(_))
+
+  private def checkDecoded(analysis: Analysis): Prop =
+    IO.withTemporaryFile("analysis", "test") { file =>
+      val format = new IndexedBinaryAnalysisFormat(mappers)
+      val output = new FileOutputStream(file)
+      try format.write(output, analysis, commonSetup)
+      finally output.close()
+      val decoded = mutable.LinkedHashSet.empty[String]
+      val read = format.read(file, name => { decoded += name; () })._1 match {
+        case a: Analysis => a
+      }
+
+      // What a no-op build reads
+      read.stamps.allSources
+      read.infos.allInfos
+      val upfront = decoded.toSet
+      // Relations are decoded one at a time, and companions only when a class needs them
+      read.relations.allSources
+      read.apis.allInternalClasses
+      val later = decoded.toSet -- upfront
+
+      (("stamps and infos: " + upfront) |: (upfront == Set("setup", "stamps", "sourceInfos"))) &&
+      (("relations and APIs: " + later) |: (
+        later.contains("apis") && !later.contains("companions") &&
+          later.count(_.startsWith("relations.")) == 1
+      ))
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.inc.binary
+
+import java.io.File
+
+import org.scalacheck._
+import sbt.inc.AnalysisFormatHelpers._
+import sbt.internal.inc._
+import sbt.io.IO
+import xsbti.compile.{ AnalysisContents, AnalysisStore }
+
+object JournaledBinaryAnalysisFormatSpecification
+    extends Properties("JournaledBinaryAnalysisFormat") {
+  property("round-trip empty") = forEmpty(check)
+  property("round-trip simple") = forSimple(check)
+  property("round-trip complex") = forComplex(check)
+  property("replay appended changes") =
+    forComplex(checkJournal(_, FileAnalysisStore.journaledBinary(_)))
+  property("replay appended changes in the binary store") =
+    forComplex(checkJournal(_, FileAnalysisStore.binary(_)))
+
+  private def check(analysis: Analysis) =
+    checkStoreRoundtrip(analysis, FileAnalysisStore.journaledBinary(_))
+
+  // Sets successive analyses in a store, and reads the last one back from another store
+  private def checkJournal(analysis: Analysis, reader: File => AnalysisStore) = {
+    val removed = analysis -- analysis.relations.allSources.take(2)
+    val read = IO.withTemporaryDirectory { dir =>
+      val file = new File(dir, "inc_compile.zip")
+      val store = FileAnalysisStore.journaledBinary(file)
+      store.set(AnalysisContents.create(Analysis.empty, commonSetup))
+      store.set(AnalysisContents.create(analysis, commonSetup))
+      store.set(AnalysisContents.create(removed, commonSetup))
+      reader(file)
+        .get()
+        .orElseThrow(() => new RuntimeException("The analysis file cannot be read."))
+    }
+    compare(removed, read.getAnalysis) && compare(commonSetup, read.getMiniSetup)
+  }
+}
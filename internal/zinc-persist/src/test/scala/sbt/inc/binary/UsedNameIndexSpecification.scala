@@ -0,0 +1,46 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+package binary
+
+import org.scalacheck._
+import org.scalacheck.Prop._
+import sbt.inc.AnalysisFormatHelpers._
+import sbt.internal.inc.AnalysisGenerators._
+import sbt.internal.inc.binary.converters.{ ProtobufReaders, ProtobufWriters }
+import sbt.io.IO
+import xsbti.compile.AnalysisContents
+
+object UsedNameIndexSpecification extends Properties("UsedNameIndex") {
+  private val writers = new ProtobufWriters(mappers.getWriteMapper)
+  private val readers = new ProtobufReaders(mappers.getReadMapper, Schema.Version.V1_1)
+
+  private def entries(index: UsedNameIndex) = index.entries.toSet
+
+  property("round-trip used-name index") = forAllNoShrink(genRelationsNameHashing) { relations =>
+    val index = relations.usedNameIndex
+    val bytes = writers.toUsedNameIndex(index).toByteArray
+    val read = readers.fromUsedNameIndex(Schema.UsedNameIndex.parseFrom(bytes))
+    entries(read) =? entries(index)
+  }
+
+  property("read used-name index section") = forAllNoShrink(genAnalysis) { analysis =>
+    val read = IO.withTemporaryFile("analysis", "test") { analysisFile =>
+      val store = FileAnalysisStore.indexedBinary(analysisFile, mappers)
+      store.set(AnalysisContents.create(analysis, commonSetup))
+      store.get().get().getAnalysis.asInstanceOf[Analysis]
+    }
+    entries(read.relations.usedNameIndex) =? entries(analysis.relations.usedNameIndex)
+  }
+}
@@ -11,6 +11,7 @@
 
 package sbt.internal.inc
 
+import java.nio.file.Path
 import java.util.Optional
 
 import xsbti.compile.{ Changes, CompileAnalysis, FileHash, MiniSetup }
@@ -42,10 +43,13 @@ class LookupImpl(compileConfiguration: CompileConfiguration, previousSetup: Opti
     if (classpathHash == previousClasspathHash) None
     else Some(classpathHash)
 
+  override lazy val unchangedClasspathEntries: Set[Path] =
+    IncrementalCommon.unchangedClasspathPrefix(previousClasspathHash, classpathHash)
+
   private val entry = MixedAnalyzingCompiler.classPathLookup(compileConfiguration)
 
   override def lookupAnalysis(binaryClassName: String): Option[CompileAnalysis] =
-    analyses.find(_.relations.productClassName._2s.contains(binaryClassName))
+    LookupImpl.firstProducing(analyses, binaryClassName)
 
   override def lookupOnClasspath(binaryClassName: String): Option[VirtualFileRef] =
     entry(binaryClassName)
@@ -94,3 +98,15 @@ class LookupImpl(compileConfiguration: CompileConfiguration, previousSetup: Opti
   override def hashClasspath(classpath: Array[VirtualFile]): Optional[Array[FileHash]] =
     externalLookup.map(_.hashClasspath(classpath)).getOrElse(Optional.empty())
 }
+
+private[inc] object LookupImpl {
+
+  /**
+   * Returns the first analysis that produces the binary class name.
+   *
+   * The relations of every analysis already index the binary class names it produces, so they
+   * are queried in order rather than copied into a shared index.
+   */
+  def firstProducing(analyses: Vector[Analysis], binaryClassName: String): Option[Analysis] =
+    analyses.find(_.relations.producesClassName(binaryClassName))
+}
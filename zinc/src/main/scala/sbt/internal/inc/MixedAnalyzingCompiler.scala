@@ -14,7 +14,7 @@ package internal
 package inc
 
 import java.io.File
-import java.nio.file.{ Files, Path }
+import java.nio.file.{ Files, Path, Paths }
 import java.lang.ref.{ SoftReference, Reference }
 import java.util.Optional
 
@@ -34,7 +34,7 @@ import sbt.util.{ InterfaceUtil, Logger }
 import sbt.internal.inc.JavaInterfaceUtil.EnrichOption
 import sbt.internal.inc.JavaInterfaceUtil.EnrichOptional
 import sbt.internal.inc.VirtualFileUtil.toAbsolute
-import sbt.internal.inc.caching.ClasspathCache
+import sbt.internal.inc.caching.{ ClasspathCache, ClasspathHashIndex }
 import sbt.internal.inc.javac.AnalyzingJavaCompiler
 import sbt.internal.util.ConsoleAppender
 
@@ -304,8 +304,13 @@ object MixedAnalyzingCompiler {
   ): CompileConfiguration = {
     val lookup = incrementalCompilerOptions.externalHooks().getExternalLookup
 
-    def doHash: Array[FileHash] =
-      ClasspathCache.hashClasspath(classpath.map(converter.toPath))
+    def doHash: Array[FileHash] = {
+      val index = IncOptionsUtil
+        .extraString(incrementalCompilerOptions, IncOptionsUtil.CLASSPATH_HASH_INDEX)
+        .toOption
+        .map(path => ClasspathHashIndex(Paths.get(path)))
+      ClasspathCache.hashClasspath(classpath.map(converter.toPath), index)
+    }
 
     val classpathHash =
       if (lookup.isPresent) {
@@ -442,7 +447,8 @@ object MixedAnalyzingCompiler {
         compiler.scalaInstance,
         compiler.classpathOptions,
         entry,
-        searchClasspath
+        searchClasspath,
+        IncOptionsUtil.extraBoolean(incOptions, IncOptionsUtil.JAVA_BYTECODE_ANALYSIS)
       ),
       config,
       log,
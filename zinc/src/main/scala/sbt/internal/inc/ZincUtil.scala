@@ -45,10 +45,16 @@ object ZincUtil {
       classpathOptions: ClasspathOptions
   ): AnalyzingCompiler = {
     val bridgeProvider = constantBridgeProvider(scalaInstance, compilerBridgeJar)
-    val loader = Some(new ClassLoaderCache(new URLClassLoader(Array())))
+    val loader = Some(
+      new ClassLoaderCache(new URLClassLoader(Array()), MaxCachedLoaders, MaxCachedLoadersWeight)
+    )
     new AnalyzingCompiler(scalaInstance, bridgeProvider, classpathOptions, _ => (), loader)
   }
 
+  // Class loaders of the compiler and its bridge, see ClassLoaderCache
+  private final val MaxCachedLoaders = 8
+  private final val MaxCachedLoadersWeight = 512L * 1024 * 1024
+
   /**
    * Instantiate a Scala compiler that is instrumented to analyze dependencies.
    * This Scala compiler is useful to create your own instance of incremental
@@ -13,7 +13,7 @@ package sbt.internal.inc.caching
 
 import java.nio.file.{ Files, NoSuchFileException, Path }
 import java.nio.file.attribute.{ BasicFileAttributes, FileTime }
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.{ ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit }
 
 import xsbti.compile.FileHash
 import sbt.internal.inc.{ EmptyStamp, Stamper }
@@ -46,7 +46,15 @@ object ClasspathCache {
     newHash
   }
 
-  def hashClasspath(classpath: Seq[Path]): Array[FileHash] = {
+  def hashClasspath(classpath: Seq[Path]): Array[FileHash] = hashClasspath(classpath, None)
+
+  /**
+   * Hashes the classpath like [[hashClasspath(classpath:Seq[java\.nio\.file\.Path])*]], but
+   * first consults, then updates, the given persistent index, so that the hashes of jars are
+   * shared across builds and JVMs.
+   */
+  def hashClasspath(classpath: Seq[Path], index: Option[ClasspathHashIndex]): Array[FileHash] = {
+    val misses = new ConcurrentLinkedQueue[(Path, Long, Long, AnyRef, Int)]
     // #433: Cache jars with their metadata to avoid recomputing hashes transitively in other projects
     def fromCacheOrHash(file: Path): FileHash = {
       try {
@@ -61,13 +69,32 @@ object ClasspathCache {
             (lastModified, attrs.size())
           Option(cacheMetadataJar.get(file)) match {
             case Some((metadata, hashHit)) if metadata == currentMetadata => hashHit
-            case _                                                        => genFileHash(file, currentMetadata)
+            case _ =>
+              val time = lastModified.to(TimeUnit.NANOSECONDS)
+              index.flatMap(_.lookup(file, time, attrs.size(), attrs.fileKey)) match {
+                case Some(hash) =>
+                  val indexHit = FileHash.of(file, hash)
+                  cacheMetadataJar.put(file, (currentMetadata, indexHit))
+                  indexHit
+                case None =>
+                  val newHash = genFileHash(file, currentMetadata)
+                  if (index.isDefined)
+                    misses.add((file, time, attrs.size(), attrs.fileKey, newHash.hash))
+                  newHash
+              }
           }
         }
       } catch { case _: NoSuchFileException => emptyFileHash(file) }
     }
 
+    // Read once what other JVMs appended, rather than for every jar hashed in parallel
+    index.foreach(_.refresh())
     import scala.collection.parallel._
-    classpath.toParArray.map(fromCacheOrHash).toArray
+    val hashes = classpath.toParArray.map(fromCacheOrHash).toArray
+    index.foreach { i =>
+      import scala.collection.JavaConverters._
+      i.append(misses.asScala.toList)
+    }
+    hashes
   }
 }
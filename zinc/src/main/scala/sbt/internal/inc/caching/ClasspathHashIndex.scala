@@ -0,0 +1,275 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt.internal.inc.caching
+
+import java.nio.{ ByteBuffer, ByteOrder }
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{ Files, NoSuchFileException, Path, StandardCopyOption, StandardOpenOption }
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.CRC32
+
+import scala.util.control.NonFatal
+
+/**
+ * A persistent index of jar hashes that can be shared by concurrent JVMs.
+ *
+ * The index is an append-only file of checksummed records that map a jar path to its
+ * last modified time, size, file key (the inode on Unix) and FarmHash. It is read
+ * incrementally: a JVM only parses the records appended since its last refresh, and stops
+ * at the first incomplete or corrupted record, which may be the torn tail of a concurrent
+ * or crashed writer. The file is read into heap buffers rather than mapped, so that it can
+ * always be replaced, even on Windows.
+ *
+ * Writers append a whole batch of records in a single write, while holding the lock of a
+ * sibling `.lock` file. Since no other writer can be appending then, an unreadable tail is
+ * the torn write of a crashed writer, which is truncated before the batch is appended. Once
+ * most of the records are stale, the index is compacted into a temporary file that
+ * atomically replaces it, under the same lock. Readers notice the replacement because the
+ * file key or size of the index changes, and reload it.
+ *
+ * A hit requires the time, size and file key to all match, so the index is never trusted
+ * more than the in-memory cache of [[ClasspathCache]]. Any I/O error disables the index
+ * for the current operation, falling back to hashing.
+ */
+final class ClasspathHashIndex private (val file: Path) {
+  import ClasspathHashIndex._
+
+  private[this] val lockFile = file.resolveSibling(file.getFileName.toString + ".lock")
+  // Replaced by every refresh, so that lookups need not lock the index
+  @volatile private[this] var entries = Map.empty[String, Entry]
+  private[this] var readOffset = 0L
+  private[this] var records = 0
+  private[this] var fileKey: AnyRef = null
+
+  /**
+   * Returns the hash of the jar if the index had a record matching its metadata at the last
+   * [[refresh]].
+   */
+  def lookup(path: Path, lastModified: Long, size: Long, key: AnyRef): Option[Int] =
+    entries.get(path.toString) match {
+      case Some(e) if e.lastModified == lastModified && e.size == size && e.key == keyOf(key) =>
+        Some(e.hash)
+      case _ => None
+    }
+
+  /** Appends the given hashes to the index, compacting it if needed. */
+  def append(hashes: Seq[(Path, Long, Long, AnyRef, Int)]): Unit =
+    if (hashes.nonEmpty) synchronized {
+      try {
+        withLock {
+          val batch = ByteBuffer.allocate(hashes.map(h => recordSize(h._1.toString, h._4)).sum)
+          hashes.foreach {
+            case (path, lastModified, size, key, hash) =>
+              writeRecord(batch, Entry(path.toString, lastModified, size, keyOf(key), hash))
+          }
+          batch.flip()
+          // Whatever follows the records read is the torn tail of a crashed writer
+          refresh()
+          val channel = FileChannel.open(file, CreateWrite: _*)
+          try {
+            channel.truncate(readOffset).position(readOffset)
+            if (readOffset == 0) writeFully(channel, header())
+            writeFully(channel, batch)
+          } finally channel.close()
+
+          refresh()
+          if (records > CompactionThreshold && records > entries.size * 2) compact()
+        }
+      } catch { case NonFatal(_) => () }
+    }
+
+  /** Reads the records appended since the last refresh, reloading the index if it was replaced. */
+  def refresh(): Unit = synchronized {
+    try {
+      val attrs = Files.readAttributes(file, classOf[java.nio.file.attribute.BasicFileAttributes])
+      if (attrs.size < readOffset || (fileKey != null && attrs.fileKey != fileKey)) reset()
+      fileKey = attrs.fileKey
+      if (attrs.size > readOffset) {
+        val buffer = read(readOffset, attrs.size)
+        if (readOffset > 0 || validHeader(buffer)) {
+          // The buffer starts at readOffset
+          val start = readOffset
+          if (readOffset == 0) buffer.position(HeaderSize)
+          var loaded = entries
+          var valid = buffer.position()
+          var record = readRecord(buffer)
+          while (record.isDefined) {
+            val e = record.get
+            loaded = loaded.updated(e.path, e)
+            records += 1
+            valid = buffer.position()
+            record = readRecord(buffer)
+          }
+          entries = loaded
+          readOffset = start + valid
+        }
+      }
+    } catch {
+      case _: NoSuchFileException => reset()
+      case NonFatal(_)            => ()
+    }
+  }
+
+  /** Reads the bytes of the index from `from` until `until` into a heap buffer. */
+  private def read(from: Long, until: Long): ByteBuffer = {
+    val buffer = ByteBuffer.allocate((until - from).toInt)
+    val channel = FileChannel.open(file, StandardOpenOption.READ)
+    try {
+      while (buffer.hasRemaining && channel.read(buffer, from + buffer.position()) >= 0) ()
+    } finally channel.close()
+    buffer.flip()
+    buffer.order(ByteOrder.BIG_ENDIAN)
+  }
+
+  private def reset(): Unit = {
+    entries = Map.empty
+    readOffset = 0L
+    records = 0
+    fileKey = null
+  }
+
+  /** Rewrites the index with its live records only. Must be called with the lock held. */
+  private def compact(): Unit = {
+    val live = entries.values.toList
+    val buffer = ByteBuffer.allocate(HeaderSize + live.map(e => recordSize(e.path, e.key)).sum)
+    buffer.put(header())
+    live.foreach(writeRecord(buffer, _))
+    buffer.flip()
+    val temp = Files.createTempFile(file.getParent, file.getFileName.toString, ".tmp")
+    try {
+      val channel = FileChannel.open(temp, StandardOpenOption.WRITE)
+      try writeFully(channel, buffer)
+      finally channel.close()
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      Files.deleteIfExists(temp)
+      ()
+    }
+    reset()
+    refresh()
+  }
+
+  private def withLock[A](f: => A): A = {
+    Files.createDirectories(file.getParent)
+    val channel = FileChannel.open(lockFile, CreateWrite: _*)
+    try {
+      val lock = channel.lock()
+      try f
+      finally lock.release()
+    } finally channel.close()
+  }
+}
+
+object ClasspathHashIndex {
+  private val Magic = 0x5a435048 // ZCPH
+  private val Version = 1
+  private val HeaderSize = 8
+  private val CompactionThreshold = 1024
+  private val CreateWrite = Seq(StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+
+  private final case class Entry(
+      path: String,
+      lastModified: Long,
+      size: Long,
+      key: String,
+      hash: Int
+  )
+
+  private[this] val indexes = new ConcurrentHashMap[Path, ClasspathHashIndex]
+
+  /** Returns the index stored in the given file, shared by all the users of this JVM. */
+  def apply(file: Path): ClasspathHashIndex = {
+    val absolute = file.toAbsolutePath.normalize
+    val existing = indexes.get(absolute)
+    if (existing != null) existing
+    else {
+      val index = new ClasspathHashIndex(absolute)
+      val previous = indexes.putIfAbsent(absolute, index)
+      if (previous != null) previous else index
+    }
+  }
+
+  private def keyOf(key: AnyRef): String = if (key == null) "" else key.toString
+
+  private def header(): ByteBuffer = {
+    val buffer = ByteBuffer.allocate(HeaderSize)
+    buffer.putInt(Magic).putInt(Version)
+    buffer.flip()
+    buffer
+  }
+
+  private def writeFully(channel: FileChannel, buffer: ByteBuffer): Unit =
+    while (buffer.hasRemaining) {
+      channel.write(buffer)
+      ()
+    }
+
+  private def validHeader(buffer: ByteBuffer): Boolean =
+    buffer.limit() >= HeaderSize && buffer.getInt(0) == Magic && buffer.getInt(4) == Version
+
+  // length, path, last modified, size, key, hash, crc
+  private def recordSize(path: String, key: AnyRef): Int =
+    4 + 4 + utf8(path).length + 8 + 8 + 4 + utf8(keyOf(key)).length + 4 + 8
+
+  private def utf8(s: String): Array[Byte] = s.getBytes(StandardCharsets.UTF_8)
+
+  private def writeRecord(buffer: ByteBuffer, e: Entry): Unit = {
+    val path = utf8(e.path)
+    val key = utf8(e.key)
+    val start = buffer.position()
+    buffer.putInt(recordSize(e.path, e.key) - 4)
+    buffer.putInt(path.length).put(path)
+    buffer.putLong(e.lastModified).putLong(e.size)
+    buffer.putInt(key.length).put(key)
+    buffer.putInt(e.hash)
+    val crc = new CRC32
+    crc.update(buffer.array, start, buffer.position() - start)
+    buffer.putLong(crc.getValue)
+    ()
+  }
+
+  /** Reads the next record, or returns None if it is incomplete or corrupted. */
+  private def readRecord(buffer: ByteBuffer): Option[Entry] = {
+    val start = buffer.position()
+    if (buffer.remaining < 4) return None
+    val length = buffer.getInt()
+    if (length < 36 || buffer.remaining < length) return None
+    // the checksum covers the length and the fields, but not itself
+    val checked = new Array[Byte](4 + length - 8)
+    buffer.position(start)
+    buffer.get(checked)
+    val crc = new CRC32
+    crc.update(checked, 0, checked.length)
+    if (buffer.getLong() != crc.getValue) {
+      buffer.position(start)
+      return None
+    }
+    val record = ByteBuffer.wrap(checked, 4, checked.length - 4)
+    val path = new Array[Byte](record.getInt())
+    record.get(path)
+    val lastModified = record.getLong()
+    val size = record.getLong()
+    val key = new Array[Byte](record.getInt())
+    record.get(key)
+    val hash = record.getInt()
+    Some(
+      Entry(
+        new String(path, StandardCharsets.UTF_8),
+        lastModified,
+        size,
+        new String(key, StandardCharsets.UTF_8),
+        hash
+      )
+    )
+  }
+}
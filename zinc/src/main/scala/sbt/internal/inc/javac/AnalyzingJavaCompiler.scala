@@ -18,7 +18,12 @@ import java.nio.file.Path
 import java.net.URLClassLoader
 
 import sbt.internal.inc.JavaInterfaceUtil._
-import sbt.internal.inc.classfile.JavaAnalyze
+import sbt.internal.inc.classfile.{
+  ClassFile,
+  ClassFileLocator,
+  JavaAnalyze,
+  JavaBytecodeAnalyze
+}
 import sbt.internal.inc.classpath.ClasspathUtil
 import xsbti.compile._
 import xsbti.{
@@ -48,6 +53,8 @@ import sbt.util.Logger
  *                         returns false always only for Java compilers.
  * @param classLookup The mechanism to map class files to classpath entries.
  * @param searchClasspath The classpath used to look for binary dependencies.
+ * @param bytecodeAnalysis Whether the compiled classes are analyzed from their class files
+ *                         in parallel, instead of being loaded and read through reflection.
  */
 final class AnalyzingJavaCompiler private[sbt] (
     val javac: xsbti.compile.JavaCompiler,
@@ -55,9 +62,20 @@ final class AnalyzingJavaCompiler private[sbt] (
     val scalaInstance: xsbti.compile.ScalaInstance,
     val classpathOptions: ClasspathOptions,
     val classLookup: (String => Option[VirtualFile]),
-    val searchClasspath: Seq[VirtualFile]
+    val searchClasspath: Seq[VirtualFile],
+    val bytecodeAnalysis: Boolean
 ) extends JavaCompiler {
 
+  private[sbt] def this(
+      javac: xsbti.compile.JavaCompiler,
+      classpath: Seq[VirtualFile],
+      scalaInstance: xsbti.compile.ScalaInstance,
+      classpathOptions: ClasspathOptions,
+      classLookup: (String => Option[VirtualFile]),
+      searchClasspath: Seq[VirtualFile]
+  ) =
+    this(javac, classpath, scalaInstance, classpathOptions, classLookup, searchClasspath, false)
+
   override def supportsDirectToJar: Boolean = javac.supportsDirectToJar
 
   // // for compatibility
@@ -196,35 +214,62 @@ final class AnalyzingJavaCompiler private[sbt] (
         progress.startUnit(javaAnalysisPhase, "")
         progress.advance(1, 2, javaCompilationPhase, javaAnalysisPhase)
       }
-      // Construct class loader to analyze dependencies of generated class files
-      val loader = ClasspathUtil.toLoader(
-        output.getSingleOutputAsPath.toOption.toSeq ++
-          (extraClasspath ++ searchClasspath).map(converter.toPath)
-      )
+      val analysisClasspath = output.getSingleOutputAsPath.toOption.toSeq ++
+        (extraClasspath ++ searchClasspath).map(converter.toPath)
+
+      def forNewClasses(analyze: (Seq[Path], Seq[VirtualFile]) => Unit): Unit =
+        timed(javaAnalysisPhase, log) {
+          for {
+            (classFinder, oldClasses, srcs) <- memo
+          } {
+            val classes = classFinder.classes
+            try {
+              val newClasses = Set(classes.paths: _*) -- oldClasses
+              analyze(newClasses.toSeq, srcs)
+            } finally classes.close()
+          }
+        }
 
-      timed(javaAnalysisPhase, log) {
-        for {
-          (classFinder, oldClasses, srcs) <- memo
-        } {
-          val classes = classFinder.classes
-          try {
-            val newClasses = Set(classes.paths: _*) -- oldClasses
-            JavaAnalyze(newClasses.toSeq, srcs, log, output, finalJarOutput)(
+      if (bytecodeAnalysis) {
+        // Locate the class files of dependencies without loading any class
+        val locator =
+          new ClassFileLocator(analysisClasspath, ClasspathUtil.rootLoader, finalJarOutput, log)
+        def extractAPI(classes: Seq[ClassFile]) = ClassFileToAPI.process(classes, locator.classFile)
+        def reportAPI(
+            source: VirtualFileRef,
+            extracted: (Seq[xsbti.api.ClassLike], Seq[String], Set[(String, String)])
+        ): Set[(String, String)] = {
+          val (apis, mainClasses, inherits) = extracted
+          apis.foreach(callback.api(source, _))
+          mainClasses.foreach(callback.mainClass(source, _))
+          inherits
+        }
+        try {
+          forNewClasses { (newClasses, srcs) =>
+            JavaBytecodeAnalyze(newClasses, srcs, log, output, finalJarOutput)(
               callback,
-              loader,
-              readAPI
+              locator,
+              extractAPI,
+              reportAPI
             )
-          } finally classes.close()
+          }
+        } finally locator.close()
+      } else {
+        // Construct class loader to analyze dependencies of generated class files
+        val loader = ClasspathUtil.toLoader(analysisClasspath)
+
+        forNewClasses { (newClasses, srcs) =>
+          JavaAnalyze(newClasses, srcs, log, output, finalJarOutput)(callback, loader, readAPI)
         }
-      }
 
-      // After using the classloader it should be closed. Otherwise it will keep the accessed
-      // jars open. Especially, when zinc is compiling directly to jar, that jar will be locked
-      // not allowing to change it in further compilation cycles (on Windows).
-      // This also affects jars in the classpath that come from dependency resolution.
-      loader match {
-        case u: URLClassLoader => u.close()
-        case _                 => ()
+        // After using the classloader it should be closed. Otherwise it will keep the accessed
+        // jars open. Especially, when zinc is compiling directly to jar, that jar will be locked
+        // not allowing to change it in further compilation cycles (on Windows).
+        // This also affects jars in the classpath that come from dependency resolution.
+        loader match {
+          case u: URLClassLoader => u.close()
+          case _                 => ()
+        }
       }
 
       // Report that we reached the end
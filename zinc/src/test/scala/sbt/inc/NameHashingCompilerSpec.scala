@@ -14,13 +14,16 @@ package sbt.inc
 import java.nio.charset.StandardCharsets
 import java.nio.file.{ Files, Paths }
 
+import sbt.internal.inc.Analysis
 import sbt.io.IO
+import xsbti.compile.IncOptionsUtil
 
 class NameHashingCompilerSpec extends BaseCompilerSpec {
   def testIncrementalCompilation(
       changes: Seq[(String, String => String)],
       transitiveChanges: Set[String],
-      optimizedSealed: Boolean = true
+      optimizedSealed: Boolean = true,
+      streaming: Boolean = false
   ) = {
     val nahaPath = Paths.get("naha")
     IO.withTemporaryDirectory { tempDir =>
@@ -32,9 +35,17 @@ class NameHashingCompilerSpec extends BaseCompilerSpec {
 
       val compilerSetup = {
         val default = projectSetup.createCompiler()
-        if (optimizedSealed)
-          default.copy(incOptions = default.incOptions.withUseOptimizedSealed(true))
-        else default
+        val optimized =
+          if (optimizedSealed)
+            default.copy(incOptions = default.incOptions.withUseOptimizedSealed(true))
+          else default
+        if (streaming) {
+          // The APIs are not stored, so that streaming mode drops them once they are hashed
+          val incOptions = IncOptionsUtil
+            .withExtra(optimized.incOptions, IncOptionsUtil.STREAMING_ANALYSIS, "true")
+            .withStoreApis(false)
+          optimized.copy(incOptions = incOptions)
+        } else optimized
       }
 
       val result = compilerSetup.doCompile()
@@ -61,6 +72,30 @@ class NameHashingCompilerSpec extends BaseCompilerSpec {
     }
   }
 
+  /** Compiles the project, and returns the API hashes of its classes. */
+  def compileApiHashes(pipelinedApiHashing: Boolean) = {
+    val nahaPath = Paths.get("naha")
+    IO.withTemporaryDirectory { tempDir =>
+      val projectSetup = ProjectSetup(
+        VirtualSubproject(tempDir.toPath),
+        Map(nahaPath -> SourceFiles.Naha.all.map(nahaPath.resolve)),
+        Nil
+      )
+      val default = projectSetup.createCompiler()
+      val incOptions = IncOptionsUtil.withExtra(
+        default.incOptions,
+        IncOptionsUtil.PIPELINED_API_HASHING,
+        pipelinedApiHashing.toString
+      )
+      val analysis = default.copy(incOptions = incOptions).doCompile().analysis
+      analysis.asInstanceOf[Analysis].apis.internal.map {
+        case (className, api) =>
+          val nameHashes = api.nameHashes.map(h => (h.name, h.scope, h.hash)).toSet
+          className -> ((api.apiHash, api.extraHash, nameHashes, api.hasMacro))
+      }
+    }
+  }
+
   def changeImplicitMemberType(in: String) = in.replace("\"implicitMemberValue\"", "42")
   def changeStandardMemberType(in: String) = in.replace("\"standardMemberValue\"", "42")
   def changeOtherSealedType(in: String) =
@@ -129,4 +164,34 @@ class NameHashingCompilerSpec extends BaseCompilerSpec {
     // )
   }
 
+  it should "invalidate the same sources when streaming the analysis" in {
+    testIncrementalCompilation(changes = Seq(), transitiveChanges = Set(), streaming = true)
+    testIncrementalCompilation(
+      changes = Seq(WithImplicits -> changeImplicitMemberType),
+      transitiveChanges =
+        Set(ClientWithImplicitUsed, ClientWithImplicitNotUsed, ClientWithoutImplicit),
+      streaming = true
+    )
+    testIncrementalCompilation(
+      changes = Seq(NormalDependecy -> changeImplicitMemberType),
+      transitiveChanges = Set(ClientWithImplicitUsed, ClientWithImplicitNotUsed),
+      streaming = true
+    )
+    testIncrementalCompilation(
+      changes = Seq(Other3 -> changeImplicitMemberType),
+      transitiveChanges = Set(),
+      streaming = true
+    )
+    testIncrementalCompilation(
+      changes = Seq(Other -> changeOtherSealedType),
+      transitiveChanges = Set(Other2, Other3),
+      streaming = true
+    )
+  }
+
+  it should "hash the same APIs when hashing them on worker threads" in {
+    val hashes = compileApiHashes(pipelinedApiHashing = false)
+    hashes should not be empty
+    compileApiHashes(pipelinedApiHashing = true) shouldBe hashes
+  }
 }
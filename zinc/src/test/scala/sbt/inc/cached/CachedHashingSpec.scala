@@ -12,7 +12,9 @@
 package sbt.inc
 package cached
 
-import java.nio.file.Paths
+import java.nio.file.{ Paths, StandardOpenOption }
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.TimeUnit
 import sbt.internal.inc.{
   Analysis,
   CompileOutput,
@@ -20,6 +22,7 @@ import sbt.internal.inc.{
   MixedAnalyzingCompiler,
   PlainVirtualFile
 }
+import sbt.internal.inc.caching.{ ClasspathCache, ClasspathHashIndex }
 import sbt.io.IO
 
 import scala.collection.JavaConverters.asScalaIteratorConverter
@@ -98,6 +101,64 @@ class CachedHashingSpec extends BaseCompilerSpec {
     }
   }
 
+  it should "share jar hashes through a persistent index" in {
+    IO.withTemporaryDirectory { tempDir =>
+      import java.nio.file.{ Files, StandardCopyOption }
+      val jars = (1 to 3).map { i =>
+        val jar = tempDir.toPath.resolve(s"lib$i.jar")
+        Files.write(jar, Array.fill(64 * i)(i.toByte))
+        jar
+      }
+      val indexFile = tempDir.toPath.resolve("index").resolve("hashes.idx")
+      val index = ClasspathHashIndex(indexFile)
+      val hashes = ClasspathCache.hashClasspath(jars, Some(index))
+      assert(Files.exists(indexFile))
+
+      def metadata(jar: java.nio.file.Path) = {
+        val attrs = Files.readAttributes(jar, classOf[BasicFileAttributes])
+        (attrs.lastModifiedTime.to(TimeUnit.NANOSECONDS), attrs.size, attrs.fileKey)
+      }
+
+      // A copy of the index is read from scratch, as another JVM would do
+      val copy = tempDir.toPath.resolve("copy.idx")
+      Files.copy(indexFile, copy, StandardCopyOption.REPLACE_EXISTING)
+      val other = ClasspathHashIndex(copy)
+      other.refresh()
+      jars.zip(hashes).foreach {
+        case (jar, hash) =>
+          val (time, size, key) = metadata(jar)
+          assert(other.lookup(jar, time, size, key) === Some(hash.hash))
+          assert(other.lookup(jar, time, size + 1, key) === None)
+      }
+
+      // A torn record at the end of the index is ignored by a fresh reader
+      val tornFile = tempDir.toPath.resolve("torn.idx")
+      Files.copy(indexFile, tornFile, StandardCopyOption.REPLACE_EXISTING)
+      Files.write(tornFile, Array[Byte](0, 0, 0, 100, 1, 2), StandardOpenOption.APPEND)
+      val torn = ClasspathHashIndex(tempDir.toPath.resolve(".").resolve("torn.idx"))
+      assert(torn eq ClasspathHashIndex(tornFile))
+      torn.refresh()
+      jars.zip(hashes).foreach {
+        case (jar, hash) =>
+          val (time, size, key) = metadata(jar)
+          assert(torn.lookup(jar, time, size, key) === Some(hash.hash))
+      }
+
+      // and truncated by the next writer, so that its records are not hidden behind it
+      val extra = tempDir.toPath.resolve("lib4.jar")
+      Files.write(extra, Array.fill(256)(4.toByte))
+      val (extraTime, extraSize, extraKey) = metadata(extra)
+      torn.append(Seq((extra, extraTime, extraSize, extraKey, 42)))
+      val reread = tempDir.toPath.resolve("reread.idx")
+      Files.copy(tornFile, reread, StandardCopyOption.REPLACE_EXISTING)
+      val fresh = ClasspathHashIndex(reread)
+      fresh.refresh()
+      assert(fresh.lookup(extra, extraTime, extraSize, extraKey) === Some(42))
+      val (time, size, key) = metadata(jars.head)
+      assert(fresh.lookup(jars.head, time, size, key) === Some(hashes.head.hash))
+    }
+  }
+
   // it should "fall back when the JAR metadata is changed" in {
   //   IO.withTemporaryDirectory { tempDir =>
   //     import java.nio.file.{ Files, Path, Paths, StandardCopyOption }
@@ -0,0 +1,51 @@
+/*
+ * Zinc - The incremental compiler for Scala.
+ * Copyright Lightbend, Inc. and Mark Harrah
+ *
+ * Licensed under Apache License 2.0
+ * (http://www.apache.org/licenses/LICENSE-2.0).
+ *
+ * See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ */
+
+package sbt
+package internal
+package inc
+
+import sbt.internal.inc.Analysis.NonLocalProduct
+import xsbti.VirtualFileRef
+
+class LookupImplSpec extends UnitSpec {
+  private def analysis(classNames: String*): Analysis =
+    classNames.foldLeft(Analysis.empty) { (analysis, name) =>
+      val stamp = FarmHash.fromLong(1L)
+      analysis.addSource(
+        VirtualFileRef.of(s"src/$name.scala"),
+        Nil,
+        stamp,
+        SourceInfos.emptyInfo,
+        NonLocalProduct(name, name, VirtualFileRef.of(s"out/$name.class"), stamp) :: Nil,
+        Nil,
+        Nil,
+        Nil,
+        Nil
+      )
+    }
+
+  "LookupImpl.firstProducing" should "find the first analysis that produces a class" in {
+    val analyses = Vector(analysis("p.A", "p.Shared"), analysis("p.B", "p.Shared"))
+    assert(LookupImpl.firstProducing(analyses, "p.Shared").exists(_ eq analyses(0)))
+    assert(LookupImpl.firstProducing(analyses, "p.B").exists(_ eq analyses(1)))
+    assert(LookupImpl.firstProducing(analyses, "p.C") === None)
+  }
+
+  it should "find the classes of compact relations" in {
+    val analyses = Vector(analysis("p.A"), analysis("p.B", "p.Shared")).map { a =>
+      a.copy(relations = CompactRelations(a.relations))
+    }
+    assert(LookupImpl.firstProducing(analyses, "p.Shared").exists(_ eq analyses(1)))
+    assert(!analyses(0).relations.producesClassName("p.Shared"))
+    assert(LookupImpl.firstProducing(analyses, "p.C") === None)
+  }
+}